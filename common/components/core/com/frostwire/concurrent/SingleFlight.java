@@ -0,0 +1,70 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coalesces concurrent calls for the same key, the first caller runs the task
+ * in its own thread and the rest wait for it and share the result.
+ *
+ * Nothing is remembered once the task is done, a later call runs it again.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, FutureTask<V>> calls;
+
+    public SingleFlight() {
+        this.calls = new ConcurrentHashMap<K, FutureTask<V>>();
+    }
+
+    public V execute(K key, Callable<V> task) throws Exception {
+        FutureTask<V> call = new FutureTask<V>(task);
+        FutureTask<V> inflight = calls.putIfAbsent(key, call);
+
+        if (inflight == null) {
+            try {
+                call.run();
+            } finally {
+                calls.remove(key, call);
+            }
+            inflight = call;
+        }
+
+        try {
+            return inflight.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw e;
+            }
+        }
+    }
+}
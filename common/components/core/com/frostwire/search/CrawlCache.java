@@ -18,6 +18,8 @@
 package com.frostwire.search;
 
 /**
+ * Implementations must be thread safe, the cache is used by all the search
+ * threads at the same time.
  * 
  * @author gubatron
  * @author aldenml
@@ -34,4 +36,9 @@ public interface CrawlCache {
     public void clear();
 
     public long size();
+
+    /**
+     * @return bytes dropped by the cache since it was created, expired or over its size
+     */
+    public long getBytesEvicted();
 }
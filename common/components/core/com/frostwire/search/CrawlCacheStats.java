@@ -0,0 +1,77 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the crawl cache lookups of one search, shared by the performers
+ * of the search. What the caches drop is counted by the caches themselves, an
+ * eviction is not something a search does.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class CrawlCacheStats {
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong bytesServed;
+
+    public CrawlCacheStats() {
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.bytesServed = new AtomicLong();
+    }
+
+    public void hit(long bytes) {
+        hits.incrementAndGet();
+        bytesServed.addAndGet(bytes);
+    }
+
+    public void miss() {
+        misses.incrementAndGet();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    /**
+     * @return hits over lookups, 0 if there were no lookups
+     */
+    public float getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total > 0 ? ((float) h) / total : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "CrawlCacheStats(hits: " + hits.get() + ", misses: " + misses.get() + ", served: " + bytesServed.get() + ")";
+    }
+}
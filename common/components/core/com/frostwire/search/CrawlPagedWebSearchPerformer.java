@@ -19,9 +19,13 @@
 package com.frostwire.search;
 
 import java.util.List;
+import java.util.concurrent.Callable;
 
+import com.frostwire.concurrent.SingleFlight;
 import com.frostwire.logging.Logger;
 import com.frostwire.search.domainalias.DomainAliasManager;
+import com.frostwire.search.domainalias.DomainHealth;
+import com.frostwire.search.torrent.TorrentCrawlableSearchResult;
 import com.frostwire.util.OSUtils;
 
 /**
@@ -37,13 +41,20 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
     private static final int DEFAULT_MAGNET_DOWNLOAD_TIMEOUT = OSUtils.isAndroid() ? 4000 : 20000; // 4 seconds for android, 20 seconds for desktop
 
     private static CrawlCache cache = null;
+    private static final SingleFlight<String, byte[]> downloads = new SingleFlight<String, byte[]>();
+
+    // only the latency of the magnets found, a magnet not found says nothing about the DHT.
+    // since the slow ones never make it to the history, the timeout doesn't go below half the default
+    private static final DomainHealth magnetHealth = new DomainHealth("magnet");
     private static MagnetDownloader magnetDownloader = null;
 
     private int numCrawls;
+    private volatile CrawlCacheStats cacheStats;
 
     public CrawlPagedWebSearchPerformer(DomainAliasManager domainAliasManager, long token, String keywords, int timeout, int pages, int numCrawls) {
         super(domainAliasManager, token, keywords, timeout, pages);
         this.numCrawls = numCrawls;
+        this.cacheStats = new CrawlCacheStats();
     }
 
     public static void setCache(CrawlCache cache) {
@@ -71,25 +82,8 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
                 if (url != null) {
                     byte[] data = cacheGet(url);
 
-                    if (data == null) { // not a big deal about synchronization here
-                        LOG.debug("Downloading data for: " + url);
-
-                        if (url.startsWith("magnet")) {
-                            data = fetchMagnet(url);
-                        } else {
-                            data = fetchBytes(url, sr.getDetailsUrl(), DEFAULT_CRAWL_TIMEOUT);
-                        }
-
-                        //we put this here optimistically hoping this is actually
-                        //valid data. if no data can be crawled from this we remove it
-                        //from the cache. we do this because this same data may come
-                        //from another search engine and this way we avoid the
-                        //expense of performing another download.
-                        if (data != null) {
-                            cachePut(url, data);
-                        } else {
-                            LOG.warn("Failed to download data: " + url);
-                        }
+                    if (data == null) {
+                        data = download(obj, url);
                     }
 
                     try {
@@ -117,13 +111,108 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
         }
     }
 
+    /**
+     * Downloads the data to crawl, if another performer is already downloading
+     * the same url (same torrent or magnet from a different engine) this waits
+     * for it and uses the same data.
+     * 
+     * @param sr
+     * @param url
+     * @return
+     */
+    private byte[] download(final T sr, final String url) {
+        try {
+            return downloads.execute(url, new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    // the previous download could have finished just before, the
+                    // lookup of crawl() is the one counted in the stats
+                    byte[] data = cachePeek(url);
+                    if (data != null) {
+                        return data;
+                    }
+
+                    LOG.debug("Downloading data for: " + url);
+
+                    if (url.startsWith("magnet")) {
+                        data = fetchMagnet(url);
+                    } else {
+                        data = fetchBytes(url, sr.getDetailsUrl(), DEFAULT_CRAWL_TIMEOUT);
+                    }
+
+                    data = toCacheData(sr, data);
+
+                    //we put this here optimistically hoping this is actually
+                    //valid data. if no data can be crawled from this we remove it
+                    //from the cache. we do this because this same data may come
+                    //from another search engine and this way we avoid the
+                    //expense of performing another download.
+                    if (data != null) {
+                        cachePut(url, data);
+                    } else {
+                        LOG.warn("Failed to download data: " + url);
+                    }
+
+                    return data;
+                }
+            });
+        } catch (Throwable e) {
+            LOG.warn("Error downloading data: " + url + ", e=" + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public String getTaskHost(CrawlableSearchResult sr) {
+        if (sr == null) {
+            return super.getTaskHost(null);
+        }
+
+        try {
+            String url = getCrawlUrl(cast(sr));
+            // the magnets go to the DHT, not to a host
+            return url != null && !url.startsWith("magnet") ? getHost(url) : null;
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
     protected abstract String getCrawlUrl(T sr);
 
     protected abstract List<? extends SearchResult> crawlResult(T sr, byte[] data) throws Exception;
 
+    /**
+     * Torrents are kept in the cache as compact crawl records (file paths and sizes)
+     * so a cache hit doesn't need to parse the whole bencoded torrent again.
+     * 
+     * @param sr
+     * @param data
+     * @return the data to cache and crawl, null if not valid
+     */
+    protected byte[] toCacheData(T sr, byte[] data) {
+        if (data != null && sr instanceof TorrentCrawlableSearchResult) {
+            try {
+                data = PerformersHelper.toTorrentCrawlRecord(data);
+            } catch (Throwable e) {
+                LOG.warn("Error reading torrent data from: " + sr.getDetailsUrl() + ", e=" + e.getMessage());
+                data = null;
+            }
+        }
+
+        return data;
+    }
+
     protected byte[] fetchMagnet(String magnet) {
         if (magnetDownloader != null) {
-            return magnetDownloader.download(magnet, DEFAULT_MAGNET_DOWNLOAD_TIMEOUT);
+            int timeout = Math.max(DEFAULT_MAGNET_DOWNLOAD_TIMEOUT / 2, magnetHealth.getTimeout(DEFAULT_MAGNET_DOWNLOAD_TIMEOUT));
+            long start = System.currentTimeMillis();
+            byte[] data = magnetDownloader.download(magnet, timeout);
+            if (data != null) {
+                magnetHealth.onSuccess(System.currentTimeMillis() - start);
+            } else {
+                magnetHealth.onTimeout(timeout);
+            }
+            return data;
         } else {
             LOG.warn("Magnet downloader not set, download not supported: " + magnet);
             return null;
@@ -132,27 +221,32 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
 
     private byte[] cacheGet(String key) {
         if (cache != null) {
-            synchronized (cache) {
-                return cache.get(key);
+            byte[] data = cache.get(key);
+            if (data != null) {
+                cacheStats.hit(data.length);
+            } else {
+                cacheStats.miss();
             }
+            return data;
         } else {
             return null;
         }
     }
 
+    // not counted in the stats
+    private byte[] cachePeek(String key) {
+        return cache != null ? cache.get(key) : null;
+    }
+
     private void cachePut(String key, byte[] data) {
         if (cache != null) {
-            synchronized (cache) {
-                cache.put(key, data);
-            }
+            cache.put(key, data);
         }
     }
 
     private void cacheRemove(String key) {
         if (cache != null) {
-            synchronized (cache) {
-                cache.remove(key);
-            }
+            cache.remove(key);
         }
     }
 
@@ -169,19 +263,33 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
 
     public static void clearCache() {
         if (cache != null) {
-            synchronized (cache) {
-                cache.clear();
-            }
+            cache.clear();
         }
     }
 
     public static long getCacheSize() {
         long result = 0;
         if (cache != null) {
-            synchronized (cache) {
-                result = cache.size();
-            }
+            result = cache.size();
         }
         return result;
     }
+
+    public static long getCacheBytesEvicted() {
+        return cache != null ? cache.getBytesEvicted() : 0;
+    }
+
+    public CrawlCacheStats getCacheStats() {
+        return cacheStats;
+    }
+
+    /**
+     * The counters of the cache lookups, usually one instance shared by all
+     * the performers of a search.
+     * 
+     * @param cacheStats
+     */
+    public void setCacheStats(CrawlCacheStats cacheStats) {
+        this.cacheStats = cacheStats;
+    }
 }
\ No newline at end of file
@@ -20,8 +20,19 @@ package com.frostwire.search;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import com.frostwire.concurrent.DefaultThreadFactory;
+import com.frostwire.logging.Logger;
 import com.frostwire.search.domainalias.DomainAliasManager;
 
 /**
@@ -31,34 +42,164 @@ import com.frostwire.search.domainalias.DomainAliasManager;
  */
 public abstract class PagedWebSearchPerformer extends WebSearchPerformer {
 
+    private static final Logger LOG = Logger.getLogger(PagedWebSearchPerformer.class);
+
+    private static final ExecutorService pageExecutor = newPageExecutor();
+
     private final int pages;
+    private final LinkedList<PageFetch> fetches;
+
+    private int pageFetchConcurrency;
+    private volatile SearchManagerImpl manager;
 
     public PagedWebSearchPerformer(DomainAliasManager domainAliasManager, long token, String keywords, int timeout, int pages) {
         super(domainAliasManager, token, keywords, timeout);
         this.pages = pages;
+        this.fetches = new LinkedList<PageFetch>();
+        this.pageFetchConcurrency = 1;
+    }
+
+    public int getPageFetchConcurrency() {
+        return pageFetchConcurrency;
+    }
+
+    /**
+     * Number of pages fetched at the same time, by default one page at a time.
+     * The pages fetched ahead take free slots of the host in the search manager,
+     * when there is none the page is fetched in turn by the search task. The
+     * results are always delivered in page order and the fetches stop after the
+     * first empty page.
+     * 
+     * @param pageFetchConcurrency
+     */
+    public void setPageFetchConcurrency(int pageFetchConcurrency) {
+        this.pageFetchConcurrency = pageFetchConcurrency;
+    }
+
+    /**
+     * Set by the search manager running this performer, only then the pages
+     * are fetched ahead.
+     */
+    void setSearchManager(SearchManagerImpl manager) {
+        this.manager = manager;
     }
 
     @Override
     public void perform() {
-        for (int i = 1; !isStopped() && i <= pages; i++) {
-            onResults(this, searchPage(i));
+        if (!getDomainAliasManager().isAvailable(getDomainNameToUse())) {
+            LOG.debug("Skipping search, too many failures for " + getDomainNameToUse());
+            return;
+        }
+
+        SearchManagerImpl manager = this.manager;
+        String host = getTaskHost(null);
+
+        if (pageFetchConcurrency > 1 && pages > 1 && manager != null && host != null) {
+            performPipelined(manager, host);
+        } else {
+            for (int i = 1; !isStopped() && i <= pages; i++) {
+                onResults(this, searchPage(i));
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        cancelFetches();
+    }
+
+    private void performPipelined(SearchManagerImpl manager, String host) {
+        int next = 1;
+
+        try {
+            while (!isStopped()) {
+                PageFetch fetch;
+
+                synchronized (fetches) {
+                    while (next <= pages && fetches.size() < pageFetchConcurrency) {
+                        fetches.add(new PageFetch(next++, manager, host));
+                    }
+                    fetch = fetches.poll();
+
+                    // the next pages go ahead while the host has free slots
+                    for (PageFetch f : fetches) {
+                        if (!f.submit(pageExecutor)) {
+                            break;
+                        }
+                    }
+                }
+
+                if (fetch == null) {
+                    break; // all pages delivered
+                }
+
+                if (!fetch.isSubmitted()) {
+                    fetch.run(); // in turn, with the slot of this task
+                }
+
+                List<? extends SearchResult> results;
+                try {
+                    results = fetch.get();
+                } catch (ExecutionException e) {
+                    LOG.warn("Error fetching search page " + fetch.page + ": " + e.getMessage());
+                    continue; // skip it, the next pages can still have results
+                }
+
+                if (results.isEmpty()) {
+                    break; // no more pages
+                }
+
+                if (!isStopped()) {
+                    onResults(this, results);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (CancellationException e) {
+            // canceled by stop
+        } finally {
+            cancelFetches();
+        }
+    }
+
+    private void cancelFetches() {
+        synchronized (fetches) {
+            for (PageFetch f : fetches) {
+                f.cancel(true);
+            }
+            fetches.clear();
         }
     }
 
     protected List<? extends SearchResult> searchPage(int page) {
         List<? extends SearchResult> result = Collections.emptyList();
         try {
-            String url = getUrl(page, getEncodedKeywords());
-            String text = fetchSearchPage(url);
-            if (text != null) {
-                result = searchPage(text);
-            }
+            result = fetchPage(page);
         } catch (Throwable e) {
             checkAccesibleDomains();
         }
         return result;
     }
 
+    /**
+     * Same as {@link #searchPage(int)} but the errors are thrown, used for the pages
+     * fetched ahead, where a failed page is skipped and only an empty page means there
+     * are no more.
+     *
+     * @param page
+     * @return
+     * @throws IOException
+     */
+    protected List<? extends SearchResult> fetchPage(int page) throws IOException {
+        String url = getUrl(page, getEncodedKeywords());
+        String text = fetchSearchPage(url);
+        if (text == null) {
+            throw new IOException("No response for search page: " + url);
+        }
+        return searchPage(text);
+    }
+
     protected String fetchSearchPage(String url) throws IOException {
         return fetch(url);
     }
@@ -66,4 +207,72 @@ public abstract class PagedWebSearchPerformer extends WebSearchPerformer {
     protected abstract String getUrl(int page, String encodedKeywords);
 
     protected abstract List<? extends SearchResult> searchPage(String page);
-}
\ No newline at end of file
+
+    /**
+     * Only threads, how many fetches run is bounded by the slots of the hosts.
+     */
+    private static ExecutorService newPageExecutor() {
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new DefaultThreadFactory("PagedWebSearchPerformer", true));
+    }
+
+    private final class PageFetch extends FutureTask<List<? extends SearchResult>> {
+
+        private final int page;
+        private final SearchManagerImpl manager;
+        private final String host;
+
+        private boolean submitted; // guarded by fetches
+
+        public PageFetch(final int page, SearchManagerImpl manager, String host) {
+            super(new Callable<List<? extends SearchResult>>() {
+                @Override
+                public List<? extends SearchResult> call() throws Exception {
+                    if (isStopped()) {
+                        return Collections.emptyList();
+                    }
+                    try {
+                        return fetchPage(page);
+                    } catch (Exception e) {
+                        checkAccesibleDomains();
+                        throw e;
+                    }
+                }
+            });
+            this.page = page;
+            this.manager = manager;
+            this.host = host;
+        }
+
+        /**
+         * Runs the fetch in background if it can take a free slot of the host.
+         * 
+         * @return false if there was no free slot
+         */
+        public boolean submit(ExecutorService executor) {
+            if (submitted) {
+                return true;
+            }
+            if (isDone() || !manager.tryAcquireHost(host)) {
+                return false;
+            }
+            submitted = true;
+            executor.execute(this);
+            return true;
+        }
+
+        public boolean isSubmitted() {
+            synchronized (fetches) {
+                return submitted;
+            }
+        }
+
+        @Override
+        protected void done() {
+            synchronized (fetches) {
+                if (submitted) {
+                    manager.releaseHost(host);
+                }
+            }
+        }
+    }
+}
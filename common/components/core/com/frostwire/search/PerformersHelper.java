@@ -17,15 +17,16 @@
 
 package com.frostwire.search;
 
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.List;
 
+import com.frostwire.search.torrent.TorrentCrawlRecord;
 import com.frostwire.search.torrent.TorrentCrawlableSearchResult;
 import com.frostwire.search.torrent.TorrentCrawledSearchResult;
 import com.frostwire.torrent.TOTorrent;
 import com.frostwire.torrent.TOTorrentException;
-import com.frostwire.torrent.TOTorrentFile;
 import com.frostwire.torrent.TorrentUtils;
 
 /**
@@ -62,20 +63,44 @@ public final class PerformersHelper {
     /**
      * This method is only public allow reuse inside the package search, consider it a private API
      */
-    public static List<? extends SearchResult> crawlTorrent(SearchPerformer performer, TorrentCrawlableSearchResult sr, byte[] data) throws TOTorrentException {
+    public static List<? extends SearchResult> crawlTorrent(SearchPerformer performer, TorrentCrawlableSearchResult sr, byte[] data) throws TOTorrentException, IOException {
         List<TorrentCrawledSearchResult> list = new LinkedList<TorrentCrawledSearchResult>();
 
-        TOTorrent torrent = TorrentUtils.readFromBEncodedInputStream(new ByteArrayInputStream(data));
+        TorrentCrawlRecord record = readTorrentCrawlRecord(data);
 
-        if (torrent != null) {
-            TOTorrentFile[] files = torrent.getFiles();
+        if (record != null) {
+            int n = record.getFileCount();
 
-            for (int i = 0; !performer.isStopped() && i < files.length; i++) {
-                TOTorrentFile file = files[i];
-                list.add(new TorrentCrawledSearchResult(sr, file));
+            for (int i = 0; !performer.isStopped() && i < n; i++) {
+                list.add(new TorrentCrawledSearchResult(sr, record.getPath(i), record.getSize(i)));
             }
         }
 
         return list;
     }
+
+    /**
+     * This method is only public allow reuse inside the package search, consider it a private API
+     * 
+     * @param data the .torrent data or an already compacted record
+     * @return the compact crawl record to keep in the cache, null if the torrent is not valid
+     */
+    public static byte[] toTorrentCrawlRecord(byte[] data) throws TOTorrentException, IOException {
+        if (TorrentCrawlRecord.isRecord(data)) {
+            return data;
+        }
+
+        TorrentCrawlRecord record = readTorrentCrawlRecord(data);
+        return record != null ? record.toBytes() : null;
+    }
+
+    private static TorrentCrawlRecord readTorrentCrawlRecord(byte[] data) throws TOTorrentException, IOException {
+        if (TorrentCrawlRecord.isRecord(data)) {
+            return TorrentCrawlRecord.fromBytes(data);
+        }
+
+        // raw .torrent just downloaded, only the files are read
+        TOTorrent torrent = TorrentUtils.readFromBEncodedByteBuffer(ByteBuffer.wrap(data));
+        return torrent != null ? TorrentCrawlRecord.fromTorrent(torrent) : null;
+    }
 }
@@ -0,0 +1,306 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search;
+
+import java.util.AbstractList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A list kept sorted by a comparator, backed by a balanced tree (a treap) that
+ * knows the size of every subtree, so inserting in order, reading by position and
+ * removing by position all cost O(log n). Meant for the search results shown in a
+ * list view, where results keep arriving in any order and rows are read by index.
+ *
+ * The sort key of an element is read once when it's inserted and kept in its node,
+ * the order never depends on state that changes later. Elements without a key, or
+ * comparing equal to one already in the list, are not added. Not thread safe.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class RankedList<T> extends AbstractList<T> {
+
+    private final KeyFunction<? super T, ?> keyFunction;
+    private final Comparator<Object> comparator;
+    private final Map<T, Object> keys;
+    private final Random random;
+
+    private Node<T> root;
+
+    /**
+     * The elements are their own sort keys.
+     *
+     * @param comparator
+     */
+    public RankedList(Comparator<? super T> comparator) {
+        this(new KeyFunction<T, T>() {
+            @Override
+            public T getKey(T value) {
+                return value;
+            }
+        }, comparator);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <K> RankedList(KeyFunction<? super T, ? extends K> keyFunction, Comparator<? super K> comparator) {
+        this.keyFunction = keyFunction;
+        this.comparator = (Comparator<Object>) comparator;
+        this.keys = new IdentityHashMap<T, Object>();
+        this.random = new Random();
+    }
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    /**
+     * By identity, in constant time.
+     */
+    @Override
+    public boolean contains(Object o) {
+        return keys.containsKey(o);
+    }
+
+    @Override
+    public T get(int index) {
+        checkIndex(index);
+
+        Node<T> node = root;
+        while (true) {
+            int left = size(node.left);
+            if (index < left) {
+                node = node.left;
+            } else if (index == left) {
+                return node.value;
+            } else {
+                index -= left + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Inserts the element at its sorted position, same as {@link #insert(Object)}.
+     */
+    @Override
+    public boolean add(T value) {
+        return insert(value) >= 0;
+    }
+
+    /**
+     * Inserts the element at its sorted position.
+     *
+     * @param value
+     * @return the position, or -1 if it has no key, or it or an equal element is already in the list
+     */
+    public int insert(T value) {
+        if (keys.containsKey(value)) {
+            return -1;
+        }
+
+        return insert(value, keyFunction.getKey(value));
+    }
+
+    /**
+     * Moves an element already in the list to the position of its current key,
+     * for elements whose key changed after their insertion.
+     *
+     * @param value
+     * @return the new position, or -1 if the element isn't in the list, or it has no
+     *         key now or an equal element is in the list, in which case it isn't moved
+     */
+    public int reposition(T value) {
+        Object old = keys.get(value);
+        Object key = keyFunction.getKey(value);
+        if (old == null || key == null) {
+            return -1;
+        }
+
+        root = remove(root, indexOfKey(old));
+        keys.remove(value);
+
+        int index = insert(value, key);
+        if (index < 0) {
+            insert(value, old);
+        }
+
+        return index;
+    }
+
+    private int insert(T value, Object key) {
+        if (key == null) {
+            return -1;
+        }
+
+        int index = 0;
+        Node<T> node = root;
+        while (node != null) {
+            int c = comparator.compare(key, node.key);
+            if (c == 0) {
+                return -1;
+            } else if (c < 0) {
+                node = node.left;
+            } else {
+                index += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+
+        Node<T>[] parts = split(root, key);
+        root = merge(merge(parts[0], new Node<T>(value, key, random.nextInt())), parts[1]);
+        keys.put(value, key);
+        modCount++;
+
+        return index;
+    }
+
+    @Override
+    public T remove(int index) {
+        checkIndex(index);
+
+        T value = get(index);
+        root = remove(root, index);
+        keys.remove(value);
+        modCount++;
+
+        return value;
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+        keys.clear();
+        modCount++;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+    }
+
+    private int indexOfKey(Object key) {
+        int index = 0;
+        Node<T> node = root;
+        while (true) {
+            int c = comparator.compare(key, node.key);
+            if (c == 0) {
+                return index + size(node.left);
+            } else if (c < 0) {
+                node = node.left;
+            } else {
+                index += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    // parts[0] are the elements before key, parts[1] the rest
+    private Node<T>[] split(Node<T> node, Object key) {
+        @SuppressWarnings("unchecked")
+        Node<T>[] parts = new Node[2];
+
+        if (node == null) {
+            return parts;
+        }
+
+        if (comparator.compare(node.key, key) < 0) {
+            Node<T>[] r = split(node.right, key);
+            node.right = r[0];
+            parts[0] = update(node);
+            parts[1] = r[1];
+        } else {
+            Node<T>[] l = split(node.left, key);
+            node.left = l[1];
+            parts[0] = l[0];
+            parts[1] = update(node);
+        }
+
+        return parts;
+    }
+
+    // all elements of a go before all elements of b
+    private static <T> Node<T> merge(Node<T> a, Node<T> b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            return update(a);
+        } else {
+            b.left = merge(a, b.left);
+            return update(b);
+        }
+    }
+
+    private static <T> Node<T> remove(Node<T> node, int index) {
+        int left = size(node.left);
+        if (index < left) {
+            node.left = remove(node.left, index);
+        } else if (index == left) {
+            return merge(node.left, node.right);
+        } else {
+            node.right = remove(node.right, index - left - 1);
+        }
+        return update(node);
+    }
+
+    private static <T> Node<T> update(Node<T> node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        return node;
+    }
+
+    private static int size(Node<?> node) {
+        return node != null ? node.size : 0;
+    }
+
+    /**
+     * Gives the sort key of an element, or null if it shouldn't be in the list.
+     */
+    public interface KeyFunction<T, K> {
+
+        public K getKey(T value);
+    }
+
+    private static final class Node<T> {
+
+        final T value;
+        final Object key;
+        final int priority;
+
+        Node<T> left;
+        Node<T> right;
+        int size;
+
+        Node(T value, Object key, int priority) {
+            this.value = value;
+            this.key = key;
+            this.priority = priority;
+            this.size = 1;
+        }
+    }
+}
@@ -18,11 +18,15 @@
 package com.frostwire.search;
 
 import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -30,6 +34,10 @@ import com.frostwire.concurrent.DefaultThreadFactory;
 import com.frostwire.logging.Logger;
 
 /**
+ * Runs the search tasks in a priority pool. Page fetches (perform tasks) go
+ * before crawls, and no more than {@link #getMaxTasksPerHost()} tasks of the
+ * same host run at the same time, the rest wait in priority order without
+ * holding a worker. The host of a crawl is the one of the url it downloads.
  * 
  * @author gubatron
  * @author aldenml
@@ -40,15 +48,22 @@ public class SearchManagerImpl implements SearchManager {
     private static final Logger LOG = Logger.getLogger(SearchManagerImpl.class);
 
     private static final int DEFAULT_NTHREADS = 4;
+    private static final int DEFAULT_MAX_TASKS_PER_HOST = 2;
 
-    private final ExecutorService executor;
-    private final List<SearchTask> tasks;
+    private final ThreadPoolExecutor executor;
+    private final Set<SearchTask> tasks;
+    private final Map<Long, int[]> pending; // per token
+    private final Map<String, HostSlots> hosts;
 
     private SearchManagerListener listener;
+    private int maxTasksPerHost;
 
     public SearchManagerImpl(int nThreads) {
         this.executor = newFixedThreadPool(nThreads);
-        this.tasks = Collections.synchronizedList(new LinkedList<SearchTask>());
+        this.tasks = Collections.newSetFromMap(new ConcurrentHashMap<SearchTask, Boolean>());
+        this.pending = new HashMap<Long, int[]>();
+        this.hosts = new HashMap<String, HostSlots>();
+        this.maxTasksPerHost = DEFAULT_MAX_TASKS_PER_HOST;
     }
 
     public SearchManagerImpl() {
@@ -82,6 +97,42 @@ public class SearchManagerImpl implements SearchManager {
         executor.execute(task);
     }
 
+    public int getNumThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Resizes the pool, for example to use more threads when on a fast network.
+     * 
+     * @param nThreads
+     */
+    public void setNumThreads(int nThreads) {
+        if (nThreads <= 0 || nThreads == executor.getMaximumPoolSize()) {
+            return;
+        }
+
+        // keep core <= max at every step
+        if (nThreads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(nThreads);
+            executor.setCorePoolSize(nThreads);
+        } else {
+            executor.setCorePoolSize(nThreads);
+            executor.setMaximumPoolSize(nThreads);
+        }
+    }
+
+    public int getMaxTasksPerHost() {
+        synchronized (hosts) {
+            return maxTasksPerHost;
+        }
+    }
+
+    public void setMaxTasksPerHost(int maxTasksPerHost) {
+        synchronized (hosts) {
+            this.maxTasksPerHost = maxTasksPerHost;
+        }
+    }
+
     @Override
     public void stop() {
         stopTasks(-1L);
@@ -136,13 +187,9 @@ public class SearchManagerImpl implements SearchManager {
     }
 
     private void stopTasks(long token) {
-        synchronized (tasks) {
-            Iterator<SearchTask> it = tasks.iterator();
-            while (it.hasNext()) {
-                SearchTask task = it.next();
-                if (token == -1L || task.getToken() == token) {
-                    task.stop();
-                }
+        for (SearchTask task : tasks) {
+            if (token == -1L || task.getToken() == token) {
+                task.stop();
             }
         }
     }
@@ -161,61 +208,165 @@ public class SearchManagerImpl implements SearchManager {
     }
 
     void checkIfFinished(SearchPerformer performer) {
-        SearchTask pendingTask = null;
-
-        synchronized (tasks) {
-            Iterator<SearchTask> it = tasks.iterator();
-            while (it.hasNext() && pendingTask == null) {
-                SearchTask task = it.next();
-                if (task.getToken() == performer.getToken() && !task.isStopped()) {
-                    pendingTask = task;
-                }
+        boolean finished = false;
 
-                if (task.isStopped()) {
-                    it.remove();
-                }
+        synchronized (pending) {
+            int[] count = pending.get(performer.getToken());
+            if (count != null && --count[0] <= 0) {
+                pending.remove(performer.getToken());
+                finished = true;
             }
         }
 
-        if (pendingTask == null) {
+        if (finished) {
             onFinished(performer.getToken());
         }
     }
 
+    /**
+     * The order is the number of tasks of the same search still pending, this
+     * way the first tasks of a new search go before the crawls of an old one.
+     * 
+     * @param token
+     * @return
+     */
     private int getOrder(long token) {
-        int order = 0;
-        synchronized (tasks) {
-            Iterator<SearchTask> it = tasks.iterator();
-            while (it.hasNext()) {
-                SearchTask task = it.next();
-                if (task.getToken() == token) {
-                    order = order + 1;
+        synchronized (pending) {
+            int[] count = pending.get(token);
+            if (count == null) {
+                count = new int[1];
+                pending.put(token, count);
+            }
+            return count[0]++;
+        }
+    }
+
+    /**
+     * Takes a slot of the task's host, or parks the task until one is released.
+     * 
+     * @param task
+     * @return true if the task can run now
+     */
+    private boolean acquireHost(SearchTask task) {
+        String host = task.getHost();
+        if (host == null || task.hostSlot) {
+            return true;
+        }
+
+        synchronized (hosts) {
+            HostSlots slots = hosts.get(host);
+            if (slots == null) {
+                slots = new HostSlots();
+                hosts.put(host, slots);
+            }
+
+            if (slots.running < maxTasksPerHost) {
+                slots.running++;
+                task.hostSlot = true;
+                return true;
+            } else {
+                slots.waiting.add(task);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Takes a free slot of the host for work of a running task (a page fetched
+     * ahead), it never waits or parks.
+     * 
+     * @param host
+     * @return true if a slot was taken, release it with {@link #releaseHost(String)}
+     */
+    boolean tryAcquireHost(String host) {
+        synchronized (hosts) {
+            HostSlots slots = hosts.get(host);
+            if (slots == null) {
+                slots = new HostSlots();
+                hosts.put(host, slots);
+            }
+
+            if (slots.running < maxTasksPerHost && slots.waiting.isEmpty()) {
+                slots.running++;
+                return true;
+            } else {
+                return false;
+            }
+        }
+    }
+
+    private void releaseHost(SearchTask task) {
+        if (!task.hostSlot) {
+            return;
+        }
+
+        task.hostSlot = false;
+        releaseHost(task.getHost());
+    }
+
+    void releaseHost(String host) {
+        SearchTask next = null;
+
+        synchronized (hosts) {
+            HostSlots slots = hosts.get(host);
+            if (slots != null) {
+                next = slots.waiting.poll();
+                if (next != null) {
+                    next.hostSlot = true; // hand over the slot
+                } else if (--slots.running <= 0) {
+                    hosts.remove(host);
+                }
+            }
+        }
+
+        if (next != null) {
+            try {
+                executor.execute(next);
+            } catch (RejectedExecutionException e) {
+                // shutting down, the parked task will never run
+                releaseHost(next);
+                if (tasks.remove(next)) {
+                    checkIfFinished(next.performer);
                 }
             }
         }
-        return order;
     }
 
-    private static ExecutorService newFixedThreadPool(int nThreads) {
+    private static ThreadPoolExecutor newFixedThreadPool(int nThreads) {
         return new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), new DefaultThreadFactory("SearchManager", false));
     }
 
+    private static final class HostSlots {
+        public int running;
+        public final Queue<SearchTask> waiting = new PriorityQueue<SearchTask>();
+    }
+
     private static abstract class SearchTask implements Runnable, Comparable<SearchTask> {
 
         protected final SearchManagerImpl manager;
         protected final SearchPerformer performer;
+        private final int priority;
         private final int order;
+        private final String host;
+
+        volatile boolean hostSlot;
 
-        public SearchTask(SearchManagerImpl manager, SearchPerformer performer, int order) {
+        public SearchTask(SearchManagerImpl manager, SearchPerformer performer, CrawlableSearchResult sr, int priority, int order) {
             this.manager = manager;
             this.performer = performer;
+            this.priority = priority;
             this.order = order;
+            this.host = performer instanceof WebSearchPerformer ? ((WebSearchPerformer) performer).getTaskHost(sr) : null;
         }
 
         public long getToken() {
             return performer.getToken();
         }
 
+        public String getHost() {
+            return host;
+        }
+
         public boolean isStopped() {
             return performer.isStopped();
         }
@@ -224,55 +375,73 @@ public class SearchManagerImpl implements SearchManager {
             performer.stop();
         }
 
+        @Override
+        public final void run() {
+            if (!isStopped() && !manager.acquireHost(this)) {
+                return; // parked, it will be executed again when a slot of the host is free
+            }
+
+            try {
+                if (!isStopped()) {
+                    execute();
+                }
+            } finally {
+                manager.releaseHost(this);
+                if (manager.tasks.remove(this)) {
+                    manager.checkIfFinished(performer);
+                }
+            }
+        }
+
+        protected abstract void execute();
+
         @Override
         public int compareTo(SearchTask o) {
+            if (priority != o.priority) {
+                return priority - o.priority;
+            }
             return order - o.order;
         }
     }
 
     private static final class PerformTask extends SearchTask {
 
+        private static final int PRIORITY = 0;
+
         public PerformTask(SearchManagerImpl manager, SearchPerformer performer, int order) {
-            super(manager, performer, order);
+            super(manager, performer, null, PRIORITY, order);
         }
 
         @Override
-        public void run() {
+        protected void execute() {
             try {
-                if (!isStopped()) {
-                    performer.perform();
+                if (performer instanceof PagedWebSearchPerformer) {
+                    ((PagedWebSearchPerformer) performer).setSearchManager(manager);
                 }
+                performer.perform();
             } catch (Throwable e) {
                 LOG.warn("Error performing search: " + performer + ", e=" + e.getMessage());
-            } finally {
-                if (manager.tasks.remove(this)) {
-                    manager.checkIfFinished(performer);
-                }
             }
         }
     }
 
     private static final class CrawlTask extends SearchTask {
 
+        private static final int PRIORITY = 1;
+
         private final CrawlableSearchResult sr;
 
         public CrawlTask(SearchManagerImpl manager, SearchPerformer performer, CrawlableSearchResult sr, int order) {
-            super(manager, performer, order);
+            super(manager, performer, sr, PRIORITY, order);
             this.sr = sr;
         }
 
         @Override
-        public void run() {
+        protected void execute() {
             try {
-                if (!isStopped()) {
-                    performer.crawl(sr);
-                }
+                performer.crawl(sr);
             } catch (Throwable e) {
                 LOG.warn("Error performing crawling of: " + sr + ", e=" + e.getMessage());
-            } finally {
-                if (manager.tasks.remove(this)) {
-                    manager.checkIfFinished(performer);
-                }
             }
         }
     }
@@ -0,0 +1,181 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.frostwire.search.torrent.MergedTorrentSearchResult;
+import com.frostwire.search.torrent.TorrentCrawlableSearchResult;
+import com.frostwire.search.torrent.TorrentCrawledSearchResult;
+import com.frostwire.search.torrent.TorrentSearchResult;
+import com.frostwire.util.StringUtils;
+
+/**
+ * Per search index of the results already delivered, used to merge the same
+ * torrent coming from different engines. Torrents are keyed by info hash, the
+ * rest of the file results by normalized display name and size.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class SearchResultDedupIndex {
+
+    private final long token;
+
+    private final Map<String, TorrentEntry> torrents;
+    private final Set<String> keys;
+
+    public SearchResultDedupIndex(long token) {
+        this.token = token;
+        this.torrents = new HashMap<String, TorrentEntry>();
+        this.keys = new HashSet<String>();
+    }
+
+    public long getToken() {
+        return token;
+    }
+
+    /**
+     * Returns only the results not seen before in this search, duplicates
+     * are merged into the result already delivered.
+     *
+     * @param results
+     * @return
+     */
+    public List<SearchResult> dedup(List<? extends SearchResult> results) {
+        return dedup(results, new LinkedList<SearchResult>());
+    }
+
+    /**
+     * Same as {@link #dedup(List)}, the merged torrents already delivered that took
+     * a duplicate with more seeds as their main result are added to updated, their
+     * rank is no longer the same.
+     *
+     * @param results
+     * @param updated
+     * @return
+     */
+    public synchronized List<SearchResult> dedup(List<? extends SearchResult> results, List<SearchResult> updated) {
+        List<SearchResult> list = new LinkedList<SearchResult>();
+
+        for (SearchResult sr : results) {
+            SearchResult r = dedup(sr, updated);
+            if (r != null) {
+                list.add(r);
+            }
+        }
+
+        return list;
+    }
+
+    public synchronized int size() {
+        return keys.size();
+    }
+
+    private SearchResult dedup(SearchResult sr, List<SearchResult> updated) {
+        if (sr instanceof TorrentCrawledSearchResult) {
+            return dedupCrawled((TorrentCrawledSearchResult) sr, updated);
+        } else if (sr instanceof TorrentSearchResult && !StringUtils.isNullOrEmpty(((TorrentSearchResult) sr).getHash())) {
+            return dedupTorrent((TorrentSearchResult) sr, updated);
+        } else if (sr instanceof FileSearchResult) {
+            return dedupFile((FileSearchResult) sr);
+        } else {
+            return sr;
+        }
+    }
+
+    private SearchResult dedupTorrent(TorrentSearchResult sr, List<SearchResult> updated) {
+        TorrentEntry entry = mergeTorrent(sr, updated);
+
+        if (!entry.delivered) {
+            entry.delivered = true;
+            return entry.result;
+        } else {
+            return null;
+        }
+    }
+
+    private SearchResult dedupCrawled(TorrentCrawledSearchResult sr, List<SearchResult> updated) {
+        String hash = sr.getHash();
+        if (StringUtils.isNullOrEmpty(hash) || !(sr.getParent() instanceof TorrentCrawlableSearchResult)) {
+            return dedupFile(sr);
+        }
+
+        // the parent is merged but not delivered, the engine will send it on its own
+        TorrentEntry entry = mergeTorrent((TorrentCrawlableSearchResult) sr.getParent(), updated);
+
+        if (keys.add(hash + "/" + sr.getRelativePath())) {
+            return new TorrentCrawledSearchResult(entry.result, sr.getRelativePath(), sr.getSize());
+        } else {
+            return null;
+        }
+    }
+
+    private SearchResult dedupFile(FileSearchResult sr) {
+        if (sr.getSize() <= 0 || sr.getDisplayName() == null) {
+            return sr;
+        }
+
+        return keys.add(normalize(sr.getDisplayName()) + ":" + sr.getSize()) ? sr : null;
+    }
+
+    private TorrentEntry mergeTorrent(TorrentSearchResult sr, List<SearchResult> updated) {
+        String hash = sr.getHash().toLowerCase(Locale.US);
+
+        TorrentEntry entry = torrents.get(hash);
+        if (entry == null) {
+            entry = new TorrentEntry(new MergedTorrentSearchResult(sr));
+            torrents.put(hash, entry);
+            keys.add(hash);
+        } else if (entry.result.merge(sr) && entry.delivered && !updated.contains(entry.result)) {
+            updated.add(entry.result);
+        }
+
+        return entry;
+    }
+
+    private static String normalize(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static final class TorrentEntry {
+
+        public final MergedTorrentSearchResult result;
+        public boolean delivered;
+
+        public TorrentEntry(MergedTorrentSearchResult result) {
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import com.frostwire.search.torrent.TorrentSearchResult;
+
+/**
+ * Incremental ranking of the results of a search as they arrive. Every result
+ * is scored once and kept in a bounded ordered set with the best K results, an
+ * insertion costs O(log K) no matter how many results the search returns.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class SearchResultRanker {
+
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private static final int UNRANKED = Integer.MIN_VALUE;
+
+    private static final int MATCH_WEIGHT = 400;
+    private static final int MAX_SEEDS_SCORE = 300;
+    private static final int NO_SEEDS_INFO_SCORE = 60;
+    private static final int UNKNOWN_SIZE_PENALTY = 50;
+    private static final int TINY_SIZE_PENALTY = 150;
+    private static final long TINY_SIZE = 10240; // 10k
+
+    private static final Comparator<Entry> ENTRY_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return a.compareTo(b);
+        }
+    };
+
+    private final TokenMatcher matcher;
+    private final int capacity;
+
+    private final TreeSet<Entry> ranking;
+    private final Map<SearchResult, Entry> entries;
+    private final Map<String, Integer> sourceWeights;
+    private final Comparator<SearchResult> comparator;
+
+    private long seq;
+
+    public SearchResultRanker(TokenMatcher matcher, int capacity) {
+        this.matcher = matcher;
+        this.capacity = capacity;
+
+        this.ranking = new TreeSet<Entry>();
+        this.entries = new IdentityHashMap<SearchResult, Entry>();
+        this.sourceWeights = new HashMap<String, Integer>();
+        this.comparator = new Comparator<SearchResult>() {
+            @Override
+            public int compare(SearchResult a, SearchResult b) {
+                return SearchResultRanker.this.compare(a, b);
+            }
+        };
+    }
+
+    public SearchResultRanker(TokenMatcher matcher) {
+        this(matcher, DEFAULT_CAPACITY);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the reliability bonus (or penalty if negative) for the results of a given source.
+     *
+     * @param source
+     * @param weight
+     */
+    public synchronized void setSourceWeight(String source, int weight) {
+        sourceWeights.put(source, weight);
+    }
+
+    /**
+     * Scores and inserts the results in the ranking.
+     *
+     * @param results
+     * @return the results that made it into the top K, best first
+     */
+    public synchronized List<SearchResult> rank(List<? extends SearchResult> results) {
+        List<Entry> added = new ArrayList<Entry>(results.size());
+
+        for (SearchResult sr : results) {
+            if (entries.containsKey(sr)) {
+                continue;
+            }
+
+            Entry e = new Entry(sr, score(sr), seq++);
+
+            if (ranking.size() >= capacity) {
+                Entry last = ranking.last();
+                if (e.compareTo(last) > 0) {
+                    continue; // not good enough for the top K
+                }
+                ranking.pollLast();
+                entries.remove(last.sr);
+            }
+
+            ranking.add(e);
+            entries.put(sr, e);
+            added.add(e);
+        }
+
+        List<SearchResult> list = new ArrayList<SearchResult>(added.size());
+        for (Entry e : new TreeSet<Entry>(added)) {
+            if (entries.containsKey(e.sr)) { // evicted by a better result of the same batch
+                list.add(e.sr);
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * Scores again results that changed after they were ranked, like a merged torrent
+     * that took the seeds of a better duplicate. Results no longer in the ranking are
+     * ranked as new ones.
+     *
+     * @param results
+     * @return the results whose score changed or that made it into the top K, best first
+     */
+    public synchronized List<SearchResult> update(List<? extends SearchResult> results) {
+        List<SearchResult> list = new ArrayList<SearchResult>(results.size());
+        List<SearchResult> unranked = new ArrayList<SearchResult>();
+
+        for (SearchResult sr : results) {
+            Entry e = entries.get(sr);
+            if (e == null) {
+                unranked.add(sr);
+                continue;
+            }
+
+            int score = score(sr);
+            if (score != e.score) {
+                ranking.remove(e);
+                e = new Entry(sr, score, e.seq);
+                ranking.add(e);
+                entries.put(sr, e);
+                list.add(sr);
+            }
+        }
+
+        list.addAll(rank(unranked));
+
+        Collections.sort(list, comparator);
+
+        return list;
+    }
+
+    public synchronized boolean contains(SearchResult sr) {
+        return entries.containsKey(sr);
+    }
+
+    public synchronized int getScore(SearchResult sr) {
+        Entry e = entries.get(sr);
+        return e != null ? e.score : UNRANKED;
+    }
+
+    public synchronized int size() {
+        return ranking.size();
+    }
+
+    /**
+     * Orders best first by the current ranking, results evicted or never ranked
+     * go last. For a list kept sorted while results arrive use {@link #newRankedList()}.
+     *
+     * @return
+     */
+    public Comparator<SearchResult> getComparator() {
+        return comparator;
+    }
+
+    /**
+     * A list ordered best first by the rank every result has when it's inserted, the
+     * order doesn't follow later changes in the ranker. Results not ranked are not
+     * added, and since a result is only evicted by better ones, the results evicted
+     * after their insertion are always at the end of the list.
+     *
+     * @return
+     */
+    public RankedList<SearchResult> newRankedList() {
+        return new RankedList<SearchResult>(new RankedList.KeyFunction<SearchResult, Entry>() {
+            @Override
+            public Entry getKey(SearchResult sr) {
+                return getEntry(sr);
+            }
+        }, ENTRY_ORDER);
+    }
+
+    private synchronized Entry getEntry(SearchResult sr) {
+        return entries.get(sr);
+    }
+
+    private synchronized int compare(SearchResult a, SearchResult b) {
+        Entry ea = entries.get(a);
+        Entry eb = entries.get(b);
+
+        if (ea != null && eb != null) {
+            return ea.compareTo(eb);
+        } else if (ea != null) {
+            return -1;
+        } else if (eb != null) {
+            return 1;
+        } else {
+            return 0;
+        }
+    }
+
+    private int score(SearchResult sr) {
+        return matchScore(sr) + seedsScore(sr) + sizeScore(sr) + sourceScore(sr);
+    }
+
+    private int matchScore(SearchResult sr) {
+        if (matcher == null || matcher.getNumTokens() == 0) {
+            return 0;
+        }
+
+        long found = matcher.match(sr.getDisplayName(), 0);
+        if (sr instanceof FileSearchResult) {
+            found = matcher.match(((FileSearchResult) sr).getFilename(), found);
+        }
+
+        return (MATCH_WEIGHT * matcher.countMatches(found)) / matcher.getNumTokens();
+    }
+
+    private int seedsScore(SearchResult sr) {
+        if (sr instanceof TorrentSearchResult) {
+            int seeds = ((TorrentSearchResult) sr).getSeeds();
+            if (seeds <= 0) {
+                return 0;
+            }
+            // logarithmic, 10 seeds ~ 140, 1000 seeds ~ 300
+            return Math.min(MAX_SEEDS_SCORE, (int) (40 * Math.log(1 + seeds) / Math.log(2)));
+        } else {
+            return NO_SEEDS_INFO_SCORE;
+        }
+    }
+
+    private int sizeScore(SearchResult sr) {
+        if (sr instanceof FileSearchResult) {
+            long size = ((FileSearchResult) sr).getSize();
+            if (size <= 0) {
+                return -UNKNOWN_SIZE_PENALTY;
+            } else if (size < TINY_SIZE) {
+                return -TINY_SIZE_PENALTY;
+            }
+        }
+
+        return 0;
+    }
+
+    private int sourceScore(SearchResult sr) {
+        String source = sr.getSource();
+        if (source != null) {
+            Integer weight = sourceWeights.get(source);
+            if (weight != null) {
+                return weight;
+            }
+        }
+        return 0;
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+
+        public final SearchResult sr;
+        public final int score;
+        public final long seq;
+
+        public Entry(SearchResult sr, int score, long seq) {
+            this.sr = sr;
+            this.score = score;
+            this.seq = seq;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            if (score != o.score) {
+                return score > o.score ? -1 : 1;
+            }
+            return seq < o.seq ? -1 : (seq == o.seq ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.frostwire.concurrent.DefaultThreadFactory;
+
+/**
+ * A bounded in-memory tier in front of another (slower) crawl cache.
+ *
+ * The memory tier is a concurrent map without global locks, evicted in LRU
+ * order (second chance/CLOCK approximation) when the byte budget is exceeded.
+ * Writes to the backing cache happen asynchronously, in order, in a single
+ * background thread, that includes {@link #clear()}, safe to call from the UI.
+ *
+ * Entries older than the time to live are dropped from memory when found, the
+ * backing cache is expected to expire its own entries.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class TieredCrawlCache implements CrawlCache {
+
+    private final CrawlCache backing;
+    private final long maxMemorySize;
+    private final long ttl;
+
+    private final ConcurrentHashMap<String, Node> nodes;
+    private final ConcurrentLinkedQueue<Node> clock;
+    private final AtomicLong memorySize;
+    private final AtomicLong bytesEvicted;
+    private final AtomicInteger pendingClears;
+
+    private final ExecutorService writer;
+
+    /**
+     * @param backing
+     * @param maxMemorySize
+     * @param ttl time to live in milliseconds of the memory entries, 0 for no expiration
+     */
+    public TieredCrawlCache(CrawlCache backing, long maxMemorySize, long ttl) {
+        this.backing = backing;
+        this.maxMemorySize = maxMemorySize;
+        this.ttl = ttl;
+
+        this.nodes = new ConcurrentHashMap<String, Node>();
+        this.clock = new ConcurrentLinkedQueue<Node>();
+        this.memorySize = new AtomicLong();
+        this.bytesEvicted = new AtomicLong();
+        this.pendingClears = new AtomicInteger();
+
+        this.writer = newWriter();
+    }
+
+    public TieredCrawlCache(CrawlCache backing, long maxMemorySize) {
+        this(backing, maxMemorySize, 0);
+    }
+
+    @Override
+    public byte[] get(String key) {
+        Node node = nodes.get(key);
+        if (node != null) {
+            if (!isExpired(node)) {
+                node.referenced = true;
+                return node.data;
+            }
+            if (nodes.remove(key, node)) {
+                node.removed = true;
+                memorySize.addAndGet(-node.data.length);
+                bytesEvicted.addAndGet(node.data.length);
+            }
+        }
+
+        byte[] data = backing.get(key);
+        if (data != null) {
+            putMemory(key, data);
+        }
+
+        return data;
+    }
+
+    @Override
+    public void put(final String key, final byte[] data) {
+        putMemory(key, data);
+
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                backing.put(key, data);
+            }
+        });
+    }
+
+    @Override
+    public void remove(final String key) {
+        removeMemory(key);
+
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                backing.remove(key);
+            }
+        });
+    }
+
+    @Override
+    public void clear() {
+        for (String key : nodes.keySet()) {
+            removeMemory(key);
+        }
+
+        pendingClears.incrementAndGet();
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    backing.clear();
+                } finally {
+                    pendingClears.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * The size of the backing cache, 0 while a clear is pending.
+     */
+    @Override
+    public long size() {
+        return pendingClears.get() > 0 ? 0 : backing.size();
+    }
+
+    public long memorySize() {
+        return memorySize.get();
+    }
+
+    /**
+     * Bytes dropped from the memory tier, expired or to stay in the budget, plus
+     * what the backing cache dropped.
+     */
+    @Override
+    public long getBytesEvicted() {
+        return bytesEvicted.get() + backing.getBytesEvicted();
+    }
+
+    public CrawlCache getBacking() {
+        return backing;
+    }
+
+    private void putMemory(String key, byte[] data) {
+        if (data.length > maxMemorySize) {
+            return;
+        }
+
+        Node node = new Node(key, data);
+        Node old = nodes.put(key, node);
+        if (old != null) {
+            old.removed = true;
+            memorySize.addAndGet(-old.data.length);
+        }
+
+        clock.add(node);
+        memorySize.addAndGet(data.length);
+
+        evict();
+    }
+
+    private void removeMemory(String key) {
+        Node node = nodes.remove(key);
+        if (node != null) {
+            node.removed = true;
+            memorySize.addAndGet(-node.data.length);
+        }
+    }
+
+    private void evict() {
+        while (memorySize.get() > maxMemorySize) {
+            Node node = clock.poll();
+            if (node == null) {
+                break;
+            }
+
+            if (node.removed) {
+                continue; // already out of the map
+            }
+
+            if (node.referenced) {
+                node.referenced = false; // second chance
+                clock.add(node);
+            } else if (nodes.remove(node.key, node)) {
+                node.removed = true;
+                memorySize.addAndGet(-node.data.length);
+                bytesEvicted.addAndGet(node.data.length);
+            }
+        }
+    }
+
+    private boolean isExpired(Node node) {
+        return ttl > 0 && System.currentTimeMillis() - node.created > ttl;
+    }
+
+    private static ExecutorService newWriter() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DefaultThreadFactory("CrawlCache-Writer", true));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static final class Node {
+
+        public final String key;
+        public final byte[] data;
+        public final long created;
+
+        public volatile boolean referenced;
+        public volatile boolean removed;
+
+        public Node(String key, byte[] data) {
+            this.key = key;
+            this.data = data;
+            this.created = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Aho-Corasick automaton over the query tokens. The text is walked once,
+ * decoding HTML character entities, folding case and diacritics and breaking
+ * on separators, with no intermediate strings.
+ *
+ * Tokens and text are folded the same way, a char is replaced by its NFKD
+ * decomposition without the combining marks, lower case. That can be more
+ * than one char ('ĳ' is "ij") or none (a combining mark alone). The folding
+ * of the non ASCII chars is computed once per block of 256 chars, the first
+ * time a char of the block is found.
+ *
+ * The result of a match is a bit mask of the tokens found, that's why at most
+ * {@link #MAX_TOKENS} tokens are supported.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class TokenMatcher {
+
+    public static final int MAX_TOKENS = 64;
+
+    private static final String SEPARATORS = "\\/%_;-.()[]&~{}*@^'=!,¡|#<>\"";
+
+    private static final char[] SPACE = { ' ' };
+    private static final AtomicReferenceArray<char[][]> FOLD_BLOCKS = new AtomicReferenceArray<char[][]>(256);
+
+    private static final int MAX_ENTITY_LENGTH = 10; // &#x10ffff;
+    private static final Map<String, Character> ENTITIES = buildEntities();
+
+    private final int numTokens;
+    private final long allMask;
+
+    // compiled automaton, state 0 is the root
+    private final char[][] labels;
+    private final int[][] targets;
+    private final int[] fail;
+    private final long[] output;
+
+    public TokenMatcher(List<String> tokens) {
+        List<String> list = new ArrayList<String>();
+        for (String token : tokens) {
+            String t = fold(token);
+            if (t.length() > 0 && !list.contains(t) && list.size() < MAX_TOKENS) {
+                list.add(t);
+            }
+        }
+
+        this.numTokens = list.size();
+        this.allMask = numTokens == MAX_TOKENS ? -1L : (1L << numTokens) - 1;
+
+        List<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character, Integer>>();
+        List<Long> out = new ArrayList<Long>();
+        trie.add(new TreeMap<Character, Integer>());
+        out.add(0L);
+
+        for (int i = 0; i < list.size(); i++) {
+            String t = list.get(i);
+            int state = 0;
+            for (int j = 0; j < t.length(); j++) {
+                Integer next = trie.get(state).get(t.charAt(j));
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<Character, Integer>());
+                    out.add(0L);
+                    trie.get(state).put(t.charAt(j), next);
+                }
+                state = next;
+            }
+            out.set(state, out.get(state) | (1L << i));
+        }
+
+        int n = trie.size();
+        this.labels = new char[n][];
+        this.targets = new int[n][];
+        this.fail = new int[n];
+        this.output = new long[n];
+
+        for (int s = 0; s < n; s++) {
+            TreeMap<Character, Integer> children = trie.get(s);
+            labels[s] = new char[children.size()];
+            targets[s] = new int[children.size()];
+            int k = 0;
+            for (Character c : children.keySet()) {
+                labels[s][k] = c;
+                targets[s][k] = children.get(c);
+                k++;
+            }
+            output[s] = out.get(s);
+        }
+
+        // breadth first to compute the failure links
+        Queue<Integer> queue = new LinkedList<Integer>();
+        for (int child : targets[0]) {
+            fail[child] = 0;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            for (int k = 0; k < labels[s].length; k++) {
+                char c = labels[s][k];
+                int child = targets[s][k];
+                int f = fail[s];
+                int next = next(f, c);
+                while (next == -1 && f != 0) {
+                    f = fail[f];
+                    next = next(f, c);
+                }
+                fail[child] = next == -1 ? 0 : next;
+                output[child] |= output[fail[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    public int getNumTokens() {
+        return numTokens;
+    }
+
+    /**
+     * Walks the text and accumulates the tokens found.
+     *
+     * @param text
+     * @param found mask of tokens already found, 0 for a new match
+     * @return the updated mask
+     */
+    public long match(String text, long found) {
+        if (text == null || numTokens == 0) {
+            return found;
+        }
+
+        int state = 0;
+        int len = text.length();
+
+        for (int i = 0; i < len && found != allMask; i++) {
+            char c = text.charAt(i);
+
+            if (c == '&') {
+                int end = text.indexOf(';', i + 1);
+                if (end != -1 && end - i <= MAX_ENTITY_LENGTH) {
+                    int e = decodeEntity(text, i + 1, end);
+                    if (e != -1) {
+                        c = (char) e;
+                        i = end;
+                    }
+                }
+            }
+
+            if (c < 128) {
+                state = step(state, foldAscii(c));
+                found |= output[state];
+            } else {
+                for (char f : fold(c)) {
+                    state = step(state, f);
+                    found |= output[state];
+                }
+            }
+        }
+
+        return found;
+    }
+
+    public boolean isFullMatch(long found) {
+        return found == allMask;
+    }
+
+    public int countMatches(long found) {
+        return Long.bitCount(found);
+    }
+
+    private int step(int state, char c) {
+        if (c == ' ') {
+            return 0;
+        }
+
+        int next = next(state, c);
+        while (next == -1 && state != 0) {
+            state = fail[state];
+            next = next(state, c);
+        }
+        return next == -1 ? 0 : next;
+    }
+
+    private int next(int state, char c) {
+        int k = Arrays.binarySearch(labels[state], c);
+        return k >= 0 ? targets[state][k] : -1;
+    }
+
+    private static String fold(String str) {
+        StringBuilder sb = new StringBuilder(str.length());
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < 128) {
+                c = foldAscii(c);
+                if (c != ' ') {
+                    sb.append(c);
+                }
+            } else {
+                for (char f : fold(c)) {
+                    if (f != ' ') {
+                        sb.append(f);
+                    }
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Lower case and space for any separator.
+     */
+    private static char foldAscii(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return (char) (c + 32);
+        }
+        if (c <= ' ' || SEPARATORS.indexOf(c) != -1) {
+            return ' ';
+        }
+        return c;
+    }
+
+    /**
+     * The folding of a non ASCII char, from its block.
+     */
+    private static char[] fold(char c) {
+        int b = c >>> 8;
+        char[][] block = FOLD_BLOCKS.get(b);
+        if (block == null) {
+            block = buildFoldBlock(b);
+            FOLD_BLOCKS.compareAndSet(b, null, block);
+        }
+        return block[c & 0xFF];
+    }
+
+    private static char[][] buildFoldBlock(int b) {
+        char[][] block = new char[256][];
+
+        for (int k = 0; k < 256; k++) {
+            char c = (char) ((b << 8) | k);
+
+            if (c < 128) {
+                block[k] = new char[] { foldAscii(c) };
+            } else if (Character.isWhitespace(c) || Character.isSpaceChar(c) || SEPARATORS.indexOf(c) != -1) {
+                block[k] = SPACE;
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                block[k] = new char[] { c };
+            } else {
+                String norm = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFKD);
+                norm = norm.replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
+                char[] f = norm.toLowerCase(Locale.US).toCharArray();
+                for (int i = 0; i < f.length; i++) {
+                    if (f[i] < 128) {
+                        f[i] = foldAscii(f[i]);
+                    } else if (Character.isWhitespace(f[i]) || Character.isSpaceChar(f[i]) || SEPARATORS.indexOf(f[i]) != -1) {
+                        f[i] = ' ';
+                    }
+                }
+                block[k] = f;
+            }
+        }
+
+        return block;
+    }
+
+    /**
+     * The char of the entity between the '&' and the ';', -1 if it's not a
+     * known entity. Chars outside the BMP are taken as a separator.
+     */
+    private static int decodeEntity(String text, int start, int end) {
+        if (start >= end) {
+            return -1;
+        }
+
+        if (text.charAt(start) == '#') {
+            try {
+                int code;
+                if (start + 1 < end && (text.charAt(start + 1) == 'x' || text.charAt(start + 1) == 'X')) {
+                    code = Integer.parseInt(text.substring(start + 2, end), 16);
+                } else {
+                    code = Integer.parseInt(text.substring(start + 1, end));
+                }
+                if (code < 0) {
+                    return -1;
+                }
+                return code <= Character.MAX_VALUE ? code : ' ';
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        Character c = ENTITIES.get(text.substring(start, end));
+        return c != null ? c.charValue() : -1;
+    }
+
+    /**
+     * The entities of the markup, the ones of the Latin-1 letters and the
+     * dashes, what is found in the names of the results.
+     */
+    private static Map<String, Character> buildEntities() {
+        Map<String, Character> map = new HashMap<String, Character>();
+
+        map.put("amp", '&');
+        map.put("lt", '<');
+        map.put("gt", '>');
+        map.put("quot", '"');
+        map.put("apos", '\'');
+        map.put("nbsp", '\u00A0');
+        map.put("ndash", '\u2013');
+        map.put("mdash", '\u2014');
+
+        String[] latin1 = { "Agrave", "Aacute", "Acirc", "Atilde", "Auml", "Aring", "AElig", "Ccedil", "Egrave", "Eacute", "Ecirc", "Euml", "Igrave", "Iacute", "Icirc", "Iuml", "ETH", "Ntilde", "Ograve", "Oacute", "Ocirc", "Otilde", "Ouml", "times", "Oslash", "Ugrave", "Uacute", "Ucirc", "Uuml", "Yacute", "THORN", "szlig", "agrave", "aacute", "acirc", "atilde", "auml", "aring", "aelig", "ccedil", "egrave", "eacute", "ecirc", "euml", "igrave", "iacute", "icirc", "iuml", "eth", "ntilde", "ograve", "oacute", "ocirc", "otilde", "ouml", "divide", "oslash", "ugrave", "uacute", "ucirc", "uuml", "yacute", "thorn", "yuml" };
+        for (int i = 0; i < latin1.length; i++) {
+            map.put(latin1[i], (char) (0x00C0 + i));
+        }
+
+        return map;
+    }
+}
@@ -18,12 +18,14 @@
 package com.frostwire.search;
 
 import java.io.IOException;
+import java.util.Locale;
 import java.util.Map;
 
 import org.apache.commons.io.FilenameUtils;
 
 import com.frostwire.logging.Logger;
 import com.frostwire.search.domainalias.DomainAliasManager;
+import com.frostwire.search.domainalias.DomainHealth;
 import com.frostwire.util.HttpClient;
 import com.frostwire.util.HttpClientFactory;
 import com.frostwire.util.StringUtils;
@@ -88,11 +90,38 @@ public abstract class WebSearchPerformer extends AbstractSearchPerformer {
     }
 
     public String fetch(String url, String cookie, Map<String, String> customHeaders) throws IOException {
-        return client.get(url, timeout, DEFAULT_USER_AGENT, null, cookie, customHeaders);
+        DomainHealth health = acquireHealth(url);
+        if (health == null) {
+            throw new IOException("Too many failures, not trying for a while: " + url);
+        }
+
+        int t = health.getTimeout(timeout);
+        long start = System.currentTimeMillis();
+        boolean success = false;
+        try {
+            String result = client.get(url, t, DEFAULT_USER_AGENT, null, cookie, customHeaders);
+            success = result != null;
+            return result;
+        } finally {
+            releaseHealth(health, start, t, success);
+        }
     }
 
     public String post(String url, Map<String, String> formData) {
-        return client.post(url, timeout, DEFAULT_USER_AGENT, formData);
+        DomainHealth health = acquireHealth(url);
+        if (health == null) {
+            return null;
+        }
+
+        int t = health.getTimeout(timeout);
+        long start = System.currentTimeMillis();
+        String result = null;
+        try {
+            result = client.post(url, t, DEFAULT_USER_AGENT, formData);
+        } finally {
+            releaseHealth(health, start, t, result != null);
+        }
+        return result;
     }
 
     /**
@@ -107,7 +136,21 @@ public abstract class WebSearchPerformer extends AbstractSearchPerformer {
 
     protected final byte[] fetchBytes(String url, String referrer, int timeout) {
         if (url.startsWith("htt")) { // http(s)
-            return client.getBytes(url, timeout, DEFAULT_USER_AGENT, referrer);
+            DomainHealth health = acquireHealth(url);
+            if (health == null) {
+                LOG.debug("Too many failures, not trying for a while: " + url);
+                return null;
+            }
+
+            int t = health.getTimeout(timeout);
+            long start = System.currentTimeMillis();
+            byte[] result = null;
+            try {
+                result = client.getBytes(url, t, DEFAULT_USER_AGENT, referrer);
+            } finally {
+                releaseHealth(health, start, t, result != null);
+            }
+            return result;
         } else {
             return null;
         }
@@ -136,6 +179,45 @@ public abstract class WebSearchPerformer extends AbstractSearchPerformer {
         return domainAliasManager;
     }
 
+    /**
+     * The host a task of this performer connects to, for the per host limits
+     * of the search manager, null if it doesn't go to the network.
+     * 
+     * @param sr the result to crawl, null for the search itself
+     * @return
+     */
+    public String getTaskHost(CrawlableSearchResult sr) {
+        return sr == null ? getDomainNameToUse() : null;
+    }
+
+    /**
+     * The health of the url host, null if its circuit breaker is open.
+     */
+    private DomainHealth acquireHealth(String url) {
+        DomainHealth health = domainAliasManager.getHealth(getHost(url));
+        return health.tryAcquire() ? health : null;
+    }
+
+    private void releaseHealth(DomainHealth health, long start, int timeout, boolean success) {
+        if (success) {
+            health.onSuccess(System.currentTimeMillis() - start);
+        } else {
+            health.onFailure(timeout);
+        }
+    }
+
+    static String getHost(String url) {
+        int start = url.indexOf("://");
+        start = start != -1 ? start + 3 : 0;
+
+        int end = start;
+        while (end < url.length() && "/?#:".indexOf(url.charAt(end)) == -1) {
+            end++;
+        }
+
+        return url.substring(start, end).toLowerCase(Locale.US);
+    }
+
     /**
      * The current domain has failed, mark it offline and let's try check if other mirrors are alive.
      */
@@ -21,6 +21,7 @@ package com.frostwire.search.domainalias;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -30,6 +31,10 @@ import com.frostwire.search.SearchPerformer;
  * Simply responsible for maintaining the list of domain aliases and their states for
  * a single domain.
  * 
+ * It also keeps the latency and error history ({@link DomainHealth}) of every host
+ * the engine talks to, that's why an engine should use the same manager for all
+ * the searches.
+ * 
  * @author gubatron
  * @author aldenml
  *
@@ -44,6 +49,8 @@ public final class DomainAliasManager {
 
     private final AtomicReference<List<DomainAlias>> aliases;
 
+    private final ConcurrentHashMap<String, DomainHealth> health;
+
     public DomainAliasManager(String defaultDomain) {
         this(defaultDomain, Collections.<DomainAlias> emptyList());
     }
@@ -54,6 +61,7 @@ public final class DomainAliasManager {
         this.aliases = new AtomicReference<List<DomainAlias>>();
         this.aliases.set(Collections.synchronizedList(aliases));
         this.defaultDomainOnline = true;
+        this.health = new ConcurrentHashMap<String, DomainHealth>();
     }
 
     public String getDefaultDomain() {
@@ -119,6 +127,41 @@ public final class DomainAliasManager {
         }
     }
 
+    public DomainHealth getHealth(String domain) {
+        DomainHealth h = health.get(domain);
+        if (h == null) {
+            h = new DomainHealth(domain);
+            DomainHealth old = health.putIfAbsent(domain, h);
+            if (old != null) {
+                h = old;
+            }
+        }
+        return h;
+    }
+
+    /**
+     * False if the domain kept failing and the circuit breaker is open.
+     * 
+     * @param domain
+     * @return
+     */
+    public boolean isAvailable(String domain) {
+        DomainHealth h = health.get(domain);
+        return h == null || !h.isOpen();
+    }
+
+    /**
+     * The timeout derived from the latency history of the domain.
+     * 
+     * @param domain
+     * @param defaultTimeout used until there is enough history
+     * @return
+     */
+    public int getTimeout(String domain, int defaultTimeout) {
+        DomainHealth h = health.get(domain);
+        return h != null ? h.getTimeout(defaultTimeout) : defaultTimeout;
+    }
+
     public DomainAlias getCurrentDomainAlias() {
         return currentDomainAlias;
     }
@@ -178,7 +221,7 @@ public final class DomainAliasManager {
             int startingIndex = (currentIndex + 1) % aliasesList.size();
             for (int i = startingIndex; i < aliasesList.size(); i++) {
                 DomainAlias alias = aliasesList.get(i);
-                if (!alias.equals(currentDomainAlias) && alias.getState() == DomainAliasState.ONLINE) {
+                if (!alias.equals(currentDomainAlias) && alias.getState() == DomainAliasState.ONLINE && isAvailable(alias.getAlias())) {
                     currentDomainAlias = alias;
                     result = currentDomainAlias;
                     break;
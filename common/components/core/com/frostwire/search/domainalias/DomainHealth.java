@@ -0,0 +1,182 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.search.domainalias;
+
+import java.util.Arrays;
+
+/**
+ * Latency and error history of a single domain, used to derive the timeouts
+ * of the requests and as a circuit breaker.
+ *
+ * After {@link #FAILURE_THRESHOLD} failures in a row the circuit opens and
+ * requests are rejected without touching the network, after a while a single
+ * request is let through to probe the domain. Every failed probe doubles the
+ * time the circuit stays open.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class DomainHealth {
+
+    public static final int FAILURE_THRESHOLD = 3;
+
+    private static final int MIN_TIMEOUT = 2000; // 2 seconds
+    private static final int MAX_TIMEOUT_FACTOR = 3; // of the default timeout
+    private static final int MIN_SAMPLES = 5;
+    private static final int MAX_SAMPLES = 32;
+    private static final double EWMA_ALPHA = 0.2;
+
+    private static final long MIN_OPEN_INTERVAL = 30000; // 30 seconds
+    private static final long MAX_OPEN_INTERVAL = 10 * 60 * 1000; // 10 minutes
+
+    private final String domain;
+
+    private final long[] samples;
+    private int numSamples;
+    private int nextSample;
+    private double ewma;
+
+    private int consecutiveFailures;
+    private long openUntil;
+    private long openInterval;
+    private boolean probing;
+
+    public DomainHealth(String domain) {
+        this.domain = domain;
+        this.samples = new long[MAX_SAMPLES];
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public synchronized void onSuccess(long latency) {
+        addSample(latency);
+
+        consecutiveFailures = 0;
+        openUntil = 0;
+        openInterval = 0;
+        probing = false;
+    }
+
+    /**
+     * A failed request, it counts as a sample at the timeout it had, a slow
+     * domain that only fails gets longer timeouts instead of keeping its old ones.
+     *
+     * @param timeout
+     */
+    public synchronized void onFailure(long timeout) {
+        addSample(timeout);
+
+        consecutiveFailures++;
+        probing = false;
+
+        if (consecutiveFailures >= FAILURE_THRESHOLD) {
+            openInterval = openInterval == 0 ? MIN_OPEN_INTERVAL : Math.min(openInterval * 2, MAX_OPEN_INTERVAL);
+            openUntil = System.currentTimeMillis() + openInterval;
+        }
+    }
+
+    /**
+     * A request that timed out and is not a failure of the domain, like a magnet
+     * without peers, only the sample at the timeout it had is taken.
+     *
+     * @param timeout
+     */
+    public synchronized void onTimeout(long timeout) {
+        addSample(timeout);
+    }
+
+    /**
+     * Returns true if a request can be made now, if the circuit is half open
+     * the caller gets the only probe and must report the outcome.
+     * 
+     * @return
+     */
+    public synchronized boolean tryAcquire() {
+        if (openUntil == 0) {
+            return true;
+        }
+
+        if (System.currentTimeMillis() < openUntil || probing) {
+            return false;
+        }
+
+        probing = true;
+        return true;
+    }
+
+    /**
+     * Same as {@link #tryAcquire()} but without taking the probe.
+     * 
+     * @return
+     */
+    public synchronized boolean isOpen() {
+        return openUntil != 0 && (System.currentTimeMillis() < openUntil || probing);
+    }
+
+    public synchronized long getEwmaLatency() {
+        return (long) ewma;
+    }
+
+    public synchronized long getP95Latency() {
+        if (numSamples == 0) {
+            return 0;
+        }
+
+        long[] sorted = Arrays.copyOf(samples, numSamples);
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(0.95 * numSamples) - 1];
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * The timeout to use based on the latency history, twice the p95 (or three
+     * times the average if bigger), up to three times the default timeout.
+     * 
+     * @param defaultTimeout
+     * @return
+     */
+    public synchronized int getTimeout(int defaultTimeout) {
+        if (numSamples < MIN_SAMPLES) {
+            return defaultTimeout;
+        }
+
+        long timeout = Math.max(2 * getP95Latency(), (long) (3 * ewma));
+        return (int) Math.max(Math.min(MIN_TIMEOUT, defaultTimeout), Math.min(timeout, (long) MAX_TIMEOUT_FACTOR * defaultTimeout));
+    }
+
+    private void addSample(long latency) {
+        samples[nextSample] = latency;
+        nextSample = (nextSample + 1) % MAX_SAMPLES;
+        if (numSamples < MAX_SAMPLES) {
+            numSamples++;
+        }
+        ewma = numSamples == 1 ? latency : EWMA_ALPHA * latency + (1 - EWMA_ALPHA) * ewma;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DomainHealth(" + domain + ", ewma: " + (long) ewma + "ms, p95: " + getP95Latency() + "ms, failures: " + consecutiveFailures + (isOpen() ? ", open" : "") + ")";
+    }
+}
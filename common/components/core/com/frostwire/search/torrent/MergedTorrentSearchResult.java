@@ -0,0 +1,141 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.search.torrent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.frostwire.licences.License;
+
+/**
+ * The same torrent (same info hash) reported by several search engines. It
+ * behaves like the result with the best seed count and keeps every source.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class MergedTorrentSearchResult extends AbstractTorrentSearchResult {
+
+    private final List<TorrentSearchResult> results;
+
+    private volatile TorrentSearchResult best;
+
+    public MergedTorrentSearchResult(TorrentSearchResult sr) {
+        this.results = new ArrayList<TorrentSearchResult>(2);
+        this.results.add(sr);
+        this.best = sr;
+    }
+
+    /**
+     * Adds a duplicate of this torrent.
+     *
+     * @param sr
+     * @return true if the duplicate has better seeds and it's now the main result
+     */
+    public boolean merge(TorrentSearchResult sr) {
+        synchronized (results) {
+            for (TorrentSearchResult r : results) {
+                if (r == sr) {
+                    return false;
+                }
+            }
+            results.add(sr);
+        }
+
+        if (sr.getSeeds() > best.getSeeds()) {
+            best = sr;
+            return true;
+        }
+
+        return false;
+    }
+
+    public List<TorrentSearchResult> getResults() {
+        synchronized (results) {
+            return new ArrayList<TorrentSearchResult>(results);
+        }
+    }
+
+    public List<String> getSources() {
+        List<String> sources = new ArrayList<String>();
+        for (TorrentSearchResult sr : getResults()) {
+            String source = sr.getSource();
+            if (source != null && !sources.contains(source)) {
+                sources.add(source);
+            }
+        }
+        return sources;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return best.getDisplayName();
+    }
+
+    @Override
+    public String getDetailsUrl() {
+        return best.getDetailsUrl();
+    }
+
+    @Override
+    public long getCreationTime() {
+        return best.getCreationTime();
+    }
+
+    @Override
+    public String getSource() {
+        return best.getSource();
+    }
+
+    @Override
+    public License getLicense() {
+        return best.getLicense();
+    }
+
+    @Override
+    public String getThumbnailUrl() {
+        return best.getThumbnailUrl();
+    }
+
+    @Override
+    public String getFilename() {
+        return best.getFilename();
+    }
+
+    @Override
+    public long getSize() {
+        return best.getSize();
+    }
+
+    @Override
+    public String getTorrentUrl() {
+        return best.getTorrentUrl();
+    }
+
+    @Override
+    public int getSeeds() {
+        return best.getSeeds();
+    }
+
+    @Override
+    public String getHash() {
+        return best.getHash();
+    }
+}
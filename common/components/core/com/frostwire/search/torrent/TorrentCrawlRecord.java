@@ -0,0 +1,158 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.search.torrent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import com.frostwire.torrent.TOTorrent;
+import com.frostwire.torrent.TOTorrentException;
+import com.frostwire.torrent.TOTorrentFile;
+
+/**
+ * The part of a torrent the search crawling needs, in a compact binary form
+ * to keep in the crawl cache instead of the whole .torrent (no pieces, no
+ * bencoding to parse on every cache hit).
+ *
+ * The paths are written as UTF-8 bytes with an int length, a torrent can have
+ * paths longer than the 64KB of {@link DataOutputStream#writeUTF(String)}.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class TorrentCrawlRecord {
+
+    private static final byte[] MAGIC = { 'F', 'W', 'C', 'R' };
+    private static final int VERSION = 2; // 1 had the creation time and modified UTF-8 paths
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] infoHash;
+    private final String[] paths;
+    private final long[] sizes;
+
+    public TorrentCrawlRecord(byte[] infoHash, String[] paths, long[] sizes) {
+        this.infoHash = infoHash;
+        this.paths = paths;
+        this.sizes = sizes;
+    }
+
+    public byte[] getInfoHash() {
+        return infoHash;
+    }
+
+    public int getFileCount() {
+        return paths.length;
+    }
+
+    public String getPath(int index) {
+        return paths[index];
+    }
+
+    public long getSize(int index) {
+        return sizes[index];
+    }
+
+    public byte[] toBytes() {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(64 + paths.length * 64);
+            DataOutputStream out = new DataOutputStream(bos);
+
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(infoHash.length);
+            out.write(infoHash);
+            out.writeInt(paths.length);
+            for (int i = 0; i < paths.length; i++) {
+                byte[] path = paths[i].getBytes(UTF_8);
+                out.writeInt(path.length);
+                out.write(path);
+                out.writeLong(sizes[i]);
+            }
+
+            out.flush();
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // a ByteArrayOutputStream doesn't throw
+        }
+    }
+
+    public static TorrentCrawlRecord fromTorrent(TOTorrent torrent) throws TOTorrentException {
+        TOTorrentFile[] files = torrent.getFiles();
+
+        String[] paths = new String[files.length];
+        long[] sizes = new long[files.length];
+
+        for (int i = 0; i < files.length; i++) {
+            paths[i] = files[i].getRelativePath();
+            sizes[i] = files[i].getLength();
+        }
+
+        return new TorrentCrawlRecord(torrent.getHash(), paths, sizes);
+    }
+
+    public static boolean isRecord(byte[] data) {
+        if (data == null || data.length < MAGIC.length + 1) {
+            return false;
+        }
+
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+
+        return data[MAGIC.length] == VERSION;
+    }
+
+    public static TorrentCrawlRecord fromBytes(byte[] data) throws IOException {
+        if (!isRecord(data)) {
+            throw new IOException("Not a torrent crawl record");
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, MAGIC.length + 1, data.length - MAGIC.length - 1));
+
+        byte[] infoHash = new byte[in.readUnsignedByte()];
+        in.readFully(infoHash);
+
+        int n = in.readInt();
+        if (n < 0 || n > data.length) {
+            throw new IOException("Invalid number of files in torrent crawl record: " + n);
+        }
+        String[] paths = new String[n];
+        long[] sizes = new long[n];
+        for (int i = 0; i < n; i++) {
+            int length = in.readInt();
+            if (length < 0 || length > data.length) {
+                throw new IOException("Invalid path length in torrent crawl record: " + length);
+            }
+            byte[] path = new byte[length];
+            in.readFully(path);
+            paths[i] = new String(path, UTF_8);
+            sizes[i] = in.readLong();
+        }
+
+        return new TorrentCrawlRecord(infoHash, paths, sizes);
+    }
+}
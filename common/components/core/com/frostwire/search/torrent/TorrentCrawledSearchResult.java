@@ -36,15 +36,19 @@ public class TorrentCrawledSearchResult extends AbstractCrawledSearchResult impl
     private final String filename;
     private final long size;
 
-    public TorrentCrawledSearchResult(TorrentCrawlableSearchResult sr, TOTorrentFile file) {
+    public TorrentCrawledSearchResult(TorrentCrawlableSearchResult sr, String relativePath, long size) {
         super(sr);
         this.sr = sr;
-        this.relativePath = file.getRelativePath();
+        this.relativePath = relativePath;
         this.filename = FilenameUtils.getName(this.relativePath);
-        this.size = file.getLength();
+        this.size = size;
         this.displayName = FilenameUtils.getBaseName(this.filename);
     }
 
+    public TorrentCrawledSearchResult(TorrentCrawlableSearchResult sr, TOTorrentFile file) {
+        this(sr, file.getRelativePath(), file.getLength());
+    }
+
     public String getRelativePath() {
         return relativePath;
     }
@@ -0,0 +1,560 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.torrent;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Index based bencoding decoder. The buffer is scanned once to record where every
+ * value starts and ends, and values are only built when they are accessed: strings
+ * are copied into a byte[] the first time they are read, dictionaries and lists are
+ * views over the index. Large strings, like the torrent pieces, can be read as a
+ * slice of the original buffer with {@link LazyMap#getBuffer(String)}.
+ * 
+ * The decoded maps and lists are read only, they keep the buffer alive and are not
+ * thread safe. Keys are decoded as {@link Constants#BYTE_CHARSET}, like {@link BDecoder}.
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class LazyBDecoder {
+
+    private static final byte TYPE_DICT = 0;
+    private static final byte TYPE_LIST = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_STRING = 3;
+
+    private static final int MAX_NESTING = 256;
+
+    private final ByteBuffer buffer;
+
+    // per value: type, first byte, byte after the value, index of the next sibling
+    private byte[] types;
+    private int[] starts;
+    private int[] ends;
+    private int[] nexts;
+    private int count;
+
+    // true if re-encoding the values would give back the same bytes
+    private boolean canonical;
+
+    private LazyBDecoder(ByteBuffer buffer) {
+        this.buffer = buffer;
+
+        int capacity = Math.max(16, buffer.remaining() / 32);
+        this.types = new byte[capacity];
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+        this.nexts = new int[capacity];
+
+        this.canonical = true;
+    }
+
+    /**
+     * Indexes the buffer from its position to its limit, the buffer position is not
+     * modified and the buffer must not be modified while the result is in use.
+     */
+    public static LazyMap decode(ByteBuffer buffer) throws BEncodingException {
+        LazyBDecoder decoder = new LazyBDecoder(buffer.slice());
+
+        decoder.scan();
+
+        if (decoder.types[0] != TYPE_DICT) {
+            throw new BEncodingException("BDecoder: top level isn't a Map");
+        }
+
+        return decoder.new LazyMap(0);
+    }
+
+    private void scan() throws BEncodingException {
+        int limit = buffer.limit();
+        if (limit == 0) {
+            throw new BEncodingException("BDecoder: zero length file");
+        }
+
+        int[] stack = new int[MAX_NESTING];
+        // values read so far in each open container
+        int[] children = new int[MAX_NESTING];
+        // dictionaries only: index of the previous key, to check the order
+        int[] prevKeys = new int[MAX_NESTING];
+        int depth = 0;
+
+        int pos = 0;
+
+        do {
+            if (pos >= limit) {
+                throw new BEncodingException("BDecoder: invalid input data, 'e' missing from end of " + (types[stack[depth - 1]] == TYPE_DICT ? "dictionary" : "list"));
+            }
+
+            byte b = buffer.get(pos);
+
+            if (b == 'e' && depth > 0) {
+                int parent = stack[--depth];
+                if (types[parent] == TYPE_DICT && children[depth] % 2 == 1) {
+                    throw new BEncodingException("BDecoder: invalid input data, missing value in dictionary");
+                }
+                ends[parent] = ++pos;
+                nexts[parent] = count;
+                continue;
+            }
+
+            boolean key = false;
+            if (depth > 0) {
+                key = types[stack[depth - 1]] == TYPE_DICT && children[depth - 1] % 2 == 0;
+                children[depth - 1]++;
+            }
+
+            int t = add(pos);
+
+            switch (b) {
+            case 'd':
+            case 'l':
+                if (key) {
+                    throw new BEncodingException("BDecoder: invalid input data, dictionary key isn't a string");
+                }
+                if (depth == MAX_NESTING) {
+                    throw new BEncodingException("BDecoder: invalid input data, nesting too deep");
+                }
+                types[t] = b == 'd' ? TYPE_DICT : TYPE_LIST;
+                children[depth] = 0;
+                prevKeys[depth] = -1;
+                stack[depth++] = t;
+                pos++;
+                break;
+
+            case 'i':
+                if (key) {
+                    throw new BEncodingException("BDecoder: invalid input data, dictionary key isn't a string");
+                }
+                types[t] = TYPE_INT;
+                pos = scanInt(pos + 1, limit);
+                ends[t] = pos;
+                nexts[t] = count;
+                break;
+
+            default:
+                if (b < '0' || b > '9') {
+                    throw new BEncodingException("BDecoder: unknown command '" + b + "'");
+                }
+                types[t] = TYPE_STRING;
+                pos = scanString(pos, limit);
+                ends[t] = pos;
+                nexts[t] = count;
+
+                if (key) {
+                    checkKey(t, prevKeys[depth - 1]);
+                    prevKeys[depth - 1] = t;
+                }
+                break;
+            }
+        } while (depth > 0);
+    }
+
+    private int add(int pos) {
+        if (count == types.length) {
+            int capacity = count * 2;
+            types = copyOf(types, capacity);
+            starts = copyOf(starts, capacity);
+            ends = copyOf(ends, capacity);
+            nexts = copyOf(nexts, capacity);
+        }
+        starts[count] = pos;
+        return count++;
+    }
+
+    // returns the position after the closing 'e'
+    private int scanInt(int pos, int limit) throws BEncodingException {
+        int start = pos;
+        if (pos < limit && buffer.get(pos) == '-') {
+            pos++;
+        }
+        int digits = pos;
+        while (pos < limit && buffer.get(pos) >= '0' && buffer.get(pos) <= '9') {
+            pos++;
+        }
+        int n = pos - digits;
+        if (n == 0 || n > 19 || pos >= limit || buffer.get(pos) != 'e') {
+            throw new BEncodingException("BDecoder: invalid integer at " + start);
+        }
+        if ((n > 1 && buffer.get(digits) == '0') || (digits > start && buffer.get(digits) == '0')) {
+            canonical = false;
+        }
+        return pos + 1;
+    }
+
+    // returns the position after the string data
+    private int scanString(int pos, int limit) throws BEncodingException {
+        int start = pos;
+        long length = 0;
+        while (pos < limit && buffer.get(pos) != ':') {
+            byte b = buffer.get(pos);
+            if (b < '0' || b > '9' || pos - start > 9) {
+                throw new BEncodingException("BDecoder: invalid string length at " + start);
+            }
+            length = length * 10 + (b - '0');
+            pos++;
+        }
+        if (pos >= limit || pos + 1 + length > limit) {
+            throw new BEncodingException("BDecoder::getByteArrayFromStream: truncated");
+        }
+        if (pos - start > 1 && buffer.get(start) == '0') {
+            canonical = false;
+        }
+        return (int) (pos + 1 + length);
+    }
+
+    // keys must be ascii and strictly ascending for the encoding to be canonical
+    private void checkKey(int key, int prev) {
+        int offset = stringOffset(key);
+        int length = ends[key] - offset;
+
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(offset + i) < 0) {
+                canonical = false;
+                break;
+            }
+        }
+
+        if (prev != -1 && compareStrings(prev, key) >= 0) {
+            canonical = false;
+        }
+    }
+
+    private int compareStrings(int a, int b) {
+        int offsetA = stringOffset(a);
+        int offsetB = stringOffset(b);
+        int lengthA = ends[a] - offsetA;
+        int lengthB = ends[b] - offsetB;
+
+        int n = Math.min(lengthA, lengthB);
+        for (int i = 0; i < n; i++) {
+            int x = buffer.get(offsetA + i) & 0xff;
+            int y = buffer.get(offsetB + i) & 0xff;
+            if (x != y) {
+                return x - y;
+            }
+        }
+        return lengthA - lengthB;
+    }
+
+    private int stringOffset(int t) {
+        int pos = starts[t];
+        while (buffer.get(pos) != ':') {
+            pos++;
+        }
+        return pos + 1;
+    }
+
+    private long longValue(int t) {
+        int pos = starts[t] + 1;
+        int end = ends[t] - 1;
+
+        boolean negative = buffer.get(pos) == '-';
+        if (negative) {
+            pos++;
+        }
+
+        long value = 0;
+        while (pos < end) {
+            value = value * 10 + (buffer.get(pos++) - '0');
+        }
+
+        return negative ? -value : value;
+    }
+
+    private byte[] bytesValue(int t) {
+        int offset = stringOffset(t);
+        byte[] bytes = new byte[ends[t] - offset];
+
+        ByteBuffer bb = buffer.duplicate();
+        bb.position(offset);
+        bb.get(bytes);
+
+        return bytes;
+    }
+
+    private String keyValue(int t) {
+        int offset = stringOffset(t);
+        int length = ends[t] - offset;
+
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (buffer.get(offset + i) & 0xff);
+        }
+
+        return new String(chars);
+    }
+
+    private Object value(int t) {
+        switch (types[t]) {
+        case TYPE_DICT:
+            return new LazyMap(t);
+        case TYPE_LIST:
+            return new LazyList(t);
+        case TYPE_INT:
+            return Long.valueOf(longValue(t));
+        default:
+            return bytesValue(t);
+        }
+    }
+
+    private ByteBuffer slice(int start, int end) {
+        ByteBuffer bb = buffer.duplicate();
+        bb.limit(end).position(start);
+        return bb.slice();
+    }
+
+    private static byte[] copyOf(byte[] a, int length) {
+        byte[] r = new byte[length];
+        System.arraycopy(a, 0, r, 0, Math.min(a.length, length));
+        return r;
+    }
+
+    private static int[] copyOf(int[] a, int length) {
+        int[] r = new int[length];
+        System.arraycopy(a, 0, r, 0, Math.min(a.length, length));
+        return r;
+    }
+
+    /**
+     * A dictionary of the buffer. Keys are decoded when the map is first used,
+     * values when they are first read.
+     */
+    public final class LazyMap extends AbstractMap<String, Object> {
+
+        private final int token;
+
+        private String[] keys;
+        private int[] valueTokens;
+        private Object[] values;
+
+        private LazyMap(int token) {
+            this.token = token;
+        }
+
+        @Override
+        public int size() {
+            index();
+            return keys.length;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return indexOf(key) != -1;
+        }
+
+        @Override
+        public Object get(Object key) {
+            int i = indexOf(key);
+            return i != -1 ? valueAt(i) : null;
+        }
+
+        /**
+         * The data of a string value as a slice of the decoded buffer, without copying it.
+         * 
+         * @return null if there is no such key or the value isn't a string
+         */
+        public ByteBuffer getBuffer(String key) {
+            int i = indexOf(key);
+            if (i == -1 || types[valueTokens[i]] != TYPE_STRING) {
+                return null;
+            }
+            int t = valueTokens[i];
+            return slice(stringOffset(t), ends[t]);
+        }
+
+        /**
+         * The encoded form of this dictionary as a slice of the decoded buffer.
+         */
+        public ByteBuffer getEncoded() {
+            return slice(starts[token], ends[token]);
+        }
+
+        /**
+         * True if the whole buffer is in canonical form (sorted ascii keys, no leading zeros),
+         * so the encoded slices are what encoding the decoded values would produce.
+         */
+        public boolean isCanonical() {
+            return canonical;
+        }
+
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            return new AbstractSet<Map.Entry<String, Object>>() {
+                @Override
+                public Iterator<Map.Entry<String, Object>> iterator() {
+                    index();
+                    return new Iterator<Map.Entry<String, Object>>() {
+                        private int i = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return i < keys.length;
+                        }
+
+                        @Override
+                        public Map.Entry<String, Object> next() {
+                            if (i >= keys.length) {
+                                throw new NoSuchElementException();
+                            }
+                            return new LazyEntry(i++);
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return LazyMap.this.size();
+                }
+            };
+        }
+
+        private int indexOf(Object key) {
+            index();
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private Object valueAt(int i) {
+            Object v = values[i];
+            if (v == null) {
+                v = values[i] = value(valueTokens[i]);
+            }
+            return v;
+        }
+
+        private void index() {
+            if (keys != null) {
+                return;
+            }
+
+            int n = 0;
+            for (int t = token + 1; t < nexts[token]; t = nexts[nexts[t]]) {
+                n++;
+            }
+
+            String[] keys = new String[n];
+            int[] valueTokens = new int[n];
+
+            int i = 0;
+            for (int t = token + 1; t < nexts[token]; t = nexts[nexts[t]]) {
+                keys[i] = keyValue(t);
+                valueTokens[i] = nexts[t];
+                i++;
+            }
+
+            this.valueTokens = valueTokens;
+            this.values = new Object[n];
+            this.keys = keys;
+        }
+
+        private final class LazyEntry implements Map.Entry<String, Object> {
+
+            private final int i;
+
+            LazyEntry(int i) {
+                this.i = i;
+            }
+
+            @Override
+            public String getKey() {
+                return keys[i];
+            }
+
+            @Override
+            public Object getValue() {
+                return valueAt(i);
+            }
+
+            @Override
+            public Object setValue(Object value) {
+                throw new UnsupportedOperationException();
+            }
+        }
+    }
+
+    /**
+     * A list of the buffer, elements are built when first read.
+     */
+    public final class LazyList extends AbstractList<Object> {
+
+        private final int token;
+
+        private int[] elementTokens;
+        private Object[] elements;
+
+        private LazyList(int token) {
+            this.token = token;
+        }
+
+        @Override
+        public int size() {
+            index();
+            return elementTokens.length;
+        }
+
+        @Override
+        public Object get(int index) {
+            index();
+            Object v = elements[index];
+            if (v == null) {
+                v = elements[index] = value(elementTokens[index]);
+            }
+            return v;
+        }
+
+        private void index() {
+            if (elementTokens != null) {
+                return;
+            }
+
+            int n = 0;
+            for (int t = token + 1; t < nexts[token]; t = nexts[t]) {
+                n++;
+            }
+
+            int[] elementTokens = new int[n];
+
+            int i = 0;
+            for (int t = token + 1; t < nexts[token]; t = nexts[t]) {
+                elementTokens[i++] = t;
+            }
+
+            this.elements = new Object[n];
+            this.elementTokens = elementTokens;
+        }
+    }
+}
@@ -25,6 +25,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -46,6 +47,10 @@ final class TOTorrentDeserialiseImpl extends TOTorrentImpl {
         construct(map);
     }
 
+    public TOTorrentDeserialiseImpl(ByteBuffer buffer) throws TOTorrentException {
+        construct(buffer);
+    }
+
     protected void construct(InputStream is) throws TOTorrentException {
         ByteArrayOutputStream metaInfo = new ByteArrayOutputStream();
 
@@ -121,6 +126,25 @@ final class TOTorrentDeserialiseImpl extends TOTorrentImpl {
         }
     }
 
+    /**
+     * Decodes lazily, only what the torrent reads is built and the pieces are kept
+     * as a slice of the buffer until asked for.
+     */
+    protected void construct(ByteBuffer buffer) throws TOTorrentException {
+        if (!buffer.hasRemaining() || buffer.get(buffer.position()) != 'd') {
+
+            throw (new TOTorrentException("Contents invalid - bad header", TOTorrentException.RT_DECODE_FAILS));
+        }
+
+        try {
+            construct(LazyBDecoder.decode(buffer));
+
+        } catch (IOException e) {
+
+            throw (new TOTorrentException("Error reading torrent: " + Debug.getNestedExceptionMessage(e), TOTorrentException.RT_DECODE_FAILS, e));
+        }
+    }
+
     @SuppressWarnings("unchecked")
     protected void construct(Map<String, Object> meta_data) throws TOTorrentException {
         try {
@@ -347,7 +371,16 @@ final class TOTorrentDeserialiseImpl extends TOTorrentImpl {
 
             setPieceLength(piece_length);
 
-            setHashFromInfo(info);
+            if (info instanceof LazyBDecoder.LazyMap && ((LazyBDecoder.LazyMap) info).isCanonical()) {
+
+                // encoding the info map again would give back these same bytes
+
+                setHashFromEncodedInfo(((LazyBDecoder.LazyMap) info).getEncoded());
+
+            } else {
+
+                setHashFromInfo(info);
+            }
 
             Long simple_file_length = (Long) info.get(TK_LENGTH);
 
@@ -451,13 +484,24 @@ final class TOTorrentDeserialiseImpl extends TOTorrentImpl {
                 setFiles(files);
             }
 
-            byte[] flat_pieces = (byte[]) info.get(TK_PIECES);
+            ByteBuffer pieces_buffer = null;
+
+            byte[] flat_pieces = null;
+
+            if (info instanceof LazyBDecoder.LazyMap) {
+
+                pieces_buffer = ((LazyBDecoder.LazyMap) info).getBuffer(TK_PIECES);
+
+            } else {
+
+                flat_pieces = (byte[]) info.get(TK_PIECES);
+            }
 
             // work out how many pieces we require for the torrent
 
             int pieces_required = (int) ((total_length + (piece_length - 1)) / piece_length);
 
-            int pieces_supplied = flat_pieces.length / 20;
+            int pieces_supplied = (pieces_buffer != null ? pieces_buffer.remaining() : flat_pieces.length) / 20;
 
             if (pieces_supplied < pieces_required) {
 
@@ -469,14 +513,23 @@ final class TOTorrentDeserialiseImpl extends TOTorrentImpl {
                 Debug.out("Torrent '" + new String(getName()) + "' has too many pieces (required=" + pieces_required + ",supplied=" + pieces_supplied + ") - ignoring excess");
             }
 
-            byte[][] pieces = new byte[pieces_supplied][20];
+            if (pieces_buffer != null) {
 
-            for (int i = 0; i < pieces.length; i++) {
+                pieces_buffer.limit(pieces_supplied * 20);
 
-                System.arraycopy(flat_pieces, i * 20, pieces[i], 0, 20);
-            }
+                setPieces(pieces_buffer);
+
+            } else {
+
+                byte[][] pieces = new byte[pieces_supplied][20];
 
-            setPieces(pieces);
+                for (int i = 0; i < pieces.length; i++) {
+
+                    System.arraycopy(flat_pieces, i * 20, pieces[i], 0, 20);
+                }
+
+                setPieces(pieces);
+            }
 
             // extract and additional info elements
 
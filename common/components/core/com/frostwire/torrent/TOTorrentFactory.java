@@ -24,6 +24,7 @@ package com.frostwire.torrent;
 import java.io.File;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 public class TOTorrentFactory {
@@ -56,6 +57,14 @@ public class TOTorrentFactory {
         return new TOTorrentDeserialiseImpl(bytes);
     }
 
+    /**
+     * Decodes lazily over the buffer, cheaper when only part of the torrent is read.
+     * The buffer must not change while the torrent is in use.
+     */
+    public static TOTorrent deserialiseFromBEncodedByteBuffer(ByteBuffer buffer) throws TOTorrentException {
+        return new TOTorrentDeserialiseImpl(buffer);
+    }
+
     public static TOTorrent deserialiseFromMap(Map<String, Object> data) throws TOTorrentException {
         return new TOTorrentDeserialiseImpl(data);
     }
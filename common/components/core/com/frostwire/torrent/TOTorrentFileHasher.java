@@ -23,14 +23,39 @@
 
 package com.frostwire.torrent;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.frostwire.concurrent.DefaultThreadFactory;
 
 public class TOTorrentFileHasher {
+
+    // whole pieces are mapped from the file in windows of about this size
+    private static final int MAP_WINDOW_SIZE = 8 * 1024 * 1024;
+
+    private static final int HASH_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    // pieces queued or being hashed, bounds the memory held by the pipeline
+    private static final int MAX_PENDING_PIECES = HASH_THREADS * 2;
+
+    private static final ThreadLocal<SHA1Hasher> PIECE_HASHER = new ThreadLocal<SHA1Hasher>() {
+        @Override
+        protected SHA1Hasher initialValue() {
+            return new SHA1Hasher();
+        }
+    };
+
     protected boolean do_other_per_file_hash;
     protected int piece_length;
 
@@ -50,7 +75,12 @@ public class TOTorrentFileHasher {
 
     protected TOTorrentFileHasherListener listener;
 
-    protected boolean cancelled;
+    protected volatile boolean cancelled;
+
+    // piece hashes in piece order, collected from the head as they complete
+    private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+
+    private ThreadPoolExecutor executor;
 
     protected TOTorrentFileHasher(boolean _do_other_overall_hashes, boolean _do_other_per_file_hash, int _piece_length, TOTorrentFileHasherListener _listener) {
         if (_do_other_overall_hashes) {
@@ -71,7 +101,7 @@ public class TOTorrentFileHasher {
     throws TOTorrentException {
         long file_length = 0;
 
-        InputStream is = null;
+        RandomAccessFile raf = null;
 
         SHA1Hasher sha1_hash = null;
         //ED2KHasher	ed2k_hash		= null;
@@ -83,22 +113,61 @@ public class TOTorrentFileHasher {
                 //ed2k_hash		= new ED2KHasher();
             }
 
-            is = new BufferedInputStream(new FileInputStream(_file), 65536);
+            raf = new RandomAccessFile(_file, "r");
 
-            while (true) {
+            FileChannel channel = raf.getChannel();
 
-                if (cancelled) {
-                    try {
-                        is.close();
-                    } catch (IOException e) {
-                        // ignore
+            long size = channel.size();
+
+            while (file_length < size) {
+
+                checkCancelled();
+
+                if (buffer_pos == 0 && size - file_length >= piece_length) {
+
+                    // whole pieces, hashed straight from the page cache
+
+                    long whole_pieces = (size - file_length) / piece_length;
+
+                    int window_pieces = (int) Math.min(whole_pieces, Math.max(1, MAP_WINDOW_SIZE / piece_length));
+
+                    int window_length = window_pieces * piece_length;
+
+                    ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, file_length, window_length);
+
+                    for (int i = 0; i < window_pieces; i++) {
+
+                        checkCancelled();
+
+                        window.limit((i + 1) * piece_length).position(i * piece_length);
+
+                        ByteBuffer piece = window.slice();
+
+                        if (do_other_per_file_hash) {
+
+                            sha1_hash.update(piece.duplicate());
+                        }
+
+                        if (overall_sha1_hash != null) {
+
+                            overall_sha1_hash.update(piece.duplicate());
+                        }
+
+                        hashPiece(piece);
                     }
-                    throw (new TOTorrentException("TOTorrentCreate: operation cancelled", TOTorrentException.RT_CANCELLED));
-                }
 
-                int len = is.read(buffer, buffer_pos, piece_length - buffer_pos);
+                    file_length += window_length;
+
+                } else {
 
-                if (len > 0) {
+                    // a piece spanning files, or the tail of this one
+
+                    int len = channel.read(ByteBuffer.wrap(buffer, buffer_pos, (int) Math.min(piece_length - buffer_pos, size - file_length)), file_length);
+
+                    if (len <= 0) {
+
+                        break;
+                    }
 
                     if (do_other_per_file_hash) {
 
@@ -112,28 +181,20 @@ public class TOTorrentFileHasher {
 
                     if (buffer_pos == piece_length) {
 
-                        // hash this piece
-
-                        byte[] hash = new SHA1Hasher().calculateHash(buffer);
-
                         if (overall_sha1_hash != null) {
 
                             overall_sha1_hash.update(buffer);
                             //overall_ed2k_hash.update( buffer );
                         }
 
-                        pieces.add(hash);
+                        // the buffer goes with the piece, the next one starts fresh
 
-                        if (listener != null) {
+                        hashPiece(ByteBuffer.wrap(buffer));
 
-                            listener.pieceHashed(pieces.size());
-                        }
+                        buffer = new byte[piece_length];
 
                         buffer_pos = 0;
                     }
-                } else {
-
-                    break;
                 }
             }
 
@@ -145,15 +206,19 @@ public class TOTorrentFileHasher {
 
         } catch (TOTorrentException e) {
 
+            shutdown();
+
             throw (e);
 
         } catch (Throwable e) {
 
+            shutdown();
+
             throw (new TOTorrentException("TOTorrentFileHasher: file read fails '" + e.toString() + "'", TOTorrentException.RT_READ_FAILS));
         } finally {
-            if (is != null) {
+            if (raf != null) {
                 try {
-                    is.close();
+                    raf.close();
                 } catch (Exception e) {
                 }
             }
@@ -182,22 +247,26 @@ public class TOTorrentFileHasher {
 
                 System.arraycopy(buffer, 0, rem, 0, buffer_pos);
 
-                pieces.addElement(new SHA1Hasher().calculateHash(rem));
-
                 if (overall_sha1_hash != null) {
 
                     overall_sha1_hash.update(rem);
                     //overall_ed2k_hash.update( rem );
                 }
 
-                if (listener != null) {
-
-                    listener.pieceHashed(pieces.size());
-                }
+                hashPiece(ByteBuffer.wrap(rem));
 
                 buffer_pos = 0;
             }
 
+            while (!pending.isEmpty()) {
+
+                checkCancelled();
+
+                collectPiece();
+            }
+
+            shutdown();
+
             if (overall_sha1_hash != null && sha1_digest == null) {
 
                 sha1_digest = overall_sha1_hash.getDigest();
@@ -210,8 +279,16 @@ public class TOTorrentFileHasher {
 
             return (res);
 
+        } catch (TOTorrentException e) {
+
+            shutdown();
+
+            throw (e);
+
         } catch (Throwable e) {
 
+            shutdown();
+
             throw (new TOTorrentException("TOTorrentFileHasher: file read fails '" + e.toString() + "'", TOTorrentException.RT_READ_FAILS));
         }
     }
@@ -243,4 +320,69 @@ public class TOTorrentFileHasher {
     protected void cancel() {
         cancelled = true;
     }
+
+    /**
+     * Queues the piece on the hashing threads. The buffer must not be modified
+     * afterwards. Once enough pieces are in flight the oldest one is waited for,
+     * so pieces are recorded, and reported to the listener, in order and from
+     * the calling thread.
+     */
+    private void hashPiece(final ByteBuffer piece) throws Exception {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(HASH_THREADS, HASH_THREADS, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DefaultThreadFactory("TOTorrentFileHasher", true));
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        pending.addLast(executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                if (cancelled) {
+                    return null;
+                }
+                return PIECE_HASHER.get().calculateHash(piece);
+            }
+        }));
+
+        while (pending.size() >= MAX_PENDING_PIECES) {
+
+            collectPiece();
+        }
+    }
+
+    private void collectPiece() throws Exception {
+        Future<byte[]> f = pending.removeFirst();
+
+        byte[] hash;
+
+        try {
+            hash = f.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+
+        checkCancelled();
+
+        pieces.add(hash);
+
+        if (listener != null) {
+
+            listener.pieceHashed(pieces.size());
+        }
+    }
+
+    private void checkCancelled() throws TOTorrentException {
+        if (cancelled) {
+            throw (new TOTorrentException("TOTorrentCreate: operation cancelled", TOTorrentException.RT_CANCELLED));
+        }
+    }
+
+    private void shutdown() {
+        pending.clear();
+
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
 }
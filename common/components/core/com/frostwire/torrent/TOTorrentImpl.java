@@ -27,6 +27,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -78,6 +79,7 @@ class TOTorrentImpl implements TOTorrent {
 
     private long piece_length;
     private byte[][] pieces;
+    private ByteBuffer flat_pieces;
     private int number_of_pieces;
 
     private byte[] torrent_hash_override;
@@ -322,16 +324,37 @@ class TOTorrentImpl implements TOTorrent {
 
         info.put(TK_PIECE_LENGTH, Long.valueOf(piece_length));
 
-        if (pieces == null) {
+        byte[][] pieces;
+        ByteBuffer pieces_buffer;
 
-            throw (new TOTorrentException("Pieces is null", TOTorrentException.RT_WRITE_FAILS));
+        synchronized (this) {
+            pieces = this.pieces;
+            pieces_buffer = this.flat_pieces;
         }
 
-        byte[] flat_pieces = new byte[pieces.length * 20];
+        byte[] flat_pieces;
 
-        for (int i = 0; i < pieces.length; i++) {
+        if (pieces_buffer != null) {
 
-            System.arraycopy(pieces[i], 0, flat_pieces, i * 20, 20);
+            // still as decoded, no need to split it first
+
+            flat_pieces = new byte[pieces_buffer.remaining()];
+
+            pieces_buffer.duplicate().get(flat_pieces);
+
+        } else {
+
+            if (pieces == null) {
+
+                throw (new TOTorrentException("Pieces is null", TOTorrentException.RT_WRITE_FAILS));
+            }
+
+            flat_pieces = new byte[pieces.length * 20];
+
+            for (int i = 0; i < pieces.length; i++) {
+
+                System.arraycopy(pieces[i], 0, flat_pieces, i * 20, 20);
+            }
         }
 
         info.put(TK_PIECES, flat_pieces);
@@ -563,6 +586,16 @@ class TOTorrentImpl implements TOTorrent {
         }
     }
 
+    /**
+     * Sets the hash from the info dictionary as it was read, the caller must make sure
+     * it is exactly what encoding the info map again would produce.
+     */
+    protected void setHashFromEncodedInfo(ByteBuffer info) {
+        torrent_hash = new SHA1Hasher().calculateHash(info.duplicate());
+
+        torrent_hash_wrapper = new HashWrapper(torrent_hash);
+    }
+
     public void setHashOverride(byte[] hash)
 
     throws TOTorrentException {
@@ -661,11 +694,45 @@ class TOTorrentImpl implements TOTorrent {
     }
 
     public byte[][] getPieces() {
+        synchronized (this) {
+            if (pieces == null && flat_pieces != null) {
+
+                byte[][] res = new byte[flat_pieces.remaining() / 20][20];
+
+                ByteBuffer bb = flat_pieces.duplicate();
+
+                for (int i = 0; i < res.length; i++) {
+
+                    bb.get(res[i]);
+                }
+
+                pieces = res;
+
+                flat_pieces = null;
+            }
+        }
+
         return (pieces);
     }
 
     public void setPieces(byte[][] _pieces) {
-        pieces = _pieces;
+        synchronized (this) {
+            pieces = _pieces;
+
+            flat_pieces = null;
+        }
+    }
+
+    /**
+     * Keeps the concatenated piece hashes as given, they are only split into
+     * pieces if {@link #getPieces()} is called. The buffer must not change.
+     */
+    protected void setPieces(ByteBuffer _flat_pieces) {
+        synchronized (this) {
+            pieces = null;
+
+            flat_pieces = _flat_pieces;
+        }
     }
 
     public int getFileCount() {
@@ -954,6 +1021,8 @@ class TOTorrentImpl implements TOTorrent {
                 }
             }
 
+            byte[][] pieces = getPieces();
+
             if (pieces == null) {
 
                 System.out.println("\tpieces = null");
@@ -33,6 +33,7 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -70,6 +71,14 @@ public final class TorrentUtils {
         return torrent;
     }
 
+    public static TOTorrent readFromBEncodedByteBuffer(ByteBuffer buffer) throws TOTorrentException {
+        TOTorrent torrent = TOTorrentFactory.deserialiseFromBEncodedByteBuffer(buffer);
+
+        torrent.removeAdditionalProperties();
+
+        return torrent;
+    }
+
     public static void writeToFile(final TOTorrent torrent) throws TOTorrentException {
         writeToFile(torrent, false);
     }
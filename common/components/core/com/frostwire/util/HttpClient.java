@@ -58,6 +58,39 @@ public interface HttpClient {
 
     public void save(String url, File file, boolean resume, int timeout, String userAgent) throws IOException;
 
+    /**
+     * Downloads the url using up to the given number of connections, each one with
+     * its own range request written in place in the (preallocated) file. When a
+     * connection finishes its range it takes half of the biggest range left.
+     * 
+     * If the server doesn't support ranges it is a single stream download.
+     * The listener is called from one thread at a time, the headers are passed
+     * before checking the response code.
+     * 
+     * @param url
+     * @param file
+     * @param connections
+     * @param timeout
+     * @param userAgent
+     * @throws IOException
+     */
+    public void save(String url, File file, int connections, int timeout, String userAgent) throws IOException;
+
+    /**
+     * Same as the segmented save, but keeping the ranges left and the validators
+     * in the given state. If the state is resumable and the file is there, the
+     * download continues where it was (with If-Range), otherwise it starts over.
+     * 
+     * @param url
+     * @param file
+     * @param connections
+     * @param timeout
+     * @param userAgent
+     * @param state
+     * @throws IOException
+     */
+    public void save(String url, File file, int connections, int timeout, String userAgent, HttpResumeState state) throws IOException;
+
     public String post(String url, int timeout, String userAgent, Map<String, String> formData);
 
     public String post(String url, int timeout, String userAgent, String content, boolean gzip) throws IOException;
@@ -0,0 +1,170 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The ranges of a segmented download still to be downloaded, with the validators
+ * (ETag/Last-Modified) of the file, enough to continue the download after a
+ * restart with range requests.
+ * 
+ * Only the bytes already forced to the storage count as done, what a crash
+ * could lose is downloaded again.
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class HttpResumeState {
+
+    private String etag;
+    private String lastModified;
+    private long total;
+
+    // guarded by this, shared with the segmented download of JdkHttpClient
+    final List<Range> ranges;
+
+    public HttpResumeState() {
+        this.total = -1;
+        this.ranges = new ArrayList<Range>();
+    }
+
+    /**
+     * @param total
+     * @param etag
+     * @param lastModified
+     * @param pending pairs of start (inclusive) and end (exclusive) of the ranges left
+     */
+    public HttpResumeState(long total, String etag, String lastModified, long[] pending) {
+        this();
+        this.total = total;
+        this.etag = etag;
+        this.lastModified = lastModified;
+
+        if (pending != null) {
+            for (int i = 0; i + 1 < pending.length; i += 2) {
+                if (pending[i] < pending[i + 1]) {
+                    ranges.add(new Range(pending[i], pending[i + 1]));
+                }
+            }
+        }
+    }
+
+    public synchronized String getETag() {
+        return etag;
+    }
+
+    public synchronized String getLastModified() {
+        return lastModified;
+    }
+
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    /**
+     * True if there is something left and a validator to make sure the file
+     * in the server is the same.
+     * 
+     * @return
+     */
+    public synchronized boolean isResumable() {
+        return total > 0 && (etag != null || lastModified != null) && getPendingBytes() > 0;
+    }
+
+    /**
+     * True if the whole file is safely in the storage.
+     * 
+     * @return
+     */
+    public synchronized boolean isComplete() {
+        return total > 0 && getPendingBytes() == 0;
+    }
+
+    /**
+     * The bytes safely in the storage.
+     * 
+     * @return
+     */
+    public synchronized long getCommitted() {
+        return total > 0 ? total - getPendingBytes() : 0;
+    }
+
+    /**
+     * @return pairs of start (inclusive) and end (exclusive) of the ranges left
+     */
+    public synchronized long[] getPendingRanges() {
+        List<Range> list = new ArrayList<Range>(ranges.size());
+        for (Range r : ranges) {
+            if (r.durable < r.end) {
+                list.add(r);
+            }
+        }
+
+        long[] pending = new long[list.size() * 2];
+        for (int i = 0; i < list.size(); i++) {
+            pending[2 * i] = list.get(i).durable;
+            pending[2 * i + 1] = list.get(i).end;
+        }
+        return pending;
+    }
+
+    synchronized void reset(long total, String etag, String lastModified) {
+        this.total = total;
+        this.etag = etag;
+        this.lastModified = lastModified;
+
+        ranges.clear();
+        if (total > 0) {
+            ranges.add(new Range(0, total));
+        }
+    }
+
+    private long getPendingBytes() {
+        long pending = 0;
+        for (Range r : ranges) {
+            pending += r.end - r.durable;
+        }
+        return pending;
+    }
+
+    /**
+     * position: reserved by the connection owning the range
+     * committed: written to the file
+     * durable: forced to the storage
+     * end: exclusive, moves back when another connection takes the second half
+     */
+    static final class Range {
+
+        public long position;
+        public long committed;
+        public long durable;
+        public long end;
+        public boolean owned;
+
+        public Range(long start, long end) {
+            this.position = start;
+            this.committed = start;
+            this.durable = start;
+            this.end = end;
+        }
+    }
+}
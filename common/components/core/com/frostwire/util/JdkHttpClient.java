@@ -26,12 +26,22 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -39,6 +49,7 @@ import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSession;
 
+import com.frostwire.concurrent.DefaultThreadFactory;
 import com.frostwire.logging.Logger;
 
 /**
@@ -53,9 +64,17 @@ final class JdkHttpClient implements HttpClient {
 
     private static final int DEFAULT_TIMEOUT = 10000;
     private static final String DEFAULT_USER_AGENT = UserAgentGenerator.getUserAgent();
+
+    private static final int SEGMENT_BUFFER_SIZE = 16 * 1024;
+    private static final long MIN_SEGMENT_SIZE = 256 * 1024; // 256KB
+    private static final int MAX_SEGMENT_RETRIES = 3;
+    private static final long FORCE_INTERVAL_BYTES = 4 * 1024 * 1024; // 4MB
+
+    private static final ExecutorService segmentExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new DefaultThreadFactory("HttpClient-Segment", true));
+
     private HttpClientListener listener;
 
-    private boolean canceled;
+    private volatile boolean canceled;
     
     @Override
     public int head(String url, int connectTimeoutInMillis) throws IOException {
@@ -159,7 +178,103 @@ final class JdkHttpClient implements HttpClient {
             closeQuietly(fos);
         }
     }
-    
+
+    @Override
+    public void save(String url, File file, int connections, int timeout, String userAgent) throws IOException {
+        save(url, file, connections, timeout, userAgent, new HttpResumeState());
+    }
+
+    @Override
+    public void save(String url, File file, int connections, int timeout, String userAgent, HttpResumeState state) throws IOException {
+        canceled = false;
+
+        if (state.isResumable() && file.exists() && file.length() == state.getTotal()) {
+            if (resume(url, file, connections, timeout, userAgent, state)) {
+                return;
+            }
+            LOG.info("Unable to resume, the file changed or ranges are not supported, starting over: " + url);
+        }
+
+        // asking for the whole file as a range tells if the server supports ranges without an extra request
+        URLConnection conn = openConnection(url, timeout, userAgent, null, null);
+        conn.setRequestProperty("Range", buildRange(0, -1));
+        conn.setRequestProperty("Accept-Encoding", "identity");
+
+        int httpResponseCode = getResponseCode(conn);
+        onHeaders(conn.getHeaderFields());
+
+        if (httpResponseCode != HttpURLConnection.HTTP_OK && httpResponseCode != HttpURLConnection.HTTP_PARTIAL) {
+            closeQuietly(conn);
+            throw new ResponseCodeNotSupportedException(httpResponseCode);
+        }
+
+        InputStream in = conn.getInputStream();
+
+        long total = getContentRangeTotal(conn);
+
+        if (httpResponseCode == HttpURLConnection.HTTP_PARTIAL && total > 0 && connections > 1 && !"gzip".equals(conn.getContentEncoding())) {
+            state.reset(total, conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"));
+            new SegmentedSave(url, timeout, userAgent, connections, state).save(file, false, 0, conn, in);
+        } else {
+            state.reset(-1, null, null); // nothing to resume in a single stream
+            FileOutputStream fos = null;
+            try {
+                fos = new FileOutputStream(file, false);
+                if ("gzip".equals(conn.getContentEncoding())) {
+                    in = new GZIPInputStream(in);
+                }
+
+                byte[] b = new byte[SEGMENT_BUFFER_SIZE];
+                int n = 0;
+                while (!canceled && (n = in.read(b, 0, b.length)) != -1) {
+                    fos.write(b, 0, n);
+                    onData(b, 0, n);
+                }
+
+                closeQuietly(fos);
+
+                if (canceled) {
+                    onCancel();
+                } else {
+                    onComplete();
+                }
+            } catch (Exception e) {
+                onError(e);
+            } finally {
+                closeQuietly(fos);
+                closeQuietly(in);
+                closeQuietly(conn);
+            }
+        }
+    }
+
+    /**
+     * Continues with the ranges left, the first one with If-Range, if the file
+     * in the server changed the answer is the whole file (200) and it returns false.
+     */
+    private boolean resume(String url, File file, int connections, int timeout, String userAgent, HttpResumeState state) throws IOException {
+        long[] pending = state.getPendingRanges();
+        String validator = state.getETag() != null ? state.getETag() : state.getLastModified();
+
+        URLConnection conn = openConnection(url, timeout, userAgent, null, null);
+        conn.setRequestProperty("Range", buildRange(pending[0], pending[1] - pending[0] - 1));
+        conn.setRequestProperty("If-Range", validator);
+        conn.setRequestProperty("Accept-Encoding", "identity");
+
+        int httpResponseCode = getResponseCode(conn);
+        if (httpResponseCode != HttpURLConnection.HTTP_PARTIAL) {
+            closeQuietly(conn);
+            return false;
+        }
+
+        onHeaders(conn.getHeaderFields());
+
+        InputStream in = conn.getInputStream();
+        new SegmentedSave(url, timeout, userAgent, connections, state).save(file, true, pending[0], conn, in);
+
+        return true;
+    }
+
     @Override
     public String post(String url, int timeout, String userAgent, String content, String postContentType, boolean gzip) throws IOException {
         String result = null;
@@ -267,17 +382,30 @@ final class JdkHttpClient implements HttpClient {
         return result;
     }
 
-    private String buildRange(int rangeStart, int rangeLength) {
+    private String buildRange(long rangeStart, long rangeLength) {
         String prefix = "bytes=" + rangeStart + "-";
         return prefix + ((rangeLength > -1) ? (rangeStart + rangeLength) : "");
     }
 
-    private void get(String url, OutputStream out, int timeout, String userAgent, String referrer, String cookie, int rangeStart) throws IOException {
-        get(url, out, timeout, userAgent, referrer, cookie, rangeStart, -1, null);
+    /**
+     * The total length in a "Content-Range: bytes 0-999/1000" header, -1 if unknown.
+     */
+    private static long getContentRangeTotal(URLConnection conn) {
+        String contentRange = conn.getHeaderField("Content-Range");
+        if (contentRange != null) {
+            int i = contentRange.lastIndexOf('/');
+            if (i != -1) {
+                try {
+                    return Long.parseLong(contentRange.substring(i + 1).trim());
+                } catch (NumberFormatException e) {
+                    // unknown (*) or invalid
+                }
+            }
+        }
+        return -1;
     }
 
-    private void get(String url, OutputStream out, int timeout, String userAgent, String referrer, String cookie, int rangeStart, int rangeLength, final Map<String, String> customHeaders) throws IOException {
-        canceled = false;
+    private URLConnection openConnection(String url, int timeout, String userAgent, String referrer, String cookie) throws IOException {
         final URL u = new URL(url);
         final URLConnection conn = u.openConnection();
 
@@ -301,6 +429,17 @@ final class JdkHttpClient implements HttpClient {
             setHostnameVerifier((HttpsURLConnection) conn);
         }
 
+        return conn;
+    }
+
+    private void get(String url, OutputStream out, int timeout, String userAgent, String referrer, String cookie, int rangeStart) throws IOException {
+        get(url, out, timeout, userAgent, referrer, cookie, rangeStart, -1, null);
+    }
+
+    private void get(String url, OutputStream out, int timeout, String userAgent, String referrer, String cookie, int rangeStart, int rangeLength, final Map<String, String> customHeaders) throws IOException {
+        canceled = false;
+        final URLConnection conn = openConnection(url, timeout, userAgent, referrer, cookie);
+
         if (rangeStart > 0) {
             conn.setRequestProperty("Range", buildRange(rangeStart, rangeLength));
         }
@@ -510,7 +649,7 @@ final class JdkHttpClient implements HttpClient {
         }
     }
 
-    private void checkRangeSupport(int rangeStart, URLConnection conn) throws HttpRangeOutOfBoundsException, RangeNotSupportedException {
+    private void checkRangeSupport(long rangeStart, URLConnection conn) throws HttpRangeOutOfBoundsException, RangeNotSupportedException {
 
         boolean hasContentRange = conn.getHeaderField("Content-Range") != null;
         boolean hasAcceptRanges = conn.getHeaderField("Accept-Ranges") != null && conn.getHeaderField("Accept-Ranges").equals("bytes");
@@ -611,4 +750,296 @@ final class JdkHttpClient implements HttpClient {
     public boolean isCanceled() {
         return canceled;
     }
+
+    private final class SegmentedSave {
+
+        private final String url;
+        private final int timeout;
+        private final String userAgent;
+        private final int connections;
+        private final HttpResumeState state;
+
+        private FileChannel channel;
+        private long unforced;
+        private volatile Exception error;
+
+        public SegmentedSave(String url, int timeout, String userAgent, int connections, HttpResumeState state) {
+            this.url = url;
+            this.timeout = timeout;
+            this.userAgent = userAgent;
+            this.connections = connections;
+            this.state = state;
+        }
+
+        /**
+         * Uses the already open connection for the range starting at start, the rest of
+         * the connections take the ranges left or half of the biggest one.
+         */
+        public void save(File file, boolean resume, long start, URLConnection conn, InputStream in) {
+            RandomAccessFile raf = null;
+            List<Future<?>> workers = new ArrayList<Future<?>>();
+
+            try {
+                raf = new RandomAccessFile(file, "rw");
+                if (!resume) {
+                    raf.setLength(state.getTotal());
+                }
+                channel = raf.getChannel();
+
+                HttpResumeState.Range first;
+                synchronized (state) {
+                    first = claim(start);
+                }
+                if (first == null) {
+                    // not what the connection is answering, it takes a range of its own
+                    closeQuietly(in);
+                    closeQuietly(conn);
+                    in = null;
+                    conn = null;
+                    first = nextRange();
+                }
+
+                for (int i = 1; i < connections; i++) {
+                    workers.add(segmentExecutor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            HttpResumeState.Range range;
+                            synchronized (state) {
+                                range = next();
+                            }
+                            work(range, null, null);
+                        }
+                    }));
+                }
+
+                work(first, conn, in);
+
+                for (Future<?> f : workers) {
+                    try {
+                        f.get();
+                    } catch (ExecutionException e) {
+                        fail(e);
+                    }
+                }
+
+                force();
+                closeQuietly(raf);
+
+                if (canceled) {
+                    onCancel();
+                } else if (error != null) {
+                    onError(error);
+                } else if (state.getCommitted() != state.getTotal()) {
+                    onError(new IOException("Segmented download incomplete: " + url));
+                } else {
+                    onComplete();
+                }
+            } catch (InterruptedException e) {
+                canceled = true;
+                Thread.currentThread().interrupt();
+                onCancel();
+            } catch (Exception e) {
+                fail(e); // stops the other connections, it's not a cancel
+                onError(e);
+            } finally {
+                closeQuietly(in);
+                closeQuietly(conn);
+                closeQuietly(raf);
+            }
+        }
+
+        private void work(HttpResumeState.Range range, URLConnection conn, InputStream in) {
+            int failures = 0;
+
+            while (range != null && !canceled && error == null) {
+                try {
+                    if (isDone(range)) {
+                        range = nextRange();
+                        continue;
+                    }
+
+                    if (conn == null) {
+                        conn = openRange(range);
+                        in = conn.getInputStream();
+                    }
+
+                    download(range, in);
+
+                    failures = 0;
+                    range = nextRange();
+                } catch (Exception e) {
+                    // try again from where it was, with a new connection
+                    if (++failures > MAX_SEGMENT_RETRIES) {
+                        fail(e);
+                    }
+                } finally {
+                    closeQuietly(in);
+                    closeQuietly(conn);
+                    in = null;
+                    conn = null;
+                }
+            }
+        }
+
+        private URLConnection openRange(HttpResumeState.Range range) throws IOException {
+            long position;
+            long end;
+            synchronized (state) {
+                position = range.position;
+                end = range.end;
+            }
+
+            URLConnection conn = openConnection(url, timeout, userAgent, null, null);
+            conn.setRequestProperty("Range", buildRange(position, end - position - 1));
+            conn.setRequestProperty("Accept-Encoding", "identity");
+
+            int httpResponseCode = getResponseCode(conn);
+            if (httpResponseCode != HttpURLConnection.HTTP_PARTIAL) {
+                closeQuietly(conn);
+                throw new RangeNotSupportedException("Server did not honor the range request, code: " + httpResponseCode);
+            }
+
+            checkRangeSupport(position, conn);
+
+            return conn;
+        }
+
+        private void download(HttpResumeState.Range range, InputStream in) throws IOException {
+            byte[] b = new byte[SEGMENT_BUFFER_SIZE];
+            int n = 0;
+
+            while (!canceled && error == null && (n = in.read(b, 0, b.length)) != -1) {
+                long position;
+                int length;
+
+                // a split of this range starts at least MIN_SEGMENT_SIZE after position,
+                // no other connection takes the bytes being written
+                synchronized (state) {
+                    position = range.position;
+                    length = (int) Math.min(n, range.end - range.position);
+                }
+
+                if (length > 0) {
+                    ByteBuffer buffer = ByteBuffer.wrap(b, 0, length);
+                    long offset = position;
+                    while (buffer.hasRemaining()) {
+                        offset += channel.write(buffer, offset);
+                    }
+
+                    // only what was written counts, a retry starts where the write failed
+                    boolean force;
+                    synchronized (state) {
+                        range.position = position + length;
+                        range.committed = position + length;
+                        unforced += length;
+                        force = unforced >= FORCE_INTERVAL_BYTES;
+                    }
+                    if (force) {
+                        force();
+                    }
+
+                    synchronized (JdkHttpClient.this) {
+                        onData(b, 0, length);
+                    }
+                }
+
+                if (length < n || isDone(range)) {
+                    return; // end of the range, maybe moved back by another connection
+                }
+            }
+
+            if (!canceled && error == null && !isDone(range)) {
+                throw new IOException("Connection closed before the end of the range");
+            }
+        }
+
+        /**
+         * Forces what was written to the storage, only then the bytes count as done.
+         */
+        private void force() throws IOException {
+            List<HttpResumeState.Range> ranges;
+            long[] committed;
+            synchronized (state) {
+                ranges = new ArrayList<HttpResumeState.Range>(state.ranges);
+                committed = new long[ranges.size()];
+                for (int i = 0; i < committed.length; i++) {
+                    committed[i] = ranges.get(i).committed;
+                }
+                unforced = 0;
+            }
+
+            channel.force(false);
+
+            synchronized (state) {
+                for (int i = 0; i < committed.length; i++) {
+                    HttpResumeState.Range r = ranges.get(i);
+                    r.durable = Math.max(r.durable, Math.min(committed[i], r.end));
+                }
+            }
+        }
+
+        private HttpResumeState.Range nextRange() {
+            synchronized (state) {
+                return next();
+            }
+        }
+
+        /**
+         * The range nobody is downloading that starts at position, null if there is none.
+         */
+        private HttpResumeState.Range claim(long position) {
+            for (HttpResumeState.Range r : state.ranges) {
+                if (!r.owned && r.position == position && r.position < r.end) {
+                    r.owned = true;
+                    return r;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * A range nobody is downloading (from a resume) or the second half of the range
+         * with more bytes left, null if what's left is too small to be worth a new connection.
+         */
+        private HttpResumeState.Range next() {
+            HttpResumeState.Range victim = null;
+            long max = 0;
+
+            for (HttpResumeState.Range r : state.ranges) {
+                long left = r.end - r.position;
+                if (!r.owned && left > 0) {
+                    r.owned = true;
+                    return r;
+                }
+                if (left > max) {
+                    max = left;
+                    victim = r;
+                }
+            }
+
+            if (victim == null || max < 2 * MIN_SEGMENT_SIZE) {
+                return null;
+            }
+
+            long middle = victim.position + max / 2;
+            HttpResumeState.Range range = new HttpResumeState.Range(middle, victim.end);
+            range.owned = true;
+            victim.end = middle;
+            state.ranges.add(range);
+
+            return range;
+        }
+
+        private boolean isDone(HttpResumeState.Range range) {
+            synchronized (state) {
+                return range.position >= range.end;
+            }
+        }
+
+        private void fail(Exception e) {
+            if (error == null) {
+                error = e;
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -18,8 +18,11 @@
 
 package com.frostwire.util;
 
+import java.lang.reflect.Type;
+
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * Simple JSON utility class based on google-gson.
@@ -50,6 +53,18 @@ public final class JsonUtils {
         return gson.toJson(obj);
     }
 
+    /**
+     * Writes the Json representation of the object to the writer, useful to
+     * stream a big structure piece by piece instead of building one big string.
+     * 
+     * @param obj the object for which Json representation is to be written
+     * @param typeOfObj the type of obj
+     * @param writer the writer, usually in the middle of an array or object
+     */
+    public static void toJson(Object obj, Type typeOfObj, JsonWriter writer) {
+        gson.toJson(obj, typeOfObj, writer);
+    }
+
     /**
      * This method deserializes the specified Json into an object of the specified class.
      * 
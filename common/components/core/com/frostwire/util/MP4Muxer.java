@@ -21,7 +21,11 @@ package com.frostwire.util;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +34,7 @@ import org.apache.commons.io.IOUtils;
 
 import com.coremedia.iso.BoxParser;
 import com.coremedia.iso.IsoFile;
+import com.coremedia.iso.IsoTypeWriter;
 import com.coremedia.iso.PropertyBoxParserImpl;
 import com.coremedia.iso.boxes.Box;
 import com.coremedia.iso.boxes.Container;
@@ -37,14 +42,19 @@ import com.coremedia.iso.boxes.FileTypeBox;
 import com.coremedia.iso.boxes.HandlerBox;
 import com.coremedia.iso.boxes.MetaBox;
 import com.coremedia.iso.boxes.MovieBox;
+import com.coremedia.iso.boxes.SampleSizeBox;
+import com.coremedia.iso.boxes.SampleTableBox;
+import com.coremedia.iso.boxes.SampleToChunkBox;
 import com.coremedia.iso.boxes.TrackBox;
 import com.coremedia.iso.boxes.UserDataBox;
 import com.coremedia.iso.boxes.apple.AppleItemListBox;
+import com.coremedia.iso.boxes.fragment.MovieExtendsBox;
 import com.googlecode.mp4parser.AbstractBox;
 import com.googlecode.mp4parser.DataSource;
 import com.googlecode.mp4parser.FileDataSourceImpl;
 import com.googlecode.mp4parser.authoring.Movie;
 import com.googlecode.mp4parser.authoring.Mp4TrackImpl;
+import com.googlecode.mp4parser.authoring.Sample;
 import com.googlecode.mp4parser.authoring.Track;
 import com.googlecode.mp4parser.authoring.builder.DefaultMp4Builder;
 import com.googlecode.mp4parser.boxes.apple.AppleAlbumBox;
@@ -55,6 +65,11 @@ import com.googlecode.mp4parser.boxes.apple.AppleMediaTypeBox;
 import com.googlecode.mp4parser.boxes.apple.AppleNameBox;
 
 /**
+ * The output is streamed, the samples go from the input files straight into
+ * the mdat of the output, in runs of contiguous samples with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, no sample
+ * is read into the heap. Tracks without a plain sample table (fragmented) are
+ * written sample by sample as before.
  * 
  * @author gubatron
  * @author aldenml
@@ -68,11 +83,13 @@ public final class MP4Muxer {
         FileInputStream audioIn = new FileInputStream(audio);
 
         try {
+            Map<Track, TrackSamples> sources = new IdentityHashMap<Track, TrackSamples>();
+
             FileChannel videoChannel = videoIn.getChannel();
-            Movie videoMovie = buildMovie(videoChannel);
+            Movie videoMovie = buildMovie(videoChannel, sources);
 
             FileChannel audioChannel = audioIn.getChannel();
-            Movie audioMovie = buildMovie(audioChannel);
+            Movie audioMovie = buildMovie(audioChannel, sources);
 
             Movie outMovie = new Movie();
 
@@ -84,6 +101,8 @@ public final class MP4Muxer {
                 outMovie.addTrack(trk);
             }
 
+            final Map<Track, int[]> layout = new HashMap<Track, int[]>();
+
             Container out = new DefaultMp4Builder() {
                 @Override
                 protected FileTypeBox createFileTypeBox(Movie movie) {
@@ -98,6 +117,7 @@ public final class MP4Muxer {
 
                 @Override
                 protected MovieBox createMovieBox(Movie movie, Map<Track, int[]> chunks) {
+                    layout.putAll(chunks);
                     MovieBox moov = super.createMovieBox(movie, chunks);
                     moov.getMovieHeaderBox().setVersion(0);
                     return moov;
@@ -119,12 +139,7 @@ public final class MP4Muxer {
                 }
             }.build(outMovie);
 
-            FileOutputStream fos = new FileOutputStream(output);
-            try {
-                out.writeContainer(fos.getChannel());
-            } finally {
-                IOUtils.closeQuietly(fos);
-            }
+            writeContainer(out, outMovie, layout, sources, output);
         } finally {
             IOUtils.closeQuietly(videoIn);
             IOUtils.closeQuietly(audioIn);
@@ -136,8 +151,10 @@ public final class MP4Muxer {
         FileInputStream videoIn = new FileInputStream(video);
 
         try {
+            Map<Track, TrackSamples> sources = new IdentityHashMap<Track, TrackSamples>();
+
             FileChannel videoChannel = videoIn.getChannel();
-            Movie videoMovie = buildMovie(videoChannel);
+            Movie videoMovie = buildMovie(videoChannel, sources);
 
             Track audioTrack = null;
 
@@ -156,6 +173,8 @@ public final class MP4Muxer {
             Movie outMovie = new Movie();
             outMovie.addTrack(audioTrack);
 
+            final Map<Track, int[]> layout = new HashMap<Track, int[]>();
+
             Container out = new DefaultMp4Builder() {
                 @Override
                 protected FileTypeBox createFileTypeBox(Movie movie) {
@@ -170,6 +189,7 @@ public final class MP4Muxer {
 
                 @Override
                 protected MovieBox createMovieBox(Movie movie, Map<Track, int[]> chunks) {
+                    layout.putAll(chunks);
                     MovieBox moov = super.createMovieBox(movie, chunks);
                     moov.getMovieHeaderBox().setVersion(0);
                     return moov;
@@ -191,18 +211,74 @@ public final class MP4Muxer {
                 }
             }.build(outMovie);
 
-            FileOutputStream fos = new FileOutputStream(output);
-            try {
-                out.writeContainer(fos.getChannel());
-            } finally {
-                IOUtils.closeQuietly(fos);
-            }
+            writeContainer(out, outMovie, layout, sources, output);
         } finally {
             IOUtils.closeQuietly(videoIn);
         }
     }
 
-    private static Movie buildMovie(FileChannel channel) throws IOException {
+    private static void writeContainer(Container out, Movie movie, Map<Track, int[]> chunks, Map<Track, TrackSamples> sources, String output) throws IOException {
+        FileOutputStream fos = new FileOutputStream(output);
+        try {
+            FileChannel fc = fos.getChannel();
+            for (Box box : out.getBoxes()) {
+                if ("mdat".equals(box.getType()) && !chunks.isEmpty()) {
+                    writeMdat(box.getSize(), movie, chunks, sources, fc);
+                } else {
+                    box.getBox(fc);
+                }
+            }
+        } finally {
+            IOUtils.closeQuietly(fos);
+        }
+    }
+
+    /**
+     * Same layout as the mdat of {@link DefaultMp4Builder}, a 16 bytes header and
+     * the chunks interleaved track by track, the chunk offsets in the moov
+     * already point there.
+     */
+    private static void writeMdat(long size, Movie movie, Map<Track, int[]> chunks, Map<Track, TrackSamples> sources, WritableByteChannel out) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(16);
+        if (size + 8 < 4294967296L) {
+            IsoTypeWriter.writeUInt32(header, size);
+            header.put(IsoFile.fourCCtoBytes("mdat"));
+            header.put(new byte[8]);
+        } else {
+            IsoTypeWriter.writeUInt32(header, 1);
+            header.put(IsoFile.fourCCtoBytes("mdat"));
+            IsoTypeWriter.writeUInt64(header, size);
+        }
+        header.rewind();
+        while (header.hasRemaining()) {
+            out.write(header);
+        }
+
+        List<Track> tracks = movie.getTracks();
+        int[] next = new int[tracks.size()];
+        int numChunks = chunks.get(tracks.get(0)).length;
+
+        for (int i = 0; i < numChunks; i++) {
+            for (int t = 0; t < tracks.size(); t++) {
+                Track track = tracks.get(t);
+                int n = chunks.get(track)[i];
+
+                TrackSamples src = sources.get(track);
+                if (src != null) {
+                    src.transfer(next[t], n, out);
+                } else {
+                    List<Sample> samples = track.getSamples();
+                    for (int k = next[t]; k < next[t] + n; k++) {
+                        samples.get(k).writeTo(out);
+                    }
+                }
+
+                next[t] += n;
+            }
+        }
+    }
+
+    private static Movie buildMovie(FileChannel channel, Map<Track, TrackSamples> sources) throws IOException {
         BoxParser parser = new PropertyBoxParserImpl() {
             @Override
             public Box parseBox(DataSource byteChannel, Container parent) throws IOException {
@@ -220,7 +296,13 @@ public final class MP4Muxer {
         Movie m = new Movie();
         List<TrackBox> trackBoxes = isoFile.getMovieBox().getBoxes(TrackBox.class);
         for (TrackBox trackBox : trackBoxes) {
-            m.addTrack(new Mp4TrackImpl(trackBox));
+            Track track = new Mp4TrackImpl(trackBox);
+            m.addTrack(track);
+
+            TrackSamples src = TrackSamples.build(channel, trackBox);
+            if (src != null && src.size() == track.getSamples().size()) {
+                sources.put(track, src);
+            }
         }
 
         return m;
@@ -276,6 +358,93 @@ public final class MP4Muxer {
         return udta;
     }
 
+    /**
+     * Where every sample of a track is in the input file, from the sample table.
+     */
+    private static final class TrackSamples {
+
+        private final FileChannel channel;
+        private final long[] offsets;
+        private final long[] sizes;
+
+        private TrackSamples(FileChannel channel, long[] offsets, long[] sizes) {
+            this.channel = channel;
+            this.offsets = offsets;
+            this.sizes = sizes;
+        }
+
+        public int size() {
+            return offsets.length;
+        }
+
+        /**
+         * Copies the samples, merging the ones next to each other in the input.
+         */
+        public void transfer(int first, int count, WritableByteChannel out) throws IOException {
+            int i = first;
+            int end = first + count;
+
+            while (i < end) {
+                long position = offsets[i];
+                long length = sizes[i];
+                i++;
+
+                while (i < end && offsets[i] == position + length) {
+                    length += sizes[i];
+                    i++;
+                }
+
+                while (length > 0) {
+                    long n = channel.transferTo(position, length, out);
+                    if (n <= 0) {
+                        throw new IOException("Unexpected end of input at " + position);
+                    }
+                    position += n;
+                    length -= n;
+                }
+            }
+        }
+
+        /**
+         * @return null if the samples are not all in the sample table
+         */
+        public static TrackSamples build(FileChannel channel, TrackBox trackBox) {
+            SampleTableBox stbl = trackBox.getSampleTableBox();
+            if (stbl == null || stbl.getChunkOffsetBox() == null || stbl.getSampleToChunkBox() == null || stbl.getSampleSizeBox() == null) {
+                return null;
+            }
+            if (!trackBox.getParent().getBoxes(MovieExtendsBox.class).isEmpty()) {
+                return null; // fragmented
+            }
+
+            long[] chunkOffsets = stbl.getChunkOffsetBox().getChunkOffsets();
+            List<SampleToChunkBox.Entry> entries = stbl.getSampleToChunkBox().getEntries();
+            SampleSizeBox stsz = stbl.getSampleSizeBox();
+
+            int count = (int) stsz.getSampleCount();
+            long[] offsets = new long[count];
+            long[] sizes = new long[count];
+
+            int sample = 0;
+            for (int e = 0; e < entries.size(); e++) {
+                SampleToChunkBox.Entry entry = entries.get(e);
+                long lastChunk = e + 1 < entries.size() ? entries.get(e + 1).getFirstChunk() - 1 : chunkOffsets.length;
+
+                for (long c = entry.getFirstChunk(); c <= lastChunk && c <= chunkOffsets.length && sample < count; c++) {
+                    long offset = chunkOffsets[(int) c - 1];
+                    for (long k = 0; k < entry.getSamplesPerChunk() && sample < count; k++) {
+                        sizes[sample] = stsz.getSampleSizeAtIndex(sample);
+                        offsets[sample] = offset;
+                        offset += sizes[sample];
+                        sample++;
+                    }
+                }
+            }
+
+            return sample == count ? new TrackSamples(channel, offsets, sizes) : null;
+        }
+    }
+
     public static final class MP4Metadata {
 
         public MP4Metadata(String title, String author, String source, byte[] jpg) {
@@ -449,6 +449,19 @@ public class StringUtils {
         return sb.toString();
     }
 
+    public static String buildSet(int[] ids) {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append(ids[i]);
+        }
+        sb.append(")");
+
+        return sb.toString();
+    }
+
     public static String getLocaleString(Map<String, String> strMap, String defaultStr) {
         String localeLanguageCode = Locale.getDefault().getLanguage();
         if (StringUtils.isNullOrEmpty(localeLanguageCode, true)) {
@@ -27,6 +27,8 @@ package sun.net.httpserver;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import javax.net.ssl.*;
 import java.util.*;
 import java.util.logging.Logger;
@@ -406,8 +408,9 @@ class ExchangeImpl {
  * If a caller/user tries to write to this stream before
  * the wrapped stream has been provided, then an IOException will
  * be thrown.
+ * It is a channel if the wrapped stream is.
  */
-class PlaceholderOutputStream extends java.io.OutputStream {
+class PlaceholderOutputStream extends java.io.OutputStream implements WritableByteChannel {
 
     OutputStream wrapped;
 
@@ -453,4 +456,16 @@ class PlaceholderOutputStream extends java.io.OutputStream {
         checkWrap();
         wrapped.close();
     }
+
+    public int write(ByteBuffer src) throws IOException {
+        checkWrap();
+        if (!(wrapped instanceof WritableByteChannel)) {
+            throw new IOException ("response body is not a channel");
+        }
+        return ((WritableByteChannel) wrapped).write (src);
+    }
+
+    public boolean isOpen() {
+        return !(wrapped instanceof WritableByteChannel) || ((WritableByteChannel) wrapped).isOpen();
+    }
 }
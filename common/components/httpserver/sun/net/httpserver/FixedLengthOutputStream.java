@@ -27,6 +27,8 @@ package sun.net.httpserver;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import com.sun.net.httpserver.*;
 import com.sun.net.httpserver.spi.*;
 
@@ -36,9 +38,11 @@ import com.sun.net.httpserver.spi.*;
  * write the pre-defined number or else an exception will be thrown
  * and the whole request aborted.
  * normal close() does not close the underlying stream
+ * as a channel, buffers (file regions mapped by FileChannel.transferTo) are
+ * written to the socket without a copy in plain connections
  */
 
-class FixedLengthOutputStream extends FilterOutputStream
+class FixedLengthOutputStream extends FilterOutputStream implements WritableByteChannel
 {
     private long remaining;
     private boolean eof = false;
@@ -79,6 +83,37 @@ class FixedLengthOutputStream extends FilterOutputStream
         remaining -= len;
     }
 
+    public int write (ByteBuffer src) throws IOException {
+        if (closed) {
+            throw new IOException ("stream closed");
+        }
+        eof = (remaining == 0);
+        if (eof) {
+            throw new StreamClosedException();
+        }
+        int len = src.remaining();
+        if (len > remaining) {
+            // stream is still open, caller can retry
+            throw new IOException ("too many bytes to write to stream");
+        }
+        if (out instanceof Request.WriteStream) {
+            ((Request.WriteStream) out).write (src);
+        } else {
+            byte[] b = new byte [Math.min (len, 64 * 1024)];
+            while (src.hasRemaining()) {
+                int n = Math.min (b.length, src.remaining());
+                src.get (b, 0, n);
+                out.write (b, 0, n);
+            }
+        }
+        remaining -= len;
+        return len;
+    }
+
+    public boolean isOpen () {
+        return !closed;
+    }
+
     public void close () throws IOException {
         if (closed) {
             return;
@@ -398,6 +398,17 @@ class Request {
             }
         }
 
+        /* the whole buffer goes to the socket, no copy (mapped file regions) */
+        public synchronized int write (ByteBuffer src) throws IOException {
+            if (closed)
+                throw new IOException ("stream is closed");
+            int n = 0;
+            while (src.hasRemaining()) {
+                n += channel.write (src);
+            }
+            return n;
+        }
+
         public void close () throws IOException {
             if (closed)
                 return;
@@ -0,0 +1,319 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.vuze;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.gudy.azureus2.core3.config.COConfigurationManager;
+import org.gudy.azureus2.core3.global.GlobalManagerStats;
+
+import com.aelitis.azureus.core.AzureusCore;
+import com.aelitis.azureus.core.speedmanager.SpeedManager;
+import com.aelitis.azureus.core.speedmanager.SpeedManagerPingSource;
+import com.frostwire.concurrent.DefaultThreadFactory;
+import com.frostwire.logging.Logger;
+
+/**
+ * Estimates the upload capacity of the current network from what the core actually
+ * sends and from the latency to the DHT ping sources.
+ *
+ * The estimate grows with the highest sustained send rate seen while latency stays
+ * near its baseline, and decays towards the current rate while latency inflates, which
+ * is the sign of a saturated uplink queueing the TCP ACKs of the downloads. A latency
+ * spike from other traffic on the link only costs a part of the estimate, never all of it. Estimates
+ * are kept per network (a WiFi SSID is not a mobile link) and survive restarts.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class VuzeCapacityEstimator {
+
+    private static final Logger LOG = Logger.getLogger(VuzeCapacityEstimator.class);
+
+    private static final String PROFILES_KEY = "frostwire.capacity.profiles";
+    private static final String DEFAULT_NETWORK = "default";
+    private static final int MAX_PROFILES = 16;
+
+    private static final long SAMPLE_INTERVAL_MILLIS = 2000;
+    private static final int SAMPLES_PER_RETUNE = 15;
+
+    // smoothing of the send rate, so a single burst is not taken as capacity
+    private static final double RATE_ALPHA = 0.3;
+
+    // latency over the baseline by this much means the uplink is queueing
+    private static final int CONGESTION_DELAY_MILLIS = 150;
+
+    // how far a congested sample moves the estimate towards the current rate
+    private static final double CONGESTION_DECAY = 0.1;
+
+    // one congestion never takes the estimate below this part of what it was when it started
+    private static final double CONGESTION_FLOOR = 0.5;
+
+    // uncongested retunes before probing above an estimate the traffic is stuck at
+    private static final int PROBE_AFTER_RETUNES = 10;
+
+    private static final int MIN_RATE_BYTES_PER_SEC = 4 * 1024;
+
+    private final AzureusCore core;
+    private final VuzeManager manager;
+    private final Map<String, Profile> profiles;
+
+    private ScheduledExecutorService executor;
+
+    private Profile profile;
+    private double sendRate;
+    private int samples;
+
+    VuzeCapacityEstimator(AzureusCore core, VuzeManager manager) {
+        this.core = core;
+        this.manager = manager;
+        this.profiles = new LinkedHashMap<String, Profile>();
+
+        loadProfiles();
+
+        this.profile = getProfile(DEFAULT_NETWORK);
+    }
+
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("VuzeCapacityEstimator", true));
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sample();
+                } catch (Throwable e) {
+                    LOG.warn("Error sampling the upload capacity", e);
+                }
+            }
+        }, SAMPLE_INTERVAL_MILLIS, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Switches to the profile of the given network, the stored estimate applies right away.
+     */
+    public void setNetwork(String network) {
+        synchronized (this) {
+            Profile p = getProfile(network != null ? network : DEFAULT_NETWORK);
+            if (p == profile) {
+                return;
+            }
+            profile = p;
+            sendRate = 0;
+            samples = 0;
+        }
+
+        manager.autoAdjustBittorrentSpeed();
+    }
+
+    /**
+     * @return the estimated upload capacity in bytes per second, 0 if unknown
+     */
+    public synchronized int getUploadCapacity() {
+        return profile.capacity;
+    }
+
+    /**
+     * @return true if the estimate comes from seeing the uplink saturate, rather than
+     * only from the peak rate, so it is safe to cap the upload speed to it
+     */
+    public synchronized boolean isCapacityBound() {
+        return profile.bound;
+    }
+
+    private void sample() {
+        GlobalManagerStats stats = core.getGlobalManager().getStats();
+        int rate = stats.getDataSendRateNoLAN() + stats.getProtocolSendRateNoLAN();
+        int latency = getLatency();
+
+        boolean retune = false;
+
+        synchronized (this) {
+            sendRate = sendRate == 0 ? rate : sendRate + RATE_ALPHA * (rate - sendRate);
+
+            Profile p = profile;
+
+            if (latency > 0) {
+                if (p.baseline == 0 || latency < p.baseline) {
+                    p.baseline = latency;
+                } else {
+                    // let the baseline follow a route change, slowly
+                    p.baseline += Math.max(1, (latency - p.baseline) / 100);
+                }
+            }
+
+            int current = (int) sendRate;
+            boolean congested = latency > 0 && latency > p.baseline + CONGESTION_DELAY_MILLIS;
+
+            if (congested && current > MIN_RATE_BYTES_PER_SEC) {
+                if (p.capacity == 0) {
+                    p.capacity = current;
+                    p.changed = true;
+                } else if (current < p.capacity) {
+                    if (p.peak == 0) {
+                        p.peak = p.capacity;
+                    }
+                    int floor = Math.max(MIN_RATE_BYTES_PER_SEC, (int) (p.peak * CONGESTION_FLOOR));
+                    p.capacity = Math.max(floor, (int) (p.capacity - CONGESTION_DECAY * (p.capacity - current)));
+                    p.changed = true;
+                }
+                p.bound = true;
+                p.quietRetunes = 0;
+            } else if (!congested) {
+                p.peak = 0;
+                if (current > p.capacity) {
+                    p.capacity = current;
+                    p.changed = true;
+                }
+            }
+
+            if (++samples >= SAMPLES_PER_RETUNE) {
+                samples = 0;
+                retune = true;
+
+                if (p.bound && !congested && ++p.quietRetunes >= PROBE_AFTER_RETUNES && current * 10 >= p.capacity * 8) {
+                    // traffic is pressing against the cap and the link stays quiet, the link may have room
+                    p.capacity += p.capacity / 10;
+                    p.quietRetunes = 0;
+                    p.changed = true;
+                }
+            }
+        }
+
+        if (retune) {
+            manager.autoAdjustBittorrentSpeed();
+            saveProfiles();
+        }
+    }
+
+    private int getLatency() {
+        SpeedManager sm = core.getSpeedManager();
+        if (sm == null) {
+            return -1;
+        }
+
+        SpeedManagerPingSource[] sources = sm.getPingSources();
+        if (sources == null) {
+            return -1;
+        }
+
+        int min = -1;
+        for (SpeedManagerPingSource source : sources) {
+            int t = source.getPingTime();
+            if (t > 0 && (min == -1 || t < min)) {
+                min = t;
+            }
+        }
+
+        return min;
+    }
+
+    private Profile getProfile(String network) {
+        Profile p = profiles.get(network);
+        if (p == null) {
+            if (profiles.size() >= MAX_PROFILES) {
+                Iterator<String> it = profiles.keySet().iterator();
+                it.next();
+                it.remove();
+            }
+            p = new Profile();
+            profiles.put(network, p);
+        }
+        return p;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private void loadProfiles() {
+        try {
+            Map map = COConfigurationManager.getMapParameter(PROFILES_KEY, null);
+            if (map == null) {
+                return;
+            }
+
+            for (Object o : map.entrySet()) {
+                Entry e = (Entry) o;
+                if (e.getValue() instanceof Number) {
+                    Profile p = new Profile();
+                    p.capacity = ((Number) e.getValue()).intValue();
+                    p.bound = p.capacity > 0;
+                    profiles.put(String.valueOf(e.getKey()), p);
+                }
+            }
+        } catch (Throwable e) {
+            LOG.warn("Unable to load the upload capacity profiles", e);
+        }
+    }
+
+    private void saveProfiles() {
+        Map<String, Long> map = null;
+
+        synchronized (this) {
+            for (Profile p : profiles.values()) {
+                if (p.changed) {
+                    map = new HashMap<String, Long>();
+                    break;
+                }
+            }
+
+            if (map == null) {
+                return;
+            }
+
+            for (Entry<String, Profile> e : profiles.entrySet()) {
+                Profile p = e.getValue();
+                p.changed = false;
+                // only estimates that saw the uplink saturate are worth remembering
+                if (p.bound) {
+                    map.put(e.getKey(), Long.valueOf(p.capacity));
+                }
+            }
+        }
+
+        COConfigurationManager.setParameter(PROFILES_KEY, map);
+        COConfigurationManager.save();
+    }
+
+    private static final class Profile {
+
+        int capacity;
+        int peak; // the estimate when the current congestion started, 0 if not congested
+        int baseline;
+        boolean bound;
+        int quietRetunes;
+        boolean changed;
+    }
+}
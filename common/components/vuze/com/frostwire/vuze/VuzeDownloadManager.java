@@ -71,6 +71,8 @@ public final class VuzeDownloadManager {
     private long size;
     private long changedTime;
 
+    private volatile VuzeStreamingProvider streaming;
+
     VuzeDownloadManager(DownloadManager dm) {
         this.dm = dm;
 
@@ -267,6 +269,74 @@ public final class VuzeDownloadManager {
         refreshData(dm);
     }
 
+    /**
+     * Switches the download to play-while-downloading for the given file: a sliding window
+     * of pieces ahead of the playback position is fetched first and in order. Starting a new
+     * stream replaces the previous one.
+     * 
+     * @param file a file of this torrent
+     * @param position playback position in bytes from the start of the file
+     * @return false if the file is not part of this download
+     */
+    public boolean startStreaming(File file, long position) {
+        DiskManagerFileInfo inf = findFileInfo(file);
+        if (inf == null) {
+            return false;
+        }
+
+        if (inf.isSkipped()) {
+            inf.setSkipped(false);
+            refreshData(dm);
+        }
+
+        VuzeStreamingProvider provider = new VuzeStreamingProvider(dm, inf, position);
+        VuzeStreamingProvider old;
+        synchronized (this) {
+            old = streaming;
+            streaming = provider;
+        }
+        if (old != null) {
+            old.detach();
+        }
+        provider.attach();
+
+        if (isResumable()) {
+            start();
+        }
+
+        return true;
+    }
+
+    public void setStreamingPosition(long position) {
+        VuzeStreamingProvider provider = streaming;
+        if (provider != null) {
+            provider.setPosition(position);
+        }
+    }
+
+    /**
+     * @return bytes after the playback position that can be read without hitting a missing piece
+     */
+    public long getStreamingBufferedBytes() {
+        VuzeStreamingProvider provider = streaming;
+        return provider != null ? provider.getBufferedBytes() : 0;
+    }
+
+    public boolean isStreaming() {
+        return streaming != null;
+    }
+
+    public void stopStreaming() {
+        VuzeStreamingProvider provider;
+        synchronized (this) {
+            provider = streaming;
+            streaming = null;
+        }
+        if (provider != null) {
+            provider.detach();
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         boolean equals = false;
@@ -297,6 +367,16 @@ public final class VuzeDownloadManager {
         return path;
     }
 
+    private DiskManagerFileInfo findFileInfo(File file) {
+        String path = file.getAbsolutePath();
+        for (DiskManagerFileInfo inf : dm.getDiskManagerFileInfoSet().getFiles()) {
+            if (inf.getFile(false).getAbsolutePath().equals(path)) {
+                return inf;
+            }
+        }
+        return null;
+    }
+
     private void refreshData(DownloadManager dm) {
         Set<DiskManagerFileInfo> noSkippedSet = VuzeUtils.getFileInfoSet(dm, InfoSetQuery.NO_SKIPPED);
 
@@ -27,6 +27,7 @@ import java.util.Map.Entry;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.gudy.azureus2.core3.config.COConfigurationManager;
+import org.gudy.azureus2.core3.config.impl.TransferSpeedValidator;
 import org.gudy.azureus2.core3.download.DownloadManager;
 import org.gudy.azureus2.core3.global.GlobalManager;
 import org.gudy.azureus2.core3.internat.IntegratedResourceBundle;
@@ -55,10 +56,19 @@ public final class VuzeManager {
 
     private static final Logger LOG = Logger.getLogger(VuzeManager.class);
 
+    private static final String AUTO_ADJUST_TRANSFERS_KEY = "frostwire.auto.adjust.transfers";
+
+    private static final int UPLOAD_LIMIT_PERCENT = 85;
+    private static final int MIN_UPLOAD_LIMIT_KBS = 5;
+
+    // the limits the user can set by hand, auto-adjust never takes them over
+    private static final String[] USER_LIMIT_KEYS = { VuzeKeys.MAX_UPLOAD_SPEED, VuzeKeys.MAX_UPLOADS, VuzeKeys.MAX_TOTAL_CONNECTIONS, VuzeKeys.MAX_TORRENT_CONNECTIONS };
+
     private static VuzeConfiguration conf = null;
 
     private final AzureusCore core;
     private final AtomicBoolean torrentsLoaded;
+    private final VuzeCapacityEstimator estimator;
 
     private VuzeManager() {
         if (conf == null) {
@@ -71,6 +81,9 @@ public final class VuzeManager {
         this.core.start();
 
         this.torrentsLoaded = new AtomicBoolean(false);
+
+        this.estimator = new VuzeCapacityEstimator(core, this);
+        this.estimator.start();
     }
 
     private static class Loader {
@@ -165,8 +178,35 @@ public final class VuzeManager {
         COConfigurationManager.save();
     }
 
+    /**
+     * Selects the upload capacity profile of the network the device is on, for
+     * instance the WiFi SSID, or the mobile network type.
+     */
+    public void setNetworkProfile(String network) {
+        estimator.setNetwork(network);
+    }
+
+    /**
+     * While enabled, upload slots, connection limits and the upload speed cap follow
+     * the estimated upload capacity. Setting any of them by hand should disable it
+     * first, once this returns no adjustment is in progress to overwrite the user value.
+     */
+    public synchronized void setAutoAdjustTransfers(boolean enabled) {
+        COConfigurationManager.setParameter(AUTO_ADJUST_TRANSFERS_KEY, enabled);
+        COConfigurationManager.save();
+    }
+
+    public boolean isAutoAdjustTransfers() {
+        return COConfigurationManager.getBooleanParameter(AUTO_ADJUST_TRANSFERS_KEY);
+    }
+
+    /**
+     * Back to the defaults, including the limits following the upload capacity,
+     * even if the user turned it off setting a limit by hand.
+     */
     public void revertToDefaultConfiguration() {
         COConfigurationManager.resetToDefaults();
+        setAutoAdjustTransfers(true);
         autoAdjustBittorrentSpeed();
     }
 
@@ -202,6 +242,15 @@ public final class VuzeManager {
         SystemProperties.APPLICATION_NAME = "azureus";
 
         COConfigurationManager.setParameter("Auto Adjust Transfer Defaults", false);
+        COConfigurationManager.setBooleanDefault(AUTO_ADJUST_TRANSFERS_KEY, false);
+        if (!COConfigurationManager.hasParameter(AUTO_ADJUST_TRANSFERS_KEY, true)) {
+            // decided once, on only if the user never set a limit by hand
+            COConfigurationManager.setParameter(AUTO_ADJUST_TRANSFERS_KEY, !hasUserLimits());
+        }
+
+        // the upload limits follow our own estimate, not the vuze auto-speed (v2 speed manager)
+        COConfigurationManager.setParameter(TransferSpeedValidator.AUTO_UPLOAD_ENABLED_CONFIGKEY, false);
+        COConfigurationManager.setParameter(TransferSpeedValidator.AUTO_UPLOAD_SEEDING_ENABLED_CONFIGKEY, false);
         COConfigurationManager.setParameter("General_sDefaultTorrent_Directory", conf.getTorrentsPath());
 
         disableDefaultPlugins();
@@ -257,11 +306,19 @@ public final class VuzeManager {
         PluginManager.registerPlugin(new com.vuze.client.plugins.utp.UTPPlugin(), "azutp");
     }
 
-    private void autoAdjustBittorrentSpeed() {
-        if (COConfigurationManager.getBooleanParameter("Auto Adjust Transfer Defaults")) {
+    private static boolean hasUserLimits() {
+        for (String key : USER_LIMIT_KEYS) {
+            if (COConfigurationManager.hasParameter(key, true)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized void autoAdjustBittorrentSpeed() {
+        if (isAutoAdjustTransfers()) {
 
-            int up_limit_bytes_per_sec = 0;//getEstimatedUploadCapacityBytesPerSec().getBytesPerSec();
-            //int down_limit_bytes_per_sec    = 0;//getEstimatedDownloadCapacityBytesPerSec().getBytesPerSec();
+            int up_limit_bytes_per_sec = estimator.getUploadCapacity();
 
             int up_kbs = up_limit_bytes_per_sec / 1024;
 
@@ -300,21 +357,41 @@ public final class VuzeManager {
             int connections_torrent = selected[2];
             int connections_global = selected[3];
 
-            if (upload_slots != COConfigurationManager.getIntParameter("Max Uploads")) {
-                COConfigurationManager.setParameter("Max Uploads", upload_slots);
+            boolean changed = false;
+
+            if (upload_slots != COConfigurationManager.getIntParameter(VuzeKeys.MAX_UPLOADS)) {
+                COConfigurationManager.setParameter(VuzeKeys.MAX_UPLOADS, upload_slots);
                 COConfigurationManager.setParameter("Max Uploads Seeding", upload_slots);
+                changed = true;
             }
 
-            if (connections_torrent != COConfigurationManager.getIntParameter("Max.Peer.Connections.Per.Torrent")) {
-                COConfigurationManager.setParameter("Max.Peer.Connections.Per.Torrent", connections_torrent);
+            if (connections_torrent != COConfigurationManager.getIntParameter(VuzeKeys.MAX_TORRENT_CONNECTIONS)) {
+                COConfigurationManager.setParameter(VuzeKeys.MAX_TORRENT_CONNECTIONS, connections_torrent);
                 COConfigurationManager.setParameter("Max.Peer.Connections.Per.Torrent.When.Seeding", connections_torrent / 2);
+                changed = true;
             }
 
-            if (connections_global != COConfigurationManager.getIntParameter("Max.Peer.Connections.Total")) {
-                COConfigurationManager.setParameter("Max.Peer.Connections.Total", connections_global);
+            if (connections_global != COConfigurationManager.getIntParameter(VuzeKeys.MAX_TOTAL_CONNECTIONS)) {
+                COConfigurationManager.setParameter(VuzeKeys.MAX_TOTAL_CONNECTIONS, connections_global);
+                changed = true;
             }
 
-            COConfigurationManager.save();
+            // while downloading, keep the uplink below saturation so the ACKs of the downloads
+            // are not stuck behind our own upload, seeding alone can use all of it
+            int upload_limit_kbs = 0;
+
+            if (estimator.isCapacityBound() && core.getGlobalManager().getStats().getDataReceiveRateNoLAN() > 0) {
+                upload_limit_kbs = Math.max(MIN_UPLOAD_LIMIT_KBS, (up_kbs * UPLOAD_LIMIT_PERCENT / 100));
+            }
+
+            // follows the downloads on and off, not worth a save
+            if (upload_limit_kbs != COConfigurationManager.getIntParameter(VuzeKeys.MAX_UPLOAD_SPEED)) {
+                COConfigurationManager.setParameter(VuzeKeys.MAX_UPLOAD_SPEED, upload_limit_kbs);
+            }
+
+            if (changed) {
+                COConfigurationManager.setDirty();
+            }
         }
     }
 
@@ -0,0 +1,236 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.vuze;
+
+import org.gudy.azureus2.core3.disk.DiskManager;
+import org.gudy.azureus2.core3.disk.DiskManagerFileInfo;
+import org.gudy.azureus2.core3.disk.DiskManagerPiece;
+import org.gudy.azureus2.core3.download.DownloadManager;
+import org.gudy.azureus2.core3.download.DownloadManagerPeerListener;
+import org.gudy.azureus2.core3.peer.PEPeer;
+import org.gudy.azureus2.core3.peer.PEPeerManager;
+import org.gudy.azureus2.core3.torrent.TOTorrentFile;
+import org.gudy.azureus2.core3.util.SystemTime;
+
+import com.aelitis.azureus.core.peermanager.piecepicker.PiecePicker;
+import com.aelitis.azureus.core.peermanager.piecepicker.PieceRTAProvider;
+
+/**
+ * Real time provider for the piece picker that keeps a sliding window of pieces ahead
+ * of a playback cursor in one file of the torrent. Pieces in the window get increasing
+ * deadlines, so the picker fetches them first and in order, and the window starts at
+ * the first missing piece after the cursor, so it slides forward as pieces complete.
+ *
+ * The last piece of the file is requested too, most containers keep their index there.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class VuzeStreamingProvider implements DownloadManagerPeerListener, PieceRTAProvider {
+
+    private static final int MIN_WINDOW_PIECES = 4;
+    private static final int MAX_WINDOW_PIECES = 32;
+    private static final long WINDOW_BYTES = 8 * 1024 * 1024;
+
+    private static final long FIRST_DEADLINE_MILLIS = 2000;
+    private static final long MILLIS_PER_PIECE = 1000;
+
+    private final DownloadManager dm;
+
+    private final long fileOffset;
+    private final long fileLength;
+    private final int firstPiece;
+    private final int lastPiece;
+    private final long pieceLength;
+    private final int windowPieces;
+    private final long startTime;
+
+    private volatile long position;
+    private volatile long bufferDelayMillis;
+
+    private PEPeerManager peerManager;
+
+    public VuzeStreamingProvider(DownloadManager dm, DiskManagerFileInfo inf, long position) {
+        this.dm = dm;
+
+        TOTorrentFile torrentFile = inf.getTorrentFile();
+        TOTorrentFile[] files = torrentFile.getTorrent().getFiles();
+
+        long offset = 0;
+        for (int i = 0; i < inf.getIndex(); i++) {
+            offset += files[i].getLength();
+        }
+
+        this.fileOffset = offset;
+        this.fileLength = inf.getLength();
+        this.firstPiece = inf.getFirstPieceNumber();
+        this.lastPiece = inf.getLastPieceNumber();
+        this.pieceLength = torrentFile.getTorrent().getPieceLength();
+        this.windowPieces = (int) Math.max(MIN_WINDOW_PIECES, Math.min(MAX_WINDOW_PIECES, WINDOW_BYTES / pieceLength));
+        this.startTime = SystemTime.getCurrentTime();
+
+        setPosition(position);
+    }
+
+    /**
+     * Moves the playback cursor, in bytes from the start of the file.
+     */
+    public void setPosition(long position) {
+        this.position = Math.max(0, Math.min(position, fileLength));
+    }
+
+    /**
+     * Number of bytes after the cursor that are already on disk without holes.
+     */
+    public long getBufferedBytes() {
+        if (dm.getAssumedComplete()) {
+            return fileLength - position;
+        }
+
+        DiskManager diskManager = dm.getDiskManager();
+        if (diskManager == null) {
+            return 0;
+        }
+
+        DiskManagerPiece[] pieces = diskManager.getPieces();
+        long start = fileOffset + position;
+
+        int i = getCursorPiece();
+        while (i <= lastPiece && pieces[i].isDone()) {
+            i++;
+        }
+
+        long end = Math.min((long) i * pieceLength, fileOffset + fileLength);
+
+        return Math.max(0, end - start);
+    }
+
+    public void attach() {
+        dm.addPeerListener(this);
+    }
+
+    public void detach() {
+        dm.removePeerListener(this);
+
+        PEPeerManager pm;
+        synchronized (this) {
+            pm = peerManager;
+            peerManager = null;
+        }
+
+        if (pm != null) {
+            pm.getPiecePicker().removeRTAProvider(this);
+        }
+    }
+
+    @Override
+    public void peerManagerWillBeAdded(PEPeerManager manager) {
+    }
+
+    @Override
+    public void peerManagerAdded(PEPeerManager manager) {
+        synchronized (this) {
+            peerManager = manager;
+        }
+        manager.getPiecePicker().addRTAProvider(this);
+    }
+
+    @Override
+    public void peerManagerRemoved(PEPeerManager manager) {
+        synchronized (this) {
+            peerManager = null;
+        }
+        manager.getPiecePicker().removeRTAProvider(this);
+    }
+
+    @Override
+    public void peerAdded(PEPeer peer) {
+    }
+
+    @Override
+    public void peerRemoved(PEPeer peer) {
+    }
+
+    @Override
+    public long[] updateRTAs(PiecePicker picker) {
+        DiskManager diskManager = dm.getDiskManager();
+        if (diskManager == null) {
+            return null;
+        }
+
+        DiskManagerPiece[] pieces = diskManager.getPieces();
+        long[] rtas = new long[picker.getNumberOfPieces()];
+
+        int start = getCursorPiece();
+        while (start <= lastPiece && pieces[start].isDone()) {
+            start++;
+        }
+
+        long now = SystemTime.getCurrentTime() + FIRST_DEADLINE_MILLIS + bufferDelayMillis;
+
+        int end = Math.min(start + windowPieces, lastPiece + 1);
+        for (int i = start; i < end; i++) {
+            if (!pieces[i].isDone()) {
+                rtas[i] = now + (i - start) * MILLIS_PER_PIECE;
+            }
+        }
+
+        if (!pieces[lastPiece].isDone() && rtas[lastPiece] == 0) {
+            rtas[lastPiece] = now + windowPieces * MILLIS_PER_PIECE;
+        }
+
+        return rtas;
+    }
+
+    @Override
+    public long getStartTime() {
+        return startTime;
+    }
+
+    @Override
+    public long getStartPosition() {
+        return fileOffset;
+    }
+
+    @Override
+    public long getCurrentPosition() {
+        return fileOffset + position;
+    }
+
+    @Override
+    public long getBlockingPosition() {
+        return fileOffset + position + getBufferedBytes();
+    }
+
+    @Override
+    public void setBufferMillis(long millis, long delayMillis) {
+        this.bufferDelayMillis = delayMillis;
+    }
+
+    @Override
+    public String getUserAgent() {
+        return null;
+    }
+
+    private int getCursorPiece() {
+        int piece = (int) ((fileOffset + position) / pieceLength);
+        return Math.max(firstPiece, Math.min(piece, lastPiece));
+    }
+}
@@ -11,6 +11,7 @@
 
 package com.andrew.apollo;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.LinkedList;
@@ -62,6 +63,7 @@ import com.andrew.apollo.provider.RecentStore;
 import com.andrew.apollo.utils.Lists;
 import com.andrew.apollo.utils.MusicUtils;
 import com.frostwire.android.gui.activities.AudioPlayerActivity;
+import com.frostwire.android.gui.transfers.TransferManager;
 import com.frostwire.android.util.SystemUtils;
 import com.frostwire.util.Ref;
 
@@ -892,6 +894,9 @@ public class MusicPlaybackService extends Service {
         if (mPlayer!=null && mPlayer.isInitialized()) {
             mPlayer.stop();
         }
+        if (mFileToPlay != null) {
+            TransferManager.instance().stopStreaming(new File(mFileToPlay));
+        }
         mFileToPlay = null;
         closeCursor();
         if (goToIdle) {
@@ -1843,6 +1848,9 @@ public class MusicPlaybackService extends Service {
                 position = mPlayer.duration();
             }
             long result = mPlayer.seek(position);
+            if (mFileToPlay != null) {
+                TransferManager.instance().setStreamingPosition(new File(mFileToPlay), position, mPlayer.duration());
+            }
             notifyChange(POSITION_CHANGED);
             return result;
         }
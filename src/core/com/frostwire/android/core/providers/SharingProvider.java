@@ -18,12 +18,16 @@
 
 package com.frostwire.android.core.providers;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
@@ -62,6 +66,9 @@ public class SharingProvider extends ContentProvider {
 
     private DatabaseHelper databaseHelper;
 
+    // while in a batch the changes are notified once at the end
+    private final ThreadLocal<Boolean> inBatch = new ThreadLocal<Boolean>();
+
     static {
         uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
         uriMatcher.addURI(UniversalStore.UNIVERSAL_SHARING_AUTHORITY, "sharing", SHARING_ALL);
@@ -160,7 +167,7 @@ public class SharingProvider extends ContentProvider {
 
         if (rowId > 0) {
             Uri sharingUri = ContentUris.withAppendedId(Sharing.Media.CONTENT_URI, rowId);
-            getContext().getContentResolver().notifyChange(sharingUri, null);
+            notifyChange(sharingUri);
 
             return sharingUri;
         }
@@ -187,7 +194,7 @@ public class SharingProvider extends ContentProvider {
             throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
 
         return count;
     }
@@ -210,11 +217,46 @@ public class SharingProvider extends ContentProvider {
             throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
 
         return count;
     }
 
+    /**
+     * All the operations in one transaction (all or nothing), and one change
+     * notification instead of one per operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+        if (!accept()) {
+            return new ContentProviderResult[0];
+        }
+
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        ContentProviderResult[] results;
+
+        inBatch.set(Boolean.TRUE);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            inBatch.remove();
+        }
+
+        getContext().getContentResolver().notifyChange(Sharing.Media.CONTENT_URI, null);
+
+        return results;
+    }
+
+    private void notifyChange(Uri uri) {
+        if (inBatch.get() == null) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
     private boolean accept() {
         return Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState());
     }
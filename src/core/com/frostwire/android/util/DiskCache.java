@@ -172,6 +172,10 @@ public final class DiskCache {
             return new SnapshotInputStream(snapshot);
         }
 
+        public long getLength() {
+            return snapshot.getLength(0);
+        }
+
         @Override
         public void close() {
             snapshot.close();
@@ -435,6 +435,20 @@ public class StringUtils {
         return s != null ? s.replaceAll("\\s+", " ") : null;
     }
 
+    public static String buildSet(int[] arr) {
+        StringBuilder sb = new StringBuilder(2 + arr.length * 7);
+        sb.append("(");
+        for (int i = 0; i < arr.length; i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append(arr[i]);
+        }
+        sb.append(")");
+
+        return sb.toString();
+    }
+
     public static String buildSet(List<?> list) {
         StringBuilder sb = new StringBuilder("(");
         int i = 0;
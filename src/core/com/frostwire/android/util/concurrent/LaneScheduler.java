@@ -0,0 +1,103 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.android.util.concurrent;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The engine threads, split in lanes with their own concurrency, so a
+ * long task of one lane can't delay the tasks of another. Every lane
+ * keeps queue depth and latency metrics, see {@link #getStats(Lane)}.
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class LaneScheduler {
+
+    public enum Lane {
+
+        /**
+         * Short tasks someone is waiting for, like answering a peer.
+         */
+        INTERACTIVE(4, Thread.NORM_PRIORITY),
+
+        /**
+         * The downloads the user started, every task runs for the whole download.
+         * Not bounded, a download waiting in the queue would have no status to show.
+         */
+        TRANSFER(Integer.MAX_VALUE, Thread.NORM_PRIORITY - 1),
+
+        /**
+         * Everything else, like the uploads to other peers.
+         */
+        BACKGROUND(4, Thread.MIN_PRIORITY + 1);
+
+        private final int maxConcurrent;
+        private final int priority;
+
+        private Lane(int maxConcurrent, int priority) {
+            this.maxConcurrent = maxConcurrent;
+            this.priority = priority;
+        }
+    }
+
+    private final ThreadPool[] pools;
+
+    public LaneScheduler(String name) {
+        Lane[] lanes = Lane.values();
+        this.pools = new ThreadPool[lanes.length];
+        for (Lane lane : lanes) {
+            pools[lane.ordinal()] = new ThreadPool(name + "-" + lane.name().toLowerCase(), lane.maxConcurrent, lane.priority);
+        }
+    }
+
+    public void execute(Lane lane, Runnable r) {
+        pools[lane.ordinal()].execute(r);
+    }
+
+    /**
+     * @param lane
+     * @return the lane as an executor, for the APIs that take one
+     */
+    public Executor getExecutor(Lane lane) {
+        return pools[lane.ordinal()];
+    }
+
+    public ThreadPool.Stats getStats(Lane lane) {
+        return pools[lane.ordinal()].getStats();
+    }
+
+    /**
+     * @return the metrics of all the lanes, one per line
+     */
+    public String dumpStats() {
+        StringBuilder sb = new StringBuilder();
+        for (Lane lane : Lane.values()) {
+            sb.append(getStats(lane)).append("\n");
+        }
+        return sb.toString();
+    }
+
+    public void shutdown() {
+        for (ThreadPool pool : pools) {
+            pool.shutdown();
+        }
+    }
+}
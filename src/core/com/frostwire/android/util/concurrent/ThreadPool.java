@@ -22,8 +22,12 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Keeps the metrics of the tasks, how long they wait in the queue and how
+ * long they run, see {@link #getStats()}.
+ * 
  * @author gubatron
  * @author aldenml
  *
@@ -31,27 +35,148 @@ import java.util.concurrent.TimeUnit;
 public final class ThreadPool extends ThreadPoolExecutor {
 
     private String name;
+    private final int priority;
+
+    private final AtomicLong submitted;
+    private final AtomicLong completed;
+    private final AtomicLong totalWaitTime;
+    private final AtomicLong maxWaitTime;
+    private final AtomicLong totalRunTime;
 
     public ThreadPool(String name) {
         super(3, Integer.MAX_VALUE, 30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
         this.name = name;
+        this.priority = Thread.NORM_PRIORITY;
+
+        this.submitted = new AtomicLong();
+        this.completed = new AtomicLong();
+        this.totalWaitTime = new AtomicLong();
+        this.maxWaitTime = new AtomicLong();
+        this.totalRunTime = new AtomicLong();
     }
 
     public ThreadPool(String name, int maxConcurrent) {
+        this(name, maxConcurrent, Thread.NORM_PRIORITY);
+    }
+
+    /**
+     * @param name
+     * @param maxConcurrent tasks running at the same time, the rest wait in the queue
+     * @param priority java thread priority of the tasks
+     */
+    public ThreadPool(String name, int maxConcurrent, int priority) {
         super(maxConcurrent, maxConcurrent, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
         this.name = name;
+        this.priority = priority;
+
+        this.submitted = new AtomicLong();
+        this.completed = new AtomicLong();
+        this.totalWaitTime = new AtomicLong();
+        this.maxWaitTime = new AtomicLong();
+        this.totalRunTime = new AtomicLong();
+
+        allowCoreThreadTimeOut(true);
     }
 
     public String getName() {
         return name;
     }
 
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        submitted.incrementAndGet();
+        super.execute(new Task(command));
+    }
+
+    public Stats getStats() {
+        long n = completed.get();
+        return new Stats(name, getMaximumPoolSize(), getActiveCount(), getQueue().size(), submitted.get(), n, n > 0 ? totalWaitTime.get() / n : 0, maxWaitTime.get(), n > 0 ? totalRunTime.get() / n : 0);
+    }
+
     @Override
     protected void beforeExecute(Thread t, Runnable r) {
+        if (r instanceof Task) {
+            Task task = (Task) r;
+            task.started = System.currentTimeMillis();
+
+            long wait = task.started - task.queued;
+            totalWaitTime.addAndGet(wait);
+            long max;
+            while (wait > (max = maxWaitTime.get()) && !maxWaitTime.compareAndSet(max, wait)) {
+                // retry
+            }
+
+            r = task.r;
+        }
         if (r instanceof ExtendedRunnable) {
             ExtendedRunnable er = (ExtendedRunnable) r;
             t.setName(name + "::" + er.getName());
         }
+        if (t.getPriority() != priority) {
+            t.setPriority(priority);
+        }
         super.beforeExecute(t, r);
     }
-}
\ No newline at end of file
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        super.afterExecute(r, t);
+        if (r instanceof Task) {
+            totalRunTime.addAndGet(System.currentTimeMillis() - ((Task) r).started);
+        }
+        completed.incrementAndGet();
+    }
+
+    /**
+     * A snapshot of the metrics, times in milliseconds.
+     */
+    public static final class Stats {
+
+        public final String name;
+        public final int maxConcurrent;
+        public final int active;
+        public final int queued;
+        public final long submitted;
+        public final long completed;
+        public final long avgWaitTime;
+        public final long maxWaitTime;
+        public final long avgRunTime;
+
+        public Stats(String name, int maxConcurrent, int active, int queued, long submitted, long completed, long avgWaitTime, long maxWaitTime, long avgRunTime) {
+            this.name = name;
+            this.maxConcurrent = maxConcurrent;
+            this.active = active;
+            this.queued = queued;
+            this.submitted = submitted;
+            this.completed = completed;
+            this.avgWaitTime = avgWaitTime;
+            this.maxWaitTime = maxWaitTime;
+            this.avgRunTime = avgRunTime;
+        }
+
+        @Override
+        public String toString() {
+            return name + "(active: " + active + "/" + (maxConcurrent == Integer.MAX_VALUE ? "-" : maxConcurrent) + ", queued: " + queued + ", done: " + completed + "/" + submitted + ", wait avg: " + avgWaitTime + "ms max: " + maxWaitTime + "ms, run avg: " + avgRunTime + "ms)";
+        }
+    }
+
+    private static final class Task implements Runnable {
+
+        public final Runnable r;
+        public final long queued;
+        public long started; // only in the worker thread
+
+        public Task(Runnable r) {
+            this.r = r;
+            this.queued = System.currentTimeMillis();
+        }
+
+        @Override
+        public void run() {
+            r.run();
+        }
+    }
+}
@@ -17,9 +17,12 @@
 
 package com.frostwire.android.gui;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.File;
-
-import org.apache.commons.io.IOUtils;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.content.Context;
 
@@ -30,6 +33,10 @@ import com.frostwire.logging.Logger;
 import com.frostwire.search.CrawlCache;
 
 /**
+ * Every entry is stored with a small header with the time it was written,
+ * entries older than the time to live are removed when found. Entries without
+ * the header, written by older versions (raw .torrent data), have an unknown
+ * age and are removed the same way, the crawl downloads them again.
  * 
  * @author gubatron
  * @author aldenml
@@ -42,27 +49,62 @@ public class DiskCrawlCache implements CrawlCache {
     private static final int MIN_DISK_CACHE_SIZE = 5 * 1024 * 1024; // 5MB
     private static final int MAX_DISK_CACHE_SIZE = 50 * 1024 * 1024; // 50MB
 
-    private final DiskCache cache;
+    public static final long DEFAULT_TTL = 7 * 24 * 60 * 60 * 1000L; // 7 days
 
-    public DiskCrawlCache(Context context) {
-        File directory = SystemUtils.getCacheDir(context, "search");
-        long diskSize = SystemUtils.calculateDiskCacheSize(directory, MIN_DISK_CACHE_SIZE, MAX_DISK_CACHE_SIZE);
+    private static final int HEADER_MAGIC = 0x46574354; // FWCT
+    private static final int HEADER_SIZE = 12; // magic + timestamp
+
+    private final File directory;
+    private final long diskSize;
+    private final long ttl;
+
+    private final AtomicLong bytesEvicted;
+
+    private volatile DiskCache cache;
+
+    /**
+     * @param context
+     * @param ttl time to live of the entries in milliseconds
+     */
+    public DiskCrawlCache(Context context, long ttl) {
+        this.directory = SystemUtils.getCacheDir(context, "search");
+        this.diskSize = SystemUtils.calculateDiskCacheSize(directory, MIN_DISK_CACHE_SIZE, MAX_DISK_CACHE_SIZE);
+        this.ttl = ttl;
+        this.bytesEvicted = new AtomicLong();
         this.cache = createDiskCache(directory, diskSize);
     }
 
+    public DiskCrawlCache(Context context) {
+        this(context, DEFAULT_TTL);
+    }
+
     @Override
     public byte[] get(String key) {
         byte[] data = null;
 
+        DiskCache cache = this.cache;
         if (cache != null) {
             try {
                 Entry e = cache.get(key);
                 if (e != null) {
+                    long length = 0;
+                    boolean expired = true;
                     try {
-                        data = IOUtils.toByteArray(e.getInputStream());
+                        length = e.getLength();
+                        DataInputStream in = new DataInputStream(e.getInputStream());
+                        if (length >= HEADER_SIZE && in.readInt() == HEADER_MAGIC && !isExpired(in.readLong())) {
+                            data = new byte[(int) (length - HEADER_SIZE)];
+                            in.readFully(data);
+                            expired = false;
+                        }
                     } finally {
                         e.close();
                     }
+
+                    if (expired) {
+                        cache.remove(key);
+                        bytesEvicted.addAndGet(length);
+                    }
                 }
             } catch (Throwable e) {
                 // ignore
@@ -74,9 +116,11 @@ public class DiskCrawlCache implements CrawlCache {
 
     @Override
     public void put(String key, byte[] data) {
+        DiskCache cache = this.cache;
         if (cache != null) {
             try {
-                cache.put(key, data);
+                byte[] header = ByteBuffer.allocate(HEADER_SIZE).putInt(HEADER_MAGIC).putLong(System.currentTimeMillis()).array();
+                cache.put(key, new SequenceInputStream(new ByteArrayInputStream(header), new ByteArrayInputStream(data)));
             } catch (Throwable e) {
                 // ignore
             }
@@ -85,23 +129,55 @@ public class DiskCrawlCache implements CrawlCache {
 
     @Override
     public void remove(String key) {
+        DiskCache cache = this.cache;
         if (cache != null) {
-            cache.remove(key);
+            try {
+                cache.remove(key);
+            } catch (Throwable e) {
+                // ignore, cleared at the same time
+            }
         }
     }
 
+    /**
+     * Deletes all the entries and starts again with an empty cache in the same directory.
+     */
     @Override
-    public void clear() {
-        if (cache != null) {
-            LOG.warn("Not implemented, pending review");
+    public synchronized void clear() {
+        DiskCache old = cache;
+        cache = null;
+
+        if (old != null) {
+            try {
+                old.delete();
+            } catch (Throwable e) {
+                LOG.warn("Error deleting the crawl cache", e);
+            }
         }
+
+        cache = createDiskCache(directory, diskSize);
     }
 
     @Override
     public long size() {
+        DiskCache cache = this.cache;
         return cache != null ? cache.size() : 0;
     }
 
+    /**
+     * Bytes of the expired entries removed, the size based trimming happens
+     * inside the LRU implementation and is not counted.
+     */
+    @Override
+    public long getBytesEvicted() {
+        return bytesEvicted.get();
+    }
+
+    private boolean isExpired(long timestamp) {
+        long age = System.currentTimeMillis() - timestamp;
+        return age > ttl || age < 0; // clock moved back, don't trust the entry
+    }
+
     private DiskCache createDiskCache(File directory, long diskSize) {
         try {
             return new DiskCache(directory, diskSize);
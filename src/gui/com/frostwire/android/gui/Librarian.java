@@ -27,18 +27,20 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.FilenameUtils;
 import org.xmlpull.v1.XmlPullParser;
 
 import android.app.Application;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ApplicationInfo;
 import android.content.res.XmlResourceParser;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
@@ -86,8 +88,16 @@ public final class Librarian {
 
     private static final String TAG = "FW.Librarian";
 
+    // ids per IN (...) set in the batched sharing statements
+    private static final int MAX_IN_SET_SIZE = 500;
+
     private final Application context;
     private final FileCountCache[] cache; // it is an array for performance reasons
+    private final AtomicLong version;
+
+    // sorted shared ids by file type, valid while the library version doesn't change
+    private final int[][] sharedIds; // guarded by itself
+    private final long[] sharedIdsVersions; // guarded by sharedIds
 
     private static Librarian instance;
 
@@ -108,8 +118,32 @@ public final class Librarian {
     private Librarian(Application context) {
         this.context = context;
         this.cache = new FileCountCache[] { new FileCountCache(), new FileCountCache(), new FileCountCache(), new FileCountCache(), new FileCountCache(), new FileCountCache() };
+        // starting with the clock keeps the versions of different runs apart
+        this.version = new AtomicLong(System.currentTimeMillis());
+        this.sharedIds = new int[cache.length][];
+        this.sharedIdsVersions = new long[cache.length];
+
+        registerLibraryObserver();
+    }
+
+    /**
+     * A number that changes every time the library (files or shared states)
+     * changes, good to tell remote peers if what they have is still valid.
+     * 
+     * @return
+     */
+    public long getVersion() {
+        return version.get();
     }
 
+    /**
+     * @param fileType
+     * @param offset
+     * @param pageSize
+     * @param sharedOnly if true, offset and pageSize count only the shared files, the pages
+     *        go in order of id and every page is sorted as the file type sorts
+     * @return
+     */
     public List<FileDescriptor> getFiles(byte fileType, int offset, int pageSize, boolean sharedOnly) {
         return getFiles(offset, pageSize, TableFetchers.getFetcher(fileType), sharedOnly);
     }
@@ -170,7 +204,7 @@ public final class Librarian {
             }
         }
 
-        result = onlyShared ? (getSharedFiles(fileType).size()) : numFiles;
+        result = onlyShared ? (getSharedFiles(fileType).length) : numFiles;
 
         updateCacheNumFiles(fileType, result, onlyShared);
 
@@ -215,6 +249,8 @@ public final class Librarian {
 
             oldFile.renameTo(newFile);
 
+            version.incrementAndGet();
+
             return newFile.getAbsolutePath();
 
         } catch (Throwable e) {
@@ -232,30 +268,33 @@ public final class Librarian {
         try {
             ContentResolver cr = context.getContentResolver();
 
-            Set<Integer> sharedFiles = getSharedFiles(fds.get(0).fileType);
-
-            int size = fds.size();
+            int[] sharedFiles = getSharedFiles(fds.get(0).fileType);
 
-            // we know this is a slow process, we can improve it later
-            for (int i = 0; i < size; i++) {
+            List<Integer> shared = new ArrayList<Integer>();
+            List<Integer> unshared = new ArrayList<Integer>();
 
-                FileDescriptor fileDescriptor = fds.get(i);
-
-                ContentValues contentValues = new ContentValues();
-                contentValues.put(SharingColumns.SHARED, fileDescriptor.shared ? 1 : 0);
+            ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
 
+            for (FileDescriptor fileDescriptor : fds) {
                 // Is this a NEW Shared File?
-                if (!sharedFiles.contains(fileDescriptor.id) && fileDescriptor.shared) {
-                    // insert in table as unshared.
+                if (Arrays.binarySearch(sharedFiles, fileDescriptor.id) < 0 && fileDescriptor.shared) {
+                    ContentValues contentValues = new ContentValues();
+                    contentValues.put(SharingColumns.SHARED, 1);
                     contentValues.put(SharingColumns.FILE_ID, fileDescriptor.id);
                     contentValues.put(SharingColumns.FILE_TYPE, fileType);
-                    cr.insert(Sharing.Media.CONTENT_URI, contentValues);
+                    ops.add(ContentProviderOperation.newInsert(Sharing.Media.CONTENT_URI).withValues(contentValues).build());
                 } else {
-                    // everything else is an update
-                    cr.update(Sharing.Media.CONTENT_URI, contentValues, SharingColumns.FILE_ID + "=? AND " + SharingColumns.FILE_TYPE + "=?", new String[] { String.valueOf(fileDescriptor.id), String.valueOf(fileType) });
+                    // everything else is an update, grouped by the new state
+                    (fileDescriptor.shared ? shared : unshared).add(fileDescriptor.id);
                 }
             }
 
+            addUpdateSharedOperations(ops, fileType, shared, true);
+            addUpdateSharedOperations(ops, fileType, unshared, false);
+
+            // one transaction and one provider call for all of them
+            cr.applyBatch(UniversalStore.UNIVERSAL_SHARING_AUTHORITY, ops);
+
             invalidateCountCache(fileType);
 
         } catch (Throwable e) {
@@ -269,10 +308,11 @@ public final class Librarian {
         for (FileDescriptor fd : fds) {
             if (new File(fd.filePath).delete()) {
                 ids.add(fd.id);
-                deleteSharedState(fd.fileType, fd.id);
             }
         }
 
+        deleteSharedStates(fileType, ids);
+
         try {
             ContentResolver cr = context.getContentResolver();
             TableFetcher fetcher = TableFetchers.getFetcher(fileType);
@@ -391,6 +431,7 @@ public final class Librarian {
     }
 
     public void invalidateCountCache() {
+        version.incrementAndGet();
         for (FileCountCache c : cache) {
             if (c != null) {
                 c.lastTimeCachedShared = 0;
@@ -404,11 +445,35 @@ public final class Librarian {
      * @param fileType
      */
     void invalidateCountCache(byte fileType) {
+        version.incrementAndGet();
         cache[fileType].lastTimeCachedShared = 0;
         cache[fileType].lastTimeCachedOnDisk = 0;
         broadcastRefreshFinger();
     }
 
+    /**
+     * Files can be added or removed by other applications, the
+     * version needs to change in that case too.
+     */
+    private void registerLibraryObserver() {
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                version.incrementAndGet();
+            }
+        };
+
+        try {
+            ContentResolver cr = context.getContentResolver();
+            for (byte i = 0; i < 6; i++) {
+                cr.registerContentObserver(TableFetchers.getFetcher(i).getContentUri(), true, observer);
+            }
+            cr.registerContentObserver(Sharing.Media.CONTENT_URI, true, observer);
+        } catch (Throwable e) {
+            Log.e(TAG, "Failed to register the library observer", e);
+        }
+    }
+
     private void broadcastRefreshFinger() {
         context.sendBroadcast(new Intent(Constants.ACTION_REFRESH_FINGER));
         PeerManager.instance().updateLocalPeer();
@@ -607,7 +672,25 @@ public final class Librarian {
         List<FileDescriptor> result = new ArrayList<FileDescriptor>();
 
         Cursor c = null;
-        Set<Integer> sharedIds = getSharedFiles(fetcher.getFileType());
+        int[] sharedIds = getSharedFiles(fetcher.getFileType());
+
+        // with a where the rows are few, the shared ones are picked from the cursor
+        boolean filterShared = sharedOnly && where != null;
+        int skip = filterShared ? offset : 0;
+
+        if (sharedOnly) {
+            if (sharedIds.length == 0 || (!filterShared && offset >= sharedIds.length)) {
+                return result;
+            }
+            if (!filterShared) {
+                // the sharing table is in another database, no join possible, the pages go
+                // over the shared ids (sorted by id) and only the ids of the page go in the query
+                int end = (int) Math.min((long) offset + pageSize, sharedIds.length);
+                where = BaseColumns._ID + " IN " + StringUtils.buildSet(Arrays.copyOfRange(sharedIds, offset, end));
+                offset = 0;
+                pageSize = Integer.MAX_VALUE;
+            }
+        }
 
         try {
 
@@ -615,29 +698,42 @@ public final class Librarian {
 
             String[] columns = fetcher.getColumns();
             String sort = fetcher.getSortByExpression();
+            if (sort == null || sort.length() == 0) {
+                sort = BaseColumns._ID; // LIMIT needs an ORDER BY to go after
+            }
+
+            boolean limited = !filterShared && (offset > 0 || pageSize != Integer.MAX_VALUE);
+
+            try {
+                c = cr.query(fetcher.getContentUri(), columns, where, whereArgs, limited ? sort + " LIMIT " + pageSize + " OFFSET " + offset : sort);
+            } catch (IllegalArgumentException e) {
+                // a provider that doesn't take the limit in the sort order, seek in the cursor
+                c = null;
+                limited = false;
+            }
 
-            c = cr.query(fetcher.getContentUri(), columns, where, whereArgs, sort);
+            if (c == null && !limited) {
+                c = cr.query(fetcher.getContentUri(), columns, where, whereArgs, sort);
+            }
 
-            if (c == null || !c.moveToPosition(offset)) {
+            if (c == null || !c.moveToPosition(limited || filterShared ? 0 : offset)) {
                 return result;
             }
 
             fetcher.prepare(c);
 
-            int count = 1;
-
             do {
                 FileDescriptor fd = fetcher.fetch(c);
 
-                fd.shared = sharedIds.contains(fd.id);
+                fd.shared = Arrays.binarySearch(sharedIds, fd.id) >= 0;
 
-                if (sharedOnly && !fd.shared) {
+                if (filterShared && (!fd.shared || skip-- > 0)) {
                     continue;
                 }
 
                 result.add(fd);
 
-            } while (c.moveToNext() && count++ < pageSize);
+            } while (result.size() < pageSize && c.moveToNext());
 
         } catch (Throwable e) {
             Log.e(TAG, "General failure getting files", e);
@@ -697,8 +793,36 @@ public final class Librarian {
         return result;
     }
 
-    private Set<Integer> getSharedFiles(byte fileType) {
-        TreeSet<Integer> result = new TreeSet<Integer>();
+    /**
+     * The ids of the shared files that still exist, sorted. The result is kept
+     * until the library version changes, don't modify it.
+     * 
+     * @param fileType
+     * @return
+     */
+    private int[] getSharedFiles(byte fileType) {
+        long v = version.get();
+
+        synchronized (sharedIds) {
+            if (sharedIds[fileType] != null && sharedIdsVersions[fileType] == v) {
+                return sharedIds[fileType];
+            }
+        }
+
+        int[] result = readSharedFiles(fileType);
+
+        synchronized (sharedIds) {
+            // with the version taken before reading, a change in between is not missed
+            sharedIds[fileType] = result;
+            sharedIdsVersions[fileType] = v;
+        }
+
+        return result;
+    }
+
+    private int[] readSharedFiles(byte fileType) {
+        int[] result = new int[0];
+        int size = 0;
         List<Integer> delete = new ArrayList<Integer>();
 
         Cursor c = null;
@@ -715,6 +839,8 @@ public final class Librarian {
             int fileIdCol = c.getColumnIndex(SharingColumns.FILE_ID);
             int sharingIdCol = c.getColumnIndex(SharingColumns._ID);
 
+            result = new int[c.getCount()];
+
             Pair<List<Integer>, List<String>> pair = getAllFiles(fileType);
             List<Integer> files = pair.first;
             List<String> paths = pair.second;
@@ -729,7 +855,7 @@ public final class Librarian {
                     if (index >= 0) {
                         File f = new File(paths.get(index));
                         if (f.exists() && f.isFile()) {
-                            result.add(fileId);
+                            result[size++] = fileId;
                         } else {
                             delete.add(sharingId);
                         }
@@ -753,16 +879,48 @@ public final class Librarian {
             }
         }
 
-        return result;
+        // a file could be in the table more than once
+        Arrays.sort(result, 0, size);
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (n == 0 || result[n - 1] != result[i]) {
+                result[n++] = result[i];
+            }
+        }
+
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    private void addUpdateSharedOperations(ArrayList<ContentProviderOperation> ops, byte fileType, List<Integer> fileIds, boolean shared) {
+        for (int i = 0; i < fileIds.size(); i += MAX_IN_SET_SIZE) {
+            List<Integer> subset = fileIds.subList(i, Math.min(i + MAX_IN_SET_SIZE, fileIds.size()));
+            ops.add(ContentProviderOperation.newUpdate(Sharing.Media.CONTENT_URI).withValue(SharingColumns.SHARED, shared ? 1 : 0).withSelection(SharingColumns.FILE_TYPE + "=? AND " + SharingColumns.FILE_ID + " IN " + StringUtils.buildSet(subset), new String[] { String.valueOf(fileType) }).build());
+        }
     }
 
-    private void deleteSharedState(byte fileType, int fileId) {
+    /**
+     * Deletes the shared states of the files, all in one transaction.
+     * 
+     * @param fileType
+     * @param fileIds
+     */
+    private void deleteSharedStates(byte fileType, List<Integer> fileIds) {
+        if (fileIds.isEmpty()) {
+            return;
+        }
+
         try {
+            ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+            for (int i = 0; i < fileIds.size(); i += MAX_IN_SET_SIZE) {
+                List<Integer> subset = fileIds.subList(i, Math.min(i + MAX_IN_SET_SIZE, fileIds.size()));
+                ops.add(ContentProviderOperation.newDelete(Sharing.Media.CONTENT_URI).withSelection(SharingColumns.FILE_TYPE + "=? AND " + SharingColumns.FILE_ID + " IN " + StringUtils.buildSet(subset), new String[] { String.valueOf(fileType) }).build());
+            }
+
             ContentResolver cr = context.getContentResolver();
-            int deleted = cr.delete(UniversalStore.Sharing.Media.CONTENT_URI, SharingColumns.FILE_ID + "= ? AND " + SharingColumns.FILE_TYPE + " = ?", new String[] { String.valueOf(fileId), String.valueOf(fileType) });
-            Log.d(TAG, "deleteSharedState " + deleted + " rows  (fileType: " + fileType + ", fileId: " + fileId + " )");
+            cr.applyBatch(UniversalStore.UNIVERSAL_SHARING_AUTHORITY, ops);
+            Log.d(TAG, "deleteSharedStates " + fileIds.size() + " files (fileType: " + fileType + ")");
         } catch (Throwable e) {
-            Log.e(TAG, "Failed to delete shared state for fileType=" + fileType + ", fileId=" + fileId, e);
+            Log.e(TAG, "Failed to delete shared states for fileType=" + fileType, e);
         }
     }
 
@@ -23,7 +23,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -34,6 +33,7 @@ import android.text.Html;
 import com.frostwire.android.core.ConfigurationManager;
 import com.frostwire.android.core.Constants;
 import com.frostwire.android.util.StringUtils;
+import com.frostwire.search.CrawlCacheStats;
 import com.frostwire.search.CrawlPagedWebSearchPerformer;
 import com.frostwire.search.CrawledSearchResult;
 import com.frostwire.search.FileSearchResult;
@@ -42,6 +42,9 @@ import com.frostwire.search.SearchManagerImpl;
 import com.frostwire.search.SearchManagerListener;
 import com.frostwire.search.SearchPerformer;
 import com.frostwire.search.SearchResult;
+import com.frostwire.search.SearchResultDedupIndex;
+import com.frostwire.search.SearchResultRanker;
+import com.frostwire.search.TokenMatcher;
 import com.frostwire.search.torrent.TorrentSearchResult;
 import com.frostwire.search.youtube.YouTubeCrawledSearchResult;
 
@@ -52,7 +55,10 @@ import com.frostwire.search.youtube.YouTubeCrawledSearchResult;
  */
 public final class LocalSearchEngine {
 
-    private final SearchManager manager;
+    private static final int WIFI_SEARCH_THREADS = 6;
+    private static final int MOBILE_SEARCH_THREADS = 3;
+
+    private final SearchManagerImpl manager;
 
     // filter constants
     private final int MIN_SEEDS_TORRENT_RESULT;
@@ -61,6 +67,10 @@ public final class LocalSearchEngine {
 
     private long currentSearchToken;
     private List<String> currentSearchTokens;
+    private TokenMatcher currentMatcher;
+    private SearchResultDedupIndex currentDedupIndex;
+    private SearchResultRanker currentRanker;
+    private CrawlCacheStats currentCacheStats;
 
     private boolean searchFinished;
 
@@ -95,19 +105,36 @@ public final class LocalSearchEngine {
     }
 
     public void performSearch(String query) {
+        performSearch(query, null);
+    }
+
+    /**
+     * @param query
+     * @param ranker the ranker for the results, from {@link #newRanker(String)}, so
+     * the consumers of the results can use it before the first results arrive
+     */
+    public void performSearch(String query, SearchResultRanker ranker) {
         if (StringUtils.isNullOrEmpty(query, true)) {
             return;
         }
 
         manager.stop();
+        manager.setNumThreads(NetworkManager.instance().isDataWIFIUp() ? WIFI_SEARCH_THREADS : MOBILE_SEARCH_THREADS);
 
         currentSearchToken = Math.abs(System.nanoTime());
         currentSearchTokens = tokenize(query);
+        currentMatcher = new TokenMatcher(currentSearchTokens);
+        currentDedupIndex = new SearchResultDedupIndex(currentSearchToken);
+        currentRanker = ranker != null ? ranker : newRanker(currentMatcher);
+        currentCacheStats = new CrawlCacheStats();
         searchFinished = false;
 
         for (SearchEngine se : SearchEngine.getEngines()) {
             if (se.isEnabled()) {
                 SearchPerformer p = se.getPerformer(currentSearchToken, query);
+                if (p instanceof CrawlPagedWebSearchPerformer) {
+                    ((CrawlPagedWebSearchPerformer<?>) p).setCacheStats(currentCacheStats);
+                }
                 manager.perform(p);
             }
         }
@@ -117,9 +144,22 @@ public final class LocalSearchEngine {
         manager.stop();
         currentSearchToken = 0;
         currentSearchTokens = null;
+        currentMatcher = null;
+        currentDedupIndex = null;
+        currentRanker = null;
         searchFinished = true;
     }
 
+    /**
+     * The ranker of the current search, results are delivered to the listener
+     * already ranked, in the order of this ranker.
+     * 
+     * @return
+     */
+    public SearchResultRanker getCurrentRanker() {
+        return currentRanker;
+    }
+
     public boolean isSearchStopped() {
         return currentSearchToken == 0;
     }
@@ -136,6 +176,24 @@ public final class LocalSearchEngine {
         return CrawlPagedWebSearchPerformer.getCacheSize();
     }
 
+    /**
+     * Crawl cache hits, misses and bytes served of the last search, null if
+     * there was no search yet. The evictions are not per search, see
+     * {@link #getCacheBytesEvicted()}.
+     * 
+     * @return
+     */
+    public CrawlCacheStats getCacheStats() {
+        return currentCacheStats;
+    }
+
+    /**
+     * @return bytes the crawl cache dropped since the start, expired or over its size
+     */
+    public long getCacheBytesEvicted() {
+        return CrawlPagedWebSearchPerformer.getCacheBytesEvicted();
+    }
+
     private void onFinished(long token) {
         searchFinished = true;
         if (listener != null) {
@@ -146,16 +204,50 @@ public final class LocalSearchEngine {
     private List<SearchResult> filter(SearchPerformer performer, List<SearchResult> results) {
         List<SearchResult> list;
 
-        if (currentSearchTokens == null || currentSearchTokens.isEmpty()) {
+        TokenMatcher matcher = currentMatcher;
+
+        if (matcher == null || matcher.getNumTokens() == 0) {
             list = Collections.emptyList();
         } else {
-            list = filter(results);
+            list = filter(matcher, results);
+        }
+
+        return list;
+    }
+
+    private List<SearchResult> dedup(SearchPerformer performer, List<SearchResult> results, List<SearchResult> updated) {
+        SearchResultDedupIndex index = currentDedupIndex;
+
+        if (index == null || index.getToken() != performer.getToken()) {
+            return Collections.emptyList();
+        }
+
+        return index.dedup(results, updated);
+    }
+
+    /**
+     * The updated results are already delivered, they go again only if their rank
+     * changed, for the listener to move them.
+     */
+    private List<SearchResult> rank(List<SearchResult> results, List<SearchResult> updated) {
+        SearchResultRanker ranker = currentRanker;
+
+        if (ranker == null) {
+            return results;
+        }
+
+        List<SearchResult> list = new ArrayList<SearchResult>();
+        if (!results.isEmpty()) {
+            list.addAll(ranker.rank(results));
+        }
+        if (!updated.isEmpty()) {
+            list.addAll(ranker.update(updated));
         }
 
         return list;
     }
 
-    private List<SearchResult> filter(List<? extends SearchResult> results) {
+    private List<SearchResult> filter(TokenMatcher matcher, List<? extends SearchResult> results) {
         List<SearchResult> list = new LinkedList<SearchResult>();
 
         try {
@@ -178,7 +270,7 @@ public final class LocalSearchEngine {
                         if (!((YouTubeCrawledSearchResult) sr).getFilename().endsWith(".flv")) {
                             list.add(sr);
                         }
-                    } else if (filter(new LinkedList<String>(currentSearchTokens), sr)) {
+                    } else if (filter(matcher, sr)) {
                         list.add(sr);
                     }
                 } else {
@@ -193,30 +285,18 @@ public final class LocalSearchEngine {
         return list;
     }
 
-    private boolean filter(List<String> tokens, SearchResult sr) {
-        StringBuilder sb = new StringBuilder();
+    private boolean filter(TokenMatcher matcher, SearchResult sr) {
+        long found = matcher.match(sr.getDisplayName(), 0);
 
-        sb.append(sr.getDisplayName());
         if (sr instanceof CrawledSearchResult) {
-            sb.append(((CrawledSearchResult) sr).getParent().getDisplayName());
+            found = matcher.match(((CrawledSearchResult) sr).getParent().getDisplayName(), found);
         }
 
         if (sr instanceof FileSearchResult) {
-            sb.append(((FileSearchResult) sr).getFilename());
-        }
-
-        String str = sanitize(sb.toString());
-        str = normalize(str);
-
-        Iterator<String> it = tokens.iterator();
-        while (it.hasNext()) {
-            String token = it.next();
-            if (str.contains(token)) {
-                it.remove();
-            }
+            found = matcher.match(((FileSearchResult) sr).getFilename(), found);
         }
 
-        return tokens.isEmpty();
+        return matcher.isFullMatch(found);
     }
 
     private String sanitize(String str) {
@@ -254,14 +334,31 @@ public final class LocalSearchEngine {
         return new ArrayList<String>(normalizeTokens(tokens));
     }
 
+    public SearchResultRanker newRanker(String query) {
+        return newRanker(new TokenMatcher(tokenize(query)));
+    }
+
+    private static SearchResultRanker newRanker(TokenMatcher matcher) {
+        SearchResultRanker ranker = new SearchResultRanker(matcher);
+
+        for (SearchEngine se : SearchEngine.getEngines()) {
+            if (se.getReliability() != 0) {
+                ranker.setSourceWeight(se.getName(), se.getReliability());
+            }
+        }
+
+        return ranker;
+    }
+
     private final class ManagerListener implements SearchManagerListener {
 
         @Override
         public void onResults(SearchPerformer performer, List<? extends SearchResult> results) {
             if (listener != null && !performer.isStopped()) {
                 if (performer.getToken() == currentSearchToken) { // one more additional protection
+                    List<SearchResult> updated = new LinkedList<SearchResult>();
                     @SuppressWarnings("unchecked")
-                    List<SearchResult> filtered = filter(performer, (List<SearchResult>) results);
+                    List<SearchResult> filtered = rank(dedup(performer, filter(performer, (List<SearchResult>) results), updated), updated);
                     if (!filtered.isEmpty()) {
                         listener.onResults(performer, filtered);
                     }
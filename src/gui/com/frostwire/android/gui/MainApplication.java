@@ -38,6 +38,7 @@ import com.frostwire.android.util.HttpResponseCache;
 import com.frostwire.android.util.ImageLoader;
 import com.frostwire.logging.Logger;
 import com.frostwire.search.CrawlPagedWebSearchPerformer;
+import com.frostwire.search.TieredCrawlCache;
 import com.frostwire.util.DirectoryUtils;
 import com.frostwire.vuze.VuzeConfiguration;
 import com.frostwire.vuze.VuzeManager;
@@ -52,6 +53,9 @@ public class MainApplication extends Application {
 
     private static final Logger LOG = Logger.getLogger(MainApplication.class);
 
+    private static final int MAX_CRAWL_MEMORY_CACHE_SIZE = 4 * 1024 * 1024; // 4MB
+    private static final long CRAWL_MEMORY_CACHE_TTL = 60 * 60 * 1000; // 1 hour
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -65,7 +69,7 @@ public class MainApplication extends Application {
         }
 
         com.frostwire.android.util.ImageLoader.getInstance(this);
-        CrawlPagedWebSearchPerformer.setCache(new DiskCrawlCache(this));
+        CrawlPagedWebSearchPerformer.setCache(new TieredCrawlCache(new DiskCrawlCache(this), calculateCrawlMemoryCacheSize(), CRAWL_MEMORY_CACHE_TTL));
 
         try {
 
@@ -102,6 +106,11 @@ public class MainApplication extends Application {
         }
     }
 
+    private long calculateCrawlMemoryCacheSize() {
+        // ~2% of the available heap, bounded to 4MB
+        return Math.min(com.frostwire.android.util.SystemUtils.calculateMemoryCacheSize(this) / 8, MAX_CRAWL_MEMORY_CACHE_SIZE);
+    }
+
     private String getDeviceId() {
         TelephonyManager tm = (TelephonyManager) this.getSystemService(Context.TELEPHONY_SERVICE);
         String deviceId = tm.getDeviceId();
@@ -21,10 +21,12 @@ package com.frostwire.android.gui;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.net.InetAddress;
+import java.util.Locale;
 
 import android.app.Application;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
 import android.util.Log;
 
@@ -154,6 +156,28 @@ public final class NetworkManager {
         return networkInfo != null && networkInfo.isAvailable() && (networkInfo.getSubtype() == NETWORK_TYPE_4G_LTE || networkInfo.getSubtype() == NETWORK_TYPE_4G_EHRPD) && networkInfo.isConnected();
     }
 
+    /**
+     * A name for the network the device is on, used to keep separate transfer tuning
+     * per network: the SSID on WiFi, the network type on mobile data.
+     */
+    public String getNetworkProfile() {
+        try {
+            if (isDataWIFIUp()) {
+                WifiInfo info = getWifiManager().getConnectionInfo();
+                return "wifi:" + (info != null ? info.getSSID() : "");
+            }
+
+            NetworkInfo networkInfo = getConnectivityManager().getActiveNetworkInfo();
+            if (networkInfo != null) {
+                return networkInfo.getTypeName().toLowerCase(Locale.US) + ":" + networkInfo.getSubtypeName();
+            }
+        } catch (Throwable e) {
+            Log.w(TAG, "Unable to get the network profile", e);
+        }
+
+        return null;
+    }
+
     public WifiManager getWifiManager() {
         return (WifiManager) context.getSystemService(Application.WIFI_SERVICE);
     }
@@ -18,14 +18,18 @@
 
 package com.frostwire.android.gui;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 import com.frostwire.android.core.FileDescriptor;
 import com.frostwire.android.core.HttpFetcher;
 import com.frostwire.localpeer.Finger;
 import com.frostwire.localpeer.LocalPeer;
+import com.frostwire.logging.Logger;
 import com.frostwire.util.HttpClient;
+import com.frostwire.util.HttpClient.ResponseCodeNotSupportedException;
 import com.frostwire.util.HttpClientFactory;
 import com.frostwire.util.JsonUtils;
 
@@ -37,7 +41,10 @@ import com.frostwire.util.JsonUtils;
  */
 public final class Peer {
 
+    private static final Logger LOG = Logger.getLogger(Peer.class);
+
     private static final int BROWSE_HTTP_TIMEOUT = 10000;
+    private static final int BROWSE_PAGE_SIZE = 1000;
 
     private String udn;
     private String address;
@@ -57,6 +64,8 @@ public final class Peer {
     private String key;
     private final LocalPeer p;
 
+    private volatile String uuid; // known after the first finger
+
     private final HttpClient httpClient;
 
     public Peer(LocalPeer p, boolean localhost) {
@@ -119,6 +128,14 @@ public final class Peer {
         return "http://" + address + ":" + listeningPort + "/browse?type=" + fileType;
     }
 
+    public String getBrowseUri(byte fileType, int offset, int limit) {
+        return getBrowseUri(fileType) + "&offset=" + offset + "&limit=" + limit;
+    }
+
+    public String getSyncUri(byte fileType, long token) {
+        return "http://" + address + ":" + listeningPort + "/sync?type=" + fileType + "&since=" + token;
+    }
+
     public String getDownloadUri(FileDescriptor fd) {
         return "http://" + address + ":" + listeningPort + "/download?type=" + fd.fileType + "&id=" + fd.id;
     }
@@ -130,26 +147,84 @@ public final class Peer {
             String uri = getFingerUri();
             byte[] data = new HttpFetcher(uri).fetch();
             String json = new String(data);
-            return JsonUtils.toObject(json, Finger.class);
+            Finger finger = JsonUtils.toObject(json, Finger.class);
+            if (finger != null) {
+                uuid = finger.uuid;
+            }
+            return finger;
+        }
+    }
+
+    /**
+     * The files of the last browse of this peer (maybe from an earlier visit),
+     * to show something while browsing again.
+     * 
+     * @param fileType
+     * @return null if nothing is known
+     */
+    public List<FileDescriptor> getCachedFiles(byte fileType) {
+        if (localhost || uuid == null) {
+            return null;
         }
+        return PeerCatalogCache.instance().getFiles(uuid, fileType);
     }
 
     public List<FileDescriptor> browse(byte fileType) {
         if (localhost) {
             return Librarian.instance().getFiles(fileType, 0, Integer.MAX_VALUE, false);
         } else {
-            String url = getBrowseUri(fileType);
+            if (uuid == null) {
+                finger();
+            }
+
+            if (uuid != null) {
+                try {
+                    return sync(fileType, uuid);
+                } catch (FileNotFoundException e) {
+                    // older peer, without the sync endpoint (the 404 surfaces before the response code check)
+                } catch (ResponseCodeNotSupportedException e) {
+                    // older peer, without the sync endpoint
+                } catch (Throwable e) {
+                    LOG.warn("Error syncing with " + this + ", falling back to browse", e);
+                }
+            }
 
-            String json = null;
+            List<FileDescriptor> result = new ArrayList<FileDescriptor>();
+
+            // one page at a time, the timeout is per page and not for the whole library
             try {
-                json = httpClient.get(url, BROWSE_HTTP_TIMEOUT);
+                List<FileDescriptor> page;
+                do {
+                    String json = httpClient.get(getBrowseUri(fileType, result.size(), BROWSE_PAGE_SIZE), BROWSE_HTTP_TIMEOUT);
+                    FileDescriptorList list = JsonUtils.toObject(json, FileDescriptorList.class);
+                    page = list != null ? list.files : null;
+                    if (page == null || page.isEmpty()) {
+                        break;
+                    }
+                    // older peers ignore offset and limit, a page that starts over means no paging
+                    if (!result.isEmpty() && page.get(0).id == result.get(0).id) {
+                        break;
+                    }
+                    result.addAll(page);
+                } while (page.size() == BROWSE_PAGE_SIZE);
             } catch (IOException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
+                LOG.warn("Error browsing " + this, e);
             }
 
-            return JsonUtils.toObject(json, FileDescriptorList.class).files;
+            return result;
+        }
+    }
+
+    private List<FileDescriptor> sync(byte fileType, String uuid) throws IOException {
+        PeerCatalogCache cache = PeerCatalogCache.instance();
+
+        String json = httpClient.get(getSyncUri(fileType, cache.getToken(uuid, fileType)), BROWSE_HTTP_TIMEOUT);
+        SyncResponse r = JsonUtils.toObject(json, SyncResponse.class);
+        if (r == null) {
+            throw new IOException("Invalid sync response from " + this);
         }
+
+        return cache.apply(uuid, fileType, r.token, r.full, r.files, r.removed);
     }
 
     @Override
@@ -178,4 +253,11 @@ public final class Peer {
     private static final class FileDescriptorList {
         public List<FileDescriptor> files;
     }
+
+    private static final class SyncResponse {
+        public long token;
+        public boolean full;
+        public List<FileDescriptor> files;
+        public int[] removed;
+    }
 }
\ No newline at end of file
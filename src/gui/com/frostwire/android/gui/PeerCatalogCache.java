@@ -0,0 +1,154 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(TM). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.android.gui;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.frostwire.android.core.FileDescriptor;
+
+/**
+ * The last known catalog of the remote peers, by peer uuid ({@link com.frostwire.localpeer.Finger#uuid})
+ * and file type, with the sync token to ask only for what changed since then.
+ * 
+ * Only in memory, the tokens are not valid after the remote peer restarts anyway.
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class PeerCatalogCache {
+
+    private static final int MAX_PEERS = 16;
+    private static final int NUM_FILE_TYPES = 6;
+
+    private final Map<String, Catalog[]> catalogs; // guarded by this
+
+    private static PeerCatalogCache instance;
+
+    public synchronized static PeerCatalogCache instance() {
+        if (instance == null) {
+            instance = new PeerCatalogCache();
+        }
+        return instance;
+    }
+
+    private PeerCatalogCache() {
+        this.catalogs = new LinkedHashMap<String, Catalog[]>(MAX_PEERS, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Catalog[]> eldest) {
+                return size() > MAX_PEERS;
+            }
+        };
+    }
+
+    /**
+     * @param uuid
+     * @param fileType
+     * @return the token of the cached catalog, -1 if there is none
+     */
+    public synchronized long getToken(String uuid, byte fileType) {
+        Catalog c = get(uuid, fileType, false);
+        return c != null ? c.token : -1;
+    }
+
+    /**
+     * @param uuid
+     * @param fileType
+     * @return a copy of the cached files, null if there is no catalog
+     */
+    public synchronized List<FileDescriptor> getFiles(String uuid, byte fileType) {
+        Catalog c = get(uuid, fileType, false);
+        return c != null ? new ArrayList<FileDescriptor>(c.files.values()) : null;
+    }
+
+    /**
+     * Applies the changes received from the peer. Changed files keep their
+     * position, the new ones go to the end.
+     * 
+     * @param uuid
+     * @param fileType
+     * @param token
+     * @param full if true, the files are the whole catalog
+     * @param files added or changed files
+     * @param removed ids of the removed files
+     * @return a copy of the updated files
+     */
+    public synchronized List<FileDescriptor> apply(String uuid, byte fileType, long token, boolean full, List<FileDescriptor> files, int[] removed) {
+        Catalog c = get(uuid, fileType, true);
+
+        if (full) {
+            c.files.clear();
+        }
+
+        if (removed != null) {
+            for (int id : removed) {
+                c.files.remove(id);
+            }
+        }
+
+        if (files != null) {
+            for (FileDescriptor fd : files) {
+                c.files.put(fd.id, fd);
+            }
+        }
+
+        c.token = token;
+
+        return new ArrayList<FileDescriptor>(c.files.values());
+    }
+
+    public synchronized void remove(String uuid) {
+        catalogs.remove(uuid);
+    }
+
+    private Catalog get(String uuid, byte fileType, boolean create) {
+        if (uuid == null || fileType < 0 || fileType >= NUM_FILE_TYPES) {
+            if (create) {
+                throw new IllegalArgumentException("Invalid peer uuid or file type: " + uuid + ", " + fileType);
+            }
+            return null;
+        }
+
+        Catalog[] arr = catalogs.get(uuid);
+        if (arr == null) {
+            if (!create) {
+                return null;
+            }
+            arr = new Catalog[NUM_FILE_TYPES];
+            catalogs.put(uuid, arr);
+        }
+
+        if (arr[fileType] == null && create) {
+            arr[fileType] = new Catalog();
+        }
+
+        return arr[fileType];
+    }
+
+    private static final class Catalog {
+
+        public final Map<Integer, FileDescriptor> files = new LinkedHashMap<Integer, FileDescriptor>();
+        public long token = -1;
+    }
+}
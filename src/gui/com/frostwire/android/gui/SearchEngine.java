@@ -57,21 +57,50 @@ public abstract class SearchEngine {
 
     private final String name;
     private final String preferenceKey;
+    private final int reliability;
+
+    private final DomainAliasManager domainAliasManager;
 
     private boolean active;
     
-    private SearchEngine(String name, String preferenceKey) {
+    private SearchEngine(String name, String preferenceKey, String domainName, int reliability) {
         this.name = name;
         this.preferenceKey = preferenceKey;
+        this.reliability = reliability;
+        this.domainAliasManager = new DomainAliasManager(domainName);
         this.active = true;
     }
 
+    private SearchEngine(String name, String preferenceKey, String domainName) {
+        this(name, preferenceKey, domainName, 0);
+    }
+
     public String getName() {
         return name;
     }
 
+    /**
+     * The ranking bonus (or penalty if negative) of the results of this engine,
+     * based on how often its crawled data is valid.
+     * 
+     * @return
+     */
+    public int getReliability() {
+        return reliability;
+    }
+
     public abstract SearchPerformer getPerformer(long token, String keywords);
 
+    /**
+     * The same manager for all the searches, it keeps the latency and error
+     * history used for the timeouts and the circuit breaker.
+     * 
+     * @return
+     */
+    public DomainAliasManager getDomainAliasManager() {
+        return domainAliasManager;
+    }
+
     public String getPreferenceKey() {
         return preferenceKey;
     }
@@ -107,84 +136,84 @@ public abstract class SearchEngine {
         return null;
     }
 
-    public static final SearchEngine EXTRATORRENT = new SearchEngine("Extratorrent", Constants.PREF_KEY_SEARCH_USE_EXTRATORRENT) {
+    public static final SearchEngine EXTRATORRENT = new SearchEngine("Extratorrent", Constants.PREF_KEY_SEARCH_USE_EXTRATORRENT, "extratorrent.cc", 30) {
         @Override
         public SearchPerformer getPerformer(long token, String keywords) {
-            return new ExtratorrentSearchPerformer(new DomainAliasManager("extratorrent.cc"), token, keywords, DEFAULT_TIMEOUT);
+            return new ExtratorrentSearchPerformer(getDomainAliasManager(), token, keywords, DEFAULT_TIMEOUT);
         }
     };
 
-    public static final SearchEngine MININOVA = new SearchEngine("Mininova", Constants.PREF_KEY_SEARCH_USE_MININOVA) {
+    public static final SearchEngine MININOVA = new SearchEngine("Mininova", Constants.PREF_KEY_SEARCH_USE_MININOVA, "www.mininova.org", -20) {
         @Override
         public SearchPerformer getPerformer(long token, String keywords) {
-            return new MininovaSearchPerformer(new DomainAliasManager("www.mininova.org"), token, keywords, DEFAULT_TIMEOUT);
+            return new MininovaSearchPerformer(getDomainAliasManager(), token, keywords, DEFAULT_TIMEOUT);
         }
     };
 
-    public static final SearchEngine YOUTUBE = new SearchEngine("YouTube", Constants.PREF_KEY_SEARCH_USE_YOUTUBE) {
+    public static final SearchEngine YOUTUBE = new SearchEngine("YouTube", Constants.PREF_KEY_SEARCH_USE_YOUTUBE, "gdata.youtube.com") {
         @Override
         public SearchPerformer getPerformer(long token, String keywords) {
-            return new YouTubeSearchPerformer(new DomainAliasManager("gdata.youtube.com"), token, keywords, DEFAULT_TIMEOUT);
+            return new YouTubeSearchPerformer(getDomainAliasManager(), token, keywords, DEFAULT_TIMEOUT);
         }
     };
 
-    public static final SearchEngine SOUNCLOUD = new SearchEngine("Soundcloud", Constants.PREF_KEY_SEARCH_USE_SOUNDCLOUD) {
+    public static final SearchEngine SOUNCLOUD = new SearchEngine("Soundcloud", Constants.PREF_KEY_SEARCH_USE_SOUNDCLOUD, "api.sndcdn.com") {
         @Override
         public SearchPerformer getPerformer(long token, String keywords) {
-            return new SoundcloudSearchPerformer(new DomainAliasManager("api.sndcdn.com"), token, keywords, DEFAULT_TIMEOUT);
+            return new SoundcloudSearchPerformer(getDomainAliasManager(), token, keywords, DEFAULT_TIMEOUT);
         }
     };
 
-    public static final SearchEngine ARCHIVE = new SearchEngine("Archive.org", Constants.PREF_KEY_SEARCH_USE_ARCHIVEORG) {
+    public static final SearchEngine ARCHIVE = new SearchEngine("Archive.org", Constants.PREF_KEY_SEARCH_USE_ARCHIVEORG, "archive.org", 20) {
         @Override
         public SearchPerformer getPerformer(long token, String keywords) {
-            return new ArchiveorgSearchPerformer(new DomainAliasManager("archive.org"), token, keywords, DEFAULT_TIMEOUT);
+            return new ArchiveorgSearchPerformer(getDomainAliasManager(), token, keywords, DEFAULT_TIMEOUT);
         }
     };
 
-    public static final SearchEngine FROSTCLICK = new SearchEngine("FrostClick", Constants.PREF_KEY_SEARCH_USE_FROSTCLICK) {
+    public static final SearchEngine FROSTCLICK = new SearchEngine("FrostClick", Constants.PREF_KEY_SEARCH_USE_FROSTCLICK, "api.frostclick.com") {
         @Override
         public SearchPerformer getPerformer(long token, String keywords) {
-            return new FrostClickSearchPerformer(new DomainAliasManager("api.frostclick.com"), token, keywords, DEFAULT_TIMEOUT, FROSTWIRE_ANDROID_USER_AGENT);
+            return new FrostClickSearchPerformer(getDomainAliasManager(), token, keywords, DEFAULT_TIMEOUT, FROSTWIRE_ANDROID_USER_AGENT);
         }
     };
 
-    public static final SearchEngine BITSNOOP = new SearchEngine("BitSnoop", Constants.PREF_KEY_SEARCH_USE_BITSNOOP) {
+    public static final SearchEngine BITSNOOP = new SearchEngine("BitSnoop", Constants.PREF_KEY_SEARCH_USE_BITSNOOP, "bitsnoop.com", 20) {
         @Override
         public SearchPerformer getPerformer(long token, String keywords) {
-            return new BitSnoopSearchPerformer(new DomainAliasManager("bitsnoop.com"), token, keywords, DEFAULT_TIMEOUT);
+            return new BitSnoopSearchPerformer(getDomainAliasManager(), token, keywords, DEFAULT_TIMEOUT);
         }
     };
 
-    public static final SearchEngine TORLOCK = new SearchEngine("TorLock", Constants.PREF_KEY_SEARCH_USE_TORLOCK) {
+    public static final SearchEngine TORLOCK = new SearchEngine("TorLock", Constants.PREF_KEY_SEARCH_USE_TORLOCK, "www.torlock.com") {
         @Override
         public SearchPerformer getPerformer(long token, String keywords) {
-            return new TorLockSearchPerformer(new DomainAliasManager("www.torlock.com"), token, keywords, DEFAULT_TIMEOUT);
+            return new TorLockSearchPerformer(getDomainAliasManager(), token, keywords, DEFAULT_TIMEOUT);
         }
     };
 
-    public static final SearchEngine EZTV = new SearchEngine("Eztv", Constants.PREF_KEY_SEARCH_USE_EZTV) {
+    public static final SearchEngine EZTV = new SearchEngine("Eztv", Constants.PREF_KEY_SEARCH_USE_EZTV, "eztv.it") {
         @Override
         public SearchPerformer getPerformer(long token, String keywords) {
-            return new EztvSearchPerformer(new DomainAliasManager("eztv.it"), token, keywords, DEFAULT_TIMEOUT);
+            return new EztvSearchPerformer(getDomainAliasManager(), token, keywords, DEFAULT_TIMEOUT);
         }
     };
     
-    public static final SearchEngine APPIA = new SearchEngine("Appia", Constants.PREF_KEY_SEARCH_USE_APPIA) {
+    public static final SearchEngine APPIA = new SearchEngine("Appia", Constants.PREF_KEY_SEARCH_USE_APPIA, AppiaSearchPerformer.HTTP_SERVER_NAME) {
         private AppiaSearchThrottle throttle = new AppiaSearchThrottle();
         
         @Override
         public SearchPerformer getPerformer(long token, String keywords) {
-            return new AppiaSearchPerformer(new DomainAliasManager(AppiaSearchPerformer.HTTP_SERVER_NAME), token, keywords, DEFAULT_TIMEOUT, FROSTWIRE_ANDROID_USER_AGENT, LocalSearchEngine.instance().getAndroidId(), throttle);
+            return new AppiaSearchPerformer(getDomainAliasManager(), token, keywords, DEFAULT_TIMEOUT, FROSTWIRE_ANDROID_USER_AGENT, LocalSearchEngine.instance().getAndroidId(), throttle);
         }
     };
     
-    public static final SearchEngine TPB = new SearchEngine("TPB", Constants.PREF_KEY_SEARCH_USE_TPB) {
+    public static final SearchEngine TPB = new SearchEngine("TPB", Constants.PREF_KEY_SEARCH_USE_TPB, "thepiratebay.se", 30) {
         @Override
         public SearchPerformer getPerformer(long token, String keywords) {
             TPBSearchPerformer performer = null;
             if (NetworkManager.instance().isDataWIFIUp()) {
-                performer = new TPBSearchPerformer(new DomainAliasManager("thepiratebay.se"), token, keywords, DEFAULT_TIMEOUT);
+                performer = new TPBSearchPerformer(getDomainAliasManager(), token, keywords, DEFAULT_TIMEOUT);
             } else {
                 LOG.info("No TPBSearchPerformer, WiFi not up");
             }
@@ -192,12 +221,12 @@ public abstract class SearchEngine {
         }
     };
     
-    public static final SearchEngine MONOVA = new SearchEngine("Monova", Constants.PREF_KEY_SEARCH_USE_MONOVA) {
+    public static final SearchEngine MONOVA = new SearchEngine("Monova", Constants.PREF_KEY_SEARCH_USE_MONOVA, "www.monova.org", -20) {
         @Override
         public SearchPerformer getPerformer(long token, String keywords) {
             MonovaSearchPerformer performer = null;
             if (NetworkManager.instance().isDataWIFIUp()) {
-                performer = new MonovaSearchPerformer(new DomainAliasManager("www.monova.org"), token, keywords, DEFAULT_TIMEOUT);
+                performer = new MonovaSearchPerformer(getDomainAliasManager(), token, keywords, DEFAULT_TIMEOUT);
             } else {
                 LOG.info("No MonovaSearchPerformer, WiFi not up");
             }
@@ -205,12 +234,12 @@ public abstract class SearchEngine {
         }
     };
     
-    public static final SearchEngine YIFY = new SearchEngine("Yify", Constants.PREF_KEY_SEARCH_USE_YIFY) {
+    public static final SearchEngine YIFY = new SearchEngine("Yify", Constants.PREF_KEY_SEARCH_USE_YIFY, "www.yify-torrent.org", 20) {
         @Override
         public SearchPerformer getPerformer(long token, String keywords) {
             YifySearchPerformer performer = null;
             if (NetworkManager.instance().isDataWIFIUp()) {
-                performer = new YifySearchPerformer(new DomainAliasManager("www.yify-torrent.org"), token, keywords, DEFAULT_TIMEOUT);
+                performer = new YifySearchPerformer(getDomainAliasManager(), token, keywords, DEFAULT_TIMEOUT);
             } else {
                 LOG.info("No YifySearchPerformer, WiFi not up");
             }
@@ -218,12 +247,12 @@ public abstract class SearchEngine {
         }
     };
     
-    public static final SearchEngine TORRENTSFM = new SearchEngine("Torrents.fm", Constants.PREF_KEY_SEARCH_USE_TORRENTSFM) {
+    public static final SearchEngine TORRENTSFM = new SearchEngine("Torrents.fm", Constants.PREF_KEY_SEARCH_USE_TORRENTSFM, "torrents.fm") {
         @Override
         public SearchPerformer getPerformer(long token, String keywords) {
             TorrentsfmSearchPerformer performer = null;
             if (NetworkManager.instance().isDataWIFIUp()) {
-                performer = new TorrentsfmSearchPerformer(new DomainAliasManager("torrents.fm"), token, keywords, DEFAULT_TIMEOUT);
+                performer = new TorrentsfmSearchPerformer(getDomainAliasManager(), token, keywords, DEFAULT_TIMEOUT);
             } else {
                 LOG.info("No TorrentsfmSearchPerformer, WiFi not up");
             }
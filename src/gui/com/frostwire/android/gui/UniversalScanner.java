@@ -22,9 +22,16 @@ import java.io.File;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -36,6 +43,7 @@ import android.database.Cursor;
 import android.media.MediaScannerConnection;
 import android.media.MediaScannerConnection.MediaScannerConnectionClient;
 import android.net.Uri;
+import android.os.Process;
 import android.os.SystemClock;
 
 import com.frostwire.android.core.ConfigurationManager;
@@ -46,9 +54,16 @@ import com.frostwire.android.core.providers.UniversalStore;
 import com.frostwire.android.core.providers.UniversalStore.Documents;
 import com.frostwire.android.core.providers.UniversalStore.Documents.DocumentsColumns;
 import com.frostwire.android.gui.util.UIUtils;
+import com.frostwire.concurrent.DefaultThreadFactory;
 import com.frostwire.logging.Logger;
 
 /**
+ * All the scans go to one queue, the paths requested in a short window are
+ * coalesced (no duplicates) and scanned in batches, in a background priority
+ * thread, with one media scanner connection for as long as there is work.
+ * 
+ * Every batch logs its time and how long its oldest file waited in the queue,
+ * that is what the scan adds to the "download finished" of a transfer.
  * 
  * @author gubatron
  * @author aldenml
@@ -58,6 +73,14 @@ public final class UniversalScanner {
 
     private static final Logger LOG = Logger.getLogger(UniversalScanner.class);
 
+    private static final long COALESCE_WINDOW_MILLISECONDS = 500;
+    private static final long IDLE_TIMEOUT_MILLISECONDS = 10000;
+    private static final long CONNECT_TIMEOUT_MILLISECONDS = 10000;
+    private static final long BATCH_TIMEOUT_MILLISECONDS = 60000;
+    private static final int BATCH_SIZE = 50;
+
+    private static ScanQueue queue;
+
     private final Context context;
 
     public UniversalScanner(Context context) {
@@ -69,20 +92,60 @@ public final class UniversalScanner {
     }
 
     public void scan(final Collection<File> filesToScan) {
-        new MultiFileAndroidScanner(filesToScan).scan();
+        getQueue(context).add(filesToScan);
+    }
+
+    /**
+     * @return the number of files waiting to be scanned
+     */
+    public static int getNumPending() {
+        ScanQueue q;
+        synchronized (UniversalScanner.class) {
+            q = queue;
+        }
+        return q != null ? q.getNumPending() : 0;
+    }
+
+    private synchronized static ScanQueue getQueue(Context context) {
+        if (queue == null) {
+            queue = new ScanQueue(new UniversalScanner(context.getApplicationContext()));
+        }
+        return queue;
     }
 
-    private static void shareFinishedDownload(FileDescriptor fd) {
+    private static void addFinishedDownload(Map<Byte, List<FileDescriptor>> finished, FileDescriptor fd) {
         if (fd != null) {
-            if (ConfigurationManager.instance().getBoolean(Constants.PREF_KEY_TRANSFER_SHARE_FINISHED_DOWNLOADS)) {
-                fd.shared = true;
-                Librarian.instance().updateSharedStates(fd.fileType, Arrays.asList(fd));
+            List<FileDescriptor> fds = finished.get(fd.fileType);
+            if (fds == null) {
+                fds = new ArrayList<FileDescriptor>();
+                finished.put(fd.fileType, fds);
             }
-            Librarian.instance().invalidateCountCache(fd.fileType);
+            fds.add(fd);
         }
     }
 
-    private void scanDocument(String filePath) {
+    /**
+     * Once per file type for all the files of a batch, every update of the
+     * library refreshes the finger and the count caches.
+     */
+    private static void shareFinishedDownloads(Map<Byte, List<FileDescriptor>> finished) {
+        boolean share = ConfigurationManager.instance().getBoolean(Constants.PREF_KEY_TRANSFER_SHARE_FINISHED_DOWNLOADS);
+
+        for (Map.Entry<Byte, List<FileDescriptor>> e : finished.entrySet()) {
+            byte fileType = e.getKey();
+            List<FileDescriptor> fds = e.getValue();
+
+            if (share) {
+                for (FileDescriptor fd : fds) {
+                    fd.shared = true;
+                }
+                Librarian.instance().updateSharedStates(fileType, fds);
+            }
+            Librarian.instance().invalidateCountCache(fileType);
+        }
+    }
+
+    private void scanDocument(String filePath, Map<Byte, List<FileDescriptor>> finished) {
         File file = new File(filePath);
 
         if (documentExists(filePath, file.length())) {
@@ -109,7 +172,7 @@ public final class UniversalScanner {
         fd.fileType = Constants.FILE_TYPE_DOCUMENTS;
         fd.id = Integer.valueOf(uri.getLastPathSegment());
 
-        shareFinishedDownload(fd);
+        addFinishedDownload(finished, fd);
     }
 
     private boolean documentExists(String filePath, long size) {
@@ -132,74 +195,282 @@ public final class UniversalScanner {
         return result;
     }
 
-    private final class MultiFileAndroidScanner implements MediaScannerConnectionClient {
+    private void onScanCompleted(String path, Uri uri, NativeScanner nativeScanner, Map<Byte, List<FileDescriptor>> finished) {
+        MediaType mt = MediaType.getMediaTypeForExtension(FilenameUtils.getExtension(path));
 
-        private MediaScannerConnection connection;
-        private final Collection<File> files;
-        private int numCompletedScans;
+        if (uri != null && !path.contains("/Android/data/" + context.getPackageName())) {
+            if (mt != null && mt.getId() == Constants.FILE_TYPE_DOCUMENTS) {
+                scanDocument(path, finished);
+            } else {
+                //LOG.debug("Scanned new file: " + uri);
+                addFinishedDownload(finished, Librarian.instance().getFileDescriptor(uri));
+            }
+        } else {
+            if (path.endsWith(".apk")) {
+                //LOG.debug("Can't scan apk for security concerns: " + path);
+            } else if (mt != null) {
+                if (mt.getId() == Constants.FILE_TYPE_AUDIO ||
+                    mt.getId() == Constants.FILE_TYPE_VIDEOS ||
+                    mt.getId() == Constants.FILE_TYPE_PICTURES) {
+                    scanPrivateFile(uri, path, mt, nativeScanner, finished);
+                }
+            } else {
+                scanDocument(path, finished);
+                //LOG.debug("Scanned new file as document: " + path);
+            }
+        }
+    }
 
-        public MultiFileAndroidScanner(Collection<File> filesToScan) {
-            this.files = filesToScan;
-            numCompletedScans = 0;
+    private static final class ScanQueue implements Runnable, MediaScannerConnectionClient {
+
+        private final UniversalScanner scanner;
+        private final Context context;
+
+        private final Map<String, Long> pending; // path -> time queued, guarded by this
+        private Thread thread; // guarded by this
+        private int queued; // since the last idle, guarded by this
+        private int scanned; // since the last idle, guarded by this
+        private int running; // paths of the batch being scanned, guarded by this
+
+        private MediaScannerConnection connection; // only in the queue thread
+        private volatile CountDownLatch connected;
+        private volatile Batch batch;
+        private long batchQueued; // time the oldest path of the batch was queued, only in the queue thread
+
+        public ScanQueue(UniversalScanner scanner) {
+            this.scanner = scanner;
+            this.context = scanner.context;
+            this.pending = new LinkedHashMap<String, Long>();
         }
 
-        public void scan() {
-            try {
-                connection = new MediaScannerConnection(context, this);
-                connection.connect();
-            } catch (Throwable e) {
-                LOG.warn("Error scanning file with android internal scanner, one retry", e);
-                SystemClock.sleep(1000);
-                connection = new MediaScannerConnection(context, this);
-                connection.connect();
+        public synchronized void add(Collection<File> files) {
+            if (files == null || files.isEmpty()) {
+                return;
+            }
+
+            long now = SystemClock.elapsedRealtime();
+            for (File f : files) {
+                String path = f.getAbsolutePath();
+                if (!pending.containsKey(path)) {
+                    pending.put(path, now);
+                    queued++;
+                }
+            }
+
+            if (thread == null) {
+                thread = new DefaultThreadFactory("UniversalScanner", true).newThread(this);
+                thread.start();
+            } else {
+                notifyAll();
             }
         }
 
-        public void onMediaScannerConnected() {
+        public synchronized int getNumPending() {
+            return pending.size() + running;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
             try {
-                /** should only arrive here on connected state, but let's double check since it's possible */
-                if (connection.isConnected() && files != null && !files.isEmpty()) {
-                    for (File f : files) {
-                        connection.scanFile(f.getAbsolutePath(), null);
+                List<String> paths;
+                while ((paths = nextBatch()) != null) {
+                    scanBatch(paths);
+                }
+            } finally {
+                disconnect();
+            }
+        }
+
+        /**
+         * Waits, only while the oldest pending path is younger than the
+         * coalesce window, to let the paths of the same burst to join the batch.
+         * The paths are taken out of the pending ones, a path added again while
+         * the batch is scanned is scanned again in a later batch.
+         * 
+         * @return null when there is nothing to do after the idle timeout, the thread is done
+         */
+        private List<String> nextBatch() {
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    disconnect(); // no need to hold the service while idle
+                    try {
+                        wait(IDLE_TIMEOUT_MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        // finish
+                    }
+                    if (pending.isEmpty()) {
+                        thread = null;
+                        queued = 0;
+                        scanned = 0;
+                        return null;
                     }
                 }
-            } catch (IllegalStateException e) {
-                LOG.warn("Scanner service wasn't really connected or service was null", e);
-                //should we try to connect again? don't want to end up in endless loop
-                //maybe destroy connection?
+
+                // the pending map keeps the queue order, the first path is the oldest
+                long delay;
+                while (pending.size() < BATCH_SIZE && (delay = pending.values().iterator().next() + COALESCE_WINDOW_MILLISECONDS - SystemClock.elapsedRealtime()) > 0) {
+                    try {
+                        wait(delay);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+
+                List<String> paths = new ArrayList<String>(Math.min(BATCH_SIZE, pending.size()));
+                Iterator<Map.Entry<String, Long>> it = pending.entrySet().iterator();
+                while (it.hasNext() && paths.size() < BATCH_SIZE) {
+                    Map.Entry<String, Long> e = it.next();
+                    if (paths.isEmpty()) {
+                        batchQueued = e.getValue();
+                    }
+                    paths.add(e.getKey());
+                    it.remove();
+                }
+                running = paths.size();
+                return paths;
             }
         }
 
-        public void onScanCompleted(String path, Uri uri) {
-            /** This will work if onScanCompleted is invoked after scanFile finishes. */
-            numCompletedScans++;
-            if (numCompletedScans == files.size()) {
-                connection.disconnect();
+        private void scanBatch(List<String> paths) {
+            long start = SystemClock.elapsedRealtime();
+            long oldest = batchQueued;
+
+            Batch b = new Batch(paths);
+            batch = b;
+
+            try {
+                if (connect()) {
+                    for (String path : paths) {
+                        connection.scanFile(path, null);
+                    }
+
+                    if (!b.done.await(BATCH_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS)) {
+                        LOG.warn("Timeout scanning batch, " + b.done.getCount() + " files not reported");
+                    }
+                }
+            } catch (Throwable e) {
+                LOG.warn("Error scanning batch with android internal scanner", e);
+                disconnect();
+            } finally {
+                batch = null;
             }
 
-            MediaType mt = MediaType.getMediaTypeForExtension(FilenameUtils.getExtension(path));
+            long scanTime = SystemClock.elapsedRealtime() - start;
 
-            if (uri != null && !path.contains("/Android/data/" + context.getPackageName())) {
-                if (mt != null && mt.getId() == Constants.FILE_TYPE_DOCUMENTS) {
-                    scanDocument(path);
-                } else {
-                    //LOG.debug("Scanned new file: " + uri);
-                    shareFinishedDownload(Librarian.instance().getFileDescriptor(uri));
+            // the library work is done here, not in the binder thread of the callbacks
+            Map<Byte, List<FileDescriptor>> finished = new HashMap<Byte, List<FileDescriptor>>();
+            NativeScanner nativeScanner = new NativeScanner(context);
+            try {
+                for (Map.Entry<String, Uri> e : b.getResults().entrySet()) {
+                    try {
+                        scanner.onScanCompleted(e.getKey(), e.getValue(), nativeScanner, finished);
+                    } catch (Throwable t) {
+                        LOG.warn("Error processing scanned file: " + e.getKey(), t);
+                    }
                 }
-            } else {
-                if (path.endsWith(".apk")) {
-                    //LOG.debug("Can't scan apk for security concerns: " + path);
-                } else if (mt != null) {
-                    if (mt.getId() == Constants.FILE_TYPE_AUDIO ||
-                        mt.getId() == Constants.FILE_TYPE_VIDEOS ||
-                        mt.getId() == Constants.FILE_TYPE_PICTURES) {
-                        scanPrivateFile(uri, path, mt);
+            } finally {
+                nativeScanner.release();
+            }
+
+            try {
+                shareFinishedDownloads(finished);
+            } catch (Throwable e) {
+                LOG.warn("Error updating the library with the scanned files", e);
+            }
+
+            long end = SystemClock.elapsedRealtime();
+
+            int remaining;
+            int done;
+            int total;
+            synchronized (this) {
+                running = 0;
+                scanned += paths.size();
+                remaining = pending.size();
+                done = scanned;
+                total = queued;
+            }
+
+            LOG.info("Scanned batch of " + paths.size() + " files in " + (end - start) + "ms (scanner: " + scanTime + "ms, oldest queued " + (end - oldest) + "ms ago), progress " + done + "/" + total + ", pending " + remaining);
+        }
+
+        private boolean connect() throws InterruptedException {
+            if (connection != null && connection.isConnected()) {
+                return true;
+            }
+
+            for (int i = 0; i < 2; i++) {
+                try {
+                    connected = new CountDownLatch(1);
+                    connection = new MediaScannerConnection(context, this);
+                    connection.connect();
+                    if (connected.await(CONNECT_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS) && connection.isConnected()) {
+                        return true;
                     }
-                } else {
-                    scanDocument(path);
-                    //LOG.debug("Scanned new file as document: " + path);
+                } catch (IllegalStateException e) {
+                    LOG.warn("Error connecting to android internal scanner", e);
+                }
+                disconnect();
+                if (i == 0) {
+                    LOG.warn("Error scanning file with android internal scanner, one retry");
+                    SystemClock.sleep(1000);
                 }
             }
+
+            return false;
+        }
+
+        private void disconnect() {
+            if (connection != null) {
+                try {
+                    connection.disconnect();
+                } catch (Throwable e) {
+                    // ignore
+                }
+                connection = null;
+            }
+        }
+
+        @Override
+        public void onMediaScannerConnected() {
+            CountDownLatch l = connected;
+            if (l != null) {
+                l.countDown();
+            }
+        }
+
+        @Override
+        public void onScanCompleted(String path, Uri uri) {
+            Batch b = batch;
+            if (b != null) {
+                b.completed(path, uri);
+            }
+        }
+    }
+
+    private static final class Batch {
+
+        public final CountDownLatch done;
+        private final List<String> paths;
+        private final Map<String, Uri> results; // only the reported paths
+
+        public Batch(List<String> paths) {
+            this.done = new CountDownLatch(paths.size());
+            this.paths = paths;
+            this.results = new LinkedHashMap<String, Uri>();
+        }
+
+        public synchronized void completed(String path, Uri uri) {
+            if (paths.contains(path) && !results.containsKey(path)) {
+                results.put(path, uri);
+                done.countDown();
+            }
+        }
+
+        public synchronized Map<String, Uri> getResults() {
+            return new LinkedHashMap<String, Uri>(results);
         }
     }
 
@@ -210,20 +481,22 @@ public final class UniversalScanner {
      * have this method to insert the file's metadata manually on the content provider.
      * @param path
      */
-    private void scanPrivateFile(Uri oldUri, String filePath, MediaType mt) {
+    private void scanPrivateFile(Uri oldUri, String filePath, MediaType mt, NativeScanner nativeScanner, Map<Byte, List<FileDescriptor>> finished) {
         try {
-            int n = context.getContentResolver().delete(oldUri, null, null);
-            if (n > 0) {
-                LOG.debug("Deleted from Files provider: " + oldUri);
+            if (oldUri != null) {
+                int n = context.getContentResolver().delete(oldUri, null, null);
+                if (n > 0) {
+                    LOG.debug("Deleted from Files provider: " + oldUri);
+                }
             }
-            Uri uri = nativeScanFile(context, filePath);
+            Uri uri = nativeScanner.scan(filePath);
 
             if (uri != null) {
                 FileDescriptor fd = new FileDescriptor();
                 fd.fileType = (byte) mt.getId();
                 fd.id = Integer.valueOf(uri.getLastPathSegment());
 
-                shareFinishedDownload(fd);
+                addFinishedDownload(finished, fd);
             }
         } catch (Throwable e) {
             // eat
@@ -231,50 +504,122 @@ public final class UniversalScanner {
         }
     }
 
-    private static Uri nativeScanFile(Context context, String path) {
-        try {
-            File f = new File(path);
+    /**
+     * The hidden android.media.MediaScanner, the reflection lookups are done
+     * once and the native scanner is created only when needed and reused for
+     * all the files of a batch.
+     */
+    private static final class NativeScanner {
 
-            Class<?> clazz = Class.forName("android.media.MediaScanner");
+        private static Class<?> clazz;
+        private static Constructor<?> mediaScannerC;
+        private static Field mClientF;
+        private static Method scanSingleFileM;
+        private static Field mFileCacheF;
+        private static Method releaseM;
+        private static Field mNoMediaF;
+        private static Method doScanFileM;
+        private static boolean initialized;
 
-            Constructor<?> mediaScannerC = clazz.getDeclaredConstructor(Context.class);
-            Object scanner = mediaScannerC.newInstance(context);
+        private final Context context;
 
-            Field mClientF = clazz.getDeclaredField("mClient");
-            mClientF.setAccessible(true);
-            Object mClient = mClientF.get(scanner);
+        private Object scanner;
+        private Object mClient;
 
-            Method scanSingleFileM = clazz.getDeclaredMethod("scanSingleFile", String.class, String.class, String.class);
-            Uri fileUri = (Uri) scanSingleFileM.invoke(scanner, f.getAbsolutePath(), "external", "data/raw");
-            int n = context.getContentResolver().delete(fileUri, null, null);
-            if (n > 0) {
-                LOG.debug("Deleted from Files provider: " + fileUri);
-            }
+        public NativeScanner(Context context) {
+            this.context = context;
+        }
 
-            Field mNoMediaF = mClient.getClass().getDeclaredField("mNoMedia");
-            mNoMediaF.setAccessible(true);
-            mNoMediaF.setBoolean(mClient, false);
-            
-            // This is only for HTC (tested only on HTC One M8)
+        public Uri scan(String path) {
             try {
-                Field mFileCacheF = clazz.getDeclaredField("mFileCache");
-                mFileCacheF.setAccessible(true);
-                mFileCacheF.set(scanner, new HashMap<String, Object>());
+                if (scanner == null && !create()) {
+                    return null;
+                }
+
+                File f = new File(path);
+
+                Uri fileUri = (Uri) scanSingleFileM.invoke(scanner, f.getAbsolutePath(), "external", "data/raw");
+                if (fileUri != null) {
+                    int n = context.getContentResolver().delete(fileUri, null, null);
+                    if (n > 0) {
+                        LOG.debug("Deleted from Files provider: " + fileUri);
+                    }
+                }
+
+                mNoMediaF.setBoolean(mClient, false);
+
+                // This is only for HTC (tested only on HTC One M8)
+                if (mFileCacheF != null) {
+                    mFileCacheF.set(scanner, new HashMap<String, Object>());
+                }
+
+                return (Uri) doScanFileM.invoke(mClient, f.getAbsolutePath(), null, f.lastModified(), f.length(), false, true, false);
+
             } catch (Throwable e) {
-                // no an HTC, I need some time to refactor this hack
+                LOG.warn("Error scanning file with native scanner: " + path, e);
+                return null;
+            }
+        }
+
+        public void release() {
+            if (scanner != null) {
+                try {
+                    releaseM.invoke(scanner);
+                } catch (Throwable e) {
+                    LOG.warn("Error releasing native scanner", e);
+                }
+                scanner = null;
+                mClient = null;
             }
+        }
 
-            Method doScanFileM = mClient.getClass().getDeclaredMethod("doScanFile", String.class, String.class, long.class, long.class, boolean.class, boolean.class, boolean.class);
-            Uri mediaUri = (Uri) doScanFileM.invoke(mClient, f.getAbsolutePath(), null, f.lastModified(), f.length(), false, true, false);
+        private boolean create() throws Exception {
+            synchronized (NativeScanner.class) {
+                if (!initialized) {
+                    initialized = true;
 
-            Method releaseM = clazz.getDeclaredMethod("release");
-            releaseM.invoke(scanner);
+                    try {
+                        Class<?> c = Class.forName("android.media.MediaScanner");
 
-            return mediaUri;
+                        mediaScannerC = c.getDeclaredConstructor(Context.class);
 
-        } catch (Throwable e) {
-            e.printStackTrace();
-            return null;
+                        mClientF = c.getDeclaredField("mClient");
+                        mClientF.setAccessible(true);
+
+                        scanSingleFileM = c.getDeclaredMethod("scanSingleFile", String.class, String.class, String.class);
+                        releaseM = c.getDeclaredMethod("release");
+
+                        try {
+                            mFileCacheF = c.getDeclaredField("mFileCache");
+                            mFileCacheF.setAccessible(true);
+                        } catch (Throwable e) {
+                            // no an HTC, I need some time to refactor this hack
+                        }
+
+                        clazz = c;
+                    } catch (Throwable e) {
+                        LOG.warn("Native media scanner not available", e);
+                    }
+                }
+
+                if (clazz == null) {
+                    return false;
+                }
+            }
+
+            scanner = mediaScannerC.newInstance(context);
+            mClient = mClientF.get(scanner);
+
+            synchronized (NativeScanner.class) {
+                if (mNoMediaF == null) {
+                    mNoMediaF = mClient.getClass().getDeclaredField("mNoMedia");
+                    mNoMediaF.setAccessible(true);
+
+                    doScanFileM = mClient.getClass().getDeclaredMethod("doScanFile", String.class, String.class, long.class, long.class, boolean.class, boolean.class, boolean.class);
+                }
+            }
+
+            return true;
         }
     }
 
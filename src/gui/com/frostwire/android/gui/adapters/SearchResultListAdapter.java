@@ -40,7 +40,9 @@ import com.frostwire.android.gui.views.AbstractListAdapter;
 import com.frostwire.android.util.ImageLoader;
 import com.frostwire.licences.License;
 import com.frostwire.search.FileSearchResult;
+import com.frostwire.search.RankedList;
 import com.frostwire.search.SearchResult;
+import com.frostwire.search.SearchResultRanker;
 import com.frostwire.search.appia.AppiaSearchResult;
 import com.frostwire.search.torrent.TorrentSearchResult;
 import com.frostwire.search.youtube.YouTubeCrawledSearchResult;
@@ -62,6 +64,11 @@ public class SearchResultListAdapter extends AbstractListAdapter<SearchResult> {
 
     private ImageLoader thumbLoader;
 
+    private SearchResultRanker ranker;
+
+    // what the list holds, results evicted from the ranking are not counted
+    private final FilteredSearchResults fileTypeCounts;
+
     public SearchResultListAdapter(Context context) {
         super(context, R.layout.view_bittorrent_search_result_list_item);
 
@@ -70,6 +77,8 @@ public class SearchResultListAdapter extends AbstractListAdapter<SearchResult> {
         this.fileType = NO_FILE_TYPE;
 
         this.thumbLoader = ImageLoader.getInstance(context);
+
+        this.fileTypeCounts = new FilteredSearchResults();
     }
 
     public int getFileType() {
@@ -81,12 +90,87 @@ public class SearchResultListAdapter extends AbstractListAdapter<SearchResult> {
         filter();
     }
 
+    /**
+     * Results are inserted in the order of the ranker, and the list is bounded to
+     * the ranker capacity. Set it before the search starts.
+     * 
+     * @param ranker
+     */
+    public void setRanker(SearchResultRanker ranker) {
+        this.ranker = ranker;
+
+        List<SearchResult> l = toRankedList(list);
+        visualList = visualList != list ? toRankedList(visualList) : l;
+        list = l;
+    }
+
+    /**
+     * The number of results of each file type, over all the results in the list.
+     * 
+     * @return
+     */
+    public FilteredSearchResults getFileTypeCounts() {
+        return fileTypeCounts;
+    }
+
     public void addResults(List<? extends SearchResult> completeList, List<? extends SearchResult> filteredList) {
-        visualList.addAll(filteredList); // java, java, and type erasure
-        list.addAll(completeList);
+        if (ranker == null) {
+            visualList.addAll(filteredList); // java, java, and type erasure
+            list.addAll(completeList);
+            for (SearchResult sr : completeList) {
+                fileTypeCounts.increment(getMediaType(sr));
+            }
+        } else {
+            if (visualList != list) {
+                for (SearchResult sr : filteredList) {
+                    addRanked(visualList, sr);
+                }
+            }
+            for (SearchResult sr : completeList) {
+                if (addRanked(list, sr)) {
+                    fileTypeCounts.increment(getMediaType(sr));
+                }
+            }
+            trimEvicted(visualList, false);
+            trimEvicted(list, true);
+        }
         notifyDataSetChanged();
     }
 
+    @Override
+    public void clear() {
+        super.clear();
+        fileTypeCounts.clear();
+    }
+
+    private List<SearchResult> toRankedList(List<SearchResult> l) {
+        RankedList<SearchResult> ranked = ranker.newRankedList();
+        for (SearchResult sr : l) {
+            ranked.insert(sr);
+        }
+        return ranked;
+    }
+
+    // results already in the list come again when their rank changes, they are moved
+    private static boolean addRanked(List<SearchResult> l, SearchResult sr) {
+        RankedList<SearchResult> ranked = (RankedList<SearchResult>) l;
+        if (ranked.contains(sr)) {
+            ranked.reposition(sr);
+            return false;
+        }
+        return ranked.add(sr);
+    }
+
+    private void trimEvicted(List<SearchResult> l, boolean count) {
+        // evicted results sort last
+        while (!l.isEmpty() && !ranker.contains(l.get(l.size() - 1))) {
+            SearchResult sr = l.remove(l.size() - 1);
+            if (count) {
+                fileTypeCounts.decrement(getMediaType(sr));
+            }
+        }
+    }
+
     @Override
     protected void populateView(View view, SearchResult sr) {
         if (sr instanceof FileSearchResult) {
@@ -194,7 +278,8 @@ public class SearchResultListAdapter extends AbstractListAdapter<SearchResult> {
     }
 
     private void filter() {
-        this.visualList = filter(list).filtered;
+        List<SearchResult> filtered = filter(list).filtered;
+        this.visualList = ranker != null ? toRankedList(filtered) : filtered;
         notifyDataSetInvalidated();
     }
 
@@ -202,12 +287,7 @@ public class SearchResultListAdapter extends AbstractListAdapter<SearchResult> {
         FilteredSearchResults fsr = new FilteredSearchResults();
         ArrayList<SearchResult> l = new ArrayList<SearchResult>();
         for (SearchResult sr : results) {
-            MediaType mt = null;
-            if (sr instanceof AppiaSearchResult) {
-                mt = ((AppiaSearchResult) sr).getMediaType();
-            } else {
-                mt = MediaType.getMediaTypeForExtension(FilenameUtils.getExtension(((FileSearchResult) sr).getFilename()));
-            }
+            MediaType mt = getMediaType(sr);
 
             if (accept(sr, mt)) {
                 l.add(sr);
@@ -218,6 +298,14 @@ public class SearchResultListAdapter extends AbstractListAdapter<SearchResult> {
         return fsr;
     }
 
+    private static MediaType getMediaType(SearchResult sr) {
+        if (sr instanceof AppiaSearchResult) {
+            return ((AppiaSearchResult) sr).getMediaType();
+        } else {
+            return MediaType.getMediaTypeForExtension(FilenameUtils.getExtension(((FileSearchResult) sr).getFilename()));
+        }
+    }
+
     private boolean accept(SearchResult sr, MediaType mt) {
         if (sr instanceof FileSearchResult || sr instanceof AppiaSearchResult) {
             if (mt == null) {
@@ -274,25 +362,42 @@ public class SearchResultListAdapter extends AbstractListAdapter<SearchResult> {
         public int numTorrents;
 
         private void increment(MediaType mt) {
+            add(mt, 1);
+        }
+
+        private void decrement(MediaType mt) {
+            add(mt, -1);
+        }
+
+        private void clear() {
+            numAudio = 0;
+            numVideo = 0;
+            numPictures = 0;
+            numApplications = 0;
+            numDocuments = 0;
+            numTorrents = 0;
+        }
+
+        private void add(MediaType mt, int n) {
             if (mt != null) {
                 switch (mt.getId()) {
                 case Constants.FILE_TYPE_AUDIO:
-                    numAudio++;
+                    numAudio += n;
                     break;
                 case Constants.FILE_TYPE_VIDEOS:
-                    numVideo++;
+                    numVideo += n;
                     break;
                 case Constants.FILE_TYPE_PICTURES:
-                    numPictures++;
+                    numPictures += n;
                     break;
                 case Constants.FILE_TYPE_APPLICATIONS:
-                    numApplications++;
+                    numApplications += n;
                     break;
                 case Constants.FILE_TYPE_DOCUMENTS:
-                    numDocuments++;
+                    numDocuments += n;
                     break;
                 case Constants.FILE_TYPE_TORRENTS:
-                    numTorrents++;
+                    numTorrents += n;
                     break;
                 }
             }
@@ -34,6 +34,7 @@ import android.view.View.OnClickListener;
 import android.view.View.OnLongClickListener;
 import android.view.ViewGroup;
 import android.widget.BaseExpandableListAdapter;
+import android.widget.ExpandableListView;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.ProgressBar;
@@ -48,6 +49,7 @@ import com.frostwire.android.gui.adapters.menu.BrowsePeerMenuAction;
 import com.frostwire.android.gui.adapters.menu.CancelMenuAction;
 import com.frostwire.android.gui.adapters.menu.OpenMenuAction;
 import com.frostwire.android.gui.adapters.menu.PauseDownloadMenuAction;
+import com.frostwire.android.gui.adapters.menu.PlayWhileDownloadingMenuAction;
 import com.frostwire.android.gui.adapters.menu.ResumeDownloadMenuAction;
 import com.frostwire.android.gui.transfers.BittorrentDownload;
 import com.frostwire.android.gui.transfers.BittorrentDownloadItem;
@@ -56,9 +58,11 @@ import com.frostwire.android.gui.transfers.HttpDownload;
 import com.frostwire.android.gui.transfers.PeerHttpDownload;
 import com.frostwire.android.gui.transfers.PeerHttpUpload;
 import com.frostwire.android.gui.transfers.SoundcloudDownload;
-import com.frostwire.android.gui.transfers.TorrentFetcherDownload;
 import com.frostwire.android.gui.transfers.Transfer;
 import com.frostwire.android.gui.transfers.TransferItem;
+import com.frostwire.android.gui.transfers.TransferSnapshot;
+import com.frostwire.android.gui.transfers.TransferSnapshot.ItemSnapshot;
+import com.frostwire.android.gui.transfers.TransferStateSampler.Sample;
 import com.frostwire.android.gui.transfers.YouTubeDownload;
 import com.frostwire.android.gui.util.UIUtils;
 import com.frostwire.android.gui.views.MenuAction;
@@ -87,9 +91,9 @@ public class TransferListAdapter extends BaseExpandableListAdapter {
     /** Keep track of all dialogs ever opened so we dismiss when we leave to avoid memleaks */
     private final List<Dialog> dialogs;
 
-    private List<Transfer> list;
+    private List<TransferSnapshot> list;
 
-    public TransferListAdapter(Context context, List<Transfer> list) {
+    public TransferListAdapter(Context context, List<TransferSnapshot> list) {
         this.context = context;
 
         this.viewOnClickListener = new ViewOnClickListener();
@@ -99,16 +103,16 @@ public class TransferListAdapter extends BaseExpandableListAdapter {
 
         this.dialogs = new ArrayList<Dialog>();
 
-        this.list = list.equals(Collections.emptyList()) ? new ArrayList<Transfer>() : list;
+        this.list = list.equals(Collections.emptyList()) ? new ArrayList<TransferSnapshot>() : list;
     }
 
     @Override
     public Object getChild(int groupPosition, int childPosition) {
-        return list.get(groupPosition).getItems().get(childPosition);
+        return getChildItem(groupPosition, childPosition);
     }
 
     public TransferItem getChildItem(int groupPosition, int childPosition) {
-        return list.get(groupPosition).getItems().get(childPosition);
+        return list.get(groupPosition).items.get(childPosition).item;
     }
 
     @Override
@@ -119,7 +123,7 @@ public class TransferListAdapter extends BaseExpandableListAdapter {
     @Override
     public View getChildView(int groupPosition, int childPosition, boolean isLastChild, View convertView, ViewGroup parent) {
 
-        TransferItem item = getChildItem(groupPosition, childPosition);
+        ItemSnapshot item = list.get(groupPosition).items.get(childPosition);
 
         if (convertView == null) {
             convertView = View.inflate(context, R.layout.view_transfer_item_list_item, null);
@@ -130,7 +134,7 @@ public class TransferListAdapter extends BaseExpandableListAdapter {
 
         try {
 
-            initTouchFeedback(convertView, item);
+            initTouchFeedback(convertView, item.item);
 
             populateChildView(convertView, item);
 
@@ -143,16 +147,16 @@ public class TransferListAdapter extends BaseExpandableListAdapter {
 
     @Override
     public int getChildrenCount(int groupPosition) {
-        return list.get(groupPosition).getItems().size();
+        return list.get(groupPosition).items.size();
     }
 
     @Override
     public Object getGroup(int groupPosition) {
-        return list.get(groupPosition);
+        return getGroupItem(groupPosition);
     }
 
     public Transfer getGroupItem(int groupPosition) {
-        return list.get(groupPosition);
+        return list.get(groupPosition).transfer;
     }
 
     @Override
@@ -167,7 +171,7 @@ public class TransferListAdapter extends BaseExpandableListAdapter {
 
     @Override
     public View getGroupView(int groupPosition, boolean isExpanded, View convertView, ViewGroup parent) {
-        Transfer item = getGroupItem(groupPosition);
+        TransferSnapshot item = list.get(groupPosition);
 
         if (convertView == null || convertView instanceof TextView) {
             // convertView could be a dummy view due to an issue with the slide menu layout request order
@@ -182,7 +186,7 @@ public class TransferListAdapter extends BaseExpandableListAdapter {
         }
 
         try {
-            boolean clickable = item.getItems().size() == 0;
+            boolean clickable = item.items.size() == 0;
             convertView.setOnClickListener(clickable ? viewOnClickListener : null);
             convertView.setOnLongClickListener(clickable ? viewOnLongClickListener : null);
 
@@ -191,7 +195,7 @@ public class TransferListAdapter extends BaseExpandableListAdapter {
 
             setupGroupIndicator(convertView, isExpanded, item);
 
-            convertView.setTag(item);
+            convertView.setTag(item.transfer);
             populateGroupView(convertView, item);
         } catch (Throwable e) {
             Log.e(TAG, "Fatal error getting the group view: " + e.getMessage(), e);
@@ -210,11 +214,57 @@ public class TransferListAdapter extends BaseExpandableListAdapter {
         return false;
     }
 
-    public void updateList(List<Transfer> g) {
+    public void updateList(List<TransferSnapshot> g) {
         list = g;
         notifyDataSetChanged();
     }
 
+    /**
+     * Applies a sample to the list. If the rows are the same transfers as before only the
+     * visible rows that changed are populated again, otherwise the whole list is rebuilt.
+     */
+    public void updateList(Sample sample, ExpandableListView listView) {
+        if (sample.changed == null || sample.previous != list) {
+            updateList(sample.transfers);
+            return;
+        }
+
+        list = sample.transfers;
+
+        int first = listView.getFirstVisiblePosition();
+        int count = listView.getChildCount();
+        for (int i = 0; i < count; i++) {
+            long packed = listView.getExpandableListPosition(first + i);
+            int type = ExpandableListView.getPackedPositionType(packed);
+            if (type == ExpandableListView.PACKED_POSITION_TYPE_NULL) {
+                continue;
+            }
+
+            int group = ExpandableListView.getPackedPositionGroup(packed);
+            if (group < 0 || group >= list.size() || !sample.changed[group]) {
+                continue;
+            }
+
+            View view = listView.getChildAt(i);
+            try {
+                if (type == ExpandableListView.PACKED_POSITION_TYPE_GROUP) {
+                    if (!(view instanceof TextView)) {
+                        setupGroupIndicator(view, listView.isGroupExpanded(group), list.get(group));
+                        populateGroupView(view, list.get(group));
+                    }
+                } else {
+                    int child = ExpandableListView.getPackedPositionChild(packed);
+                    ItemSnapshot item = list.get(group).items.get(child);
+                    if (!item.equals(sample.previous.get(group).items.get(child))) {
+                        populateChildView(view, item);
+                    }
+                }
+            } catch (Throwable e) {
+                Log.e(TAG, "Error updating row: " + e.getMessage());
+            }
+        }
+    }
+
     public void dismissDialogs() {
         for (Dialog dialog : dialogs) {
             try {
@@ -230,25 +280,37 @@ public class TransferListAdapter extends BaseExpandableListAdapter {
         return (TView) view.findViewById(id);
     }
 
-    protected void populateGroupView(View view, Transfer transfer) {
-        if (transfer instanceof BittorrentDownload) {
-            populateBittorrentDownload(view, (BittorrentDownload) transfer);
-        } else if (transfer instanceof PeerHttpDownload) {
-            populatePeerDownload(view, (PeerHttpDownload) transfer);
-        } else if (transfer instanceof PeerHttpUpload) {
-            populatePeerUpload(view, (PeerHttpUpload) transfer);
-        } else if (transfer instanceof HttpDownload) {
-            populateHttpDownload(view, (HttpDownload) transfer);
-        } else if (transfer instanceof YouTubeDownload) {
-            populateYouTubeDownload(view, (YouTubeDownload) transfer);
-        } else if (transfer instanceof SoundcloudDownload) {
-            populateSoundcloudDownload(view, (SoundcloudDownload) transfer);
+    protected void populateGroupView(View view, TransferSnapshot transfer) {
+        TextView title = findView(view, R.id.view_transfer_list_item_title);
+        ProgressBar progress = findView(view, R.id.view_transfer_list_item_progress);
+        TextView status = findView(view, R.id.view_transfer_list_item_status);
+        TextView speed = findView(view, R.id.view_transfer_list_item_speed);
+        TextView size = findView(view, R.id.view_transfer_list_item_size);
+        TextView seeds = findView(view, R.id.view_transfer_list_item_seeds);
+        TextView peers = findView(view, R.id.view_transfer_list_item_peers);
+        ImageView buttonAction = findView(view, R.id.view_transfer_list_item_button_action);
+
+        if (transfer.transfer instanceof BittorrentDownload) {
+            seeds.setText(context.getString(R.string.seeds_n, transfer.seeds));
+            peers.setText(context.getString(R.string.peers_n, transfer.peers));
+        } else {
+            seeds.setText("");
+            peers.setText("");
         }
+
+        title.setText(transfer.displayName);
+        progress.setProgress(transfer.progress);
+        status.setText(transfer.status);
+        speed.setText(UIUtils.getBytesInHuman(transfer.speed) + "/s");
+        size.setText(UIUtils.getBytesInHuman(transfer.size));
+
+        buttonAction.setTag(transfer.transfer);
+        buttonAction.setOnClickListener(actionOnClickListener);
     }
 
-    protected void populateChildView(View view, TransferItem item) {
-        if (item instanceof BittorrentDownloadItem) {
-            populateBittorrentDownloadItem(view, (BittorrentDownloadItem) item);
+    protected void populateChildView(View view, ItemSnapshot item) {
+        if (item.item instanceof BittorrentDownloadItem) {
+            populateBittorrentDownloadItem(view, item);
         }
     }
 
@@ -267,6 +329,11 @@ public class TransferListAdapter extends BaseExpandableListAdapter {
                 String path = transferItem.getSavePath().getAbsolutePath();
                 String mimeType = UIUtils.getMimeType(path);
                 items.add(new OpenMenuAction(context, path, mimeType));
+            } else if (!download.isComplete() && download.getBittorrentItems().size() == 1) {
+                File savePath = download.getBittorrentItems().get(0).getSavePath();
+                if (isStreamable(FilenameUtils.getExtension(savePath.getName()))) {
+                    items.add(new PlayWhileDownloadingMenuAction(context, savePath));
+                }
             }
 
             if (!download.isComplete() || ConfigurationManager.instance().getBoolean(Constants.PREF_KEY_TORRENT_SEED_FINISHED_TORRENTS)) {
@@ -333,33 +400,13 @@ public class TransferListAdapter extends BaseExpandableListAdapter {
         return dialog;
     }
 
-    private void setupGroupIndicator(View view, boolean expanded, Transfer item) {
+    private void setupGroupIndicator(View view, boolean expanded, TransferSnapshot item) {
         ImageView groupIndicator = findView(view, R.id.view_transfer_list_item_group_indicator);
 
         if (groupIndicator != null) {
-            if (item.getItems().size() <= 1) {
+            if (item.items.size() <= 1) {
                 //show the file type for the only file there is
-                String extension = null;
-                String path = null;
-
-                if (item instanceof BittorrentDownload) {
-                    BittorrentDownload bItem = (BittorrentDownload) item;
-                    if (bItem.getBittorrentItems().size() > 0) {
-                        BittorrentDownloadItem transferItem = bItem.getBittorrentItems().get(0);
-                        path = transferItem.getSavePath().getAbsolutePath();
-                        extension = FilenameUtils.getExtension(path);
-                    }
-                } else if (item instanceof DownloadTransfer) {
-                    DownloadTransfer transferItem = (DownloadTransfer) item;
-                    if (transferItem.getSavePath() != null) {
-                        path = transferItem.getSavePath().getAbsolutePath();
-                        extension = FilenameUtils.getExtension(path);
-                    }
-                } else if (item instanceof PeerHttpUpload) {
-                    PeerHttpUpload transferItem = (PeerHttpUpload) item;
-                    path = transferItem.getFD().filePath;
-                    extension = FilenameUtils.getExtension(path);
-                }
+                String extension = item.extension;
 
                 if (extension != null && extension.equals("apk")) {
                     try {
@@ -398,175 +445,26 @@ public class TransferListAdapter extends BaseExpandableListAdapter {
         }
     }
 
-    private void populateBittorrentDownload(View view, BittorrentDownload download) {
-        TextView title = findView(view, R.id.view_transfer_list_item_title);
-        ProgressBar progress = findView(view, R.id.view_transfer_list_item_progress);
-        TextView status = findView(view, R.id.view_transfer_list_item_status);
-        TextView speed = findView(view, R.id.view_transfer_list_item_speed);
-        TextView size = findView(view, R.id.view_transfer_list_item_size);
-        ImageView buttonAction = findView(view, R.id.view_transfer_list_item_button_action);
-
-        TextView seeds = findView(view, R.id.view_transfer_list_item_seeds);
-        TextView peers = findView(view, R.id.view_transfer_list_item_peers);
-
-        seeds.setText(context.getString(R.string.seeds_n, download.getSeeds()));
-        peers.setText(context.getString(R.string.peers_n, download.getPeers()));
-
-        title.setText(download.getDisplayName());
-        progress.setProgress(download.getProgress());
-
-        if (download instanceof TorrentFetcherDownload) {
-            if (((TorrentFetcherDownload) download).getDelegate() != null) {
-                status.setText(download.getStatus());
-            } else {
-                status.setText(getStatusFromResId(download.getStatus()));
-            }
-        } else {
-            status.setText(download.getStatus());
-        }
-
-        speed.setText(UIUtils.getBytesInHuman(download.getDownloadSpeed()) + "/s");
-        size.setText(UIUtils.getBytesInHuman(download.getSize()));
-
-        buttonAction.setTag(download);
-        buttonAction.setOnClickListener(actionOnClickListener);
-    }
-
-    private void populatePeerDownload(View view, PeerHttpDownload download) {
-        TextView title = findView(view, R.id.view_transfer_list_item_title);
-        ProgressBar progress = findView(view, R.id.view_transfer_list_item_progress);
-        TextView status = findView(view, R.id.view_transfer_list_item_status);
-        TextView speed = findView(view, R.id.view_transfer_list_item_speed);
-        TextView size = findView(view, R.id.view_transfer_list_item_size);
-        TextView seeds = findView(view, R.id.view_transfer_list_item_seeds);
-        TextView peers = findView(view, R.id.view_transfer_list_item_peers);
-        ImageView buttonAction = findView(view, R.id.view_transfer_list_item_button_action);
-
-        seeds.setText("");
-        peers.setText("");
-        title.setText(download.getDisplayName());
-        progress.setProgress(download.getProgress());
-        status.setText(getStatusFromResId(download.getStatus()));
-        speed.setText(UIUtils.getBytesInHuman(download.getDownloadSpeed()) + "/s");
-        size.setText(UIUtils.getBytesInHuman(download.getSize()));
-
-        buttonAction.setTag(download);
-        buttonAction.setOnClickListener(actionOnClickListener);
-    }
-
-    private void populatePeerUpload(View view, PeerHttpUpload upload) {
-        TextView title = findView(view, R.id.view_transfer_list_item_title);
-        ProgressBar progress = findView(view, R.id.view_transfer_list_item_progress);
-        TextView status = findView(view, R.id.view_transfer_list_item_status);
-        TextView speed = findView(view, R.id.view_transfer_list_item_speed);
-        TextView size = findView(view, R.id.view_transfer_list_item_size);
-        TextView seeds = findView(view, R.id.view_transfer_list_item_seeds);
-        TextView peers = findView(view, R.id.view_transfer_list_item_peers);
-        ImageView buttonAction = findView(view, R.id.view_transfer_list_item_button_action);
-
-        seeds.setText("");
-        peers.setText("");
-        title.setText(upload.getDisplayName());
-        progress.setProgress(upload.getProgress());
-        status.setText(getStatusFromResId(upload.getStatus()));
-        speed.setText(UIUtils.getBytesInHuman(upload.getUploadSpeed()) + "/s");
-        size.setText(UIUtils.getBytesInHuman(upload.getSize()));
-
-        buttonAction.setTag(upload);
-        buttonAction.setOnClickListener(actionOnClickListener);
-    }
-
-    private void populateHttpDownload(View view, HttpDownload download) {
-        TextView title = findView(view, R.id.view_transfer_list_item_title);
-        ProgressBar progress = findView(view, R.id.view_transfer_list_item_progress);
-        TextView status = findView(view, R.id.view_transfer_list_item_status);
-        TextView speed = findView(view, R.id.view_transfer_list_item_speed);
-        TextView size = findView(view, R.id.view_transfer_list_item_size);
-        TextView seeds = findView(view, R.id.view_transfer_list_item_seeds);
-        TextView peers = findView(view, R.id.view_transfer_list_item_peers);
-        ImageView buttonAction = findView(view, R.id.view_transfer_list_item_button_action);
-
-        seeds.setText("");
-        peers.setText("");
-        title.setText(download.getDisplayName());
-        progress.setProgress(download.getProgress());
-        status.setText(getStatusFromResId(download.getStatus()));
-        speed.setText(UIUtils.getBytesInHuman(download.getDownloadSpeed()) + "/s");
-        size.setText(UIUtils.getBytesInHuman(download.getSize()));
-
-        buttonAction.setTag(download);
-        buttonAction.setOnClickListener(actionOnClickListener);
-    }
-
-    private void populateBittorrentDownloadItem(View view, BittorrentDownloadItem item) {
+    private void populateBittorrentDownloadItem(View view, ItemSnapshot item) {
         ImageView icon = findView(view, R.id.view_transfer_item_list_item_icon);
         TextView title = findView(view, R.id.view_transfer_item_list_item_title);
         ProgressBar progress = findView(view, R.id.view_transfer_item_list_item_progress);
         TextView size = findView(view, R.id.view_transfer_item_list_item_size);
         ImageButton buttonPlay = findView(view, R.id.view_transfer_item_list_item_button_play);
 
-        icon.setImageResource(getFileTypeIconId(FilenameUtils.getExtension(item.getSavePath().getAbsolutePath())));
-        title.setText(item.getDisplayName());
-        progress.setProgress(item.getProgress());
-        size.setText(UIUtils.getBytesInHuman(item.getSize()));
+        icon.setImageResource(getFileTypeIconId(item.extension));
+        title.setText(item.displayName);
+        progress.setProgress(item.progress);
+        size.setText(UIUtils.getBytesInHuman(item.size));
 
-        buttonPlay.setTag(item);
-        buttonPlay.setVisibility(item.isComplete() ? View.VISIBLE : View.GONE);
+        buttonPlay.setTag(item.item);
+        buttonPlay.setVisibility(item.complete || isStreamable(item.extension) ? View.VISIBLE : View.GONE);
         buttonPlay.setOnClickListener(playOnClickListener);
     }
 
-    private void populateYouTubeDownload(View view, YouTubeDownload download) {
-        TextView title = findView(view, R.id.view_transfer_list_item_title);
-        ProgressBar progress = findView(view, R.id.view_transfer_list_item_progress);
-        TextView status = findView(view, R.id.view_transfer_list_item_status);
-        TextView speed = findView(view, R.id.view_transfer_list_item_speed);
-        TextView size = findView(view, R.id.view_transfer_list_item_size);
-        TextView seeds = findView(view, R.id.view_transfer_list_item_seeds);
-        TextView peers = findView(view, R.id.view_transfer_list_item_peers);
-        ImageView buttonAction = findView(view, R.id.view_transfer_list_item_button_action);
-
-        seeds.setText("");
-        peers.setText("");
-        title.setText(download.getDisplayName());
-        progress.setProgress(download.getProgress());
-        status.setText(getStatusFromResId(download.getStatus()));
-        speed.setText(UIUtils.getBytesInHuman(download.getDownloadSpeed()) + "/s");
-        size.setText(UIUtils.getBytesInHuman(download.getSize()));
-
-        buttonAction.setTag(download);
-        buttonAction.setOnClickListener(actionOnClickListener);
-    }
-
-    private void populateSoundcloudDownload(View view, SoundcloudDownload download) {
-        TextView title = findView(view, R.id.view_transfer_list_item_title);
-        ProgressBar progress = findView(view, R.id.view_transfer_list_item_progress);
-        TextView status = findView(view, R.id.view_transfer_list_item_status);
-        TextView speed = findView(view, R.id.view_transfer_list_item_speed);
-        TextView size = findView(view, R.id.view_transfer_list_item_size);
-        TextView seeds = findView(view, R.id.view_transfer_list_item_seeds);
-        TextView peers = findView(view, R.id.view_transfer_list_item_peers);
-        ImageView buttonAction = findView(view, R.id.view_transfer_list_item_button_action);
-
-        seeds.setText("");
-        peers.setText("");
-        title.setText(download.getDisplayName());
-        progress.setProgress(download.getProgress());
-        status.setText(getStatusFromResId(download.getStatus()));
-        speed.setText(UIUtils.getBytesInHuman(download.getDownloadSpeed()) + "/s");
-        size.setText(UIUtils.getBytesInHuman(download.getSize()));
-
-        buttonAction.setTag(download);
-        buttonAction.setOnClickListener(actionOnClickListener);
-    }
-
-    private String getStatusFromResId(String str) {
-        String s = "";
-        try {
-            s = context.getString(Integer.parseInt(str));
-        } catch (Throwable e) {
-            // ignore
-        }
-        return s;
+    private static boolean isStreamable(String ext) {
+        MediaType mt = MediaType.getMediaTypeForExtension(ext);
+        return mt != null && (mt.equals(MediaType.getAudioMediaType()) || mt.equals(MediaType.getVideoMediaType()));
     }
 
     private static int getFileTypeIconId(String ext) {
@@ -657,6 +555,11 @@ public class TransferListAdapter extends BaseExpandableListAdapter {
                         UIUtils.showShortMessage(context, R.string.cant_open_file_does_not_exist, savePath.getName());
                     }
                 }
+            } else if (item instanceof BittorrentDownloadItem) {
+                File savePath = ((BittorrentDownloadItem) item).getSavePath();
+                if (savePath != null && isStreamable(FilenameUtils.getExtension(savePath.getName()))) {
+                    UIUtils.playWhileDownloading(context, savePath);
+                }
             }
         }
     }
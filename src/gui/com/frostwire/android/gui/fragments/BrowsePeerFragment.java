@@ -359,6 +359,12 @@ public class BrowsePeerFragment extends AbstractFragment implements LoaderCallba
         filesBar.clearCheckAll();
         filesBar.clearSearch();
 
+        // a peer browsed before shows right away, the loader brings the changes
+        List<FileDescriptor> cached = peer != null ? peer.getCachedFiles(fileType) : null;
+        if (cached != null) {
+            updateFiles(new Object[] { fileType, cached });
+        }
+
         getLoaderManager().destroyLoader(LOADER_FILES_ID);
         Bundle bundle = new Bundle();
         bundle.putByte("fileType", fileType);
@@ -66,6 +66,7 @@ import com.frostwire.search.HttpSearchResult;
 import com.frostwire.search.SearchManagerListener;
 import com.frostwire.search.SearchPerformer;
 import com.frostwire.search.SearchResult;
+import com.frostwire.search.SearchResultRanker;
 import com.frostwire.search.torrent.TorrentCrawledSearchResult;
 import com.frostwire.search.torrent.TorrentSearchResult;
 import com.frostwire.util.HttpClient;
@@ -93,11 +94,8 @@ public final class SearchFragment extends AbstractFragment implements MainFragme
     private SearchProgressView searchProgress;
     private ListView list;
 
-    private final FileTypeCounter fileTypeCounter;
-
     public SearchFragment() {
         super(R.layout.fragment_search);
-        fileTypeCounter = new FileTypeCounter();
     }
 
     @Override
@@ -222,8 +220,6 @@ public final class SearchFragment extends AbstractFragment implements MainFragme
                     FilteredSearchResults fsr = adapter.filter((List<SearchResult>) results);
                     final List<SearchResult> filteredList = fsr.filtered;
 
-                    fileTypeCounter.add(fsr);
-
                     getActivity().runOnUiThread(new Runnable() {
                         @Override
                         public void run() {
@@ -251,12 +247,14 @@ public final class SearchFragment extends AbstractFragment implements MainFragme
     }
 
     private void refreshFileTypeCounters(boolean fileTypeCountersVisible) {
-        searchInput.updateFileTypeCounter(Constants.FILE_TYPE_APPLICATIONS, fileTypeCounter.fsr.numApplications);
-        searchInput.updateFileTypeCounter(Constants.FILE_TYPE_AUDIO, fileTypeCounter.fsr.numAudio);
-        searchInput.updateFileTypeCounter(Constants.FILE_TYPE_DOCUMENTS, fileTypeCounter.fsr.numDocuments);
-        searchInput.updateFileTypeCounter(Constants.FILE_TYPE_PICTURES, fileTypeCounter.fsr.numPictures);
-        searchInput.updateFileTypeCounter(Constants.FILE_TYPE_TORRENTS, fileTypeCounter.fsr.numTorrents);
-        searchInput.updateFileTypeCounter(Constants.FILE_TYPE_VIDEOS, fileTypeCounter.fsr.numVideo);
+        // counted over the results in the list, so evicted results are not counted
+        FilteredSearchResults counts = adapter.getFileTypeCounts();
+        searchInput.updateFileTypeCounter(Constants.FILE_TYPE_APPLICATIONS, counts.numApplications);
+        searchInput.updateFileTypeCounter(Constants.FILE_TYPE_AUDIO, counts.numAudio);
+        searchInput.updateFileTypeCounter(Constants.FILE_TYPE_DOCUMENTS, counts.numDocuments);
+        searchInput.updateFileTypeCounter(Constants.FILE_TYPE_PICTURES, counts.numPictures);
+        searchInput.updateFileTypeCounter(Constants.FILE_TYPE_TORRENTS, counts.numTorrents);
+        searchInput.updateFileTypeCounter(Constants.FILE_TYPE_VIDEOS, counts.numVideo);
 
         searchInput.setFileTypeCountersVisible(fileTypeCountersVisible);
     }
@@ -274,9 +272,10 @@ public final class SearchFragment extends AbstractFragment implements MainFragme
     private void performSearch(String query, int mediaTypeId) {
         adapter.clear();
         adapter.setFileType(mediaTypeId);
-        fileTypeCounter.clear();
         refreshFileTypeCounters(false);
-        LocalSearchEngine.instance().performSearch(query);
+        SearchResultRanker ranker = LocalSearchEngine.instance().newRanker(query);
+        adapter.setRanker(ranker);
+        LocalSearchEngine.instance().performSearch(query, ranker);
         searchProgress.setProgressEnabled(true);
         showSearchView(getView());
         UXStats.instance().log(UXAction.SEARCH_STARTED_ENTER_KEY);
@@ -284,7 +283,6 @@ public final class SearchFragment extends AbstractFragment implements MainFragme
 
     private void cancelSearch(View view) {
         adapter.clear();
-        fileTypeCounter.clear();
         refreshFileTypeCounters(false);
         LocalSearchEngine.instance().cancelSearch();
         searchProgress.setProgressEnabled(false);
@@ -420,27 +418,4 @@ public final class SearchFragment extends AbstractFragment implements MainFragme
             }
         }
     }
-
-    private static final class FileTypeCounter {
-
-        private final FilteredSearchResults fsr = new FilteredSearchResults();
-
-        public void add(FilteredSearchResults fsr) {
-            this.fsr.numAudio += fsr.numAudio;
-            this.fsr.numApplications += fsr.numApplications;
-            this.fsr.numDocuments += fsr.numDocuments;
-            this.fsr.numPictures += fsr.numPictures;
-            this.fsr.numTorrents += fsr.numTorrents;
-            this.fsr.numVideo += fsr.numVideo;
-        }
-
-        public void clear() {
-            this.fsr.numAudio = 0;
-            this.fsr.numApplications = 0;
-            this.fsr.numDocuments = 0;
-            this.fsr.numPictures = 0;
-            this.fsr.numTorrents = 0;
-            this.fsr.numVideo = 0;
-        }
-    }
 }
\ No newline at end of file
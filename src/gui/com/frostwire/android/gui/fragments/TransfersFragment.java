@@ -20,9 +20,6 @@ package com.frostwire.android.gui.fragments;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
 
 import android.app.Activity;
@@ -59,6 +56,9 @@ import com.frostwire.android.gui.transfers.HttpDownload;
 import com.frostwire.android.gui.transfers.SoundcloudDownload;
 import com.frostwire.android.gui.transfers.Transfer;
 import com.frostwire.android.gui.transfers.TransferManager;
+import com.frostwire.android.gui.transfers.TransferSnapshot;
+import com.frostwire.android.gui.transfers.TransferStateSampler;
+import com.frostwire.android.gui.transfers.TransferStateSampler.Sample;
 import com.frostwire.android.gui.transfers.YouTubeDownload;
 import com.frostwire.android.gui.util.SystemUtils;
 import com.frostwire.android.gui.util.UIUtils;
@@ -82,12 +82,10 @@ import com.frostwire.util.StringUtils;
  * @author aldenml
  * 
  */
-public class TransfersFragment extends AbstractFragment implements TimerObserver, MainFragment, OnDialogClickListener {
+public class TransfersFragment extends AbstractFragment implements TimerObserver, TransferStateSampler.Listener, MainFragment, OnDialogClickListener {
     private static final Logger LOG = Logger.getLogger(TransfersFragment.class);
     private static final String SELECTED_STATUS_STATE_KEY = "selected_status";
 
-    private final Comparator<Transfer> transferComparator;
-
     private final ButtonAddTransferListener buttonAddTransferListener;
     private final ButtonMenuListener buttonMenuListener;
 
@@ -104,6 +102,7 @@ public class TransfersFragment extends AbstractFragment implements TimerObserver
     private TransferStatus selectedStatus;
 
     private TimerSubscription subscription;
+    private TransferStateSampler sampler;
 
     private Biller biller;
     private final DonationsController donationsController;
@@ -111,7 +110,6 @@ public class TransfersFragment extends AbstractFragment implements TimerObserver
     public TransfersFragment() {
         super(R.layout.fragment_transfers);
 
-        this.transferComparator = new TransferComparator();
         this.buttonAddTransferListener = new ButtonAddTransferListener(this);
         this.buttonMenuListener = new ButtonMenuListener(this);
 
@@ -166,6 +164,7 @@ public class TransfersFragment extends AbstractFragment implements TimerObserver
     @Override
     public void onViewCreated(View view, Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
+        sampler = new TransferStateSampler(getActivity(), this);
         subscription = TimerService.subscribe(this, 2);
     }
     
@@ -179,6 +178,7 @@ public class TransfersFragment extends AbstractFragment implements TimerObserver
     public void onDestroyView() {
         super.onDestroyView();
         subscription.unsubscribe();
+        sampler.stop();
     }
 
     @Override
@@ -198,21 +198,28 @@ public class TransfersFragment extends AbstractFragment implements TimerObserver
 
     @Override
     public void onTime() {
+        // the transfers are read off the UI thread, see onSample
+        if (sampler != null) {
+            sampler.request(selectedStatus);
+        }
+    }
+
+    @Override
+    public void onSample(Sample sample) {
         if (adapter != null) {
-            List<Transfer> transfers = filter(TransferManager.instance().getTransfers(), selectedStatus);
-            Collections.sort(transfers, transferComparator);
-            adapter.updateList(transfers);
+            adapter.updateList(sample, list);
         } else if (this.getActivity() != null) {
-            setupAdapter();
+            adapter = new TransferListAdapter(getActivity(), sample.transfers);
+            list.setAdapter(adapter);
         }
 
         //  format strings
-        String sDown = UIUtils.rate2speed(TransferManager.instance().getDownloadsBandwidth());
-        String sUp = UIUtils.rate2speed(TransferManager.instance().getUploadsBandwidth());
+        String sDown = UIUtils.rate2speed(sample.downloadsBandwidth);
+        String sUp = UIUtils.rate2speed(sample.uploadsBandwidth);
 
         // number of uploads (seeding) and downloads
-        int downloads = TransferManager.instance().getActiveDownloads();
-        int uploads = TransferManager.instance().getActiveUploads();
+        int downloads = sample.activeDownloads;
+        int uploads = sample.activeUploads;
 
         textDownloads.setText(downloads + " @ " + sDown);
         textUploads.setText(uploads + " @ " + sUp);
@@ -299,38 +306,6 @@ public class TransfersFragment extends AbstractFragment implements TimerObserver
 		}
 	}
 
-    private void setupAdapter() {
-        List<Transfer> transfers = filter(TransferManager.instance().getTransfers(), selectedStatus);
-        Collections.sort(transfers, transferComparator);
-        adapter = new TransferListAdapter(TransfersFragment.this.getActivity(), transfers);
-        list.setAdapter(adapter);
-    }
-
-    private List<Transfer> filter(List<Transfer> transfers, TransferStatus status) {
-        Iterator<Transfer> it;
-
-        switch (status) { // replace this filter by a more functional style
-        case DOWNLOADING:
-            it = transfers.iterator();
-            while (it.hasNext()) {
-                if (it.next().isComplete()) {
-                    it.remove();
-                }
-            }
-            return transfers;
-        case COMPLETED:
-            it = transfers.iterator();
-            while (it.hasNext()) {
-                if (!it.next().isComplete()) {
-                    it.remove();
-                }
-            }
-            return transfers;
-        default:
-            return transfers;
-        }
-    }
-
     private static final String TRANSFERS_DIALOG_ID = "transfers_dialog";
 
     private static final int CLEAR_MENU_DIALOG_ID = 0;
@@ -361,7 +336,7 @@ public class TransfersFragment extends AbstractFragment implements TimerObserver
                 }
                 break;
             }
-            setupAdapter();
+            onTime();
         }
     }
 
@@ -558,21 +533,22 @@ public class TransfersFragment extends AbstractFragment implements TimerObserver
         imm.hideSoftInputFromWindow(addTransferUrlTextView.getWindowToken(), 0);
     }
 
-    private static final class TransferComparator implements Comparator<Transfer> {
-        public int compare(Transfer lhs, Transfer rhs) {
-            try {
-                return -lhs.getDateCreated().compareTo(rhs.getDateCreated());
-            } catch (Throwable e) {
-                // ignore, not really super important
+    public static enum TransferStatus implements TransferStateSampler.Filter {
+        ALL, DOWNLOADING, COMPLETED;
+
+        @Override
+        public boolean accept(TransferSnapshot snapshot) {
+            switch (this) {
+            case DOWNLOADING:
+                return !snapshot.complete;
+            case COMPLETED:
+                return snapshot.complete;
+            default:
+                return true;
             }
-            return 0;
         }
     }
 
-    public static enum TransferStatus {
-        ALL, DOWNLOADING, COMPLETED
-    }
-
     private static final class ButtonAddTransferListener extends ClickAdapter<TransfersFragment> {
 
         public ButtonAddTransferListener(TransfersFragment f) {
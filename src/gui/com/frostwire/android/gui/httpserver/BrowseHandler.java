@@ -19,6 +19,7 @@
 package com.frostwire.android.gui.httpserver;
 
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.util.List;
 import java.util.logging.Logger;
 import java.util.zip.GZIPOutputStream;
@@ -31,9 +32,17 @@ import sun.net.httpserver.Code;
 import com.frostwire.android.core.FileDescriptor;
 import com.frostwire.android.gui.Librarian;
 import com.frostwire.util.JsonUtils;
+import com.google.gson.stream.JsonWriter;
 import com.sun.net.httpserver.HttpExchange;
 
 /**
+ * Lists the shared files of a type, optionally a page of them with the offset
+ * and limit parameters. The JSON is written file by file into the gzip stream,
+ * reading the library in chunks, the whole list is never in memory.
+ * 
+ * The ETag is the library version, a browse with a matching If-None-Match
+ * costs a 304 and nothing else.
+ * 
  * @author gubatron
  * @author aldenml
  *
@@ -42,6 +51,8 @@ class BrowseHandler extends AbstractHandler {
 
     private static final Logger LOG = Logger.getLogger(BrowseHandler.class.getName());
 
+    private static final int CHUNK_SIZE = 500;
+
     @Override
     public void handle(HttpExchange exchange) throws IOException {
         assertUPnPActive();
@@ -49,6 +60,8 @@ class BrowseHandler extends AbstractHandler {
         GZIPOutputStream os = null;
 
         byte type = -1;
+        int offset = 0;
+        int limit = Integer.MAX_VALUE;
 
         try {
 
@@ -57,15 +70,27 @@ class BrowseHandler extends AbstractHandler {
             for (NameValuePair item : query) {
                 if (item.getName().equals("type")) {
                     type = Byte.parseByte(item.getValue());
+                } else if (item.getName().equals("offset")) {
+                    offset = Integer.parseInt(item.getValue());
+                } else if (item.getName().equals("limit")) {
+                    limit = Integer.parseInt(item.getValue());
                 }
             }
 
-            if (type == -1) {
+            if (type == -1 || offset < 0 || limit <= 0) {
                 exchange.sendResponseHeaders(Code.HTTP_BAD_REQUEST, 0);
                 return;
             }
 
-            String response = getResponse(exchange, type);
+            // taken before reading the files, a change in between makes the next browse read again
+            String etag = "\"" + Librarian.instance().getVersion() + "\"";
+
+            exchange.getResponseHeaders().set("ETag", etag);
+
+            if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+                exchange.sendResponseHeaders(Code.HTTP_NOT_MODIFIED, -1);
+                return;
+            }
 
             exchange.getResponseHeaders().set("Content-Encoding", "gzip");
             exchange.getResponseHeaders().set("Content-Type", "text/json; charset=UTF-8");
@@ -73,9 +98,14 @@ class BrowseHandler extends AbstractHandler {
 
             os = new GZIPOutputStream(exchange.getResponseBody());
 
-            os.write(response.getBytes("UTF-8"));
+            JsonWriter writer = new JsonWriter(new OutputStreamWriter(os, "UTF-8"));
+            writeResponse(writer, type, offset, limit);
+            writer.flush();
+
             os.finish();
 
+        } catch (NumberFormatException e) {
+            exchange.sendResponseHeaders(Code.HTTP_BAD_REQUEST, 0);
         } catch (IOException e) {
             LOG.warning("Error browsing files type=" + type);
             throw e;
@@ -87,16 +117,43 @@ class BrowseHandler extends AbstractHandler {
         }
     }
 
-    private String getResponse(HttpExchange exchange, byte fileType) {
-        List<FileDescriptor> fileDescriptors = Librarian.instance().getFiles(fileType, 0, Integer.MAX_VALUE, true);
+    private void writeResponse(JsonWriter writer, byte fileType, int offset, int limit) throws IOException {
+        writer.beginObject();
+        writer.name("files");
+        writer.beginArray();
+
+        int written = 0;
+        while (written < limit) {
+            int n = Math.min(CHUNK_SIZE, limit - written);
+            List<FileDescriptor> fds = Librarian.instance().getFiles(fileType, offset + written, n, true);
+
+            for (FileDescriptor fd : fds) {
+                JsonUtils.toJson(fd, FileDescriptor.class, writer);
+            }
 
-        FileDescriptorList list = new FileDescriptorList();
-        list.files = fileDescriptors;
+            written += fds.size();
 
-        return JsonUtils.toJson(list);
+            if (fds.size() < n) {
+                break;
+            }
+        }
+
+        writer.endArray();
+        writer.endObject();
     }
 
-    static final class FileDescriptorList {
-        public List<FileDescriptor> files;
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                return true;
+            }
+        }
+
+        return false;
     }
 }
@@ -22,6 +22,9 @@ import java.io.Closeable;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -37,9 +40,14 @@ import com.frostwire.android.gui.Librarian;
 import com.frostwire.android.gui.services.Engine;
 import com.frostwire.android.gui.transfers.PeerHttpUpload;
 import com.frostwire.android.gui.transfers.TransferManager;
+import com.frostwire.android.util.concurrent.LaneScheduler.Lane;
 import com.sun.net.httpserver.HttpExchange;
 
 /**
+ * Serves the shared files with {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+ * into the response body, no copies through the heap. Supports a single
+ * byte range (Range: bytes=...) to resume or seek.
+ * 
  * @author gubatron
  * @author aldenml
  *
@@ -48,10 +56,17 @@ class DownloadHandler extends AbstractHandler {
 
     private static final Logger LOG = Logger.getLogger(DownloadHandler.class.getName());
 
-    
+    // adaptive transfer size, grows while the link keeps up, small enough to check for cancel often
+    private static final long MIN_TRANSFER_SIZE = 64 * 1024;
+    private static final long MAX_TRANSFER_SIZE = 2 * 1024 * 1024;
+    private static final long FAST_TRANSFER_MILLISECONDS = 100;
+    private static final long SLOW_TRANSFER_MILLISECONDS = 500;
+
+
     @Override
     public void handle(final HttpExchange exchange) throws IOException {
-        Engine.instance().getThreadPool().execute(new Runnable() {
+        // uploads to other peers never take the threads of the user's own downloads
+        Engine.instance().getScheduler().execute(Lane.BACKGROUND, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -102,38 +117,42 @@ class DownloadHandler extends AbstractHandler {
                 throw new IOException("There is no such file shared");
             }
 
-            upload = TransferManager.instance().upload(fd);
+            fis = new FileInputStream(fd.filePath);
+            FileChannel fc = fis.getChannel();
+            long size = fc.size();
 
-            exchange.getResponseHeaders().add("Content-Type", fd.mime);
-            exchange.sendResponseHeaders(Code.HTTP_OK, fd.fileSize);
+            long[] range = parseRange(exchange.getRequestHeaders().getFirst("Range"), size);
 
-            os = exchange.getResponseBody();
+            exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
 
-            fis = new FileInputStream(fd.filePath);
+            if (range == null) {
+                exchange.getResponseHeaders().add("Content-Range", "bytes */" + size);
+                exchange.sendResponseHeaders(Code.HTTP_RANGE_NOT_SATISFIABLE, -1);
+                return;
+            }
 
-            byte[] buffer = new byte[4 * 1024];
-            int n;
-            int count = 0;
+            long start = range[0];
+            long length = range[1] - range[0] + 1;
 
-            while ((n = fis.read(buffer, 0, buffer.length)) != -1) {
-                os.write(buffer, 0, n);
-                upload.addBytesSent(n);
+            upload = TransferManager.instance().upload(fd);
 
-                if (upload.isCanceled()) {
-                    try {
-                        throw new IOException("Upload cancelled");
-                    } finally {
-                        os.close();
-                    }
-                }
-                
-                count += n;
-                if (count > 4096) {
-                    count = 0;
-                    Thread.yield();
-                }
+            exchange.getResponseHeaders().add("Content-Type", fd.mime);
+            if (length < size) {
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + size);
+                exchange.sendResponseHeaders(Code.HTTP_PARTIAL, length);
+            } else {
+                exchange.sendResponseHeaders(Code.HTTP_OK, length > 0 ? length : -1); // 0 would mean chunked
+            }
+
+            if (length == 0) {
+                return;
             }
 
+            os = exchange.getResponseBody();
+
+            WritableByteChannel out = os instanceof WritableByteChannel ? (WritableByteChannel) os : Channels.newChannel(os);
+            transfer(fc, start, length, out, upload);
+
         } catch (IOException e) {
             LOG.log(Level.INFO, "Error uploading file type=" + type + ", id=" + id);
             throw e;
@@ -153,6 +172,94 @@ class DownloadHandler extends AbstractHandler {
         }
     }
 
+    private static void transfer(FileChannel fc, long position, long length, WritableByteChannel out, PeerHttpUpload upload) throws IOException {
+        long end = position + length;
+        long transferSize = MIN_TRANSFER_SIZE;
+
+        while (position < end) {
+            long t = System.currentTimeMillis();
+
+            long n = fc.transferTo(position, Math.min(transferSize, end - position), out);
+            if (n <= 0) {
+                throw new IOException("Shared file changed while uploading");
+            }
+            position += n;
+            upload.addBytesSent((int) n);
+
+            if (upload.isCanceled()) {
+                throw new IOException("Upload cancelled");
+            }
+
+            long elapsed = System.currentTimeMillis() - t;
+            if (elapsed < FAST_TRANSFER_MILLISECONDS && transferSize < MAX_TRANSFER_SIZE) {
+                transferSize *= 2;
+            } else if (elapsed > SLOW_TRANSFER_MILLISECONDS && transferSize > MIN_TRANSFER_SIZE) {
+                transferSize /= 2;
+            }
+        }
+    }
+
+    /**
+     * Only one range is supported, for more than one (or a malformed header) the
+     * whole file is sent, as the spec allows.
+     * 
+     * @param header
+     * @param size
+     * @return first and last (inclusive) byte, null if not satisfiable
+     */
+    static long[] parseRange(String header, long size) {
+        long[] all = new long[] { 0, size - 1 };
+
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') != -1) {
+            return all;
+        }
+
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1) {
+            return all;
+        }
+
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+
+            long start;
+            long end;
+
+            if (first.length() == 0) { // suffix, the last N bytes
+                long n = Long.parseLong(last);
+                if (n < 0) { // "--N", syntactically invalid
+                    return all;
+                }
+                if (n == 0) {
+                    return null;
+                }
+                start = Math.max(0, size - n);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                if (last.length() == 0) {
+                    end = size - 1;
+                } else {
+                    end = Long.parseLong(last);
+                    if (end < start) { // syntactically invalid, the header is ignored
+                        return all;
+                    }
+                    end = Math.min(end, size - 1);
+                }
+            }
+
+            if (start >= size || start > end) {
+                return null;
+            }
+
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return all;
+        }
+    }
+
     private void close(Closeable c) {
         if (c != null) {
             try {
@@ -23,6 +23,9 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.frostwire.android.gui.NetworkManager;
+import com.frostwire.android.gui.services.Engine;
+import com.frostwire.android.util.concurrent.LaneScheduler;
+import com.frostwire.android.util.concurrent.LaneScheduler.Lane;
 import com.sun.net.httpserver.HttpServer;
 
 /**
@@ -54,8 +57,17 @@ public class HttpServerManager {
 
             httpServer.createContext("/finger", new FingerHandler());
             httpServer.createContext("/browse", new BrowseHandler());
+            httpServer.createContext("/sync", new SyncHandler());
             httpServer.createContext("/download", new DownloadHandler());
 
+            // finger, browse and sync are short and a peer is waiting, the uploads move to their own lane
+            LaneScheduler scheduler = Engine.instance().getScheduler();
+            if (scheduler != null) {
+                httpServer.setExecutor(scheduler.getExecutor(Lane.INTERACTIVE));
+            } else {
+                LOG.warning("Engine scheduler not available, the http server runs in its default executor");
+            }
+
             httpServer.start();
 
         } catch (Throwable e) {
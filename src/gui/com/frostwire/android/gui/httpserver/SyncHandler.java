@@ -0,0 +1,346 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(TM). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.android.gui.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+
+import sun.net.httpserver.Code;
+
+import com.frostwire.android.core.FileDescriptor;
+import com.frostwire.android.gui.Librarian;
+import com.frostwire.util.JsonUtils;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Incremental browse. The client sends the token of the last sync (if any)
+ * and gets only the shared files added or changed since then, plus the ids of
+ * the removed ones, with a new token.
+ * 
+ * Only the last snapshot of every file type is kept in memory, compact (ids,
+ * a hash of each file and the token it last changed at, plus the ids removed),
+ * any token issued for the type gets its diff from it. An unknown token, like
+ * after a restart, gets the full list with "full" set.
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+class SyncHandler extends AbstractHandler {
+
+    private static final Logger LOG = Logger.getLogger(SyncHandler.class.getName());
+
+    private static final int CHUNK_SIZE = 500;
+    private static final int MAX_REMOVED = 4096; // older tokens get the full list
+
+    private final AtomicLong tokens;
+    private final Map<Byte, Snapshot> snapshots; // by file type, guarded by itself
+
+    public SyncHandler() {
+        this.tokens = new AtomicLong(System.currentTimeMillis());
+        this.snapshots = new HashMap<Byte, Snapshot>();
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        assertUPnPActive();
+
+        GZIPOutputStream os = null;
+
+        byte type = -1;
+        long since = -1;
+
+        try {
+
+            List<NameValuePair> query = URLEncodedUtils.parse(exchange.getRequestURI(), "UTF-8");
+
+            for (NameValuePair item : query) {
+                if (item.getName().equals("type")) {
+                    type = Byte.parseByte(item.getValue());
+                } else if (item.getName().equals("since")) {
+                    since = Long.parseLong(item.getValue());
+                }
+            }
+
+            if (type == -1) {
+                exchange.sendResponseHeaders(Code.HTTP_BAD_REQUEST, 0);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.getResponseHeaders().set("Content-Type", "text/json; charset=UTF-8");
+            exchange.sendResponseHeaders(Code.HTTP_OK, 0);
+
+            os = new GZIPOutputStream(exchange.getResponseBody());
+
+            JsonWriter writer = new JsonWriter(new OutputStreamWriter(os, "UTF-8"));
+            writeResponse(writer, type, since);
+            writer.flush();
+
+            os.finish();
+
+        } catch (NumberFormatException e) {
+            exchange.sendResponseHeaders(Code.HTTP_BAD_REQUEST, 0);
+        } catch (IOException e) {
+            LOG.warning("Error syncing files type=" + type);
+            throw e;
+        } finally {
+            if (os != null) {
+                os.close();
+            }
+            exchange.close();
+        }
+    }
+
+    private void writeResponse(JsonWriter writer, byte fileType, long since) throws IOException {
+        // taken before reading the files, a change in between makes the next sync read again
+        long version = Librarian.instance().getVersion();
+
+        Snapshot last;
+        synchronized (snapshots) {
+            last = snapshots.get(fileType);
+        }
+        boolean known = last != null && last.isKnown(since);
+
+        writer.beginObject();
+
+        if (known && since == last.token && last.version == version) {
+            // nothing changed, the client keeps its token
+            writer.name("token").value(since);
+            writer.name("full").value(false);
+            writer.name("files").beginArray().endArray();
+            writer.name("removed").beginArray().endArray();
+            writer.endObject();
+            return;
+        }
+
+        // the type goes in the token, a token of another type is unknown
+        long token = (tokens.incrementAndGet() << 8) | (fileType & 0xFF);
+
+        IntArray ids = new IntArray();
+        IntArray hashes = new IntArray();
+
+        writer.name("files");
+        writer.beginArray();
+
+        int offset = 0;
+        while (true) {
+            List<FileDescriptor> fds = Librarian.instance().getFiles(fileType, offset, CHUNK_SIZE, true);
+
+            for (FileDescriptor fd : fds) {
+                int hash = hash(fd);
+                ids.add(fd.id);
+                hashes.add(hash);
+
+                long changed = known ? last.changedAt(fd.id, hash) : -1;
+                if (changed < 0 || changed > since) {
+                    JsonUtils.toJson(fd, FileDescriptor.class, writer);
+                }
+            }
+
+            offset += fds.size();
+
+            if (fds.size() < CHUNK_SIZE) {
+                break;
+            }
+        }
+
+        writer.endArray();
+
+        Snapshot snapshot = new Snapshot(fileType, version, token, ids.toArray(), hashes.toArray(), last);
+
+        writer.name("removed");
+        writer.beginArray();
+        if (known) {
+            for (int i = 0; i < snapshot.removedIds.length; i++) {
+                if (snapshot.removedAt[i] > since) {
+                    writer.value(snapshot.removedIds[i]);
+                }
+            }
+        }
+        writer.endArray();
+
+        snapshot.trim();
+        synchronized (snapshots) {
+            Snapshot current = snapshots.get(fileType);
+            if (current == null || current.token < token) {
+                snapshots.put(fileType, snapshot);
+            }
+        }
+
+        writer.name("token").value(token);
+        writer.name("full").value(!known);
+
+        writer.endObject();
+    }
+
+    /**
+     * What the client can see of a file, if it changes the file is sent again.
+     */
+    private static int hash(FileDescriptor fd) {
+        int h = 17;
+        h = 31 * h + (fd.filePath != null ? fd.filePath.hashCode() : 0);
+        h = 31 * h + (int) (fd.fileSize ^ (fd.fileSize >>> 32));
+        h = 31 * h + (int) (fd.dateModified ^ (fd.dateModified >>> 32));
+        h = 31 * h + (fd.title != null ? fd.title.hashCode() : 0);
+        h = 31 * h + (fd.artist != null ? fd.artist.hashCode() : 0);
+        h = 31 * h + (fd.album != null ? fd.album.hashCode() : 0);
+        h = 31 * h + (fd.mime != null ? fd.mime.hashCode() : 0);
+        return h;
+    }
+
+    private static final class Snapshot {
+
+        public final byte fileType;
+        public final long version;
+        public final long token;
+        public final int[] ids; // sorted
+        public final int[] hashes;
+        public final long[] changed; // token the file was added or last changed at
+
+        private long base; // the oldest token with a diff
+        private int[] removedIds; // oldest first
+        private long[] removedAt;
+
+        public Snapshot(byte fileType, long version, long token, int[] ids, int[] hashes, Snapshot last) {
+            this.fileType = fileType;
+            this.version = version;
+            this.token = token;
+
+            // the library order is by date or title, not by id
+            long[] pairs = new long[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                pairs[i] = ((long) ids[i] << 32) | (hashes[i] & 0xFFFFFFFFL);
+            }
+            Arrays.sort(pairs);
+
+            this.ids = new int[pairs.length];
+            this.hashes = new int[pairs.length];
+            this.changed = new long[pairs.length];
+            for (int i = 0; i < pairs.length; i++) {
+                this.ids[i] = (int) (pairs[i] >> 32);
+                this.hashes[i] = (int) pairs[i];
+                this.changed[i] = last != null ? last.changedAt(this.ids[i], this.hashes[i]) : token;
+                if (this.changed[i] < 0) {
+                    this.changed[i] = token;
+                }
+            }
+
+            // the ids removed before, unless they are back, and the ones removed now
+            IntArray rIds = new IntArray();
+            LongArray rAt = new LongArray();
+            if (last != null) {
+                for (int i = 0; i < last.removedIds.length; i++) {
+                    if (!contains(last.removedIds[i])) {
+                        rIds.add(last.removedIds[i]);
+                        rAt.add(last.removedAt[i]);
+                    }
+                }
+                for (int id : last.ids) {
+                    if (!contains(id)) {
+                        rIds.add(id);
+                        rAt.add(token);
+                    }
+                }
+            }
+
+            this.base = last != null ? last.base : token;
+            this.removedIds = rIds.toArray();
+            this.removedAt = rAt.toArray();
+        }
+
+        /**
+         * Drops the oldest removed ids over the limit, the tokens before them get the
+         * full list. Only before the snapshot is shared, the response that built it
+         * still had them all.
+         */
+        public void trim() {
+            if (removedIds.length > MAX_REMOVED) {
+                int from = removedIds.length - MAX_REMOVED;
+                base = Math.max(base, removedAt[from - 1]);
+                removedIds = Arrays.copyOfRange(removedIds, from, removedIds.length);
+                removedAt = Arrays.copyOfRange(removedAt, from, removedAt.length);
+            }
+        }
+
+        /**
+         * If the token was issued for this file type and the changes after it are still here.
+         */
+        public boolean isKnown(long since) {
+            return (since & 0xFF) == (fileType & 0xFF) && since >= base && since <= token;
+        }
+
+        public boolean contains(int id) {
+            return Arrays.binarySearch(ids, id) >= 0;
+        }
+
+        /**
+         * @return the token the file was added or last changed at, -1 if it's not the same now
+         */
+        public long changedAt(int id, int hash) {
+            int i = Arrays.binarySearch(ids, id);
+            return i >= 0 && hashes[i] == hash ? changed[i] : -1;
+        }
+    }
+
+    private static final class IntArray {
+
+        private int[] data = new int[CHUNK_SIZE];
+        private int size;
+
+        public void add(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+
+        public int[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+
+    private static final class LongArray {
+
+        private long[] data = new long[16];
+        private int size;
+
+        public void add(long value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+
+        public long[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
@@ -35,7 +35,7 @@ import android.telephony.TelephonyManager;
 import com.frostwire.android.core.CoreRuntimeException;
 import com.frostwire.android.core.player.CoreMediaPlayer;
 import com.frostwire.android.gui.services.EngineService.EngineServiceBinder;
-import com.frostwire.android.util.concurrent.ThreadPool;
+import com.frostwire.android.util.concurrent.LaneScheduler;
 
 /**
  * @author gubatron
@@ -107,8 +107,8 @@ public final class Engine implements IEngineService {
         }
     }
 
-    public ThreadPool getThreadPool() {
-        return service != null ? service.getThreadPool() : null;
+    public LaneScheduler getScheduler() {
+        return service != null ? service.getScheduler() : null;
     }
 
     public void notifyDownloadFinished(String displayName, File file) {
@@ -41,6 +41,7 @@ import com.frostwire.android.gui.UniversalScanner;
 import com.frostwire.android.gui.transfers.TransferManager;
 import com.frostwire.android.util.SystemUtils;
 import com.frostwire.android.util.concurrent.ExecutorsHelper;
+import com.frostwire.vuze.VuzeManager;
 
 /**
  * Receives and controls messages from the external world. Depending on the
@@ -179,6 +180,14 @@ public class EngineBroadcastReceiver extends BroadcastReceiver {
                             }
                         }
                     });
+                } else if (Engine.instance().isStarted()) {
+                    // switched networks without going through a disconnection
+                    engineExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            VuzeManager.getInstance().setNetworkProfile(NetworkManager.instance().getNetworkProfile());
+                        }
+                    });
                 }
             }
         }
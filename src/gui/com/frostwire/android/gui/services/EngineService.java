@@ -37,10 +37,14 @@ import com.frostwire.android.core.ConfigurationManager;
 import com.frostwire.android.core.Constants;
 import com.frostwire.android.core.player.CoreMediaPlayer;
 import com.frostwire.android.gui.Librarian;
+import com.frostwire.android.gui.NetworkManager;
 import com.frostwire.android.gui.PeerManager;
 import com.frostwire.android.gui.activities.MainActivity;
 import com.frostwire.android.gui.transfers.TransferManager;
-import com.frostwire.android.util.concurrent.ThreadPool;
+import com.frostwire.android.gui.views.TimerObserver;
+import com.frostwire.android.gui.views.TimerService;
+import com.frostwire.android.gui.views.TimerSubscription;
+import com.frostwire.android.util.concurrent.LaneScheduler;
 import com.frostwire.vuze.VuzeManager;
 
 /**
@@ -52,11 +56,13 @@ public class EngineService extends Service implements IEngineService {
 
     private static final String TAG = "FW.EngineService";
 
+    private static final int STATS_LOG_INTERVAL_SECONDS = 60;
+
     private final static long[] VENEZUELAN_VIBE = buildVenezuelanVibe();
 
     private final IBinder binder;
 
-    private final ThreadPool threadPool;
+    private final LaneScheduler scheduler;
 
     // services in background
 
@@ -66,10 +72,12 @@ public class EngineService extends Service implements IEngineService {
 
     private OnSharedPreferenceChangeListener preferenceListener;
 
+    private TimerSubscription statsLogger;
+
     public EngineService() {
         binder = new EngineServiceBinder();
 
-        threadPool = new ThreadPool("Engine");
+        scheduler = new LaneScheduler("Engine");
 
         mediaPlayer = new ApolloMediaPlayer(this);
 
@@ -148,6 +156,7 @@ public class EngineService extends Service implements IEngineService {
 
         //TransferManager.instance().loadTorrents();
 
+        VuzeManager.getInstance().setNetworkProfile(NetworkManager.instance().getNetworkProfile());
         VuzeManager.getInstance().resume();
 
         PeerManager.instance().clear();
@@ -156,6 +165,8 @@ public class EngineService extends Service implements IEngineService {
             PeerManager.instance().start();
         }
 
+        startStatsLogger();
+
         state = STATE_STARTED;
         Log.v(TAG, "Engine started");
     }
@@ -173,12 +184,38 @@ public class EngineService extends Service implements IEngineService {
 
         PeerManager.instance().stop();
 
+        stopStatsLogger();
+
         state = disconnected ? STATE_DISCONNECTED : STATE_STOPPED;
         Log.v(TAG, "Engine stopped, state: " + state);
     }
 
-    public ThreadPool getThreadPool() {
-        return threadPool;
+    public LaneScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * The metrics of the lanes while the engine runs, only with the debug
+     * level enabled for the tag (adb shell setprop log.tag.FW.EngineService DEBUG).
+     */
+    private void startStatsLogger() {
+        if (statsLogger != null || !Log.isLoggable(TAG, Log.DEBUG)) {
+            return;
+        }
+
+        statsLogger = TimerService.subscribe(new TimerObserver() {
+            @Override
+            public void onTime() {
+                Log.d(TAG, "Engine lanes:\n" + scheduler.dumpStats());
+            }
+        }, STATS_LOG_INTERVAL_SECONDS);
+    }
+
+    private void stopStatsLogger() {
+        if (statsLogger != null) {
+            statsLogger.unsubscribe();
+            statsLogger = null;
+        }
     }
 
     public void notifyDownloadFinished(String displayName, File file) {
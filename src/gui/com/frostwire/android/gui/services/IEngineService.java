@@ -23,7 +23,7 @@ import java.io.File;
 import android.app.Application;
 
 import com.frostwire.android.core.player.CoreMediaPlayer;
-import com.frostwire.android.util.concurrent.ThreadPool;
+import com.frostwire.android.util.concurrent.LaneScheduler;
 
 /**
  * @author gubatron
@@ -57,7 +57,7 @@ public interface IEngineService {
 
     public void stopServices(boolean disconnected);
 
-    public ThreadPool getThreadPool();
+    public LaneScheduler getScheduler();
 
     public void notifyDownloadFinished(String displayName, File file);
     
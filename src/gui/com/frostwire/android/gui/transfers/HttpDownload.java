@@ -35,12 +35,18 @@ import android.util.Log;
 
 import com.frostwire.android.R;
 import com.frostwire.android.core.Constants;
-import com.frostwire.android.core.HttpFetcher;
-import com.frostwire.android.core.HttpFetcherListener;
 import com.frostwire.android.gui.Librarian;
 import com.frostwire.android.gui.services.Engine;
 import com.frostwire.android.gui.util.SystemUtils;
 import com.frostwire.android.util.concurrent.AbstractRunnable;
+import com.frostwire.android.util.concurrent.LaneScheduler.Lane;
+import com.frostwire.util.HttpClient;
+import com.frostwire.util.HttpClient.HttpClientListener;
+import com.frostwire.util.HttpClient.ResponseCodeNotSupportedException;
+import com.frostwire.util.HttpClientFactory;
+import com.frostwire.util.HttpResumeState;
+import com.frostwire.util.JsonUtils;
+import com.frostwire.util.UserAgentGenerator;
 import com.frostwire.util.ZipUtils;
 
 /**
@@ -61,10 +67,18 @@ public final class HttpDownload implements DownloadTransfer {
 
     private static final int SPEED_AVERAGE_CALCULATION_INTERVAL_MILLISECONDS = 1000;
 
+    private static final int DOWNLOAD_TIMEOUT = 10000;
+    private static final int DOWNLOAD_CONNECTIONS = 4;
+    private static final String USER_AGENT = UserAgentGenerator.getUserAgent();
+
     private final TransferManager manager;
     private final HttpDownloadLink link;
     private final Date dateCreated;
     private final File savePath;
+    private final HttpResumeState resumeState;
+
+    private String journalType;
+    private String journalData;
 
     private int status;
     private long bytesReceived;
@@ -76,16 +90,26 @@ public final class HttpDownload implements DownloadTransfer {
 
     private HttpDownloadListener listener;
 
-    HttpDownload(TransferManager manager, File savePath, HttpDownloadLink link) {
+    private volatile HttpClient httpClient;
+
+    HttpDownload(TransferManager manager, File savePath, HttpDownloadLink link, HttpResumeState resumeState) {
         this.manager = manager;
         this.link = link;
         this.dateCreated = new Date();
 
         this.savePath = new File(savePath, link.getFileName());
+        this.resumeState = resumeState;
+
+        this.journalType = HttpTransferJournal.TYPE_HTTP;
+        this.journalData = JsonUtils.toJson(link.withFilename(link.getFileName())); // only the plain link
 
         this.status = STATUS_DOWNLOADING;
     }
 
+    HttpDownload(TransferManager manager, File savePath, HttpDownloadLink link) {
+        this(manager, savePath, link, new HttpResumeState());
+    }
+
     HttpDownload(TransferManager manager, HttpDownloadLink link) {
         this(manager, SystemUtils.getTorrentDataDirectory(), link);
     }
@@ -98,6 +122,18 @@ public final class HttpDownload implements DownloadTransfer {
         this.listener = listener;
     }
 
+    /**
+     * What to save in the transfers journal to create this download again,
+     * for downloads owned by another transfer.
+     *
+     * @param type
+     * @param data
+     */
+    void setJournalInfo(String type, String data) {
+        this.journalType = type;
+        this.journalData = data;
+    }
+
     public String getDisplayName() {
         return link.getDisplayName();
     }
@@ -174,10 +210,30 @@ public final class HttpDownload implements DownloadTransfer {
     public void cancel(boolean deleteData) {
         if (status != STATUS_COMPLETE) {
             status = STATUS_CANCELLED;
+            HttpClient client = httpClient;
+            if (client != null) {
+                client.cancel();
+            }
         }
         if (status != STATUS_COMPLETE || deleteData) {
             cleanup();
         }
+        manager.getJournal().remove(savePath.getAbsolutePath());
+        manager.remove(this);
+    }
+
+    /**
+     * Stops the download keeping the data and the journal entry, to continue
+     * later with {@link TransferManager#resumeResumableTransfers()}.
+     */
+    void stop() {
+        if (status != STATUS_COMPLETE) {
+            status = STATUS_CANCELLED;
+            HttpClient client = httpClient;
+            if (client != null) {
+                client.cancel();
+            }
+        }
         manager.remove(this);
     }
 
@@ -195,7 +251,7 @@ public final class HttpDownload implements DownloadTransfer {
      * @param retry
      */
     private void start(final int delay, final int retry) {
-        Engine.instance().getThreadPool().execute(new AbstractRunnable(getDisplayName()) {
+        Engine.instance().getScheduler().execute(Lane.TRANSFER, new AbstractRunnable(getDisplayName()) {
             public void run() {
                 try {
                     status = STATUS_WAITING;
@@ -203,8 +259,16 @@ public final class HttpDownload implements DownloadTransfer {
 
                     status = STATUS_DOWNLOADING;
                     String uri = link.getUrl();
-                    new HttpFetcher(uri, 10000).save(savePath, new DownloadListener(retry));
-                    Librarian.instance().scan(savePath);
+                    manager.getJournal().put(new HttpTransferJournal.Entry(journalType, journalData, uri, savePath, resumeState));
+                    HttpClient client = HttpClientFactory.newInstance();
+                    DownloadListener downloadListener = new DownloadListener(retry);
+                    client.setListener(downloadListener);
+                    httpClient = client;
+                    try {
+                        client.save(uri, savePath, DOWNLOAD_CONNECTIONS, DOWNLOAD_TIMEOUT, USER_AGENT, resumeState);
+                    } catch (Throwable e) {
+                        downloadListener.onError(client, e);
+                    }
                 } catch (Throwable e) {
                     error(e);
                 }
@@ -255,6 +319,8 @@ public final class HttpDownload implements DownloadTransfer {
     }
 
     private void complete() {
+        manager.getJournal().remove(savePath.getAbsolutePath());
+
         boolean success = true;
         String location = null;
         if (link.isCompressed()) {
@@ -286,6 +352,7 @@ public final class HttpDownload implements DownloadTransfer {
             Log.e(TAG, String.format("Error downloading url: %s", link.getUrl()), e);
             status = STATUS_ERROR;
             cleanup();
+            manager.getJournal().remove(savePath.getAbsolutePath());
         }
     }
 
@@ -297,33 +364,50 @@ public final class HttpDownload implements DownloadTransfer {
         }
     }
 
-    private final class DownloadListener implements HttpFetcherListener {
+    private final class DownloadListener implements HttpClientListener {
 
         private final int retry;
 
+        private String retryAfter;
+        private boolean receiving;
+
         public DownloadListener(int retry) {
             this.retry = retry;
         }
 
-        public void onData(byte[] data, int length) {
+        public void onData(HttpClient client, byte[] buffer, int offset, int length) {
+            if (!receiving) {
+                receiving = true;
+                bytesReceived = resumeState.getCommitted(); // what is already in the file if resumed
+            }
             bytesReceived += length;
             updateAverageDownloadSpeed();
 
             if (status == STATUS_CANCELLED) {
-                // ok, this is not the most elegant solution but it effectively breaks the
-                // download logic flow.
-                throw new RuntimeException("Invalid status, transfer cancelled");
+                client.cancel();
             }
         }
 
-        public void onSuccess(byte[] body) {
+        public void onComplete(HttpClient client) {
             complete();
         }
 
-        public void onError(Throwable e, int statusCode, Map<String, String> headers) {
+        public void onCancel(HttpClient client) {
+        }
+
+        public void onHeaders(HttpClient client, Map<String, List<String>> headerFields) {
+            for (Map.Entry<String, List<String>> e : headerFields.entrySet()) {
+                if ("Retry-After".equalsIgnoreCase(e.getKey()) && e.getValue() != null && !e.getValue().isEmpty()) {
+                    retryAfter = e.getValue().get(0);
+                }
+            }
+        }
+
+        public void onError(HttpClient client, Throwable e) {
             try {
-                if (statusCode == 503 && headers.containsKey("Retry-After") && retry < Constants.MAX_PEER_HTTP_DOWNLOAD_RETRIES) {
-                    int delay = Integer.parseInt(headers.get("Retry-After"));
+                int statusCode = e instanceof ResponseCodeNotSupportedException ? ((ResponseCodeNotSupportedException) e).getResponseCode() : -1;
+                if (statusCode == 503 && retryAfter != null && retry < Constants.MAX_PEER_HTTP_DOWNLOAD_RETRIES) {
+                    int delay = Integer.parseInt(retryAfter.trim());
                     if (delay > 0) {
                         start(delay, retry + 1);
                     } else {
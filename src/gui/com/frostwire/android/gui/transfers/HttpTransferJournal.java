@@ -0,0 +1,251 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.android.gui.transfers;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+
+import com.frostwire.concurrent.DefaultThreadFactory;
+import com.frostwire.logging.Logger;
+import com.frostwire.util.HttpResumeState;
+import com.frostwire.util.JsonUtils;
+
+/**
+ * The HTTP transfers in progress, with what is needed to create them again and
+ * continue with range requests after the application is restarted (or killed).
+ *
+ * The journal is written in a background thread, every couple of seconds if
+ * something changed and right away when a transfer is added or removed. The new
+ * content goes to a temporary file, synced, and then renamed over the old one, a
+ * crash leaves the previous version or the new one, never half of it.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class HttpTransferJournal {
+
+    static final String TYPE_HTTP = "http";
+    static final String TYPE_SOUNDCLOUD = "soundcloud";
+    static final String TYPE_YOUTUBE = "youtube";
+
+    private static final Logger LOG = Logger.getLogger(HttpTransferJournal.class);
+
+    private static final long WRITE_INTERVAL_MILLISECONDS = 2000;
+
+    private final File file;
+    private final Map<String, Entry> entries; // guarded by this
+    private final ScheduledExecutorService writer;
+    private final Runnable writeTask;
+
+    private boolean dirty; // guarded by this
+
+    HttpTransferJournal(File file) {
+        this.file = file;
+        this.entries = new LinkedHashMap<String, Entry>();
+
+        for (Entry e : read(file)) {
+            entries.put(e.id, e);
+        }
+
+        this.writer = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("HttpTransferJournal", true));
+        this.writeTask = new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        };
+
+        writer.scheduleWithFixedDelay(writeTask, WRITE_INTERVAL_MILLISECONDS, WRITE_INTERVAL_MILLISECONDS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<Entry>(entries.values());
+    }
+
+    public synchronized Entry get(String id) {
+        return entries.get(id);
+    }
+
+    public void put(Entry e) {
+        synchronized (this) {
+            entries.put(e.id, e);
+            dirty = true;
+        }
+        writer.execute(writeTask);
+    }
+
+    public void remove(String id) {
+        synchronized (this) {
+            if (entries.remove(id) == null) {
+                return;
+            }
+            dirty = true;
+        }
+        writer.execute(writeTask);
+    }
+
+    private void write() {
+        String json;
+
+        synchronized (this) {
+            boolean changed = dirty;
+            for (Entry e : entries.values()) {
+                changed |= e.update();
+            }
+
+            if (!changed) {
+                return;
+            }
+
+            json = JsonUtils.toJson(entries.values().toArray(new Entry[0]));
+            dirty = false;
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(temp);
+            fos.write(json.getBytes("UTF-8"));
+            fos.flush();
+            fos.getFD().sync();
+            fos.close();
+            fos = null;
+
+            if (!temp.renameTo(file)) {
+                throw new IOException("Unable to rename " + temp + " to " + file);
+            }
+        } catch (Throwable e) {
+            LOG.error("Error writing the http transfers journal", e);
+            synchronized (this) {
+                dirty = true; // try again in the next round
+            }
+        } finally {
+            if (fos != null) {
+                try {
+                    fos.close();
+                } catch (Throwable e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static List<Entry> read(File file) {
+        if (!file.exists()) {
+            return new ArrayList<Entry>();
+        }
+
+        try {
+            Entry[] arr = JsonUtils.toObject(FileUtils.readFileToString(file, "UTF-8"), Entry[].class);
+            if (arr != null) {
+                List<Entry> list = new ArrayList<Entry>(arr.length);
+                for (Entry e : arr) {
+                    if (e != null && e.id != null && e.type != null && e.data != null) {
+                        list.add(e);
+                    }
+                }
+                return list;
+            }
+        } catch (Throwable e) {
+            LOG.error("Error reading the http transfers journal, discarding it", e);
+        }
+
+        return new ArrayList<Entry>();
+    }
+
+    /**
+     * One transfer, the data is the JSON of the link or search result, depending
+     * on the type. The resume fields are a copy of the live state, taken when
+     * the journal is written.
+     */
+    static final class Entry {
+
+        public String id;
+        public String type;
+        public String data;
+        public String url;
+
+        public String etag;
+        public String lastModified;
+        public long total;
+        public long[] pending;
+
+        private transient HttpResumeState state;
+
+        Entry(String type, String data, String url, File file, HttpResumeState state) {
+            this.id = file.getAbsolutePath();
+            this.type = type;
+            this.data = data;
+            this.url = url;
+            this.state = state;
+
+            update();
+        }
+
+        public File getFile() {
+            return new File(id);
+        }
+
+        /**
+         * A fresh state for a new download of the entry, with only what is
+         * safely in the storage and no range owned by a connection. A previous
+         * download of the same entry (paused and maybe still stopping) keeps
+         * its own state, the journal follows the new one from now on.
+         *
+         * @return
+         */
+        public synchronized HttpResumeState newState() {
+            update();
+            state = new HttpResumeState(total, etag, lastModified, pending);
+            return state;
+        }
+
+        private synchronized boolean update() {
+            if (state == null) {
+                return false;
+            }
+
+            long[] p = state.getPendingRanges();
+            long t = state.getTotal();
+
+            if (t == total && Arrays.equals(p, pending)) {
+                return false;
+            }
+
+            etag = state.getETag();
+            lastModified = state.getLastModified();
+            total = t;
+            pending = p;
+
+            return true;
+        }
+    }
+}
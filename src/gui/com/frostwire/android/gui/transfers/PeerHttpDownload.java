@@ -40,6 +40,7 @@ import com.frostwire.android.gui.Peer;
 import com.frostwire.android.gui.services.Engine;
 import com.frostwire.android.gui.util.SystemUtils;
 import com.frostwire.android.util.concurrent.AbstractRunnable;
+import com.frostwire.android.util.concurrent.LaneScheduler.Lane;
 
 /**
  * @author gubatron
@@ -170,7 +171,7 @@ public final class PeerHttpDownload implements DownloadTransfer {
      * @param retry
      */
     private void start(final int delay, final int retry) {
-        Engine.instance().getThreadPool().execute(new AbstractRunnable(getDisplayName()) {
+        Engine.instance().getScheduler().execute(Lane.TRANSFER, new AbstractRunnable(getDisplayName()) {
             public void run() {
                 try {
                     status = STATUS_WAITING;
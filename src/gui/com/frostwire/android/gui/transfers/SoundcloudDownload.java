@@ -33,6 +33,8 @@ import com.frostwire.mp3.ID3v1Tag;
 import com.frostwire.mp3.ID3v23Tag;
 import com.frostwire.mp3.Mp3File;
 import com.frostwire.search.soundcloud.SoundcloudSearchResult;
+import com.frostwire.util.HttpResumeState;
+import com.frostwire.util.JsonUtils;
 
 /**
  * @author gubatron
@@ -46,10 +48,16 @@ public class SoundcloudDownload extends TemporaryDownloadTransfer<SoundcloudSear
     private static final long MAX_ACCEPTABLE_SOUNDCLOUD_FILESIZE_FOR_COVERART_FETCH = 20971520; //20MB
 
     private final TransferManager manager;
+    private final HttpResumeState resumeState;
 
     public SoundcloudDownload(TransferManager manager, SoundcloudSearchResult sr) {
+        this(manager, sr, new HttpResumeState());
+    }
+
+    SoundcloudDownload(TransferManager manager, SoundcloudSearchResult sr, HttpResumeState resumeState) {
         this.manager = manager;
         this.sr = sr;
+        this.resumeState = resumeState;
     }
 
     @Override
@@ -144,11 +152,19 @@ public class SoundcloudDownload extends TemporaryDownloadTransfer<SoundcloudSear
         manager.remove(this);
     }
 
+    void stop() {
+        if (delegate != null) {
+            delegate.stop();
+        }
+        manager.remove(this);
+    }
+
     public void start() {
         try {
             final HttpDownloadLink link = buildDownloadLink();
             if (link != null) {
-                delegate = new HttpDownload(manager, SystemUtils.getTempDirectory(), link);
+                delegate = new HttpDownload(manager, SystemUtils.getTempDirectory(), link, resumeState);
+                delegate.setJournalInfo(HttpTransferJournal.TYPE_SOUNDCLOUD, JsonUtils.toJson(sr));
                 delegate.setListener(new HttpDownloadListener() {
                     @Override
                     public void onComplete(HttpDownload download) {
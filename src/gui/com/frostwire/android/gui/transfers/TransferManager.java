@@ -18,6 +18,7 @@
 
 package com.frostwire.android.gui.transfers;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
@@ -46,6 +47,7 @@ import com.frostwire.search.torrent.TorrentCrawledSearchResult;
 import com.frostwire.search.torrent.TorrentSearchResult;
 import com.frostwire.search.youtube.YouTubeCrawledSearchResult;
 import com.frostwire.util.ByteUtils;
+import com.frostwire.util.JsonUtils;
 import com.frostwire.util.StringUtils;
 import com.frostwire.uxstats.UXAction;
 import com.frostwire.uxstats.UXStats;
@@ -66,14 +68,23 @@ public final class TransferManager implements VuzeKeys {
 
     private static final Logger LOG = Logger.getLogger(TransferManager.class);
 
+    private static final String HTTP_TRANSFERS_JOURNAL_FILENAME = "http_transfers.journal";
+
     private final List<DownloadTransfer> downloads;
     private final List<UploadTransfer> uploads;
     private final List<BittorrentDownload> bittorrentDownloads;
+    private final HttpTransferJournal journal;
 
     private int downloadsToReview;
 
     private final Object alreadyDownloadingMonitor = new Object();
 
+    // only one file is played while downloading at a time
+    private final Object streamingMonitor = new Object();
+    private VuzeDownloadManager streamingDownload;
+    private File streamingFile;
+    private long streamingLength;
+
     private volatile static TransferManager instance;
 
     private OnSharedPreferenceChangeListener preferenceListener;
@@ -94,7 +105,10 @@ public final class TransferManager implements VuzeKeys {
 
         this.downloadsToReview = 0;
 
+        this.journal = new HttpTransferJournal(new File(SystemUtils.getApplicationStorageDirectory(), HTTP_TRANSFERS_JOURNAL_FILENAME));
+
         loadTorrents();
+        resumeHttpTransfers();
     }
 
     public List<Transfer> getTransfers() {
@@ -320,6 +334,89 @@ public final class TransferManager implements VuzeKeys {
         }, new DownloadListener());
     }
 
+    /**
+     * Starts fetching the given file of an unfinished torrent in playback order, so it can be
+     * opened before the download is complete. Any previous stream is stopped.
+     * 
+     * @param position playback position in bytes from the start of the file
+     * @return false if the file doesn't belong to an unfinished torrent
+     */
+    public boolean startStreaming(File file, long position) {
+        for (BittorrentDownload d : bittorrentDownloads) {
+            if (d instanceof TorrentFetcherDownload) {
+                d = ((TorrentFetcherDownload) d).getDelegate();
+            }
+            if (!(d instanceof AzureusBittorrentDownload) || d.isComplete()) {
+                continue;
+            }
+
+            VuzeDownloadManager dm = ((AzureusBittorrentDownload) d).getDownloadManager();
+
+            synchronized (streamingMonitor) {
+                if (dm.startStreaming(file, position)) {
+                    if (streamingDownload != null && streamingDownload != dm) {
+                        streamingDownload.stopStreaming();
+                    }
+                    streamingDownload = dm;
+                    streamingFile = file;
+                    streamingLength = getItemSize((AzureusBittorrentDownload) d, file);
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Moves the playback cursor of the current stream, given as a time position over
+     * the total duration of the media.
+     */
+    public void setStreamingPosition(File file, long millis, long durationMillis) {
+        synchronized (streamingMonitor) {
+            if (streamingDownload != null && file.equals(streamingFile) && durationMillis > 0) {
+                long length = streamingLength > 0 ? streamingLength : file.length();
+                streamingDownload.setStreamingPosition((long) (length * ((double) millis / durationMillis)));
+            }
+        }
+    }
+
+    public boolean isStreaming(File file) {
+        synchronized (streamingMonitor) {
+            return streamingDownload != null && file.equals(streamingFile) && streamingDownload.isStreaming();
+        }
+    }
+
+    public long getStreamingBufferedBytes() {
+        synchronized (streamingMonitor) {
+            return streamingDownload != null ? streamingDownload.getStreamingBufferedBytes() : 0;
+        }
+    }
+
+    public void stopStreaming(File file) {
+        synchronized (streamingMonitor) {
+            if (streamingDownload != null && file.equals(streamingFile)) {
+                streamingDownload.stopStreaming();
+                streamingDownload = null;
+                streamingFile = null;
+                streamingLength = 0;
+            }
+        }
+    }
+
+    private static long getItemSize(AzureusBittorrentDownload download, File file) {
+        for (BittorrentDownloadItem item : download.getBittorrentItems()) {
+            if (file.equals(item.getSavePath())) {
+                return item.getSize();
+            }
+        }
+        return 0;
+    }
+
+    HttpTransferJournal getJournal() {
+        return journal;
+    }
+
     boolean remove(Transfer transfer) {
         if (transfer instanceof BittorrentDownload) {
             return bittorrentDownloads.remove(transfer);
@@ -477,6 +574,74 @@ public final class TransferManager implements VuzeKeys {
                 }
             } 
         }        
+
+        resumeHttpTransfers();
+    }
+
+    /**
+     * Re-queues the http transfers in the journal not running, they continue
+     * where they were if the server still has the same file.
+     */
+    private void resumeHttpTransfers() {
+        Set<String> running = new HashSet<String>();
+        for (DownloadTransfer d : downloads) {
+            addJournalIds(running, d);
+        }
+
+        for (HttpTransferJournal.Entry e : journal.getEntries()) {
+            if (running.contains(e.id)) {
+                continue;
+            }
+
+            try {
+                DownloadTransfer download = newJournaledDownload(e);
+                if (download != null) {
+                    addJournalIds(running, download); // a YouTube download owns one entry per track
+                    downloads.add(download);
+                    startJournaledDownload(download);
+                } else {
+                    journal.remove(e.id);
+                }
+            } catch (Throwable t) {
+                LOG.error("Error resuming http transfer: " + e.id, t);
+                journal.remove(e.id);
+            }
+        }
+    }
+
+    private DownloadTransfer newJournaledDownload(HttpTransferJournal.Entry e) {
+        if (HttpTransferJournal.TYPE_HTTP.equals(e.type)) {
+            HttpDownloadLink link = JsonUtils.toObject(e.data, HttpDownloadLink.class);
+            return new HttpDownload(this, e.getFile().getParentFile(), link, e.newState());
+        } else if (HttpTransferJournal.TYPE_SOUNDCLOUD.equals(e.type)) {
+            SoundcloudSearchResult sr = JsonUtils.toObject(e.data, SoundcloudSearchResult.class);
+            return new SoundcloudDownload(this, sr, e.newState());
+        } else if (HttpTransferJournal.TYPE_YOUTUBE.equals(e.type)) {
+            // the tracks find their own entries when started
+            return new YouTubeDownload(this, YouTubeDownload.fromJournalData(e.data));
+        } else {
+            return null;
+        }
+    }
+
+    private static void addJournalIds(Set<String> ids, DownloadTransfer d) {
+        if (d.getSavePath() != null) {
+            ids.add(d.getSavePath().getAbsolutePath());
+        }
+        if (d instanceof YouTubeDownload) {
+            ids.add(((YouTubeDownload) d).getTempVideo().getAbsolutePath());
+            ids.add(((YouTubeDownload) d).getTempAudio().getAbsolutePath());
+        }
+    }
+
+    private static void startJournaledDownload(DownloadTransfer download) {
+        if (download instanceof HttpDownload) {
+            ((HttpDownload) download).start();
+        } else if (download instanceof SoundcloudDownload) {
+            ((SoundcloudDownload) download).start();
+        } else if (download instanceof YouTubeDownload) {
+            ((YouTubeDownload) download).start();
+        }
     }
 
     /** Stops all HttpDownloads (Cloud and Wi-Fi) */
@@ -489,7 +654,16 @@ public final class TransferManager implements VuzeKeys {
             if (t instanceof DownloadTransfer) {
                 DownloadTransfer d = (DownloadTransfer) t;
                 if (!d.isComplete() && d.isDownloading()) {
-                    d.cancel();
+                    // the journaled ones keep the data to continue later
+                    if (d instanceof HttpDownload) {
+                        ((HttpDownload) d).stop();
+                    } else if (d instanceof SoundcloudDownload) {
+                        ((SoundcloudDownload) d).stop();
+                    } else if (d instanceof YouTubeDownload) {
+                        ((YouTubeDownload) d).stop();
+                    } else {
+                        d.cancel();
+                    }
                 }
             } else if (t instanceof UploadTransfer) {
                 UploadTransfer u = (UploadTransfer) t;
@@ -507,15 +681,15 @@ public final class TransferManager implements VuzeKeys {
                 if (key.equals(Constants.PREF_KEY_TORRENT_MAX_DOWNLOAD_SPEED)) {
                     setAzureusParameter(MAX_DOWNLOAD_SPEED);
                 } else if (key.equals(Constants.PREF_KEY_TORRENT_MAX_UPLOAD_SPEED)) {
-                    setAzureusParameter(MAX_UPLOAD_SPEED);
+                    setManualAzureusParameter(MAX_UPLOAD_SPEED);
                 } else if (key.equals(Constants.PREF_KEY_TORRENT_MAX_DOWNLOADS)) {
                     setAzureusParameter(MAX_DOWNLOADS);
                 } else if (key.equals(Constants.PREF_KEY_TORRENT_MAX_UPLOADS)) {
-                    setAzureusParameter(MAX_UPLOADS);
+                    setManualAzureusParameter(MAX_UPLOADS);
                 } else if (key.equals(Constants.PREF_KEY_TORRENT_MAX_TOTAL_CONNECTIONS)) {
-                    setAzureusParameter(MAX_TOTAL_CONNECTIONS);
+                    setManualAzureusParameter(MAX_TOTAL_CONNECTIONS);
                 } else if (key.equals(Constants.PREF_KEY_TORRENT_MAX_TORRENT_CONNECTIONS)) {
-                    setAzureusParameter(MAX_TORRENT_CONNECTIONS);
+                    setManualAzureusParameter(MAX_TORRENT_CONNECTIONS);
                 }
             }
         };
@@ -526,6 +700,14 @@ public final class TransferManager implements VuzeKeys {
         VuzeManager.getInstance().setParameter(key, ConfigurationManager.instance().getLong(key));
     }
 
+    /**
+     * For the limits that follow the estimated upload capacity, a value set by the user wins.
+     */
+    private void setManualAzureusParameter(String key) {
+        VuzeManager.getInstance().setAutoAdjustTransfers(false);
+        setAzureusParameter(key);
+    }
+
     VuzeDownloadManager createVDM(String path, Set<String> selection) throws IOException {
         VuzeDownloadManager dm = VuzeDownloadFactory.create(path, selection, SystemUtils.getTorrentDataDirectory().getAbsolutePath(), new DownloadListener());
 
@@ -543,6 +725,7 @@ public final class TransferManager implements VuzeKeys {
 
         @Override
         public void downloadComplete(VuzeDownloadManager dm) {
+            dm.stopStreaming();
             stopSeedingIfNecessary(dm);
             TransferManager.instance().incrementDownloadsToReview();
             VuzeUtils.finalCleanup(dm.getDM()); //make sure it cleans unnecessary files (android has handpicked seeding off by default)
@@ -0,0 +1,232 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.android.gui.transfers;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.io.FilenameUtils;
+
+import android.content.Context;
+
+/**
+ * Immutable copy of everything a transfer row shows, taken off the UI thread
+ * so that rendering never calls into the transfer (or the Vuze core) itself.
+ *
+ * Two snapshots of the same transfer are equal when the row would render the
+ * same, which is what the transfers list uses to skip unchanged rows.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class TransferSnapshot {
+
+    public final Transfer transfer;
+    public final String displayName;
+    public final String status;
+    public final int progress;
+    public final long size;
+    public final long speed;
+    public final String seeds;
+    public final String peers;
+    public final boolean complete;
+    public final long dateCreated;
+    public final String extension;
+    public final List<ItemSnapshot> items;
+
+    private TransferSnapshot(Transfer transfer, String displayName, String status, int progress, long size, long speed, String seeds, String peers, boolean complete, long dateCreated, String extension, List<ItemSnapshot> items) {
+        this.transfer = transfer;
+        this.displayName = displayName;
+        this.status = status;
+        this.progress = progress;
+        this.size = size;
+        this.speed = speed;
+        this.seeds = seeds;
+        this.peers = peers;
+        this.complete = complete;
+        this.dateCreated = dateCreated;
+        this.extension = extension;
+        this.items = items;
+    }
+
+    /**
+     * Reads the transfer once. Must not be called from the UI thread, the getters
+     * of a torrent download go all the way into the Vuze core.
+     */
+    public static TransferSnapshot take(Context context, Transfer transfer) {
+        String seeds = null;
+        String peers = null;
+        String status;
+
+        if (transfer instanceof BittorrentDownload) {
+            BittorrentDownload download = (BittorrentDownload) transfer;
+            seeds = download.getSeeds();
+            peers = download.getPeers();
+
+            if (transfer instanceof TorrentFetcherDownload && ((TorrentFetcherDownload) transfer).getDelegate() == null) {
+                status = getStatusFromResId(context, transfer.getStatus());
+            } else {
+                status = transfer.getStatus();
+            }
+        } else {
+            status = getStatusFromResId(context, transfer.getStatus());
+        }
+
+        long speed = transfer instanceof PeerHttpUpload ? transfer.getUploadSpeed() : transfer.getDownloadSpeed();
+
+        Date date = transfer.getDateCreated();
+
+        List<? extends TransferItem> transferItems = transfer.getItems();
+        List<ItemSnapshot> items;
+        if (transferItems.isEmpty()) {
+            items = Collections.emptyList();
+        } else {
+            items = new ArrayList<ItemSnapshot>(transferItems.size());
+            for (TransferItem item : transferItems) {
+                items.add(ItemSnapshot.take(item));
+            }
+            items = Collections.unmodifiableList(items);
+        }
+
+        return new TransferSnapshot(transfer, transfer.getDisplayName(), status, transfer.getProgress(), transfer.getSize(), speed, seeds, peers, transfer.isComplete(), date != null ? date.getTime() : 0, getExtension(transfer, items), items);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TransferSnapshot)) {
+            return false;
+        }
+        TransferSnapshot other = (TransferSnapshot) o;
+        return transfer == other.transfer && progress == other.progress && size == other.size && speed == other.speed && complete == other.complete && eq(displayName, other.displayName) && eq(status, other.status) && eq(seeds, other.seeds) && eq(peers, other.peers) && eq(extension, other.extension) && items.equals(other.items);
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(transfer) * 31 + progress;
+    }
+
+    /**
+     * True when both lists hold the same transfers, in the same order and with the
+     * same number of items, so the list can be refreshed in place row by row.
+     */
+    public static boolean sameStructure(List<TransferSnapshot> a, List<TransferSnapshot> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            TransferSnapshot x = a.get(i);
+            TransferSnapshot y = b.get(i);
+            if (x.transfer != y.transfer || x.items.size() != y.items.size()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String getExtension(Transfer transfer, List<ItemSnapshot> items) {
+        if (items.size() > 1) {
+            return null;
+        }
+
+        String path = null;
+
+        if (transfer instanceof BittorrentDownload) {
+            if (items.size() > 0) {
+                return items.get(0).extension;
+            }
+        } else if (transfer instanceof DownloadTransfer) {
+            File savePath = ((DownloadTransfer) transfer).getSavePath();
+            if (savePath != null) {
+                path = savePath.getAbsolutePath();
+            }
+        } else if (transfer instanceof PeerHttpUpload) {
+            path = ((PeerHttpUpload) transfer).getFD().filePath;
+        }
+
+        return path != null ? FilenameUtils.getExtension(path) : null;
+    }
+
+    private static String getStatusFromResId(Context context, String str) {
+        String s = "";
+        try {
+            s = context.getString(Integer.parseInt(str));
+        } catch (Throwable e) {
+            // ignore
+        }
+        return s;
+    }
+
+    private static boolean eq(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    public static final class ItemSnapshot {
+
+        public final TransferItem item;
+        public final String displayName;
+        public final int progress;
+        public final long size;
+        public final boolean complete;
+        public final String extension;
+
+        private ItemSnapshot(TransferItem item, String displayName, int progress, long size, boolean complete, String extension) {
+            this.item = item;
+            this.displayName = displayName;
+            this.progress = progress;
+            this.size = size;
+            this.complete = complete;
+            this.extension = extension;
+        }
+
+        static ItemSnapshot take(TransferItem item) {
+            String extension = null;
+            if (item instanceof BittorrentDownloadItem) {
+                File savePath = ((BittorrentDownloadItem) item).getSavePath();
+                if (savePath != null) {
+                    extension = FilenameUtils.getExtension(savePath.getAbsolutePath());
+                }
+            }
+            return new ItemSnapshot(item, item.getDisplayName(), item.getProgress(), item.getSize(), item.isComplete(), extension);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ItemSnapshot)) {
+                return false;
+            }
+            ItemSnapshot other = (ItemSnapshot) o;
+            return item == other.item && progress == other.progress && size == other.size && complete == other.complete && eq(displayName, other.displayName) && eq(extension, other.extension);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(item) * 31 + progress;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.android.gui.transfers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.frostwire.android.gui.services.Engine;
+import com.frostwire.android.util.concurrent.AbstractRunnable;
+import com.frostwire.android.util.concurrent.LaneScheduler.Lane;
+import com.frostwire.logging.Logger;
+
+/**
+ * Samples the state of all transfers on the interactive lane and hands the
+ * result to the UI thread as immutable snapshots, already filtered, sorted and
+ * diffed against the previous sample, so the list only redraws rows that changed.
+ *
+ * At most one sample is in flight; requests made while one is running collapse
+ * into a single follow up sample with the latest filter.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class TransferStateSampler {
+
+    private static final Logger LOG = Logger.getLogger(TransferStateSampler.class);
+
+    private final Context context;
+    private final Listener listener;
+    private final Handler handler;
+    private final AtomicBoolean sampling;
+    private final AtomicBoolean pending;
+
+    private volatile Filter filter;
+    private volatile boolean stopped;
+
+    // only touched by the sampling task, requests never overlap
+    private List<TransferSnapshot> last;
+
+    public TransferStateSampler(Context context, Listener listener) {
+        this.context = context.getApplicationContext();
+        this.listener = listener;
+        this.handler = new Handler(Looper.getMainLooper());
+        this.sampling = new AtomicBoolean();
+        this.pending = new AtomicBoolean();
+
+        this.last = Collections.emptyList();
+    }
+
+    public void request(Filter filter) {
+        this.filter = filter;
+        pending.set(true);
+        drain();
+    }
+
+    /**
+     * Drops any sample still on its way to the UI thread.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    private void drain() {
+        if (stopped || !pending.get() || !sampling.compareAndSet(false, true)) {
+            return;
+        }
+
+        Engine.instance().getScheduler().execute(Lane.INTERACTIVE, new AbstractRunnable("TransferStateSampler") {
+            @Override
+            public void run() {
+                try {
+                    pending.set(false);
+                    final Sample sample = sample(filter);
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!stopped) {
+                                listener.onSample(sample);
+                            }
+                        }
+                    });
+                } catch (Throwable e) {
+                    LOG.warn("Error sampling transfers", e);
+                } finally {
+                    sampling.set(false);
+                    drain();
+                }
+            }
+        });
+    }
+
+    private Sample sample(Filter filter) {
+        TransferManager tm = TransferManager.instance();
+
+        List<Transfer> transfers = tm.getTransfers();
+        List<TransferSnapshot> snapshots = new ArrayList<TransferSnapshot>(transfers.size());
+        for (Transfer t : transfers) {
+            TransferSnapshot s = TransferSnapshot.take(context, t);
+            if (filter == null || filter.accept(s)) {
+                snapshots.add(s);
+            }
+        }
+        Collections.sort(snapshots, DATE_CREATED_DESC);
+
+        List<TransferSnapshot> previous = last;
+        boolean[] changed = null;
+        if (TransferSnapshot.sameStructure(previous, snapshots)) {
+            changed = new boolean[snapshots.size()];
+            for (int i = 0; i < changed.length; i++) {
+                changed[i] = !previous.get(i).equals(snapshots.get(i));
+            }
+        }
+
+        snapshots = Collections.unmodifiableList(snapshots);
+        last = snapshots;
+
+        return new Sample(snapshots, previous, changed, tm.getDownloadsBandwidth(), tm.getUploadsBandwidth(), tm.getActiveDownloads(), tm.getActiveUploads());
+    }
+
+    private static final Comparator<TransferSnapshot> DATE_CREATED_DESC = new Comparator<TransferSnapshot>() {
+        @Override
+        public int compare(TransferSnapshot lhs, TransferSnapshot rhs) {
+            return lhs.dateCreated > rhs.dateCreated ? -1 : (lhs.dateCreated < rhs.dateCreated ? 1 : 0);
+        }
+    };
+
+    public interface Filter {
+        public boolean accept(TransferSnapshot snapshot);
+    }
+
+    public interface Listener {
+        public void onSample(Sample sample);
+    }
+
+    public static final class Sample {
+
+        public final List<TransferSnapshot> transfers;
+
+        /**
+         * The list this sample was diffed against.
+         */
+        public final List<TransferSnapshot> previous;
+
+        /**
+         * Rows that differ from {@link #previous}, or null if transfers were added,
+         * removed or reordered and the whole list needs to be rebuilt.
+         */
+        public final boolean[] changed;
+
+        public final long downloadsBandwidth;
+        public final double uploadsBandwidth;
+        public final int activeDownloads;
+        public final int activeUploads;
+
+        Sample(List<TransferSnapshot> transfers, List<TransferSnapshot> previous, boolean[] changed, long downloadsBandwidth, double uploadsBandwidth, int activeDownloads, int activeUploads) {
+            this.transfers = transfers;
+            this.previous = previous;
+            this.changed = changed;
+            this.downloadsBandwidth = downloadsBandwidth;
+            this.uploadsBandwidth = uploadsBandwidth;
+            this.activeDownloads = activeDownloads;
+            this.activeUploads = activeUploads;
+        }
+    }
+}
@@ -20,6 +20,7 @@ package com.frostwire.android.gui.transfers;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -33,13 +34,18 @@ import com.frostwire.android.R;
 import com.frostwire.android.gui.Librarian;
 import com.frostwire.android.gui.services.Engine;
 import com.frostwire.android.gui.util.SystemUtils;
+import com.frostwire.android.util.concurrent.LaneScheduler.Lane;
 import com.frostwire.search.extractors.YouTubeExtractor.LinkInfo;
 import com.frostwire.search.youtube.YouTubeCrawledSearchResult;
+import com.frostwire.search.youtube.YouTubeSearchResult;
 import com.frostwire.util.HttpClient;
 import com.frostwire.util.HttpClient.HttpClientListener;
 import com.frostwire.util.HttpClientFactory;
+import com.frostwire.util.HttpResumeState;
+import com.frostwire.util.JsonUtils;
 import com.frostwire.util.MP4Muxer;
 import com.frostwire.util.MP4Muxer.MP4Metadata;
+import com.frostwire.util.UserAgentGenerator;
 
 /**
  * @author gubatron
@@ -59,6 +65,10 @@ public final class YouTubeDownload implements DownloadTransfer {
 
     private static final int SPEED_AVERAGE_CALCULATION_INTERVAL_MILLISECONDS = 1000;
 
+    private static final int DOWNLOAD_TIMEOUT = 10000;
+    private static final int DOWNLOAD_CONNECTIONS = 4;
+    private static final String USER_AGENT = UserAgentGenerator.getUserAgent();
+
     private final TransferManager manager;
     private final YouTubeCrawledSearchResult sr;
     private final DownloadType downloadType;
@@ -67,12 +77,13 @@ public final class YouTubeDownload implements DownloadTransfer {
     private final File tempVideo;
     private final File tempAudio;
 
-    private final HttpClient httpClient;
-    private final HttpClientListener httpClientListener;
+    private final List<TrackDownload> tracks;
     private final Date dateCreated;
 
     private final long size;
-    private int status;
+    private volatile int status;
+    private volatile boolean stopped;
+    private boolean finishing;
     private long bytesReceived;
     private long averageSpeed; // in bytes
 
@@ -95,10 +106,14 @@ public final class YouTubeDownload implements DownloadTransfer {
         bytesReceived = 0;
         dateCreated = new Date();
 
-        httpClientListener = new HttpDownloadListenerImpl();
-
-        httpClient = HttpClientFactory.newInstance();
-        httpClient.setListener(httpClientListener);
+        // in DASH both streams are fetched at the same time
+        tracks = new ArrayList<TrackDownload>(2);
+        if (downloadType != DownloadType.DEMUX) {
+            tracks.add(new TrackDownload(sr.getVideo(), tempVideo));
+        }
+        if (downloadType != DownloadType.VIDEO) {
+            tracks.add(new TrackDownload(sr.getAudio(), tempAudio));
+        }
     }
 
     private static File buildFile(File savePath, String name) {
@@ -210,18 +225,33 @@ public final class YouTubeDownload implements DownloadTransfer {
     public void cancel(boolean deleteData) {
         if (status != STATUS_COMPLETE) {
             status = STATUS_CANCELLED;
+            cancelTracks();
         }
         if (status != STATUS_COMPLETE || deleteData) {
             cleanup();
         }
+        removeFromJournal();
+        manager.remove(this);
+    }
+
+    /**
+     * Stops the download keeping the tracks in progress and the journal entries, to
+     * continue later with {@link TransferManager#resumeResumableTransfers()}.
+     */
+    void stop() {
+        if (status != STATUS_COMPLETE) {
+            stopped = true;
+            status = STATUS_CANCELLED;
+            cancelTracks();
+        }
         manager.remove(this);
     }
 
     public void start() {
-        if (downloadType == DownloadType.DEMUX) {
-            start(sr.getAudio(), tempAudio);
-        } else {
-            start(sr.getVideo(), tempVideo);
+        status = STATUS_WAITING;
+
+        for (TrackDownload t : tracks) {
+            t.start();
         }
     }
 
@@ -229,21 +259,90 @@ public final class YouTubeDownload implements DownloadTransfer {
         return status;
     }
 
-    private void start(final LinkInfo inf, final File temp) {
-        status = STATUS_WAITING;
+    File getTempVideo() {
+        return tempVideo;
+    }
+
+    File getTempAudio() {
+        return tempAudio;
+    }
+
+    private void cancelTracks() {
+        for (TrackDownload t : tracks) {
+            t.client.cancel();
+        }
+    }
+
+    private synchronized void trackDataReceived() {
+        if (status != STATUS_COMPLETE && status != STATUS_CANCELLED && status != STATUS_DEMUXING && status != STATUS_ERROR) {
+            long received = 0;
+            for (TrackDownload t : tracks) {
+                received += t.received;
+            }
+            bytesReceived = received;
+            updateAverageDownloadSpeed();
+            status = STATUS_DOWNLOADING;
+        }
+    }
+
+    private void trackComplete() {
+        synchronized (this) {
+            for (TrackDownload t : tracks) {
+                if (!t.done) {
+                    return;
+                }
+            }
 
-        Engine.instance().getThreadPool().execute(new Runnable() {
-            @Override
-            public void run() {
+            if (finishing || status == STATUS_CANCELLED || status == STATUS_ERROR) {
+                return;
+            }
+            finishing = true;
+        }
+
+        if (downloadType == DownloadType.VIDEO) {
+            boolean renameTo = tempVideo.renameTo(completeFile);
+
+            if (!renameTo) {
+                error(new IOException("Unable to rename " + tempVideo + " to " + completeFile));
+            } else {
+                complete();
+            }
+        } else if (downloadType == DownloadType.DEMUX) {
+            try {
+                status = STATUS_DEMUXING;
+                new MP4Muxer().demuxAudio(tempAudio.getAbsolutePath(), completeFile.getAbsolutePath(), buildMetadata());
+
+                if (!completeFile.exists()) {
+                    error(new IOException("Demux produced no file: " + completeFile));
+                } else {
+                    complete();
+                }
+
+            } catch (Exception e) {
+                error(e);
+            }
+        } else if (downloadType == DownloadType.DASH) {
+            if (tempVideo.exists() && tempAudio.exists()) {
                 try {
-                    status = STATUS_DOWNLOADING;
-                    httpClient.save(inf.link, temp, false);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    httpClientListener.onError(httpClient, e);
+                    status = STATUS_DEMUXING;
+                    new MP4Muxer().mux(tempVideo.getAbsolutePath(), tempAudio.getAbsolutePath(), completeFile.getAbsolutePath(), buildMetadata());
+
+                    if (!completeFile.exists()) {
+                        error(new IOException("Mux produced no file: " + completeFile));
+                    } else {
+                        complete();
+                    }
+
+                } catch (Exception e) {
+                    error(e);
                 }
+            } else {
+                error(null);
             }
-        });
+        } else {
+            // warning!!! if this point is reached review the logic
+            error(null);
+        }
     }
 
     private String getStatusString(int status) {
@@ -292,6 +391,8 @@ public final class YouTubeDownload implements DownloadTransfer {
 
         status = STATUS_COMPLETE;
 
+        removeFromJournal();
+
         manager.incrementDownloadsToReview();
         Engine.instance().notifyDownloadFinished(getDisplayName(), getSavePath());
 
@@ -303,17 +404,24 @@ public final class YouTubeDownload implements DownloadTransfer {
     }
 
     private void error(Throwable e) {
-        if (status != STATUS_CANCELLED) {
+        if (status != STATUS_CANCELLED && status != STATUS_ERROR) {
             if (e != null) {
                 Log.e(TAG, String.format("Error downloading url: %s", sr.getDownloadUrl()), e);
             } else {
                 Log.e(TAG, String.format("Error downloading url: %s", sr.getDownloadUrl()));
             }
             status = STATUS_ERROR;
+            cancelTracks(); // the other track, if any
             cleanup();
+            removeFromJournal();
         }
     }
 
+    private void removeFromJournal() {
+        manager.getJournal().remove(tempVideo.getAbsolutePath());
+        manager.getJournal().remove(tempAudio.getAbsolutePath());
+    }
+
     private void cleanup() {
         try {
             cleanupComplete();
@@ -332,74 +440,105 @@ public final class YouTubeDownload implements DownloadTransfer {
         VIDEO, DASH, DEMUX
     }
 
-    private final class HttpDownloadListenerImpl implements HttpClientListener {
-        @Override   
-        public void onError(HttpClient client, Throwable e) {
-            error(e);
+    private static final class JournalData {
+
+        public final YouTubeSearchResult parent;
+        public final LinkInfo video;
+        public final LinkInfo audio;
+
+        public JournalData(YouTubeSearchResult parent, LinkInfo video, LinkInfo audio) {
+            this.parent = parent;
+            this.video = video;
+            this.audio = audio;
         }
+    }
 
-        @Override
-        public void onData(HttpClient client, byte[] buffer, int offset, int length) {
-            if (status != STATUS_COMPLETE && status != STATUS_CANCELLED && status != STATUS_DEMUXING) {
-                bytesReceived += length;
-                updateAverageDownloadSpeed();
-                status = STATUS_DOWNLOADING;
-            }
+    /**
+     * One of the streams, downloaded with its own client and journal entry.
+     */
+    private final class TrackDownload implements HttpClientListener {
+
+        private final LinkInfo inf;
+        private final File temp;
+        private final HttpClient client;
+
+        private HttpResumeState state;
+        private boolean receiving;
+
+        long received; // guarded by YouTubeDownload.this
+        volatile boolean done;
+
+        public TrackDownload(LinkInfo inf, File temp) {
+            this.inf = inf;
+            this.temp = temp;
+            this.client = HttpClientFactory.newInstance();
+            client.setListener(this);
         }
 
-        @Override
-        public void onComplete(HttpClient client) {
-            if (downloadType == DownloadType.VIDEO) {
-                boolean renameTo = tempVideo.renameTo(completeFile);
+        public void start() {
+            HttpTransferJournal.Entry e = manager.getJournal().get(temp.getAbsolutePath());
+            state = e != null && inf.link.equals(e.url) ? e.newState() : new HttpResumeState();
 
-                if (!renameTo) {
-                    //error(null);
-                } else {
-                    complete();
+            if (state.isComplete() && temp.length() == state.getTotal()) {
+                // finished before the restart, only the other track is left
+                synchronized (YouTubeDownload.this) {
+                    received = state.getTotal();
                 }
-            } else if (downloadType == DownloadType.DEMUX) {
-                try {
-                    status = STATUS_DEMUXING;
-                    new MP4Muxer().demuxAudio(tempAudio.getAbsolutePath(), completeFile.getAbsolutePath(), buildMetadata());
+                done = true;
+                trackComplete();
+                return;
+            }
 
-                    if (!completeFile.exists()) {
-                        //error(null);
-                    } else {
-                        complete();
-                    }
+            // the stream urls expire after some hours, resuming an old one ends in error
+            manager.getJournal().put(new HttpTransferJournal.Entry(HttpTransferJournal.TYPE_YOUTUBE, toJournalData(sr), inf.link, temp, state));
 
-                } catch (Exception e) {
-                    error(e);
-                }
-            } else if (downloadType == DownloadType.DASH) {
-                if (tempVideo.exists() && !tempAudio.exists()) {
-                    start(sr.getAudio(), tempAudio);
-                } else if (tempVideo.exists() && tempAudio.exists()) {
+            Engine.instance().getScheduler().execute(Lane.TRANSFER, new Runnable() {
+                @Override
+                public void run() {
                     try {
-                        status = STATUS_DEMUXING;
-                        new MP4Muxer().mux(tempVideo.getAbsolutePath(), tempAudio.getAbsolutePath(), completeFile.getAbsolutePath(), buildMetadata());
-
-                        if (!completeFile.exists()) {
-                            //error(null);
-                        } else {
-                            complete();
+                        if (status == STATUS_WAITING) {
+                            status = STATUS_DOWNLOADING;
                         }
-
-                    } catch (Exception e) {
-                        error(e);
+                        client.save(inf.link, temp, DOWNLOAD_CONNECTIONS, DOWNLOAD_TIMEOUT, USER_AGENT, state);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        onError(client, e);
                     }
-                } else {
-                    error(null);
                 }
-            } else {
-                // warning!!! if this point is reached review the logic
-                error(null);
+            });
+        }
+
+        @Override
+        public void onError(HttpClient client, Throwable e) {
+            error(e);
+        }
+
+        @Override
+        public void onData(HttpClient client, byte[] buffer, int offset, int length) {
+            synchronized (YouTubeDownload.this) {
+                if (!receiving) {
+                    receiving = true;
+                    received = state.getCommitted(); // what is already in the file if resumed
+                }
+                received += length;
             }
+            trackDataReceived();
+        }
+
+        @Override
+        public void onComplete(HttpClient client) {
+            done = true;
+            trackComplete();
         }
 
         @Override
         public void onCancel(HttpClient client) {
-            cleanup();
+            if (status == STATUS_ERROR) {
+                return; // the other track failed, already cleaned
+            }
+            if (!stopped) {
+                cleanup();
+            }
             status = STATUS_CANCELLED;
         }
 
@@ -436,6 +575,15 @@ public final class YouTubeDownload implements DownloadTransfer {
         return sr.getFilename().equals(((YouTubeDownload) obj).sr.getFilename());
     }
 
+    static String toJournalData(YouTubeCrawledSearchResult sr) {
+        return JsonUtils.toJson(new JournalData((YouTubeSearchResult) sr.getParent(), sr.getVideo(), sr.getAudio()));
+    }
+
+    static YouTubeCrawledSearchResult fromJournalData(String data) {
+        JournalData d = JsonUtils.toObject(data, JournalData.class);
+        return new YouTubeCrawledSearchResult(d.parent, d.video, d.audio);
+    }
+
     private MP4Metadata buildMetadata() {
         String title = sr.getDisplayName();
         String author = sr.getSource();
@@ -35,6 +35,8 @@ import android.content.Intent;
 import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.InputType;
 import android.text.method.KeyListener;
 import android.text.method.NumberKeyListener;
@@ -55,6 +57,9 @@ import com.frostwire.android.core.FileDescriptor;
 import com.frostwire.android.gui.Librarian;
 import com.frostwire.android.gui.activities.MainActivity;
 import com.frostwire.android.gui.services.Engine;
+import com.frostwire.android.gui.transfers.TransferManager;
+import com.frostwire.android.util.concurrent.AbstractRunnable;
+import com.frostwire.android.util.concurrent.LaneScheduler.Lane;
 import com.frostwire.util.MimeDetector;
 import com.frostwire.uxstats.UXAction;
 import com.frostwire.uxstats.UXStats;
@@ -68,6 +73,10 @@ public final class UIUtils {
 
     private static final String TAG = "FW.UIUtils";
 
+    // enough of the file on disk for the players to read the headers and a few seconds of media
+    private static final long STREAMING_BUFFER_BYTES = 2 * 1024 * 1024;
+    private static final long STREAMING_BUFFER_TIMEOUT_MILLIS = 60000;
+
     /**
      * Localizable Number Format constant for the current default locale.
      */
@@ -311,6 +320,45 @@ public final class UIUtils {
         openFile(context, file.getAbsolutePath(), getMimeType(file.getAbsolutePath()));
     }
 
+    /**
+     * Opens a file of an unfinished torrent as soon as the first pieces are on disk,
+     * the rest of the file is fetched in playback order while it plays.
+     * 
+     * @param context
+     * @param file
+     */
+    public static void playWhileDownloading(final Context context, final File file) {
+        if (!TransferManager.instance().startStreaming(file, 0)) {
+            openFile(context, file);
+            return;
+        }
+
+        showShortMessage(context, R.string.buffering_for_playback);
+
+        Engine.instance().getScheduler().execute(Lane.BACKGROUND, new AbstractRunnable("UIUtils-playWhileDownloading") {
+            @Override
+            public void run() {
+                TransferManager tm = TransferManager.instance();
+                long timeout = System.currentTimeMillis() + STREAMING_BUFFER_TIMEOUT_MILLIS;
+
+                try {
+                    while (tm.isStreaming(file) && tm.getStreamingBufferedBytes() < STREAMING_BUFFER_BYTES && System.currentTimeMillis() < timeout) {
+                        Thread.sleep(500);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    @Override
+                    public void run() {
+                        openFile(context, file);
+                    }
+                });
+            }
+        });
+    }
+
     public static String getMimeType(String filePath) {
         try {
             return MimeDetector.getMimeType(FilenameUtils.getExtension(filePath));
@@ -161,4 +161,29 @@ public class VuzeDownloadManager {
         
     }
 
+    public boolean startStreaming(File file, long position) {
+        // TODO Auto-generated method stub
+        return false;
+    }
+
+    public void setStreamingPosition(long position) {
+        // TODO Auto-generated method stub
+        
+    }
+
+    public long getStreamingBufferedBytes() {
+        // TODO Auto-generated method stub
+        return 0;
+    }
+
+    public boolean isStreaming() {
+        // TODO Auto-generated method stub
+        return false;
+    }
+
+    public void stopStreaming() {
+        // TODO Auto-generated method stub
+        
+    }
+
 }
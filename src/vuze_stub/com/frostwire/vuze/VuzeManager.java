@@ -54,4 +54,14 @@ public class VuzeManager {
         // TODO Auto-generated method stub
         return null;
     }
+
+    public void setNetworkProfile(String network) {
+        // TODO Auto-generated method stub
+        
+    }
+
+    public void setAutoAdjustTransfers(boolean enabled) {
+        // TODO Auto-generated method stub
+        
+    }
 }
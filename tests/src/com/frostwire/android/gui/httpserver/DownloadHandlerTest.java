@@ -0,0 +1,105 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.android.gui.httpserver;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import sun.net.httpserver.Code;
+
+/**
+ * In the same package of the handler, the range parsing is not part of the public API.
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class DownloadHandlerTest extends TestCase {
+
+    private static final long SIZE = 1000;
+
+    @SmallTest
+    public void testNoRange() {
+        assertRange(null, 0, 999, Code.HTTP_OK);
+        assertRange("bytes=0-", 0, 999, Code.HTTP_OK);
+        assertRange("bytes=0-999", 0, 999, Code.HTTP_OK);
+    }
+
+    @SmallTest
+    public void testClosedRange() {
+        assertRange("bytes=0-499", 0, 499, Code.HTTP_PARTIAL);
+        assertRange("bytes=500-500", 500, 500, Code.HTTP_PARTIAL);
+        assertRange("bytes= 10 - 20 ", 10, 20, Code.HTTP_PARTIAL);
+    }
+
+    @SmallTest
+    public void testOpenEnded() {
+        assertRange("bytes=500-", 500, 999, Code.HTTP_PARTIAL);
+        assertRange("bytes=999-", 999, 999, Code.HTTP_PARTIAL);
+        assertRange("bytes=900-5000", 900, 999, Code.HTTP_PARTIAL); // the last byte is clamped
+    }
+
+    @SmallTest
+    public void testSuffix() {
+        assertRange("bytes=-100", 900, 999, Code.HTTP_PARTIAL);
+        assertRange("bytes=-1", 999, 999, Code.HTTP_PARTIAL);
+        assertRange("bytes=-5000", 0, 999, Code.HTTP_OK); // longer than the file, all of it
+    }
+
+    @SmallTest
+    public void testMultiRange() {
+        // not supported, the whole file as the spec allows
+        assertRange("bytes=0-99,200-299", 0, 999, Code.HTTP_OK);
+        assertRange("bytes=-10,0-5", 0, 999, Code.HTTP_OK);
+    }
+
+    @SmallTest
+    public void testNotSatisfiable() {
+        assertNotSatisfiable("bytes=1000-");
+        assertNotSatisfiable("bytes=1000-2000");
+        assertNotSatisfiable("bytes=-0");
+        assertNull(DownloadHandler.parseRange("bytes=0-", 0)); // nothing to send of an empty file
+    }
+
+    @SmallTest
+    public void testMalformed() {
+        // ignored, the whole file
+        assertRange("bytes=500-100", 0, 999, Code.HTTP_OK);
+        assertRange("bytes=abc-", 0, 999, Code.HTTP_OK);
+        assertRange("bytes=1-x", 0, 999, Code.HTTP_OK);
+        assertRange("bytes=--5", 0, 999, Code.HTTP_OK);
+        assertRange("bytes=100", 0, 999, Code.HTTP_OK);
+        assertRange("items=0-10", 0, 999, Code.HTTP_OK);
+        assertRange("", 0, 999, Code.HTTP_OK);
+    }
+
+    private static void assertRange(String header, long first, long last, int code) {
+        long[] range = DownloadHandler.parseRange(header, SIZE);
+        assertNotNull(header, range);
+        assertTrue(header + " -> " + Arrays.toString(range), Arrays.equals(new long[] { first, last }, range));
+        // the handler answers 206 only for less than the whole file
+        assertEquals(header, code, range[1] - range[0] + 1 < SIZE ? Code.HTTP_PARTIAL : Code.HTTP_OK);
+    }
+
+    private static void assertNotSatisfiable(String header) {
+        // the handler answers 416 for no range
+        assertNull(header, DownloadHandler.parseRange(header, SIZE));
+    }
+}
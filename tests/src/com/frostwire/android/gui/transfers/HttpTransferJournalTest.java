@@ -0,0 +1,178 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.android.gui.transfers;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.apache.commons.io.FileUtils;
+
+import com.frostwire.android.tests.misc.RangeHttpServer;
+import com.frostwire.android.tests.misc.SegmentedDownloadTest.Outcome;
+import com.frostwire.util.HttpClient;
+import com.frostwire.util.HttpClientFactory;
+import com.frostwire.util.HttpResumeState;
+import com.frostwire.util.JsonUtils;
+
+/**
+ * In the same package of the journal, it's not part of the public API.
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class HttpTransferJournalTest extends TestCase {
+
+    private static final int SIZE = 4 * 1024 * 1024;
+
+    private File journalFile;
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        journalFile = File.createTempFile("journal", ".json");
+        journalFile.delete();
+        file = File.createTempFile("transfer", ".bin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        journalFile.delete();
+        file.delete();
+    }
+
+    @SmallTest
+    public void testEntriesSurviveRestart() throws Exception {
+        HttpTransferJournal journal = new HttpTransferJournal(journalFile);
+
+        long[] pending = new long[] { 100, 200, 500, 1000 };
+        HttpResumeState state = new HttpResumeState(1000, "\"etag\"", "yesterday", pending);
+        journal.put(new HttpTransferJournal.Entry(HttpTransferJournal.TYPE_HTTP, "{}", "http://host/file", file, state));
+
+        HttpTransferJournal.Entry e = awaitEntry(file.getAbsolutePath(), true);
+        assertNotNull(e);
+        assertEquals(HttpTransferJournal.TYPE_HTTP, e.type);
+        assertEquals("http://host/file", e.url);
+        assertEquals(file, e.getFile());
+
+        HttpResumeState restored = e.newState();
+        assertEquals(1000, restored.getTotal());
+        assertEquals("\"etag\"", restored.getETag());
+        assertEquals("yesterday", restored.getLastModified());
+        assertTrue(Arrays.equals(pending, restored.getPendingRanges()));
+        assertEquals(400, restored.getCommitted());
+
+        journal.remove(file.getAbsolutePath());
+        assertNull(awaitEntry(file.getAbsolutePath(), false));
+    }
+
+    @SmallTest
+    public void testCorruptJournalIsDiscarded() throws Exception {
+        FileUtils.writeStringToFile(journalFile, "[{\"id\":", "UTF-8");
+
+        HttpTransferJournal journal = new HttpTransferJournal(journalFile);
+        assertTrue(journal.getEntries().isEmpty());
+    }
+
+    @MediumTest
+    public void testPauseAndResume() throws Exception {
+        RangeHttpServer server = new RangeHttpServer(SIZE);
+        try {
+            server.setChunkDelay(5);
+
+            HttpTransferJournal journal = new HttpTransferJournal(journalFile);
+            HttpResumeState state = new HttpResumeState();
+            journal.put(new HttpTransferJournal.Entry(HttpTransferJournal.TYPE_HTTP, "{}", server.getUrl(), file, state));
+
+            Outcome paused = save(server, state, SIZE / 4);
+            assertEquals(Outcome.CANCEL, paused.result);
+            assertTrue(state.isResumable());
+
+            // the same entry, as resumeHttpTransfers does it without a restart
+            HttpResumeState fresh = journal.get(file.getAbsolutePath()).newState();
+            assertNotSame(state, fresh);
+            assertTrue(fresh.isResumable());
+            assertEquals(state.getCommitted(), fresh.getCommitted());
+            assertTrue(Arrays.equals(state.getPendingRanges(), fresh.getPendingRanges()));
+
+            server.setChunkDelay(0);
+            Outcome resumed = save(server, fresh, -1);
+
+            assertEquals(Outcome.COMPLETE, resumed.result);
+            assertTrue(fresh.isComplete());
+            assertEquals(SIZE - state.getCommitted(), resumed.received);
+            assertTrue(Arrays.equals(server.getData(), FileUtils.readFileToByteArray(file)));
+
+            // the journal follows the new state
+            HttpTransferJournal.Entry e = null;
+            for (int i = 0; i < 50; i++) {
+                e = readEntry(file.getAbsolutePath());
+                if (e != null && e.total == SIZE && e.pending.length == 0) {
+                    break;
+                }
+                Thread.sleep(100);
+            }
+            assertNotNull(e);
+            assertEquals(SIZE, e.total);
+            assertEquals(0, e.pending.length);
+        } finally {
+            server.stop();
+        }
+    }
+
+    private Outcome save(RangeHttpServer server, HttpResumeState state, long cancelAt) throws Exception {
+        HttpClient client = HttpClientFactory.newInstance();
+        Outcome outcome = new Outcome(cancelAt);
+        client.setListener(outcome);
+        client.save(server.getUrl(), file, 4, 10000, "Tests", state);
+        return outcome;
+    }
+
+    /**
+     * Reads the journal file until the entry is there (or gone), the writes
+     * are in background.
+     */
+    private HttpTransferJournal.Entry awaitEntry(String id, boolean present) throws Exception {
+        HttpTransferJournal.Entry e = null;
+        for (int i = 0; i < 50; i++) {
+            e = readEntry(id);
+            if ((e != null) == present) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        return e;
+    }
+
+    private HttpTransferJournal.Entry readEntry(String id) throws Exception {
+        if (!journalFile.exists()) {
+            return null;
+        }
+        HttpTransferJournal.Entry[] arr = JsonUtils.toObject(FileUtils.readFileToString(journalFile, "UTF-8"), HttpTransferJournal.Entry[].class);
+        for (HttpTransferJournal.Entry e : arr) {
+            if (id.equals(e.id)) {
+                return e;
+            }
+        }
+        return null;
+    }
+}
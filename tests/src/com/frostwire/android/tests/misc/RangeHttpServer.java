@@ -0,0 +1,148 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.android.tests.misc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local server of one random file with range requests, for the segmented
+ * download tests. It can be slowed down to have time to pause a download.
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class RangeHttpServer {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private final HttpServer server;
+
+    private volatile byte[] data;
+    private volatile String etag;
+    private volatile long chunkDelay;
+
+    private final AtomicLong served;
+    private final AtomicLong requests;
+
+    public RangeHttpServer(int size) throws IOException {
+        this.served = new AtomicLong();
+        this.requests = new AtomicLong();
+        setData(size, 1);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 10);
+        server.createContext("/file", new FileHandler());
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/file";
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Replaces the file with a new random one, with a new ETag.
+     */
+    public void setData(int size, long seed) {
+        byte[] b = new byte[size];
+        new Random(seed).nextBytes(b);
+        data = b;
+        etag = "\"" + seed + "\"";
+    }
+
+    public void setChunkDelay(long millis) {
+        chunkDelay = millis;
+    }
+
+    public long getServed() {
+        return served.get();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private final class FileHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+
+            byte[] b = data;
+            String tag = etag;
+
+            long start = 0;
+            long end = b.length - 1;
+            boolean partial = false;
+
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            if (range != null && range.startsWith("bytes=") && (ifRange == null || ifRange.equals(tag))) {
+                String[] parts = range.substring(6).split("-", -1);
+                start = Long.parseLong(parts[0]);
+                if (parts[1].length() > 0) {
+                    end = Math.min(end, Long.parseLong(parts[1]));
+                }
+                partial = true;
+            }
+
+            exchange.getResponseHeaders().set("ETag", tag);
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            if (partial) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + b.length);
+            }
+            exchange.sendResponseHeaders(partial ? 206 : 200, end - start + 1);
+
+            OutputStream os = exchange.getResponseBody();
+            try {
+                for (long p = start; p <= end; p += CHUNK_SIZE) {
+                    int n = (int) Math.min(CHUNK_SIZE, end - p + 1);
+                    os.write(b, (int) p, n);
+                    os.flush();
+                    served.addAndGet(n);
+                    if (chunkDelay > 0) {
+                        Thread.sleep(chunkDelay);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // the client went away
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
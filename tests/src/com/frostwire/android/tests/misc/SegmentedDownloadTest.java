@@ -0,0 +1,227 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.android.tests.misc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import org.apache.commons.io.FileUtils;
+
+import com.frostwire.util.HttpClient;
+import com.frostwire.util.HttpClient.HttpClientListener;
+import com.frostwire.util.HttpClientFactory;
+import com.frostwire.util.HttpResumeState;
+
+/**
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class SegmentedDownloadTest extends TestCase {
+
+    private static final int SIZE = 4 * 1024 * 1024;
+    private static final int CONNECTIONS = 4;
+    private static final int TIMEOUT = 10000;
+
+    private RangeHttpServer server;
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new RangeHttpServer(SIZE);
+        file = File.createTempFile("segmented", ".bin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.stop();
+        file.delete();
+    }
+
+    @MediumTest
+    public void testSegmentedDownload() throws Exception {
+        HttpResumeState state = new HttpResumeState();
+        Outcome outcome = save(state);
+
+        assertEquals(Outcome.COMPLETE, outcome.result);
+        assertEquals(SIZE, outcome.received);
+        assertTrue(state.isComplete());
+        assertEquals(0, state.getPendingRanges().length);
+        assertTrue(server.getRequests() > 1);
+        assertTrue(Arrays.equals(server.getData(), FileUtils.readFileToByteArray(file)));
+    }
+
+    @MediumTest
+    public void testResumeFromPendingRanges() throws Exception {
+        byte[] data = server.getData();
+
+        // what a previous run left, with holes where the ranges were not finished
+        byte[] partial = new byte[SIZE];
+        System.arraycopy(data, 0, partial, 0, 1000000);
+        System.arraycopy(data, 2000000, partial, 2000000, 1000000);
+        FileUtils.writeByteArrayToFile(file, partial);
+
+        long[] pending = new long[] { 1000000, 2000000, 3000000, SIZE };
+        HttpResumeState state = new HttpResumeState(SIZE, "\"1\"", null, pending);
+        assertTrue(state.isResumable());
+        assertEquals(2000000, state.getCommitted());
+
+        Outcome outcome = save(state);
+
+        assertEquals(Outcome.COMPLETE, outcome.result);
+        assertEquals(SIZE - 2000000, outcome.received);
+        assertTrue(server.getServed() < SIZE); // not from the start
+        assertTrue(Arrays.equals(data, FileUtils.readFileToByteArray(file)));
+    }
+
+    @MediumTest
+    public void testResumeStartsOverIfFileChanged() throws Exception {
+        FileUtils.writeByteArrayToFile(file, new byte[SIZE]);
+        HttpResumeState state = new HttpResumeState(SIZE, "\"1\"", null, new long[] { 1000000, SIZE });
+
+        server.setData(SIZE, 2); // new ETag
+
+        Outcome outcome = save(state);
+
+        assertEquals(Outcome.COMPLETE, outcome.result);
+        assertTrue(state.isComplete());
+        assertEquals("\"2\"", state.getETag());
+        assertTrue(Arrays.equals(server.getData(), FileUtils.readFileToByteArray(file)));
+    }
+
+    @MediumTest
+    public void testCancelKeepsDurableRanges() throws Exception {
+        server.setChunkDelay(5);
+
+        HttpResumeState state = new HttpResumeState();
+        Outcome outcome = saveAndCancel(state, SIZE / 4);
+
+        assertEquals(Outcome.CANCEL, outcome.result);
+        assertTrue(state.isResumable());
+        assertTrue(state.getCommitted() > 0);
+        assertTrue(state.getCommitted() < SIZE);
+
+        // every byte outside the pending ranges is already right
+        byte[] data = server.getData();
+        byte[] saved = FileUtils.readFileToByteArray(file);
+        long[] pending = state.getPendingRanges();
+        for (int i = 0; i < SIZE; i++) {
+            if (!isPending(pending, i)) {
+                assertEquals("byte " + i, data[i], saved[i]);
+            }
+        }
+    }
+
+    static boolean isPending(long[] pending, long position) {
+        for (int i = 0; i + 1 < pending.length; i += 2) {
+            if (pending[i] <= position && position < pending[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @MediumTest
+    public void testErrorIsNotCancel() throws Exception {
+        File unwritable = new File(new File(file.getParentFile(), "missing-" + System.nanoTime()), "file.bin");
+
+        HttpClient client = HttpClientFactory.newInstance();
+        Outcome outcome = new Outcome(-1);
+        client.setListener(outcome);
+        client.save(server.getUrl(), unwritable, CONNECTIONS, TIMEOUT, "Tests", new HttpResumeState());
+
+        assertEquals(Outcome.ERROR, outcome.result);
+        assertNotNull(outcome.error);
+        assertFalse(client.isCanceled());
+    }
+
+    private Outcome save(HttpResumeState state) throws IOException {
+        HttpClient client = HttpClientFactory.newInstance();
+        Outcome outcome = new Outcome(-1);
+        client.setListener(outcome);
+        client.save(server.getUrl(), file, CONNECTIONS, TIMEOUT, "Tests", state);
+        return outcome;
+    }
+
+    private Outcome saveAndCancel(HttpResumeState state, long cancelAt) throws IOException {
+        HttpClient client = HttpClientFactory.newInstance();
+        Outcome outcome = new Outcome(cancelAt);
+        client.setListener(outcome);
+        client.save(server.getUrl(), file, CONNECTIONS, TIMEOUT, "Tests", state);
+        return outcome;
+    }
+
+    /**
+     * How a download ended, save is synchronous so it is known when it returns.
+     */
+    public static final class Outcome implements HttpClientListener {
+
+        public static final int NONE = 0;
+        public static final int COMPLETE = 1;
+        public static final int CANCEL = 2;
+        public static final int ERROR = 3;
+
+        private final long cancelAt;
+
+        public int result = NONE;
+        public long received;
+        public Throwable error;
+
+        /**
+         * @param cancelAt bytes received to cancel the download, -1 to never cancel
+         */
+        public Outcome(long cancelAt) {
+            this.cancelAt = cancelAt;
+        }
+
+        @Override
+        public void onError(HttpClient client, Throwable e) {
+            result = ERROR;
+            error = e;
+        }
+
+        @Override
+        public void onData(HttpClient client, byte[] buffer, int offset, int length) {
+            received += length;
+            if (cancelAt > 0 && received >= cancelAt) {
+                client.cancel();
+            }
+        }
+
+        @Override
+        public void onComplete(HttpClient client) {
+            result = COMPLETE;
+        }
+
+        @Override
+        public void onCancel(HttpClient client) {
+            result = CANCEL;
+        }
+
+        @Override
+        public void onHeaders(HttpClient httpClient, Map<String, List<String>> headerFields) {
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.android.tests.search;
+
+import com.frostwire.search.torrent.AbstractTorrentSearchResult;
+
+/**
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class MockTorrentSearchResult extends AbstractTorrentSearchResult {
+
+    private final String name;
+    private final long size;
+    private final int seeds;
+    private final String hash;
+    private final String source;
+
+    public MockTorrentSearchResult(String name, long size, int seeds, String hash, String source) {
+        this.name = name;
+        this.size = size;
+        this.seeds = seeds;
+        this.hash = hash;
+        this.source = source;
+    }
+
+    public MockTorrentSearchResult(String name, long size, int seeds) {
+        this(name, size, seeds, null, "Tests");
+    }
+
+    @Override
+    public String getDisplayName() {
+        return name;
+    }
+
+    @Override
+    public String getDetailsUrl() {
+        return "http://tests/" + name;
+    }
+
+    @Override
+    public String getSource() {
+        return source;
+    }
+
+    @Override
+    public String getFilename() {
+        return name + ".torrent";
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public String getTorrentUrl() {
+        return "http://tests/" + name + ".torrent";
+    }
+
+    @Override
+    public int getSeeds() {
+        return seeds;
+    }
+
+    @Override
+    public String getHash() {
+        return hash;
+    }
+}
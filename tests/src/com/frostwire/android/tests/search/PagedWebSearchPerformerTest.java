@@ -0,0 +1,168 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.android.tests.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.frostwire.search.PagedWebSearchPerformer;
+import com.frostwire.search.SearchManagerImpl;
+import com.frostwire.search.SearchManagerListener;
+import com.frostwire.search.SearchPerformer;
+import com.frostwire.search.SearchResult;
+import com.frostwire.search.domainalias.DomainAliasManager;
+
+/**
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class PagedWebSearchPerformerTest extends TestCase {
+
+    @MediumTest
+    public void testPagesInOrderWithinHostSlots() throws Exception {
+        SearchManagerImpl manager = new SearchManagerImpl();
+        manager.setMaxTasksPerHost(2);
+
+        MockPagedPerformer performer = new MockPagedPerformer(1, 6, -1, -1);
+        performer.setPageFetchConcurrency(4);
+
+        List<Integer> pages = perform(manager, performer);
+
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6), pages);
+        assertTrue(performer.maxRunning.get() > 1);
+        assertTrue(performer.maxRunning.get() <= 2);
+
+        manager.shutdown(5, TimeUnit.SECONDS);
+    }
+
+    @MediumTest
+    public void testFailedPageIsSkipped() throws Exception {
+        SearchManagerImpl manager = new SearchManagerImpl();
+
+        MockPagedPerformer performer = new MockPagedPerformer(2, 4, 2, -1);
+        performer.setPageFetchConcurrency(2);
+
+        assertEquals(Arrays.asList(1, 3, 4), perform(manager, performer));
+
+        manager.shutdown(5, TimeUnit.SECONDS);
+    }
+
+    @MediumTest
+    public void testEmptyPageStops() throws Exception {
+        SearchManagerImpl manager = new SearchManagerImpl();
+
+        MockPagedPerformer performer = new MockPagedPerformer(3, 4, -1, 2);
+        performer.setPageFetchConcurrency(2);
+
+        assertEquals(Arrays.asList(1), perform(manager, performer));
+
+        manager.shutdown(5, TimeUnit.SECONDS);
+    }
+
+    private static List<Integer> perform(SearchManagerImpl manager, SearchPerformer performer) throws InterruptedException {
+        final List<Integer> pages = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        manager.registerListener(new SearchManagerListener() {
+            @Override
+            public void onResults(SearchPerformer performer, List<? extends SearchResult> results) {
+                for (SearchResult sr : results) {
+                    pages.add(Integer.valueOf(sr.getDisplayName()));
+                }
+            }
+
+            @Override
+            public void onFinished(long token) {
+                finished.countDown();
+            }
+        });
+
+        manager.perform(performer);
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+
+        return pages;
+    }
+
+    private static final class MockPagedPerformer extends PagedWebSearchPerformer {
+
+        private final int failPage;
+        private final int emptyPage;
+        private final AtomicInteger running;
+        final AtomicInteger maxRunning;
+
+        public MockPagedPerformer(long token, int pages, int failPage, int emptyPage) {
+            super(new DomainAliasManager("tests.frostwire.com"), token, "test", 1000, pages);
+            this.failPage = failPage;
+            this.emptyPage = emptyPage;
+            this.running = new AtomicInteger();
+            this.maxRunning = new AtomicInteger();
+        }
+
+        @Override
+        protected List<? extends SearchResult> fetchPage(int page) throws IOException {
+            int n = running.incrementAndGet();
+            try {
+                int max;
+                while ((max = maxRunning.get()) < n && !maxRunning.compareAndSet(max, n)) {
+                }
+
+                Thread.sleep(100 * (7 - page)); // the later pages are faster
+
+                if (page == failPage) {
+                    throw new IOException("page " + page);
+                }
+                if (page == emptyPage) {
+                    return Collections.emptyList();
+                }
+
+                final String name = String.valueOf(page);
+                return Arrays.asList(new MockSearchResult() {
+                    @Override
+                    public String getDisplayName() {
+                        return name;
+                    }
+                });
+            } catch (InterruptedException e) {
+                return Collections.emptyList();
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+
+        @Override
+        protected String getUrl(int page, String encodedKeywords) {
+            return null;
+        }
+
+        @Override
+        protected List<? extends SearchResult> searchPage(String page) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.android.tests.search;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.frostwire.search.AbstractFileSearchResult;
+import com.frostwire.search.SearchResult;
+import com.frostwire.search.SearchResultDedupIndex;
+import com.frostwire.search.torrent.MergedTorrentSearchResult;
+import com.frostwire.search.torrent.TorrentCrawledSearchResult;
+
+/**
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class SearchResultDedupIndexTest extends TestCase {
+
+    private static final String HASH = "0123456789abcdef0123456789abcdef01234567";
+
+    @SmallTest
+    public void testSameTorrentFromTwoEngines() {
+        SearchResultDedupIndex index = new SearchResultDedupIndex(1);
+
+        MockTorrentSearchResult a = new MockTorrentSearchResult("Ubuntu 14.04", 1000, 10, HASH, "A");
+        MockTorrentSearchResult b = new MockTorrentSearchResult("ubuntu-14.04", 1000, 50, HASH.toUpperCase(), "B");
+
+        List<SearchResult> first = index.dedup(Arrays.asList(a));
+        assertEquals(1, first.size());
+        MergedTorrentSearchResult merged = (MergedTorrentSearchResult) first.get(0);
+
+        // the hash is not case sensitive, the duplicate is merged and not delivered again
+        assertTrue(index.dedup(Arrays.asList(b)).isEmpty());
+        assertEquals(2, merged.getResults().size());
+        assertEquals(50, merged.getSeeds());
+        assertEquals(1, index.size());
+    }
+
+    @SmallTest
+    public void testDuplicatesInOneBatch() {
+        SearchResultDedupIndex index = new SearchResultDedupIndex(1);
+
+        MockTorrentSearchResult a = new MockTorrentSearchResult("a", 1000, 10, HASH, "A");
+        MockTorrentSearchResult b = new MockTorrentSearchResult("b", 1000, 5, HASH, "B");
+        MockTorrentSearchResult c = new MockTorrentSearchResult("c", 1000, 5, HASH.replace('0', 'f'), "B");
+
+        List<SearchResult> list = index.dedup(Arrays.asList(a, b, c));
+        assertEquals(2, list.size());
+        assertEquals(2, ((MergedTorrentSearchResult) list.get(0)).getResults().size());
+        assertEquals(2, index.size());
+    }
+
+    @SmallTest
+    public void testUpdatedWhenBestChanges() {
+        SearchResultDedupIndex index = new SearchResultDedupIndex(1);
+
+        MockTorrentSearchResult a = new MockTorrentSearchResult("a", 1000, 10, HASH, "A");
+        MockTorrentSearchResult b = new MockTorrentSearchResult("b", 1000, 5, HASH, "B");
+        MockTorrentSearchResult c = new MockTorrentSearchResult("c", 1000, 50, HASH, "C");
+
+        List<SearchResult> updated = new LinkedList<SearchResult>();
+        SearchResult merged = index.dedup(Arrays.asList(a), updated).get(0);
+        assertTrue(updated.isEmpty());
+
+        // fewer seeds, same main result
+        assertTrue(index.dedup(Arrays.asList(b), updated).isEmpty());
+        assertTrue(updated.isEmpty());
+
+        assertTrue(index.dedup(Arrays.asList(c), updated).isEmpty());
+        assertEquals(1, updated.size());
+        assertSame(merged, updated.get(0));
+        assertEquals(50, ((MergedTorrentSearchResult) merged).getSeeds());
+    }
+
+    @SmallTest
+    public void testTorrentsWithoutHash() {
+        SearchResultDedupIndex index = new SearchResultDedupIndex(1);
+
+        // keyed by name and size like the other files
+        MockTorrentSearchResult a = new MockTorrentSearchResult("Some Movie (2014)", 1000, 10);
+        MockTorrentSearchResult b = new MockTorrentSearchResult("some.movie.2014", 1000, 20);
+        MockTorrentSearchResult c = new MockTorrentSearchResult("some.movie.2014", 2000, 20);
+
+        List<SearchResult> list = index.dedup(Arrays.asList(a, b, c));
+        assertEquals(2, list.size());
+        assertSame(a, list.get(0));
+        assertSame(c, list.get(1));
+    }
+
+    @SmallTest
+    public void testFiles() {
+        SearchResultDedupIndex index = new SearchResultDedupIndex(1);
+
+        MockFileSearchResult a = new MockFileSearchResult("Song - Artist.mp3", 3000);
+        MockFileSearchResult b = new MockFileSearchResult("song_artist.MP3", 3000);
+        MockFileSearchResult c = new MockFileSearchResult("unknown size", -1);
+        MockFileSearchResult d = new MockFileSearchResult("unknown size", -1);
+
+        List<SearchResult> list = index.dedup(Arrays.asList(a, b, c, d));
+
+        // without a size there is nothing safe to compare
+        assertEquals(3, list.size());
+        assertSame(a, list.get(0));
+        assertSame(c, list.get(1));
+        assertSame(d, list.get(2));
+    }
+
+    @SmallTest
+    public void testCrawledFiles() {
+        SearchResultDedupIndex index = new SearchResultDedupIndex(1);
+
+        MockTorrentSearchResult a = new MockTorrentSearchResult("a", 1000, 10, HASH, "A");
+        MockTorrentSearchResult b = new MockTorrentSearchResult("b", 1000, 30, HASH, "B");
+
+        TorrentCrawledSearchResult fa = new TorrentCrawledSearchResult(a, "dir/file.mp3", 500);
+        TorrentCrawledSearchResult fb = new TorrentCrawledSearchResult(b, "dir/file.mp3", 500);
+        TorrentCrawledSearchResult other = new TorrentCrawledSearchResult(b, "dir/other.mp3", 500);
+
+        List<SearchResult> list = index.dedup(Arrays.asList(fa, fb, other));
+        assertEquals(2, list.size());
+
+        // the files point to the merged torrent, the torrent itself is delivered by its engine
+        TorrentCrawledSearchResult r = (TorrentCrawledSearchResult) list.get(0);
+        assertEquals("dir/file.mp3", r.getRelativePath());
+        assertEquals(30, r.getSeeds());
+
+        List<SearchResult> torrents = index.dedup(Arrays.asList(a));
+        assertEquals(1, torrents.size());
+        assertEquals(2, ((MergedTorrentSearchResult) torrents.get(0)).getResults().size());
+        assertTrue(index.dedup(Arrays.asList(b)).isEmpty());
+    }
+
+    @SmallTest
+    public void testIndexPerSearch() {
+        MockTorrentSearchResult a = new MockTorrentSearchResult("a", 1000, 10, HASH, "A");
+
+        SearchResultDedupIndex first = new SearchResultDedupIndex(1);
+        SearchResultDedupIndex second = new SearchResultDedupIndex(2);
+
+        assertEquals(1, first.dedup(Arrays.asList(a)).size());
+        assertEquals(1, second.dedup(Arrays.asList(a)).size());
+        assertEquals(2, second.getToken());
+    }
+
+    private static final class MockFileSearchResult extends AbstractFileSearchResult {
+
+        private final String name;
+        private final long size;
+
+        public MockFileSearchResult(String name, long size) {
+            this.name = name;
+            this.size = size;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return name;
+        }
+
+        @Override
+        public String getDetailsUrl() {
+            return "http://tests/" + name;
+        }
+
+        @Override
+        public String getSource() {
+            return "Tests";
+        }
+
+        @Override
+        public String getFilename() {
+            return name;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.android.tests.search;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.frostwire.search.RankedList;
+import com.frostwire.search.SearchResult;
+import com.frostwire.search.SearchResultRanker;
+import com.frostwire.search.TokenMatcher;
+import com.frostwire.search.torrent.MergedTorrentSearchResult;
+
+/**
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class SearchResultRankerTest extends TestCase {
+
+    private static final long MB = 1024 * 1024;
+
+    @SmallTest
+    public void testMatchesRankFirst() {
+        SearchResultRanker ranker = newRanker("free music", 10);
+
+        SearchResult none = new MockTorrentSearchResult("other thing", MB, 10);
+        SearchResult half = new MockTorrentSearchResult("free stuff", MB, 10);
+        SearchResult full = new MockTorrentSearchResult("Free Music Archive", MB, 10);
+
+        List<SearchResult> ranked = ranker.rank(Arrays.asList(none, half, full));
+
+        assertEquals(Arrays.asList(full, half, none), ranked);
+        assertTrue(ranker.getScore(full) > ranker.getScore(half));
+    }
+
+    @SmallTest
+    public void testSeedsBreakTies() {
+        SearchResultRanker ranker = newRanker("ubuntu", 10);
+
+        SearchResult few = new MockTorrentSearchResult("ubuntu", MB, 2);
+        SearchResult many = new MockTorrentSearchResult("ubuntu", MB, 2000);
+        SearchResult dead = new MockTorrentSearchResult("ubuntu", MB, 0);
+
+        assertEquals(Arrays.asList(many, few, dead), ranker.rank(Arrays.asList(few, many, dead)));
+    }
+
+    @SmallTest
+    public void testTinyAndUnknownSizePenalized() {
+        SearchResultRanker ranker = newRanker("ubuntu", 10);
+
+        SearchResult ok = new MockTorrentSearchResult("ubuntu", MB, 10);
+        SearchResult tiny = new MockTorrentSearchResult("ubuntu", 100, 10);
+        SearchResult unknown = new MockTorrentSearchResult("ubuntu", -1, 10);
+
+        assertEquals(Arrays.asList(ok, unknown, tiny), ranker.rank(Arrays.asList(tiny, unknown, ok)));
+    }
+
+    @SmallTest
+    public void testSourceWeight() {
+        SearchResultRanker ranker = newRanker("ubuntu", 10);
+        ranker.setSourceWeight("Good", 30);
+        ranker.setSourceWeight("Bad", -20);
+
+        SearchResult bad = new MockTorrentSearchResult("ubuntu", MB, 10, null, "Bad");
+        SearchResult plain = new MockTorrentSearchResult("ubuntu", MB, 10, null, "Tests");
+        SearchResult good = new MockTorrentSearchResult("ubuntu", MB, 10, null, "Good");
+
+        assertEquals(Arrays.asList(good, plain, bad), ranker.rank(Arrays.asList(bad, plain, good)));
+    }
+
+    @SmallTest
+    public void testCapacityEvictsWorst() {
+        SearchResultRanker ranker = newRanker("ubuntu", 2);
+
+        SearchResult a = new MockTorrentSearchResult("ubuntu", MB, 10);
+        SearchResult b = new MockTorrentSearchResult("ubuntu", MB, 100);
+        ranker.rank(Arrays.asList(a, b));
+
+        SearchResult worse = new MockTorrentSearchResult("ubuntu", MB, 1);
+        assertTrue(ranker.rank(Arrays.asList(worse)).isEmpty());
+        assertFalse(ranker.contains(worse));
+
+        SearchResult better = new MockTorrentSearchResult("ubuntu", MB, 1000);
+        assertEquals(Arrays.asList(better), ranker.rank(Arrays.asList(better)));
+        assertEquals(2, ranker.size());
+        assertFalse(ranker.contains(a));
+        assertTrue(ranker.contains(b));
+
+        // evicted results sort after the ranked ones
+        assertTrue(ranker.getComparator().compare(a, b) > 0);
+        assertTrue(ranker.getComparator().compare(better, a) < 0);
+    }
+
+    @SmallTest
+    public void testDuplicatesIgnored() {
+        SearchResultRanker ranker = newRanker("ubuntu", 10);
+
+        SearchResult a = new MockTorrentSearchResult("ubuntu", MB, 10);
+        ranker.rank(Arrays.asList(a));
+
+        assertTrue(ranker.rank(Arrays.asList(a)).isEmpty());
+        assertEquals(1, ranker.size());
+    }
+
+    @SmallTest
+    public void testRankedListKeepsOrder() {
+        RankedList<Integer> list = new RankedList<Integer>(new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return a.compareTo(b);
+            }
+        });
+
+        Random rnd = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            int v = rnd.nextInt(100000);
+            int index = list.insert(v);
+            if (index >= 0) {
+                assertEquals(Integer.valueOf(v), list.get(index));
+            }
+        }
+
+        for (int i = 1; i < list.size(); i++) {
+            assertTrue(list.get(i - 1) < list.get(i));
+        }
+
+        int size = list.size();
+        Integer last = list.get(size - 1);
+        assertEquals(last, list.remove(size - 1));
+        assertEquals(size - 1, list.size());
+
+        assertEquals(-1, list.insert(list.get(0)));
+
+        list.clear();
+        assertTrue(list.isEmpty());
+    }
+
+    @SmallTest
+    public void testRankedListFollowsRanker() {
+        SearchResultRanker ranker = newRanker("ubuntu", 10);
+        RankedList<SearchResult> list = ranker.newRankedList();
+
+        SearchResult a = new MockTorrentSearchResult("ubuntu", MB, 1);
+        SearchResult b = new MockTorrentSearchResult("ubuntu", MB, 100);
+        SearchResult c = new MockTorrentSearchResult("ubuntu", MB, 10);
+
+        for (SearchResult sr : ranker.rank(Arrays.asList(a, b, c))) {
+            list.add(sr);
+        }
+
+        assertEquals(Arrays.asList(b, c, a), list);
+    }
+
+    @SmallTest
+    public void testRankedListKeepsEvictedLast() {
+        SearchResultRanker ranker = newRanker("ubuntu", 2);
+        RankedList<SearchResult> list = ranker.newRankedList();
+
+        SearchResult a = new MockTorrentSearchResult("ubuntu", MB, 10);
+        SearchResult b = new MockTorrentSearchResult("ubuntu", MB, 100);
+        list.addAll(ranker.rank(Arrays.asList(a, b)));
+
+        // a is evicted, its node keeps the rank it had when inserted
+        SearchResult c = new MockTorrentSearchResult("ubuntu", MB, 1000);
+        list.addAll(ranker.rank(Arrays.asList(c)));
+        assertFalse(ranker.contains(a));
+        assertEquals(Arrays.asList(c, b, a), list);
+
+        // not ranked, not added
+        SearchResult d = new MockTorrentSearchResult("ubuntu", MB, 1);
+        assertFalse(list.add(d));
+        assertEquals(-1, list.insert(a));
+
+        assertTrue(list.contains(a));
+        assertEquals(a, list.remove(list.size() - 1));
+        assertFalse(list.contains(a));
+        assertEquals(Arrays.asList(c, b), list);
+    }
+
+    @SmallTest
+    public void testUpdateMovesResult() {
+        SearchResultRanker ranker = newRanker("ubuntu", 10);
+        RankedList<SearchResult> list = ranker.newRankedList();
+
+        MergedTorrentSearchResult a = new MergedTorrentSearchResult(new MockTorrentSearchResult("ubuntu", MB, 1, "hash", "A"));
+        SearchResult b = new MockTorrentSearchResult("ubuntu", MB, 100);
+        SearchResult c = new MockTorrentSearchResult("ubuntu", MB, 10);
+        list.addAll(ranker.rank(Arrays.asList(a, b, c)));
+        assertEquals(Arrays.asList(b, c, a), list);
+
+        // nothing changed, nothing to update
+        assertTrue(ranker.update(Arrays.asList(a, b)).isEmpty());
+
+        assertTrue(a.merge(new MockTorrentSearchResult("ubuntu", MB, 1000, "hash", "B")));
+        assertEquals(Arrays.asList(a), ranker.update(Arrays.asList(a)));
+        assertEquals(0, list.reposition(a));
+        assertEquals(Arrays.asList(a, b, c), list);
+        assertEquals(3, list.size());
+    }
+
+    private static SearchResultRanker newRanker(String query, int capacity) {
+        return new SearchResultRanker(new TokenMatcher(Arrays.asList(query.split(" "))), capacity);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.android.tests.search;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.frostwire.search.TokenMatcher;
+
+/**
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class TokenMatcherTest extends TestCase {
+
+    @SmallTest
+    public void testAllTokens() {
+        TokenMatcher m = matcher("free", "music");
+
+        assertTrue(m.isFullMatch(m.match("Free_Music.Archive", 0)));
+        assertFalse(m.isFullMatch(m.match("free stuff", 0)));
+        assertEquals(1, m.countMatches(m.match("free stuff", 0)));
+        assertEquals(0, m.countMatches(m.match(null, 0)));
+    }
+
+    @SmallTest
+    public void testAccumulatesAcrossTexts() {
+        TokenMatcher m = matcher("ubuntu", "iso");
+
+        long found = m.match("Ubuntu 14.04", 0);
+        assertFalse(m.isFullMatch(found));
+        found = m.match("ubuntu-14.04-desktop.iso", found);
+        assertTrue(m.isFullMatch(found));
+    }
+
+    @SmallTest
+    public void testOverlappingTokens() {
+        TokenMatcher m = matcher("she", "he", "hers");
+
+        assertEquals(3, m.countMatches(m.match("ushers", 0)));
+    }
+
+    @SmallTest
+    public void testSeparatorsBreakTokens() {
+        TokenMatcher m = matcher("ab");
+
+        assertFalse(m.isFullMatch(m.match("a.b a-b a(b)", 0)));
+        assertTrue(m.isFullMatch(m.match("xaby", 0)));
+    }
+
+    @SmallTest
+    public void testDiacritics() {
+        TokenMatcher m = matcher("cafe", "nino");
+
+        assertTrue(m.isFullMatch(m.match("Café Niño", 0)));
+        // decomposed, the combining marks are dropped
+        assertTrue(m.isFullMatch(m.match("Cafe\u0301 Nin\u0303o", 0)));
+        // the tokens fold the same way
+        assertTrue(matcher("Café").isFullMatch(matcher("Café").match("CAFE", 0)));
+    }
+
+    @SmallTest
+    public void testCompatibilityDecomposition() {
+        TokenMatcher m = matcher("ijssel");
+        assertTrue(m.isFullMatch(m.match("\u0132ssel", 0)));
+        assertTrue(m.isFullMatch(m.match("\u0133ssel", 0)));
+
+        TokenMatcher f = matcher("file");
+        assertTrue(f.isFullMatch(f.match("\uFB01le", 0))); // ligature
+        assertTrue(f.isFullMatch(f.match("\uFF26\uFF29\uFF2C\uFF25", 0))); // fullwidth
+
+        // the query token with the ligature is the same token
+        TokenMatcher l = matcher("\uFB01le");
+        assertTrue(l.isFullMatch(l.match("FILE", 0)));
+    }
+
+    @SmallTest
+    public void testEntities() {
+        TokenMatcher m = matcher("tom", "jerry");
+        assertTrue(m.isFullMatch(m.match("Tom&amp;Jerry", 0)));
+
+        TokenMatcher amp = matcher("amp");
+        assertFalse(amp.isFullMatch(amp.match("Tom &amp; Jerry", 0)));
+
+        TokenMatcher cafe = matcher("cafe");
+        assertTrue(cafe.isFullMatch(cafe.match("caf&eacute;", 0)));
+        assertTrue(cafe.isFullMatch(cafe.match("caf&#233;", 0)));
+        assertTrue(cafe.isFullMatch(cafe.match("caf&#xE9;", 0)));
+        assertTrue(cafe.isFullMatch(cafe.match("&#67;afe", 0)));
+
+        // not entities, taken as they are
+        TokenMatcher raw = matcher("fish", "chips");
+        assertTrue(raw.isFullMatch(raw.match("fish & chips", 0)));
+        assertTrue(raw.isFullMatch(raw.match("fish&chips;", 0)));
+        assertTrue(raw.isFullMatch(raw.match("fish &#zz; chips", 0)));
+    }
+
+    @SmallTest
+    public void testMaxTokens() {
+        String[] tokens = new String[TokenMatcher.MAX_TOKENS + 10];
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = "t" + i + "x";
+            text.append(tokens[i]).append(' ');
+        }
+
+        TokenMatcher m = new TokenMatcher(Arrays.asList(tokens));
+        assertEquals(TokenMatcher.MAX_TOKENS, m.getNumTokens());
+        assertTrue(m.isFullMatch(m.match(text.toString(), 0)));
+    }
+
+    private static TokenMatcher matcher(String... tokens) {
+        return new TokenMatcher(Arrays.asList(tokens));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.android.tests.torrent;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.frostwire.search.torrent.TorrentCrawlRecord;
+
+/**
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class TorrentCrawlRecordTest extends TestCase {
+
+    @SmallTest
+    public void testRoundTrip() throws IOException {
+        byte[] hash = new byte[20];
+        Arrays.fill(hash, (byte) 7);
+
+        StringBuilder longPath = new StringBuilder();
+        while (longPath.length() < 70000) {
+            longPath.append("carpeta/ñandú/");
+        }
+        longPath.append("file.mp3");
+
+        String[] paths = { "a.txt", "dir/été 日本.avi", longPath.toString() };
+        long[] sizes = { 1, 1L << 40, 12345 };
+
+        byte[] data = new TorrentCrawlRecord(hash, paths, sizes).toBytes();
+        assertTrue(TorrentCrawlRecord.isRecord(data));
+
+        TorrentCrawlRecord record = TorrentCrawlRecord.fromBytes(data);
+        assertTrue(Arrays.equals(hash, record.getInfoHash()));
+        assertEquals(paths.length, record.getFileCount());
+        for (int i = 0; i < paths.length; i++) {
+            assertEquals(paths[i], record.getPath(i));
+            assertEquals(sizes[i], record.getSize(i));
+        }
+    }
+
+    @SmallTest
+    public void testNotARecord() {
+        assertFalse(TorrentCrawlRecord.isRecord(null));
+        assertFalse(TorrentCrawlRecord.isRecord("d8:announce".getBytes()));
+        assertFalse(TorrentCrawlRecord.isRecord(new byte[] { 'F', 'W', 'C', 'R', 1 })); // old version
+
+        try {
+            TorrentCrawlRecord.fromBytes("d8:announce".getBytes());
+            fail("not a record");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @SmallTest
+    public void testTruncated() {
+        byte[] data = new TorrentCrawlRecord(new byte[20], new String[] { "some/path.txt" }, new long[] { 10 }).toBytes();
+
+        try {
+            TorrentCrawlRecord.fromBytes(Arrays.copyOf(data, data.length - 3));
+            fail("truncated record");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
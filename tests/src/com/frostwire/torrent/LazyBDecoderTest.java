@@ -0,0 +1,237 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.torrent;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class LazyBDecoderTest extends TestCase {
+
+    @SmallTest
+    public void testNested() throws Exception {
+        Map<String, Object> m = decode("d1:ad1:bl1:xi-2eee1:cld1:di7eeleee");
+
+        assertEquals(2, m.size());
+
+        Map<?, ?> a = (Map<?, ?>) m.get("a");
+        List<?> b = (List<?>) a.get("b");
+        assertEquals(2, b.size());
+        assertEquals("x", new String((byte[]) b.get(0), "UTF-8"));
+        assertEquals(Long.valueOf(-2), b.get(1));
+
+        List<?> c = (List<?>) m.get("c");
+        assertEquals(2, c.size());
+        assertEquals(Long.valueOf(7), ((Map<?, ?>) c.get(0)).get("d"));
+        assertTrue(((List<?>) c.get(1)).isEmpty());
+    }
+
+    @SmallTest
+    public void testSiblings() throws Exception {
+        // the values after a container must be found by skipping the whole container
+        Map<String, Object> m = decode("d1:ad1:xd1:yleee1:bll1:pel1:qi3eee1:ci1e1:d4:spame");
+
+        assertEquals(4, m.size());
+        assertEquals(Long.valueOf(1), m.get("c"));
+        assertEquals("spam", new String((byte[]) m.get("d"), "UTF-8"));
+
+        List<?> b = (List<?>) m.get("b");
+        assertEquals(2, b.size());
+        assertEquals(1, ((List<?>) b.get(0)).size());
+        assertEquals(Long.valueOf(3), ((List<?>) b.get(1)).get(1));
+
+        Iterator<String> it = m.keySet().iterator();
+        assertEquals("a", it.next());
+        assertEquals("b", it.next());
+        assertEquals("c", it.next());
+        assertEquals("d", it.next());
+        assertFalse(it.hasNext());
+
+        assertNull(m.get("x")); // only in a nested dictionary
+    }
+
+    @SmallTest
+    public void testCanonical() throws Exception {
+        assertTrue(isCanonical("d1:ai0e1:bi-10e1:c0:e"));
+
+        assertFalse(isCanonical("d1:bi1e1:ai2ee")); // unsorted keys
+        assertFalse(isCanonical("d1:ai1e1:ai2ee")); // repeated key
+        assertFalse(isCanonical("d1:ai01ee")); // leading zero
+        assertFalse(isCanonical("d1:ai-0ee"));
+        assertFalse(isCanonical("d1:a02:xye")); // leading zero in the string length
+        assertFalse(isCanonical("d2:éai1ee")); // not ascii key
+
+        // still decoded as they are
+        Map<String, Object> m = decode("d1:bi1e1:ai-0e1:c02:xye");
+        assertEquals(Long.valueOf(1), m.get("b"));
+        assertEquals(Long.valueOf(0), m.get("a"));
+        assertEquals("xy", new String((byte[]) m.get("c"), "UTF-8"));
+    }
+
+    @SmallTest
+    public void testInvalid() throws Exception {
+        assertInvalid("d1:a5:abce"); // truncated string
+        assertInvalid("d1:a9999999999:abce");
+        assertInvalid("d1:ai1e"); // dictionary without the 'e'
+        assertInvalid("d1:ali1e");
+        assertInvalid("d1:ae"); // key without value
+        assertInvalid("di1ei2ee"); // key isn't a string
+        assertInvalid("d1:ai1x2ee");
+        assertInvalid("d1:aie");
+        assertInvalid("li1ee"); // top level isn't a dictionary
+        assertInvalid("");
+    }
+
+    @SmallTest
+    public void testBuffers() throws Exception {
+        String data = "d1:ad1:bi1ee5:piece4:\u0001\u0002\u0003\u0004e";
+        Map<String, Object> m = decode(data);
+
+        ByteBuffer pieces = ((LazyBDecoder.LazyMap) m).getBuffer("piece");
+        assertEquals(4, pieces.remaining());
+        assertEquals(3, pieces.get(2));
+        assertNull(((LazyBDecoder.LazyMap) m).getBuffer("a"));
+
+        ByteBuffer encoded = ((LazyBDecoder.LazyMap) m.get("a")).getEncoded();
+        assertEquals("d1:bi1ee", toString(encoded));
+        assertEquals(data, toString(((LazyBDecoder.LazyMap) m).getEncoded()));
+    }
+
+    @MediumTest
+    public void testInfoHash() throws Exception {
+        File dir = createDir();
+        try {
+            // single file, and a folder with nested paths and not ascii names
+            assertSameHash(createTorrent(new File(dir, "single.bin")));
+            assertSameHash(createTorrent(dir));
+        } finally {
+            delete(dir);
+        }
+
+        // a non canonical info dictionary is hashed as the eager path re-encodes it
+        String info = "d6:lengthi5e4:name1:x12:piece lengthi16384e6:pieces20:01234567890123456789e";
+        String unsorted = "d4:name1:x6:lengthi5e12:piece lengthi16384e6:pieces20:01234567890123456789e";
+        byte[] canonical = ("d4:info" + info + "e").getBytes("ISO-8859-1");
+        byte[] torrent = ("d4:info" + unsorted + "e").getBytes("ISO-8859-1");
+
+        assertSameHash(torrent);
+        assertTrue(Arrays.equals(TOTorrentFactory.deserialiseFromBEncodedByteArray(canonical).getHash(), TOTorrentFactory.deserialiseFromBEncodedByteArray(torrent).getHash()));
+    }
+
+    private static void assertSameHash(byte[] torrent) throws Exception {
+        byte[] lazy = TOTorrentFactory.deserialiseFromBEncodedByteArray(torrent).getHash();
+        byte[] eager = TOTorrentFactory.deserialiseFromMap(BDecoder.decode(torrent)).getHash();
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> info = (Map<String, Object>) BDecoder.decode(torrent).get("info");
+        byte[] encoded = new SHA1Hasher().calculateHash(BEncoder.encode(info));
+
+        assertTrue(Arrays.equals(eager, lazy));
+        assertTrue(Arrays.equals(encoded, lazy));
+    }
+
+    private static Map<String, Object> decode(String data) throws BEncodingException, IOException {
+        return LazyBDecoder.decode(ByteBuffer.wrap(data.getBytes("ISO-8859-1")));
+    }
+
+    private static boolean isCanonical(String data) throws BEncodingException, IOException {
+        return ((LazyBDecoder.LazyMap) decode(data)).isCanonical();
+    }
+
+    private static void assertInvalid(String data) throws IOException {
+        try {
+            decode(data).size();
+            fail("Decoded invalid data: " + data);
+        } catch (BEncodingException e) {
+            // expected
+        }
+    }
+
+    private static String toString(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, "ISO-8859-1");
+    }
+
+    private static byte[] createTorrent(File file) throws Exception {
+        TOTorrentProgressListener listener = new TOTorrentProgressListener() {
+            @Override
+            public void reportProgress(int percent_complete) {
+            }
+
+            @Override
+            public void reportCurrentTask(String task_description) {
+            }
+        };
+
+        TOTorrent torrent = new TOTorrentCreatorImpl(file, new URI("http://localhost/announce"), false, 16 * 1024, 0, 0, 0, 0, listener).create();
+        return BEncoder.encode(torrent.serialiseToMap());
+    }
+
+    private static File createDir() throws IOException {
+        File dir = File.createTempFile("lazy", "");
+        dir.delete();
+        dir.mkdirs();
+
+        Random r = new Random(1);
+        write(new File(dir, "single.bin"), r, 50000);
+        write(new File(dir, "a/テスト.mp3"), r, 20000);
+        write(new File(dir, "a/b/café.txt"), r, 300);
+
+        return dir;
+    }
+
+    private static void write(File f, Random r, int size) throws IOException {
+        f.getParentFile().mkdirs();
+        byte[] data = new byte[size];
+        r.nextBytes(data);
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void delete(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File c : files) {
+                delete(c);
+            }
+        }
+        f.delete();
+    }
+}